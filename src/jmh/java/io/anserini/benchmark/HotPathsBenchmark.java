@@ -0,0 +1,95 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>JMH benchmark of the hot paths of {@link BenchmarkHotPaths}, on the same synthetic collection, which is generated
+ * and indexed once per fork and parameter setting. Build with the {@code jmh} profile, and run, e.g.:</p>
+ *
+ * <pre>
+ * mvn clean package -Pjmh -DskipTests
+ * java -cp target/anserini-*-fatjar.jar org.openjdk.jmh.Main HotPathsBenchmark -p benchmark=search.bm25,rerank.rm3
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathsBenchmark {
+  @Param({"analysis.defaultEnglish", "collection.json", "search.bm25", "search.impact", "search.impactBoosted",
+      "rerank.rm3", "search.hnsw", "search.flat", "fusion.merge", "search.processLuceneTopDocs"})
+  public String benchmark;
+
+  @Param("10000")
+  public int docs;
+
+  @Param("100")
+  public int queries;
+
+  @Param("42")
+  public long seed;
+
+  private Path workDir;
+  private BenchmarkHotPaths.HotPath path;
+  private int operation;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    BenchmarkHotPaths.silenceSearchers();
+
+    workDir = Files.createTempDirectory("anserini-benchmark");
+    BenchmarkHotPaths.Args args = new BenchmarkHotPaths.Args();
+    args.docs = docs;
+    args.queries = queries;
+    args.seed = seed;
+    args.workDir = workDir.toString();
+    path = new BenchmarkHotPaths(args).create(benchmark);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    path.close();
+    FileUtils.deleteDirectory(workDir.toFile());
+  }
+
+  // Runs the next operation, e.g., searching the next query; its result is returned so that JMH consumes it.
+  @Benchmark
+  public long run() throws Exception {
+    return path.run(operation++ & Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import io.anserini.search.FlatDenseSearcher;
+import io.anserini.search.ScoredDoc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>JMH benchmark of searching a flat index, exhaustively ({@code bits} of 0) or by scanning its quantized vectors
+ * and rescoring, one setting of {@link BenchmarkQuantizedFlatSearch} at a time; recall isn't measured. The index and
+ * topics have to be given, e.g.:</p>
+ *
+ * <pre>
+ * mvn clean package -Pjmh -DskipTests
+ * java -cp target/anserini-*-fatjar.jar org.openjdk.jmh.Main QuantizedFlatSearchBenchmark \
+ *   -p index=indexes/msmarco-passage.bge-base.flat-binary -p topics=topics.dl19.bge-base.jsonl.gz \
+ *   -p bits=8,1 -p oversample=1,4
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantizedFlatSearchBenchmark {
+  @Param("")
+  public String index;
+
+  @Param("")
+  public String topics;
+
+  @Param("JsonIntVector")
+  public String topicReader;
+
+  @Param("vector")
+  public String topicField;
+
+  @Param("10")
+  public int hits;
+
+  @Param("1")
+  public int bits;
+
+  @Param("4")
+  public float oversample;
+
+  private List<float[]> queries;
+  private FlatDenseSearcher<String> searcher;
+  private int operation;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (index.isEmpty() || topics.isEmpty()) {
+      throw new IllegalArgumentException("An index and topics are required, e.g., -p index=... -p topics=...");
+    }
+    BenchmarkHotPaths.silenceSearchers();
+
+    BenchmarkQuantizedFlatSearch.Args args = new BenchmarkQuantizedFlatSearch.Args();
+    args.topics = topics;
+    args.topicReader = topicReader;
+    args.topicField = topicField;
+    args.hits = hits;
+    queries = new BenchmarkQuantizedFlatSearch(args).queries();
+
+    FlatDenseSearcher.Args searchArgs = new FlatDenseSearcher.Args();
+    searchArgs.index = index;
+    searchArgs.quantizedBits = bits;
+    searchArgs.quantizedOversample = oversample;
+    searcher = new FlatDenseSearcher<>(searchArgs);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    searcher.close();
+  }
+
+  // Each operation searches the next topic.
+  @Benchmark
+  public ScoredDoc[] search() throws Exception {
+    return searcher.search(queries.get((operation++ & Integer.MAX_VALUE) % queries.size()), hits);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>JMH benchmark of query tokenization, comparing WordPieceTokenizer to BertFullTokenizer as
+ * {@link BenchmarkWordPieceTokenizer} does; the vocabulary and queries have to be given, e.g.:</p>
+ *
+ * <pre>
+ * mvn clean package -Pjmh -DskipTests
+ * java -cp target/anserini-*-fatjar.jar org.openjdk.jmh.Main WordPieceTokenizerBenchmark -prof gc \
+ *   -p vocab=vocab.txt -p queries=queries.dev.tsv
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordPieceTokenizerBenchmark {
+  @Param("")
+  public String vocab;
+
+  @Param("")
+  public String queries;
+
+  @Param("true")
+  public boolean uncased;
+
+  private List<String> texts;
+  private Function<String, long[]> bertFullTokenizer;
+  private Function<String, long[]> wordPieceTokenizer;
+  private int operation;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (vocab.isEmpty() || queries.isEmpty()) {
+      throw new IllegalArgumentException("A vocabulary and queries are required, e.g., -p vocab=... -p queries=...");
+    }
+
+    BenchmarkWordPieceTokenizer.Args args = new BenchmarkWordPieceTokenizer.Args();
+    args.vocab = vocab;
+    args.queries = queries;
+    args.uncased = uncased;
+    BenchmarkWordPieceTokenizer benchmark = new BenchmarkWordPieceTokenizer(args);
+    texts = benchmark.queries();
+    bertFullTokenizer = benchmark.bertFullTokenizer();
+    wordPieceTokenizer = benchmark.wordPieceTokenizer();
+  }
+
+  // Each operation tokenizes the next query.
+  @Benchmark
+  public long[] bertFullTokenizer() {
+    return bertFullTokenizer.apply(texts.get((operation++ & Integer.MAX_VALUE) % texts.size()));
+  }
+
+  @Benchmark
+  public long[] wordPieceTokenizer() {
+    return wordPieceTokenizer.apply(texts.get((operation++ & Integer.MAX_VALUE) % texts.size()));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermFrequencyAttribute;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * <p>A {@link TokenStream} over the (term, impact) pairs of a learned sparse representation (e.g., SPLADE or
+ * uniCOIL), which emits each term once with its impact as a custom term frequency, via
+ * {@link TermFrequencyAttribute}.</p>
+ *
+ * <p>This produces the same postings (and norms) as a pseudo-document in which each term is repeated impact times,
+ * tokenized on whitespace, without ever materializing the pseudo-document. Note that Lucene does not allow custom
+ * term frequencies to be combined with positions, so the field must be indexed with
+ * {@link org.apache.lucene.index.IndexOptions#DOCS_AND_FREQS}, and without term vector positions.</p>
+ */
+public final class ImpactTokenStream extends TokenStream {
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final TermFrequencyAttribute termFreqAtt = addAttribute(TermFrequencyAttribute.class);
+
+  private final String[] terms;
+  private final int[] impacts;
+  private final int size;
+  private int upto = 0;
+
+  /**
+   * Creates a token stream over (term, impact) pairs. Terms with non-positive impacts are dropped, since they would
+   * not appear in the corresponding pseudo-document either.
+   *
+   * @param impacts map from term to impact
+   */
+  public ImpactTokenStream(Map<String, Integer> impacts) {
+    this.terms = new String[impacts.size()];
+    this.impacts = new int[impacts.size()];
+
+    int n = 0;
+    for (Map.Entry<String, Integer> entry : impacts.entrySet()) {
+      if (entry.getValue() > 0) {
+        this.terms[n] = entry.getKey();
+        this.impacts[n] = entry.getValue();
+        n++;
+      }
+    }
+    this.size = n;
+  }
+
+  /**
+   * Returns the number of terms emitted by this token stream.
+   *
+   * @return number of terms
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean incrementToken() {
+    if (upto >= size) {
+      return false;
+    }
+
+    clearAttributes();
+    termAtt.setEmpty().append(terms[upto]);
+    termFreqAtt.setTermFrequency(impacts[upto]);
+    upto++;
+
+    return true;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    upto = 0;
+  }
+}
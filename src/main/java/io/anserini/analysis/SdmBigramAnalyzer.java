@@ -0,0 +1,43 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+
+/**
+ * Analyzes text with another analyzer, then replaces the tokens with the bigrams that the ordered windows of SDM match,
+ * with {@link SdmBigramFilter}.
+ */
+public final class SdmBigramAnalyzer extends AnalyzerWrapper {
+  private final Analyzer analyzer;
+
+  public SdmBigramAnalyzer(Analyzer analyzer) {
+    super(analyzer.getReuseStrategy());
+    this.analyzer = analyzer;
+  }
+
+  @Override
+  protected Analyzer getWrappedAnalyzer(String fieldName) {
+    return analyzer;
+  }
+
+  @Override
+  protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+    return new TokenStreamComponents(components.getSource(), new SdmBigramFilter(components.getTokenStream()));
+  }
+}
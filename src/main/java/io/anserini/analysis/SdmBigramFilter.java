@@ -0,0 +1,136 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Replaces the tokens of a stream with the bigrams that the ordered windows of SDM match (see
+ * {@link io.anserini.search.query.SdmQuery}), so that they can be scored by looking up terms rather than positions:
+ * for each token <i>a</i> and token <i>b</i> at the next position, the bigram "<i>a b</i>", and for each token
+ * <i>a</i> and token <i>c</i> two positions later, the gapped bigram "<i>a _ c</i>", unless <i>c</i> is also at the
+ * next position (in which case the ordered window of <i>a</i> and <i>c</i> only matches the closer one).</p>
+ *
+ * <p>Positions are those of the input, including the gaps left by removed stopwords, as for span queries.</p>
+ */
+public final class SdmBigramFilter extends TokenFilter {
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+  private final List<String> terms = new ArrayList<>();
+  private int[] positions = new int[16];
+  private final ArrayDeque<String> bigrams = new ArrayDeque<>();
+  private boolean consumed;
+  // The next token to generate the bigrams of, and the first tokens at or after the next position and the one after.
+  private int next;
+  private int adjacent;
+  private int gapped;
+
+  public SdmBigramFilter(TokenStream in) {
+    super(in);
+  }
+
+  /**
+   * Returns the bigram of two terms at adjacent positions.
+   *
+   * @param first first term
+   * @param second second term
+   * @return bigram
+   */
+  public static String bigram(String first, String second) {
+    return first + " " + second;
+  }
+
+  /**
+   * Returns the gapped bigram of two terms that are two positions apart.
+   *
+   * @param first first term
+   * @param second second term
+   * @return gapped bigram
+   */
+  public static String gappedBigram(String first, String second) {
+    return first + " _ " + second;
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (!consumed) {
+      int position = -1;
+      while (input.incrementToken()) {
+        position += posIncAtt.getPositionIncrement();
+        terms.add(termAtt.toString());
+        positions = ArrayUtil.grow(positions, terms.size());
+        positions[terms.size() - 1] = position;
+      }
+      consumed = true;
+    }
+
+    while (bigrams.isEmpty()) {
+      if (next == terms.size()) {
+        return false;
+      }
+      generate(next++);
+    }
+
+    clearAttributes();
+    termAtt.setEmpty().append(bigrams.poll());
+    return true;
+  }
+
+  private void generate(int i) {
+    int position = positions[i];
+    while (adjacent < terms.size() && positions[adjacent] < position + 1) {
+      adjacent++;
+    }
+    while (gapped < terms.size() && positions[gapped] < position + 2) {
+      gapped++;
+    }
+
+    for (int j = adjacent; j < terms.size() && positions[j] == position + 1; j++) {
+      bigrams.add(bigram(terms.get(i), terms.get(j)));
+    }
+    for (int j = gapped; j < terms.size() && positions[j] == position + 2; j++) {
+      boolean closer = false;
+      for (int k = adjacent; k < gapped && !closer; k++) {
+        closer = terms.get(k).equals(terms.get(j));
+      }
+      if (!closer) {
+        bigrams.add(gappedBigram(terms.get(i), terms.get(j)));
+      }
+    }
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    terms.clear();
+    bigrams.clear();
+    consumed = false;
+    next = 0;
+    adjacent = 0;
+    gapped = 0;
+  }
+}
@@ -0,0 +1,560 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.anserini.analysis.AnalyzerUtils;
+import io.anserini.analysis.DefaultEnglishAnalyzer;
+import io.anserini.collection.FileSegment;
+import io.anserini.collection.JsonCollection;
+import io.anserini.fusion.ScoredDocsFuser;
+import io.anserini.index.Constants;
+import io.anserini.rerank.RerankerContext;
+import io.anserini.rerank.lib.Rm3Reranker;
+import io.anserini.search.BaseSearchArgs;
+import io.anserini.search.BaseSearcher;
+import io.anserini.search.FlatDenseSearcher;
+import io.anserini.search.HnswDenseSearcher;
+import io.anserini.search.ScoredDocs;
+import io.anserini.search.SearchCollection;
+import io.anserini.search.SimpleSearcher;
+import io.anserini.search.query.BagOfWordsQueryGenerator;
+import io.anserini.search.query.ImpactQuery;
+import io.anserini.util.LatencyHistogram;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.FSDirectory;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.ParserProperties;
+import org.kohsuke.args4j.spi.StringArrayOptionHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>Simple program to benchmark the hot paths of indexing and retrieval (analysis, collection parsing, BM25 search,
+ * impact search with exact and threshold-boosted pruning, RM3, HNSW and flat dense search, fusion, and turning Lucene
+ * hits into results) on a small synthetic collection that
+ * is generated and indexed in-process, so that no data is needed and runs are comparable across releases.</p>
+ *
+ * <p>Each benchmark runs an operation (e.g., searching the next query) over and over: for a number of warmup
+ * iterations, which aren't measured, then for a number of measured iterations of a fixed time each. Results are
+ * printed one JSON object per line: the throughput (mean and standard deviation over iterations) and the latencies of
+ * the operation.</p>
+ *
+ * <p>The same benchmarks can also be run with JMH, as {@code HotPathsBenchmark} in the {@code jmh} profile.</p>
+ */
+public final class BenchmarkHotPaths {
+  private static final Logger LOG = LogManager.getLogger(BenchmarkHotPaths.class);
+
+  public static final class Args {
+    @Option(name = "-benchmarks", metaVar = "[names]", handler = StringArrayOptionHandler.class,
+        usage = "Benchmarks to run, all by default: analysis.defaultEnglish, collection.json, search.bm25, " +
+            "search.impact, search.impactBoosted, rerank.rm3, search.hnsw, search.flat, fusion.merge, search.processLuceneTopDocs")
+    public String[] benchmarks = new String[0];
+
+    @Option(name = "-docs", metaVar = "[number]", usage = "Number of synthetic documents.")
+    public int docs = 10000;
+
+    @Option(name = "-queries", metaVar = "[number]", usage = "Number of synthetic queries (and topics, for fusion).")
+    public int queries = 100;
+
+    @Option(name = "-dimension", metaVar = "[number]", usage = "Dimension of the synthetic vectors.")
+    public int dimension = 128;
+
+    @Option(name = "-hits", metaVar = "[number]", usage = "Number of hits of BM25 search, RM3, and fusion.")
+    public int hits = 1000;
+
+    @Option(name = "-thresholdFactor", metaVar = "[factor]",
+        usage = "Factor by which search.impactBoosted inflates the top-k score threshold.")
+    public float thresholdFactor = 1.5f;
+
+    @Option(name = "-k", metaVar = "[number]", usage = "Number of nearest documents of dense search.")
+    public int k = 10;
+
+    @Option(name = "-seed", metaVar = "[number]", usage = "Seed of the synthetic collection.")
+    public long seed = 42;
+
+    @Option(name = "-warmupIterations", metaVar = "[number]", usage = "Number of warmup iterations.")
+    public int warmupIterations = 3;
+
+    @Option(name = "-iterations", metaVar = "[number]", usage = "Number of measured iterations.")
+    public int iterations = 5;
+
+    @Option(name = "-iterationTime", metaVar = "[ms]", usage = "Time of each iteration, in milliseconds.")
+    public int iterationTime = 1000;
+
+    @Option(name = "-workDir", metaVar = "[path]",
+        usage = "Directory for the synthetic collection and its indexes; a temporary directory is used and deleted " +
+            "by default.")
+    public String workDir;
+
+    @Option(name = "-output", metaVar = "[file]", usage = "File to write the results to, rather than stdout.")
+    public String output;
+  }
+
+  // An operation to benchmark, run over and over.
+  interface HotPath extends Closeable {
+    // Runs the i-th operation, e.g., searching the (i mod n)-th query, returning a number that depends on its result.
+    long run(int i) throws Exception;
+
+    @Override
+    default void close() throws IOException {
+    }
+  }
+
+  @FunctionalInterface
+  private interface Setup {
+    HotPath create() throws Exception;
+  }
+
+  private final Args args;
+  private final SyntheticCollection collection;
+  private final Map<String, Setup> benchmarks = new LinkedHashMap<>();
+
+  private int operation;
+  private long checksum;
+
+  public BenchmarkHotPaths(Args args) throws Exception {
+    this.args = args;
+
+    benchmarks.put("analysis.defaultEnglish", this::analysis);
+    benchmarks.put("collection.json", this::jsonCollection);
+    benchmarks.put("search.bm25", this::bm25);
+    benchmarks.put("search.impact", () -> impact(1.0f));
+    benchmarks.put("search.impactBoosted", () -> impact(args.thresholdFactor));
+    benchmarks.put("rerank.rm3", this::rm3);
+    benchmarks.put("search.hnsw", this::hnsw);
+    benchmarks.put("search.flat", this::flat);
+    benchmarks.put("fusion.merge", this::fusion);
+    benchmarks.put("search.processLuceneTopDocs", this::processLuceneTopDocs);
+
+    for (String name : args.benchmarks) {
+      if (!benchmarks.containsKey(name)) {
+        throw new IllegalArgumentException(String.format("Unknown benchmark \"%s\"; benchmarks are %s.",
+            name, String.join(", ", benchmarks.keySet())));
+      }
+    }
+    if (args.docs < 1 || args.queries < 1 || args.dimension < 1 || args.hits < 1 || args.k < 1) {
+      throw new IllegalArgumentException("Numbers of documents, queries, dimensions, hits, and k must be positive.");
+    }
+    if (!(args.thresholdFactor >= 1.0f)) {
+      throw new IllegalArgumentException("Threshold factor must be at least 1.");
+    }
+
+    if (args.workDir == null) {
+      throw new IllegalArgumentException("A directory for the synthetic collection is required.");
+    }
+
+    Path dir = Paths.get(args.workDir);
+    LOG.info(String.format("Generating %d documents and %d queries in %s", args.docs, args.queries, dir));
+    this.collection = new SyntheticCollection(dir, args.docs, args.queries, args.dimension, args.seed);
+  }
+
+  // Sets up the benchmark with a name, which has been checked, e.g., for HotPathsBenchmark to run under JMH.
+  HotPath create(String name) throws Exception {
+    Setup setup = benchmarks.get(name);
+    if (setup == null) {
+      throw new IllegalArgumentException(String.format("Unknown benchmark \"%s\"; benchmarks are %s.",
+          name, String.join(", ", benchmarks.keySet())));
+    }
+    return setup.create();
+  }
+
+  // Keeps the searchers from logging, e.g., every time they're opened.
+  static void silenceSearchers() {
+    Configurator.setLevel(SimpleSearcher.class.getName(), Level.ERROR);
+    Configurator.setLevel(HnswDenseSearcher.class.getName(), Level.ERROR);
+    Configurator.setLevel(FlatDenseSearcher.class.getName(), Level.ERROR);
+  }
+
+  public void run() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    List<String> names = args.benchmarks.length == 0 ?
+        new ArrayList<>(benchmarks.keySet()) : Arrays.asList(args.benchmarks);
+
+    PrintStream out = args.output == null ? System.out :
+        new PrintStream(Files.newOutputStream(Paths.get(args.output)), true, StandardCharsets.UTF_8);
+    try {
+      for (String name : names) {
+        LOG.info("Running " + name);
+        try (HotPath path = create(name)) {
+          out.println(mapper.writeValueAsString(measure(name, path)));
+        }
+      }
+    } finally {
+      if (out != System.out) {
+        out.close();
+      }
+    }
+
+    // Keeps the JIT from eliminating the work.
+    if (checksum == 0) {
+      LOG.info("Nothing computed.");
+    }
+  }
+
+  private Map<String, Object> measure(String name, HotPath path) throws Exception {
+    for (int i = 0; i < args.warmupIterations; i++) {
+      iterate(path, new LatencyHistogram());
+    }
+
+    LatencyHistogram latencies = new LatencyHistogram();
+    double[] throughput = new double[args.iterations];
+    for (int i = 0; i < args.iterations; i++) {
+      long start = System.nanoTime();
+      long ops = iterate(path, latencies);
+      throughput[i] = ops / ((System.nanoTime() - start) / 1e9);
+    }
+
+    double mean = Arrays.stream(throughput).average().orElse(0);
+    double variance = Arrays.stream(throughput).map(x -> (x - mean) * (x - mean)).sum() /
+        Math.max(1, throughput.length - 1);
+
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("docs", args.docs);
+    params.put("queries", args.queries);
+    params.put("dimension", args.dimension);
+    params.put("hits", args.hits);
+    params.put("k", args.k);
+    params.put("threshold_factor", args.thresholdFactor);
+    params.put("seed", args.seed);
+
+    Map<String, Object> latency = new LinkedHashMap<>();
+    latency.put("mean", latencies.mean() / 1e3);
+    latency.put("p50", latencies.valueAtPercentile(50) / 1e3);
+    latency.put("p90", latencies.valueAtPercentile(90) / 1e3);
+    latency.put("p99", latencies.valueAtPercentile(99) / 1e3);
+    latency.put("max", latencies.max() / 1e3);
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("benchmark", name);
+    result.put("params", params);
+    result.put("java_version", System.getProperty("java.version"));
+    result.put("warmup_iterations", args.warmupIterations);
+    result.put("iterations", args.iterations);
+    result.put("iteration_time_ms", args.iterationTime);
+    result.put("ops", latencies.count());
+    result.put("ops_per_second", mean);
+    result.put("ops_per_second_stddev", Math.sqrt(variance));
+    result.put("latency_us", latency);
+    return result;
+  }
+
+  // Runs operations for an iteration, at least one, recording their latencies; returns the number of operations.
+  private long iterate(HotPath path, LatencyHistogram latencies) throws Exception {
+    long deadline = System.nanoTime() + args.iterationTime * 1_000_000L;
+    long ops = 0;
+    long end;
+    do {
+      long start = System.nanoTime();
+      checksum += path.run(operation++ & Integer.MAX_VALUE);
+      end = System.nanoTime();
+      latencies.record(end - start);
+      ops++;
+    } while (end < deadline);
+    return ops;
+  }
+
+  // Analyzing a document.
+  private HotPath analysis() {
+    Analyzer analyzer = DefaultEnglishAnalyzer.newDefaultInstance();
+    List<String> documents = collection.documents();
+    return new HotPath() {
+      @Override
+      public long run(int i) {
+        return AnalyzerUtils.analyze(analyzer, documents.get(i % documents.size())).size();
+      }
+
+      @Override
+      public void close() {
+        analyzer.close();
+      }
+    };
+  }
+
+  // Parsing a segment of all documents.
+  private HotPath jsonCollection() {
+    Path segment = collection.jsonSegment();
+    JsonCollection json = new JsonCollection(segment.getParent());
+    return i -> {
+      long length = 0;
+      try (FileSegment<JsonCollection.Document> documents = json.createFileSegment(segment)) {
+        for (JsonCollection.Document document : documents) {
+          length += document.contents().length();
+        }
+      }
+      return length;
+    };
+  }
+
+  // Searching a query with BM25.
+  private HotPath bm25() throws Exception {
+    SimpleSearcher searcher = new SimpleSearcher(collection.invertedIndex().toString());
+    List<String> queries = collection.queries();
+    return new HotPath() {
+      @Override
+      public long run(int i) throws IOException {
+        return searcher.search(queries.get(i % queries.size()), args.hits).length;
+      }
+
+      @Override
+      public void close() throws IOException {
+        searcher.close();
+      }
+    };
+  }
+
+  // Searching a query with an ImpactQuery, weighting each term by its count in the query: exactly, or with the top-k
+  // score threshold inflated by a factor, which prunes more postings at the cost of possibly missing some hits.
+  private HotPath impact(float thresholdFactor) throws Exception {
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(collection.invertedIndex()));
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity(0.9f, 0.4f));
+
+    List<Query> queries = new ArrayList<>();
+    try (Analyzer analyzer = DefaultEnglishAnalyzer.newDefaultInstance()) {
+      for (String text : collection.queries()) {
+        Map<String, Float> weights = new HashMap<>();
+        for (String token : AnalyzerUtils.analyze(analyzer, text)) {
+          weights.merge(token, 1.0f, Float::sum);
+        }
+        queries.add(new ImpactQuery(Constants.CONTENTS, weights, thresholdFactor));
+      }
+    }
+
+    return new HotPath() {
+      @Override
+      public long run(int i) throws IOException {
+        return searcher.search(queries.get(i % queries.size()), args.hits).scoreDocs.length;
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  // Reranking the BM25 hits of a query with RM3, as SearchCollection does with the default settings.
+  private HotPath rm3() throws Exception {
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(collection.invertedIndex()));
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity(0.9f, 0.4f));
+    Analyzer analyzer = DefaultEnglishAnalyzer.newDefaultInstance();
+
+    SearchCollection.Args searchArgs = new SearchCollection.Args();
+    searchArgs.hits = args.hits;
+    Rm3Reranker<String> reranker = new Rm3Reranker<>(analyzer, null, Constants.CONTENTS, 10, 10, 0.5f, false, true);
+
+    List<ScoredDocs> hits = new ArrayList<>();
+    List<RerankerContext<String>> contexts = new ArrayList<>();
+    List<String> queries = collection.queries();
+    for (int i = 0; i < queries.size(); i++) {
+      String text = queries.get(i);
+      Query query = new BagOfWordsQueryGenerator().buildQuery(Constants.CONTENTS, analyzer, text);
+      RerankerContext<String> context = new RerankerContext<>(searcher, "q" + i, query, null, text,
+          AnalyzerUtils.analyze(analyzer, text), null, searchArgs);
+      context.setNeedsLuceneDocuments(false);
+      TopDocs rs = searcher.search(query, args.hits, SearchCollection.BREAK_SCORE_TIES_BY_DOCID, true);
+      hits.add(ScoredDocs.fromTopDocs(rs, searcher, false));
+      contexts.add(context);
+    }
+
+    return new HotPath() {
+      @Override
+      public long run(int i) {
+        return reranker.rerank(hits.get(i % hits.size()), contexts.get(i % contexts.size())).scores.length;
+      }
+
+      @Override
+      public void close() throws IOException {
+        analyzer.close();
+        reader.close();
+      }
+    };
+  }
+
+  // Searching a query vector with HNSW.
+  private HotPath hnsw() throws Exception {
+    HnswDenseSearcher.Args searchArgs = new HnswDenseSearcher.Args();
+    searchArgs.index = collection.hnswIndex().toString();
+    HnswDenseSearcher<String> searcher = new HnswDenseSearcher<>(searchArgs);
+    float[][] queries = collection.queryVectors();
+    return new HotPath() {
+      @Override
+      public long run(int i) throws IOException {
+        return searcher.search(queries[i % queries.length], args.k).length;
+      }
+
+      @Override
+      public void close() throws IOException {
+        searcher.close();
+      }
+    };
+  }
+
+  // Searching a query vector exhaustively.
+  private HotPath flat() throws Exception {
+    FlatDenseSearcher.Args searchArgs = new FlatDenseSearcher.Args();
+    searchArgs.index = collection.flatIndex().toString();
+    FlatDenseSearcher<String> searcher = new FlatDenseSearcher<>(searchArgs);
+    float[][] queries = collection.queryVectors();
+    return new HotPath() {
+      @Override
+      public long run(int i) throws IOException {
+        return searcher.search(queries[i % queries.length], args.k).length;
+      }
+
+      @Override
+      public void close() throws IOException {
+        searcher.close();
+      }
+    };
+  }
+
+  // Merging three runs of all topics, which rank overlapping documents of each topic differently.
+  private HotPath fusion() {
+    Random random = new Random(args.seed);
+    int candidates = Math.min(args.docs, 2 * args.hits);
+    int hits = Math.min(candidates, args.hits);
+    List<ScoredDocs> runs = new ArrayList<>();
+    for (int r = 0; r < 3; r++) {
+      ScoredDocs run = new ScoredDocs();
+      run.docids = new String[args.queries * hits];
+      run.lucene_docids = new int[args.queries * hits];
+      run.lucene_documents = new Document[args.queries * hits];
+      run.scores = new float[args.queries * hits];
+      runs.add(run);
+    }
+
+    for (int topic = 0; topic < args.queries; topic++) {
+      Document document = new Document();
+      document.add(new StoredField(ScoredDocsFuser.TOPIC, "q" + topic));
+
+      Set<Integer> pool = new LinkedHashSet<>();
+      while (pool.size() < candidates) {
+        pool.add(random.nextInt(args.docs));
+      }
+      for (ScoredDocs run : runs) {
+        List<Integer> docs = new ArrayList<>(pool);
+        Collections.shuffle(docs, random);
+        for (int rank = 0; rank < hits; rank++) {
+          int j = topic * hits + rank;
+          int docid = docs.get(rank);
+          run.docids[j] = SyntheticCollection.docid(docid);
+          run.lucene_docids[j] = docid;
+          run.lucene_documents[j] = document;
+          run.scores[j] = (float) (hits - rank) / hits;
+        }
+      }
+    }
+
+    return i -> ScoredDocsFuser.merge(runs, args.hits, args.hits).docids.length;
+  }
+
+  // Turning the BM25 hits of a query into results, as SearchCollection and SimpleSearcher do.
+  private HotPath processLuceneTopDocs() throws Exception {
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(collection.invertedIndex()));
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity(0.9f, 0.4f));
+    BaseSearcher<String> base = new BaseSearcher<>(new BaseSearchArgs(), searcher);
+
+    List<TopDocs> hits = new ArrayList<>();
+    try (Analyzer analyzer = DefaultEnglishAnalyzer.newDefaultInstance()) {
+      for (String text : collection.queries()) {
+        Query query = new BagOfWordsQueryGenerator().buildQuery(Constants.CONTENTS, analyzer, text);
+        hits.add(searcher.search(query, args.hits, SearchCollection.BREAK_SCORE_TIES_BY_DOCID, true));
+      }
+    }
+
+    return new HotPath() {
+      @Override
+      public long run(int i) {
+        return base.processLuceneTopDocs("q" + (i % hits.size()), hits.get(i % hits.size()), false).length;
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  public static void main(String[] args) throws Exception {
+    Args benchmarkArgs = new Args();
+    CmdLineParser parser = new CmdLineParser(benchmarkArgs, ParserProperties.defaults().withUsageWidth(90));
+
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println(String.format("Example: %s -benchmarks search.bm25 rerank.rm3 -output results.jsonl",
+          BenchmarkHotPaths.class.getSimpleName()));
+      return;
+    }
+
+    // Only the results (and progress, if the results are written to a file) are printed.
+    if (benchmarkArgs.output == null) {
+      Configurator.setLevel(BenchmarkHotPaths.class.getName(), Level.ERROR);
+    }
+    silenceSearchers();
+
+    Path workDir = null;
+    if (benchmarkArgs.workDir == null) {
+      workDir = Files.createTempDirectory("anserini-benchmark");
+      benchmarkArgs.workDir = workDir.toString();
+    }
+    try {
+      new BenchmarkHotPaths(benchmarkArgs).run();
+    } finally {
+      if (workDir != null) {
+        FileUtils.deleteDirectory(workDir.toFile());
+      }
+    }
+  }
+}
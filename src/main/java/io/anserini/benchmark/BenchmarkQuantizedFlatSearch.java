@@ -0,0 +1,214 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.anserini.index.Constants;
+import io.anserini.search.FlatDenseSearcher;
+import io.anserini.search.ScoredDoc;
+import io.anserini.search.query.VectorQueryGenerator;
+import io.anserini.search.topicreader.TopicReader;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+import org.kohsuke.args4j.ParserProperties;
+import org.kohsuke.args4j.spi.StringArrayOptionHandler;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Simple program to benchmark searching quantized flat indexes with rescoring, reporting the recall of each setting
+ * of bits and oversample against an exact flat index of the same vectors, along with the throughput of each. Results
+ * are printed one JSON object per line. The searches of a single setting can also be run with JMH, as
+ * {@code QuantizedFlatSearchBenchmark} in the {@code jmh} profile.
+ */
+public final class BenchmarkQuantizedFlatSearch {
+  private static final Logger LOG = LogManager.getLogger(BenchmarkQuantizedFlatSearch.class);
+
+  public static final class Args {
+    @Option(name = "-index", metaVar = "[path]", required = true,
+        usage = "Flat index of quantized vectors, e.g., indexed with -quantize.binary")
+    public String index;
+
+    @Option(name = "-exactIndex", metaVar = "[path]", required = true, usage = "Flat index of the same float vectors")
+    public String exactIndex;
+
+    @Option(name = "-topics", metaVar = "[file]", required = true, usage = "Topics file")
+    public String topics;
+
+    @Option(name = "-topicReader", usage = "TopicReader to use.")
+    public String topicReader = "JsonIntVector";
+
+    @Option(name = "-topicField", usage = "Topic field that should be used as the query.")
+    public String topicField = "vector";
+
+    @Option(name = "-hits", metaVar = "[number]", usage = "Number of hits, i.e., the k of recall@k.")
+    public int hits = 10;
+
+    @Option(name = "-bits", metaVar = "[numbers]", handler = StringArrayOptionHandler.class,
+        usage = "Numbers of bits of the quantized vectors to scan.")
+    public String[] bits = new String[] {"8", "1"};
+
+    @Option(name = "-oversample", metaVar = "[numbers]", handler = StringArrayOptionHandler.class,
+        usage = "Oversample factors, i.e., numbers of candidates to rescore as multiples of the number of nearest documents.")
+    public String[] oversample = new String[] {"1", "2", "4", "8"};
+
+    @Option(name = "-iterations", metaVar = "[number]", usage = "Number of times to search all topics.")
+    public int iterations = 3;
+  }
+
+  private final Args args;
+  private final List<float[]> queries = new ArrayList<>();
+
+  @SuppressWarnings("unchecked")
+  public BenchmarkQuantizedFlatSearch(Args args) throws Exception {
+    this.args = args;
+
+    LOG.info("Index: " + args.index);
+    LOG.info("Exact index: " + args.exactIndex);
+    LOG.info("Topics: " + args.topics);
+
+    TopicReader<Object> reader;
+    try {
+      reader = (TopicReader<Object>) Class
+          .forName(String.format("io.anserini.search.topicreader.%sTopicReader", args.topicReader))
+          .getConstructor(Path.class).newInstance(Paths.get(args.topics));
+    } catch (Exception e) {
+      throw new IllegalArgumentException(String.format("Unable to load topic reader \"%s\".", args.topicReader));
+    }
+
+    VectorQueryGenerator generator = new VectorQueryGenerator();
+    for (Map<String, String> topic : reader.read().values()) {
+      String query = topic.get(args.topicField);
+      if (query == null) {
+        throw new IllegalArgumentException(String.format("Unable to read topic field \"%s\".", args.topicField));
+      }
+      queries.add(generator.buildQuery(Constants.VECTOR, query, args.hits).getTargetCopy());
+    }
+    LOG.info(String.format("%d topics read", queries.size()));
+  }
+
+  List<float[]> queries() {
+    return queries;
+  }
+
+  public void run() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+
+    FlatDenseSearcher.Args exactArgs = new FlatDenseSearcher.Args();
+    exactArgs.index = args.exactIndex;
+    List<Set<String>> exact = new ArrayList<>();
+    try (FlatDenseSearcher<String> searcher = new FlatDenseSearcher<>(exactArgs)) {
+      double qps = time(searcher, exact);
+      System.out.println(mapper.writeValueAsString(result("exact", 32, 0, 1.0, qps)));
+    }
+
+    for (String bits : args.bits) {
+      for (String oversample : args.oversample) {
+        FlatDenseSearcher.Args searchArgs = new FlatDenseSearcher.Args();
+        searchArgs.index = args.index;
+        searchArgs.quantizedBits = Integer.parseInt(bits);
+        searchArgs.quantizedOversample = Float.parseFloat(oversample);
+
+        List<Set<String>> results = new ArrayList<>();
+        try (FlatDenseSearcher<String> searcher = new FlatDenseSearcher<>(searchArgs)) {
+          double qps = time(searcher, results);
+
+          long found = 0;
+          long total = 0;
+          for (int i = 0; i < queries.size(); i++) {
+            for (String docid : exact.get(i)) {
+              found += results.get(i).contains(docid) ? 1 : 0;
+            }
+            total += exact.get(i).size();
+          }
+          double recall = total == 0 ? 1.0 : (double) found / total;
+          System.out.println(mapper.writeValueAsString(result("quantized", searchArgs.quantizedBits,
+              searchArgs.quantizedOversample, recall, qps)));
+        }
+      }
+    }
+  }
+
+  private Map<String, Object> result(String index, int bits, float oversample, double recall, double qps) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("index", index);
+    result.put("bits", bits);
+    result.put("oversample", oversample);
+    result.put("hits", args.hits);
+    result.put("recall", recall);
+    result.put("queries_per_second", qps);
+    return result;
+  }
+
+  // Searches all topics once to warm up and keep the docids of the hits, then times the remaining iterations.
+  private double time(FlatDenseSearcher<String> searcher, List<Set<String>> results) throws Exception {
+    for (float[] query : queries) {
+      Set<String> docids = new HashSet<>();
+      for (ScoredDoc hit : searcher.search(query, args.hits)) {
+        docids.add(hit.docid);
+      }
+      results.add(docids);
+    }
+
+    long start = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < args.iterations; i++) {
+      for (float[] query : queries) {
+        checksum += searcher.search(query, args.hits).length;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    // Keeps the JIT from eliminating the work.
+    if (checksum == 0) {
+      LOG.info("No hits.");
+    }
+    return (double) args.iterations * queries.size() / (elapsed / 1e9);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Args benchmarkArgs = new Args();
+    CmdLineParser parser = new CmdLineParser(benchmarkArgs, ParserProperties.defaults().withUsageWidth(90));
+
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println(String.format("Example: %s%s", BenchmarkQuantizedFlatSearch.class.getSimpleName(),
+          parser.printExample(OptionHandlerFilter.REQUIRED)));
+      return;
+    }
+
+    // Only the results are printed.
+    Configurator.setLevel(FlatDenseSearcher.class.getName(), Level.ERROR);
+    new BenchmarkQuantizedFlatSearch(benchmarkArgs).run();
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import ai.djl.modality.nlp.DefaultVocabulary;
+import ai.djl.modality.nlp.bert.BertFullTokenizer;
+import io.anserini.encoder.WordPieceTokenizer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.OptionHandlerFilter;
+import org.kohsuke.args4j.ParserProperties;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+// Simple program to benchmark query tokenization, comparing WordPieceTokenizer to BertFullTokenizer; the same
+// comparison can be run with JMH, as WordPieceTokenizerBenchmark in the jmh profile.
+public final class BenchmarkWordPieceTokenizer {
+  private static final Logger LOG = LogManager.getLogger(BenchmarkWordPieceTokenizer.class);
+
+  public static final class Args {
+    @Option(name = "-vocab", metaVar = "[File]", required = true, usage = "WordPiece vocabulary, one token per line")
+    public String vocab;
+
+    @Option(name = "-queries", metaVar = "[File]", required = true,
+        usage = "Queries, one per line; for TSV files (e.g., MS MARCO queries), the last column is the query")
+    public String queries;
+
+    @Option(name = "-iterations", metaVar = "[Number]", usage = "Number of times to tokenize all queries")
+    public int iterations = 20;
+
+    @Option(name = "-uncased", usage = "Whether the vocabulary is uncased, i.e., queries are lowercased")
+    public boolean uncased = true;
+  }
+
+  private final Args args;
+  private final DefaultVocabulary vocab;
+  private final List<String> queries = new ArrayList<>();
+
+  public BenchmarkWordPieceTokenizer(Args args) throws Exception {
+    this.args = args;
+
+    LOG.info("Vocabulary: " + args.vocab);
+    LOG.info("Queries: " + args.queries);
+    LOG.info("Iterations: " + args.iterations);
+
+    Path vocabPath = Paths.get(args.vocab);
+    if (!Files.exists(vocabPath) || !Files.isReadable(vocabPath)) {
+      throw new IllegalArgumentException(String.format("Vocabulary %s does not exist or is not readable.", vocabPath));
+    }
+    this.vocab = DefaultVocabulary.builder()
+        .addFromTextFile(vocabPath)
+        .optUnknownToken("[UNK]")
+        .build();
+
+    for (String line : Files.readAllLines(Paths.get(args.queries))) {
+      if (!line.isBlank()) {
+        queries.add(line.substring(line.lastIndexOf('\t') + 1));
+      }
+    }
+    LOG.info(String.format("%d queries read", queries.size()));
+  }
+
+  List<String> queries() {
+    return queries;
+  }
+
+  // What the encoders used to do: tokenize into strings, then look up each token.
+  Function<String, long[]> bertFullTokenizer() {
+    BertFullTokenizer tokenizer = new BertFullTokenizer(vocab, args.uncased);
+    return query -> {
+      List<String> tokens = new ArrayList<>();
+      tokens.add("[CLS]");
+      tokens.addAll(tokenizer.tokenize(query));
+      tokens.add("[SEP]");
+      return tokens.stream().mapToLong(vocab::getIndex).toArray();
+    };
+  }
+
+  Function<String, long[]> wordPieceTokenizer() {
+    return new WordPieceTokenizer(vocab, args.uncased)::encode;
+  }
+
+  public void run() {
+    Function<String, long[]> bert = bertFullTokenizer();
+    Function<String, long[]> wordPiece = wordPieceTokenizer();
+
+    int mismatches = 0;
+    for (String query : queries) {
+      if (!Arrays.equals(bert.apply(query), wordPiece.apply(query))) {
+        mismatches++;
+        LOG.warn("Different ids for query: " + query);
+      }
+    }
+
+    // Warms up both, then times them.
+    for (int i = 0; i < Math.max(1, args.iterations / 4); i++) {
+      time(bert);
+      time(wordPiece);
+    }
+    double[] bertResult = time(bert);
+    double[] wordPieceResult = time(wordPiece);
+
+    System.out.println(String.format(Locale.US, "BertFullTokenizer: %.1f ns/query, %.0f bytes allocated/query",
+        bertResult[0], bertResult[1]));
+    System.out.println(String.format(Locale.US, "WordPieceTokenizer: %.1f ns/query, %.0f bytes allocated/query",
+        wordPieceResult[0], wordPieceResult[1]));
+    System.out.println(String.format(Locale.US, "Speedup: %.2fx, queries with different ids: %d",
+        bertResult[0] / wordPieceResult[0], mismatches));
+  }
+
+  // Returns the time and the bytes allocated per query, averaged over all iterations.
+  private double[] time(Function<String, long[]> tokenizer) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long bytes = threads.getCurrentThreadAllocatedBytes();
+    long start = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < args.iterations; i++) {
+      for (String query : queries) {
+        checksum += tokenizer.apply(query).length;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+    // Keeps the JIT from eliminating the work.
+    if (checksum == 0) {
+      LOG.info("No tokens.");
+    }
+    double n = (double) args.iterations * queries.size();
+    return new double[] {elapsed / n, bytes / n};
+  }
+
+  public static void main(String[] args) throws Exception {
+    Args benchmarkArgs = new Args();
+    CmdLineParser parser = new CmdLineParser(benchmarkArgs, ParserProperties.defaults().withUsageWidth(90));
+
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      parser.printUsage(System.err);
+      System.err.println(String.format("Example: %s%s", BenchmarkWordPieceTokenizer.class.getSimpleName(),
+          parser.printExample(OptionHandlerFilter.REQUIRED)));
+      return;
+    }
+
+    new BenchmarkWordPieceTokenizer(benchmarkArgs).run();
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.anserini.index.AbstractIndexer;
+import io.anserini.index.IndexCollection;
+import io.anserini.index.IndexFlatDenseVectors;
+import io.anserini.index.IndexHnswDenseVectors;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>A small synthetic collection for benchmarking, generated from a seed so that runs are comparable: documents and
+ * queries of pseudo-words drawn from a Zipfian distribution (with English stopwords as the most frequent words and
+ * English suffixes for the stemmer to strip), and unit-length random vectors of the documents, with queries near
+ * random documents.</p>
+ *
+ * <p>The collection is written to a directory as a {@code JsonCollection} and a {@code JsonDenseVectorCollection},
+ * and indexed on demand, the same way as any other collection.</p>
+ */
+final class SyntheticCollection {
+  private static final String[] STOPWORDS = new String[] {
+      "the", "of", "and", "to", "a", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by", "on", "not",
+      "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an", "had", "they"};
+  private static final String[] ONSETS = new String[] {
+      "b", "c", "d", "f", "g", "h", "k", "l", "m", "n", "p", "r", "s", "t", "v", "w", "br", "ch", "cl", "dr", "fl",
+      "gr", "pl", "pr", "sh", "st", "th", "tr"};
+  private static final String[] VOWELS = new String[] {"a", "e", "i", "o", "u", "ai", "ea", "ou"};
+  private static final String[] SUFFIXES = new String[] {"", "", "", "s", "ed", "ing", "ation", "ness", "ly", "er"};
+
+  private static final int VOCABULARY_SIZE = 20000;
+  // Queries are drawn from below the stopwords and the most frequent words, as real queries mostly are.
+  private static final int QUERY_TERM_OFFSET = 100;
+
+  private final Path dir;
+  private final int dimension;
+  private final List<String> documents = new ArrayList<>();
+  private final List<String> queries = new ArrayList<>();
+  private final float[][] vectors;
+  private final float[][] queryVectors;
+
+  private Path invertedIndex;
+  private Path hnswIndex;
+  private Path flatIndex;
+
+  /**
+   * Generates a collection and writes it to a directory.
+   *
+   * @param dir directory, which should be empty
+   * @param numDocs number of documents
+   * @param numQueries number of queries
+   * @param dimension dimension of the vectors
+   * @param seed seed
+   * @throws IOException if the collection can't be written
+   */
+  SyntheticCollection(Path dir, int numDocs, int numQueries, int dimension, long seed) throws IOException {
+    this.dir = dir;
+    this.dimension = dimension;
+
+    Random random = new Random(seed);
+    String[] vocabulary = vocabulary(random);
+    double[] cumulative = new double[vocabulary.length];
+    double sum = 0;
+    for (int i = 0; i < vocabulary.length; i++) {
+      sum += 1.0 / (i + 1);
+      cumulative[i] = sum;
+    }
+
+    for (int i = 0; i < numDocs; i++) {
+      documents.add(text(vocabulary, cumulative, 0, 50 + random.nextInt(200), random));
+    }
+    for (int i = 0; i < numQueries; i++) {
+      queries.add(text(vocabulary, cumulative, QUERY_TERM_OFFSET, 2 + random.nextInt(4), random));
+    }
+
+    vectors = new float[numDocs][];
+    for (int i = 0; i < numDocs; i++) {
+      vectors[i] = vector(random, null, 0);
+    }
+    queryVectors = new float[numQueries][];
+    for (int i = 0; i < numQueries; i++) {
+      queryVectors[i] = vector(random, vectors[random.nextInt(numDocs)], 0.5f);
+    }
+
+    write();
+  }
+
+  // Pseudo-words of two to four syllables, with a suffix, after the stopwords.
+  private static String[] vocabulary(Random random) {
+    List<String> words = new ArrayList<>(Arrays.asList(STOPWORDS));
+    Set<String> seen = new HashSet<>(words);
+    while (words.size() < VOCABULARY_SIZE) {
+      StringBuilder word = new StringBuilder();
+      int syllables = 2 + random.nextInt(3);
+      for (int i = 0; i < syllables; i++) {
+        word.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+      }
+      word.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+      if (seen.add(word.toString())) {
+        words.add(word.toString());
+      }
+    }
+    return words.toArray(new String[0]);
+  }
+
+  private static String text(String[] vocabulary, double[] cumulative, int offset, int length, Random random) {
+    StringBuilder text = new StringBuilder();
+    double from = offset == 0 ? 0 : cumulative[offset - 1];
+    double to = cumulative[cumulative.length - 1];
+    for (int i = 0; i < length; i++) {
+      int index = Arrays.binarySearch(cumulative, from + random.nextDouble() * (to - from));
+      index = Math.min(cumulative.length - 1, index < 0 ? -index - 1 : index);
+      if (i > 0) {
+        text.append(random.nextInt(12) == 0 ? ". " : " ");
+      }
+      // Capitalized now and then, which the analyzer has to undo.
+      String word = vocabulary[index];
+      text.append(random.nextInt(10) == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+    }
+    return text.toString();
+  }
+
+  // A random unit vector, or one near the given vector, at about the given distance.
+  private float[] vector(Random random, float[] near, float distance) {
+    float[] vector = new float[dimension];
+    double norm = 0;
+    for (int i = 0; i < dimension; i++) {
+      vector[i] = (float) random.nextGaussian() / (float) Math.sqrt(dimension);
+      if (near != null) {
+        vector[i] = near[i] + distance * vector[i];
+      }
+      norm += vector[i] * vector[i];
+    }
+    for (int i = 0; i < dimension; i++) {
+      vector[i] /= (float) Math.sqrt(norm);
+    }
+    return vector;
+  }
+
+  private void write() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    Files.createDirectories(dir.resolve("json"));
+    Files.createDirectories(dir.resolve("vectors"));
+
+    try (BufferedWriter writer = Files.newBufferedWriter(jsonSegment(), StandardCharsets.UTF_8)) {
+      for (int i = 0; i < documents.size(); i++) {
+        ObjectNode doc = mapper.createObjectNode();
+        doc.put("id", docid(i));
+        doc.put("contents", documents.get(i));
+        writer.write(mapper.writeValueAsString(doc));
+        writer.newLine();
+      }
+    }
+
+    try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("vectors").resolve("vectors.jsonl"),
+        StandardCharsets.UTF_8)) {
+      for (int i = 0; i < vectors.length; i++) {
+        ObjectNode doc = mapper.createObjectNode();
+        doc.put("docid", docid(i));
+        ArrayNode vector = doc.putArray("vector");
+        for (float value : vectors[i]) {
+          vector.add(value);
+        }
+        writer.write(mapper.writeValueAsString(doc));
+        writer.newLine();
+      }
+    }
+  }
+
+  static String docid(int i) {
+    return "doc" + i;
+  }
+
+  List<String> documents() {
+    return Collections.unmodifiableList(documents);
+  }
+
+  List<String> queries() {
+    return Collections.unmodifiableList(queries);
+  }
+
+  float[][] queryVectors() {
+    return queryVectors;
+  }
+
+  int dimension() {
+    return dimension;
+  }
+
+  /**
+   * Returns the single segment of the {@code JsonCollection}, one document per line.
+   *
+   * @return path of the segment
+   */
+  Path jsonSegment() {
+    return dir.resolve("json").resolve("docs.jsonl");
+  }
+
+  /**
+   * Returns the inverted index of the collection, with raw documents and docvectors as for RM3, indexing it the
+   * first time into a single segment.
+   *
+   * @return path of the index
+   * @throws Exception if indexing fails
+   */
+  synchronized Path invertedIndex() throws Exception {
+    if (invertedIndex == null) {
+      Configurator.setLevel(IndexCollection.class.getName(), Level.ERROR);
+      IndexCollection.Args args = new IndexCollection.Args();
+      args.collectionClass = "JsonCollection";
+      args.input = dir.resolve("json").toString();
+      args.index = dir.resolve("index.inverted").toString();
+      args.storeRaw = true;
+      args.storeDocvectors = true;
+      args.threads = 1;
+      args.optimize = true;
+      args.quiet = true;
+      new IndexCollection(args).run();
+      invertedIndex = Path.of(args.index);
+    }
+    return invertedIndex;
+  }
+
+  /**
+   * Returns the HNSW index of the vectors, indexing it the first time into a single segment.
+   *
+   * @return path of the index
+   * @throws Exception if indexing fails
+   */
+  synchronized Path hnswIndex() throws Exception {
+    if (hnswIndex == null) {
+      Configurator.setLevel(IndexHnswDenseVectors.class.getName(), Level.ERROR);
+      IndexHnswDenseVectors.Args args = new IndexHnswDenseVectors.Args();
+      denseIndexArgs(args, "index.hnsw");
+      new IndexHnswDenseVectors(args).run();
+      hnswIndex = Path.of(args.index);
+    }
+    return hnswIndex;
+  }
+
+  /**
+   * Returns the flat index of the vectors, indexing it the first time into a single segment.
+   *
+   * @return path of the index
+   * @throws Exception if indexing fails
+   */
+  synchronized Path flatIndex() throws Exception {
+    if (flatIndex == null) {
+      Configurator.setLevel(IndexFlatDenseVectors.class.getName(), Level.ERROR);
+      IndexFlatDenseVectors.Args args = new IndexFlatDenseVectors.Args();
+      denseIndexArgs(args, "index.flat");
+      new IndexFlatDenseVectors(args).run();
+      flatIndex = Path.of(args.index);
+    }
+    return flatIndex;
+  }
+
+  private void denseIndexArgs(AbstractIndexer.Args args, String name) {
+    args.collectionClass = "JsonDenseVectorCollection";
+    args.input = dir.resolve("vectors").toString();
+    args.index = dir.resolve(name).toString();
+    args.threads = 1;
+    args.optimize = true;
+    args.quiet = true;
+  }
+}
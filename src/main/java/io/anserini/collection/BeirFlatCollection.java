@@ -17,6 +17,7 @@
 package io.anserini.collection;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -47,6 +48,11 @@ public class BeirFlatCollection extends DocumentCollection<BeirFlatCollection.Do
     return new BeirFlatCollection.Segment<>(bufferedReader);
   }
 
+  @Override
+  public boolean isSplittable(Path p) {
+    return JsonCollection.isJsonLines(p);
+  }
+
   public static class Segment<T extends BeirFlatCollection.Document> extends JsonCollection.Segment<T> {
     public Segment(Path path) throws IOException {
       super(path);
@@ -57,8 +63,8 @@ public class BeirFlatCollection extends DocumentCollection<BeirFlatCollection.Do
     }
 
     @Override
-    protected Document createNewDocument(JsonNode json) {
-      return new Document(json);
+    protected Document createNewDocument(TokenBuffer record) throws IOException {
+      return new Document(readTree(record));
     }
   }
 
@@ -105,6 +105,18 @@ public abstract class DocumentCollection<T extends SourceDocument> implements It
    */
   public abstract FileSegment<T> createFileSegment(BufferedReader bufferedReader) throws IOException;
 
+  /**
+   * Returns whether a file in this collection holds exactly one record per line, in which case it can be cut at
+   * line boundaries into byte ranges, each of which can be read independently via
+   * {@link #createFileSegment(BufferedReader)}. Collections are not splittable unless they say otherwise.
+   *
+   * @param p path
+   * @return whether the file can be split at line boundaries
+   */
+  public boolean isSplittable(Path p) {
+    return false;
+  }
+
   /**
    * An iterator over {@code FileSegment} for the {@code DocumentCollection} iterable.
    * A collection is comprised of one or more file segments.
@@ -16,9 +16,12 @@
 
 package io.anserini.collection;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -28,6 +31,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -92,12 +96,50 @@ public class JsonCollection extends DocumentCollection<JsonCollection.Document>
     return new Segment<JsonCollection.Document>(bufferedReader);
   }
 
+  @Override
+  public boolean isSplittable(Path p) {
+    return isJsonLines(p);
+  }
+
   /**
-   * A file in a JSON collection, typically containing multiple documents.
+   * Checks whether a file holds JSON Lines, i.e., one JSON object per line. Files ending in <code>.jsonl</code> are
+   * assumed to do so; for other uncompressed files, we peek at the first line and check that it is a complete object.
+   * Compressed files are never considered JSON Lines, since they cannot be read starting at an arbitrary offset.
+   *
+   * @param p path
+   * @return whether the file holds one JSON object per line
+   */
+  public static boolean isJsonLines(Path p) {
+    String name = p.getFileName().toString();
+    if (name.endsWith(".gz")) {
+      return false;
+    }
+    if (name.endsWith(".jsonl")) {
+      return true;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (line == null) {
+        return false;
+      }
+      line = line.strip();
+      return line.startsWith("{") && line.endsWith("}");
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * A file in a JSON collection, typically containing multiple documents. The file is read with a streaming parser,
+   * one record at a time: each record is buffered as a sequence of tokens, from which the document pulls out its
+   * fields directly, without building a tree.
    */
   public static class Segment<T extends Document> extends FileSegment<T> {
-    private JsonNode node = null;
-    private MappingIterator<JsonNode> iterator; // iterator for JSON line objects
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final JsonParser parser;
+    private boolean inArray = false; // whether we're inside a top-level JSON array of records
 
     public Segment(Path path) throws IOException {
       super(path);
@@ -109,47 +151,80 @@ public class JsonCollection extends DocumentCollection<JsonCollection.Document>
         bufferedReader = new BufferedReader(new FileReader(path.toString()));
       }
 
-      ObjectMapper mapper = new ObjectMapper();
-      iterator = mapper.readerFor(JsonNode.class).readValues(bufferedReader);
-      if (iterator.hasNext()) {
-        node = iterator.next();
-      }
+      parser = MAPPER.createParser(bufferedReader);
     }
 
     public Segment(BufferedReader bufferedReader) throws IOException {
       super(bufferedReader);
-      ObjectMapper mapper = new ObjectMapper();
-      iterator = mapper.readerFor(JsonNode.class).readValues(bufferedReader);
-      if (iterator.hasNext()) {
-        node = iterator.next();
-      }
+      parser = MAPPER.createParser(bufferedReader);
     }
 
     @SuppressWarnings("unchecked")
     @Override
-    public void readNext() throws NoSuchElementException {
-      if (node == null) {
-        throw new NoSuchElementException("JsonNode is empty");
-      } else if (node.isObject()) {
-        bufferedRecord = (T) createNewDocument(node);
-        if (iterator.hasNext()) { // if bufferedReader contains JSON line objects, we parse the next JSON into node
-          node = iterator.next();
-        } else {
-          atEOF = true; // there is no more JSON object in the bufferedReader
-        }
+    public void readNext() throws IOException, NoSuchElementException {
+      JsonToken token = parser.nextToken();
+      // Records can be wrapped in a top-level JSON array, in which case we unwrap it.
+      if (token == JsonToken.START_ARRAY && !inArray) {
+        inArray = true;
+        token = parser.nextToken();
+      }
+      if (token == JsonToken.END_ARRAY && inArray) {
+        inArray = false;
+        token = parser.nextToken();
+      }
+
+      if (token == null) {
+        atEOF = true; // there is no more JSON object in the bufferedReader
+        throw new NoSuchElementException("Reached end of JSON input");
+      } else if (token == JsonToken.START_OBJECT) {
+        TokenBuffer record = new TokenBuffer(parser);
+        record.copyCurrentStructure(parser);
+        bufferedRecord = (T) createNewDocument(record);
       } else {
         LOG.error("Error: invalid JsonNode type");
         throw new NoSuchElementException("Invalid JsonNode type");
       }
     }
 
-    protected Document createNewDocument(JsonNode json) {
-      return new Document(node);
+    @Override
+    public void close() {
+      super.close();
+      try {
+        parser.close();
+      } catch (IOException e) {
+        // There's really nothing to be done, so just silently eat the exception.
+      }
+    }
+
+    /**
+     * Creates a document from a record. Segments of collections whose documents are built from a {@link JsonNode}
+     * tree can override this method and call {@link #readTree(TokenBuffer)}.
+     *
+     * @param record tokens of a JSON object
+     * @return document
+     * @throws IOException if the record cannot be read
+     */
+    protected Document createNewDocument(TokenBuffer record) throws IOException {
+      return new Document(record);
+    }
+
+    /**
+     * Builds a {@link JsonNode} tree from a record.
+     *
+     * @param record tokens of a JSON object
+     * @return tree of the record
+     * @throws IOException if the record cannot be read
+     */
+    protected static JsonNode readTree(TokenBuffer record) throws IOException {
+      try (JsonParser p = record.asParser(MAPPER)) {
+        return MAPPER.readTree(p);
+      }
     }
   }
 
   /**
-   * A document in a JSON collection.
+   * A document in a JSON collection. When read from a {@link Segment}, the raw JSON is only materialized (and
+   * pretty-printed) if {@link #raw()} is called, e.g., if the generator is storing raw documents.
    */
   public static class Document extends MultifieldSourceDocument {
     private static final ObjectMapper MAPPER = new ObjectMapper();
@@ -159,6 +234,10 @@ public class JsonCollection extends DocumentCollection<JsonCollection.Document>
     private String raw;
     private Map<String, String> fields;
 
+    // Sources from which the raw JSON is lazily generated; at most one is non-null.
+    private JsonNode json;
+    private TokenBuffer record;
+
     public static Document fromString(String raw) throws IOException {
       MappingIterator<JsonNode> iterator =
           MAPPER.readerFor(JsonNode.class).readValues(new ByteArrayInputStream(raw.getBytes()));
@@ -180,7 +259,7 @@ public class JsonCollection extends DocumentCollection<JsonCollection.Document>
     }
 
     public Document(JsonNode json) {
-      this.raw = json.toPrettyString();
+      this.json = json;
       this.fields = new HashMap<>();
 
       json.properties().forEach( e -> {
@@ -194,6 +273,42 @@ public class JsonCollection extends DocumentCollection<JsonCollection.Document>
       });
     }
 
+    /**
+     * Creates a document directly from the tokens of a JSON object. String values are taken as is; other values
+     * (numbers, booleans, nested objects and arrays) are converted to text in the same way as {@link JsonNode#asText()}.
+     *
+     * @param record tokens of a JSON object
+     * @throws IOException if the record cannot be read
+     */
+    public Document(TokenBuffer record) throws IOException {
+      this.record = record;
+      this.fields = new HashMap<>();
+
+      try (JsonParser parser = record.asParser(MAPPER)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IOException("JSON record is not an object");
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.currentName();
+          String value;
+          if (parser.nextToken() == JsonToken.VALUE_STRING) {
+            value = parser.getText();
+          } else {
+            JsonNode node = parser.readValueAsTree();
+            value = node == null ? "null" : node.asText();
+          }
+
+          if ("id".equals(name)) {
+            this.id = value;
+          } else if ("contents".equals(name)) {
+            this.contents = value;
+          } else {
+            this.fields.put(name, value);
+          }
+        }
+      }
+    }
     @Override
     public String id() {
       if (id == null) {
@@ -212,6 +327,20 @@ public class JsonCollection extends DocumentCollection<JsonCollection.Document>
 
     @Override
     public String raw() {
+      if (raw == null) {
+        try {
+          if (record != null) {
+            raw = Segment.readTree(record).toPrettyString();
+          } else if (json != null) {
+            raw = json.toPrettyString();
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        // Once we have the raw JSON, there's no need to hold on to its source.
+        record = null;
+        json = null;
+      }
       return raw;
     }
 
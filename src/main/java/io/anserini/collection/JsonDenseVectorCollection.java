@@ -17,6 +17,7 @@
 package io.anserini.collection;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -46,6 +47,11 @@ public class JsonDenseVectorCollection extends DocumentCollection<JsonDenseVecto
     return new JsonDenseVectorCollection.Segment<>(bufferedReader);
   }
 
+  @Override
+  public boolean isSplittable(Path p) {
+    return JsonCollection.isJsonLines(p);
+  }
+
   public static class Segment<T extends JsonDenseVectorCollection.Document> extends JsonCollection.Segment<T> {
     public Segment(Path path) throws IOException {
       super(path);
@@ -56,8 +62,8 @@ public class JsonDenseVectorCollection extends DocumentCollection<JsonDenseVecto
     }
 
     @Override
-    protected Document createNewDocument(JsonNode json) {
-      return new Document(json);
+    protected Document createNewDocument(TokenBuffer record) throws IOException {
+      return new Document(readTree(record));
     }
   }
 
@@ -17,10 +17,13 @@
 package io.anserini.collection;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A JSON document collection where the user can specify directly the vector to be indexed.
@@ -43,6 +46,11 @@ public class JsonVectorCollection extends DocumentCollection<JsonVectorCollectio
     return new JsonVectorCollection.Segment<>(bufferedReader);
   }
 
+  @Override
+  public boolean isSplittable(Path p) {
+    return JsonCollection.isJsonLines(p);
+  }
+
   public static class Segment<T extends JsonVectorCollection.Document> extends JsonCollection.Segment<T> {
     public Segment(Path path) throws IOException {
       super(path);
@@ -53,19 +61,19 @@ public class JsonVectorCollection extends DocumentCollection<JsonVectorCollectio
     }
 
     @Override
-    protected Document createNewDocument(JsonNode json) {
-      return new Document(json);
+    protected Document createNewDocument(TokenBuffer record) throws IOException {
+      return new Document(readTree(record));
     }
   }
 
   public static class Document extends JsonCollection.Document {
-    private final String contents;
+    private String contents;
+    private final Map<String, Integer> impacts;
     private final float[] vectorData;
 
     public Document(JsonNode json) {
       super(json);
 
-      // We're going to take the map associated with "vector" and generate pseudo-document.
       JsonNode vectorNode = json.get("vector");
 
       if (vectorNode.isArray()) {
@@ -74,27 +82,34 @@ public class JsonVectorCollection extends DocumentCollection<JsonVectorCollectio
         for (int i = 0; i < vectorNode.size(); i++) {
           vectorData[i] = (float) vectorNode.get(i).asDouble();
         }
-        this.contents = null;
+        this.impacts = null;
       } else {
-        // Sparse vector format
+        // Sparse vector format - keep the (term, impact) pairs; the pseudo-document is only generated on demand.
+        this.impacts = new LinkedHashMap<>();
+        vectorNode.properties().forEach(e -> impacts.put(e.getKey(), e.getValue().asInt()));
+        vectorData = null; // No dense vector for sparse format
+      }
+    }
+
+    @Override
+    public String contents() {
+      if (contents == null && impacts != null) {
         // Generate pseudo-document by appending the feature cnt times
         // where cnt is the value of the feature
         final StringBuilder sb = new StringBuilder();
-        vectorNode.properties().forEach(e -> {
-          int cnt = e.getValue().asInt();
+        impacts.forEach((term, cnt) -> {
           for (int i = 0; i < cnt; i++) {
-            sb.append(e.getKey()).append(" ");
+            sb.append(term).append(" ");
           }
         });
-        this.contents = sb.toString();
-        vectorData = null; // No dense vector for sparse format
+        contents = sb.toString();
       }
-
+      return contents;
     }
 
     @Override
-    public String contents() {
-      return contents;
+    public Map<String, Integer> impacts() {
+      return impacts;
     }
 
     @Override
@@ -16,6 +16,8 @@
 
 package io.anserini.collection;
 
+import java.util.Map;
+
 /**
  * A raw document from a collection. A {@code SourceDocument} is explicitly distinguish a from a
  * Lucene {@link org.apache.lucene.document.Document}, which is the Lucene representation that
@@ -61,5 +63,16 @@ public interface SourceDocument {
   default float[] vector() {
     return null;
   }
+
+  /**
+   * Optional method to directly access a document's sparse representation as (term, impact) pairs, e.g., for learned
+   * sparse representations such as SPLADE. Added to avoid generating a pseudo-document in which each term is
+   * repeated impact times, only to have it re-tokenized.
+   *
+   * @return map from term to impact, or null if not implemented
+   */
+  default Map<String, Integer> impacts() {
+    return null;
+  }
 }
 
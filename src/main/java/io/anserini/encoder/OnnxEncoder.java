@@ -18,6 +18,7 @@ package io.anserini.encoder;
 
 import ai.djl.modality.nlp.DefaultVocabulary;
 import ai.djl.modality.nlp.bert.BertFullTokenizer;
+import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
@@ -30,7 +31,14 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public abstract class OnnxEncoder<T> implements AutoCloseable {
@@ -40,10 +48,20 @@ public abstract class OnnxEncoder<T> implements AutoCloseable {
 
   private static final String BASE_CONFIG_NAME = "config.json";
 
+  private static final String QUERY_CACHE_DIR_NAME = "query-cache";
+
+  /**
+   * Default number of queries that {@link #batchEncode} runs through the model at once.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 32;
+
   protected static final String CLS = "[CLS]";
   protected static final String SEP = "[SEP]";
   protected static final String PAD = "[PAD]";
 
+  // Most models take input ids, token type ids, and an attention mask.
+  private static final int MAX_INPUTS = 3;
+
   private final String modelName;
   private final String modelUrl;
   private final String vocabName;
@@ -51,13 +69,29 @@ public abstract class OnnxEncoder<T> implements AutoCloseable {
   private final String configUrl;
 
   protected final BertFullTokenizer tokenizer;
+  protected final WordPieceTokenizer wordPieceTokenizer;
   protected final DefaultVocabulary vocab;
 
   protected final OrtEnvironment environment;
   protected final OrtSession session;
 
+  private QueryEncodingCache<T> queryCache;
+  // Direct buffers backing the input tensors of the model, reused by each thread (see createInputTensor).
+  private final ThreadLocal<LongBuffer[]> inputBuffers = ThreadLocal.withInitial(() -> new LongBuffer[MAX_INPUTS]);
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
   public OnnxEncoder(@NotNull String modelName, @NotNull String modelUrl, @NotNull String vocabName, @NotNull String vocabUrl, @NotNull String configUrl)
       throws IOException, OrtException, URISyntaxException {
+    this(modelName, modelUrl, vocabName, vocabUrl, configUrl, new OrtSession.SessionOptions());
+  }
+
+  /**
+   * Creates an encoder whose model runs with the given session options, e.g., to set the number of threads (see
+   * {@link #createSessionOptions}). The options are only used to create the session, so the caller may close them.
+   */
+  public OnnxEncoder(@NotNull String modelName, @NotNull String modelUrl, @NotNull String vocabName, @NotNull String vocabUrl, String configUrl,
+                     @NotNull OrtSession.SessionOptions options)
+      throws IOException, OrtException, URISyntaxException {
     this.vocabName = vocabName;
     this.vocabUrl = vocabUrl;
     this.modelName = modelName;
@@ -69,9 +103,31 @@ public abstract class OnnxEncoder<T> implements AutoCloseable {
         .optUnknownToken("[UNK]")
         .build();
     this.tokenizer = new BertFullTokenizer(vocab, true);
+    this.wordPieceTokenizer = new WordPieceTokenizer(vocab, true);
 
     this.environment = OrtEnvironment.getEnvironment();
-    this.session = environment.createSession(getModelPath().toString(), new OrtSession.SessionOptions());
+    this.session = environment.createSession(getModelPath().toString(), options);
+  }
+
+  /**
+   * Creates session options with the given numbers of threads.
+   *
+   * @param intraOpThreads number of threads used within an operator (e.g., a matrix multiplication), or 0 for the
+   *                       ONNX Runtime default (one per physical core)
+   * @param interOpThreads number of threads used to run independent operators in parallel, or 0 for the default
+   * @return session options
+   * @throws OrtException if the options are invalid
+   */
+  public static OrtSession.SessionOptions createSessionOptions(int intraOpThreads, int interOpThreads)
+      throws OrtException {
+    OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+    if (intraOpThreads > 0) {
+      options.setIntraOpNumThreads(intraOpThreads);
+    }
+    if (interOpThreads > 0) {
+      options.setInterOpNumThreads(interOpThreads);
+    }
+    return options;
   }
 
   public OnnxEncoder(@NotNull String modelName, @NotNull String modelUrl, @NotNull String vocabName, @NotNull String vocabUrl) 
@@ -127,8 +183,240 @@ public abstract class OnnxEncoder<T> implements AutoCloseable {
     return convertTokensToIds(tokens, Integer.MAX_VALUE);
   }
 
+  /**
+   * Creates a tensor for an input of the model, holding a batch of rows of the same length. The tensor is backed by a
+   * direct buffer that the calling thread reuses for this input, rather than a new one each time, so the tensor must
+   * be closed once the model has run, before the thread creates another tensor for the same input.
+   *
+   * @param input index of the input, e.g., 0 for the input ids
+   * @param rows rows of the batch
+   * @return tensor
+   * @throws OrtException if error encountered creating the tensor
+   */
+  protected OnnxTensor createInputTensor(int input, long[][] rows) throws OrtException {
+    int columns = rows.length == 0 ? 0 : rows[0].length;
+    LongBuffer buffer = inputBuffer(input, rows.length * columns);
+    for (long[] row : rows) {
+      buffer.put(row);
+    }
+    return OnnxTensor.createTensor(environment, buffer.flip(), new long[] {rows.length, columns});
+  }
+
+  /**
+   * Creates an attention mask for a batch of rows, as {@link #createInputTensor}. Rows are never padded, so every id
+   * is attended to.
+   *
+   * @param input index of the input
+   * @param rows number of rows
+   * @param columns length of the rows
+   * @return tensor of ones
+   * @throws OrtException if error encountered creating the tensor
+   */
+  protected OnnxTensor createMaskTensor(int input, int rows, int columns) throws OrtException {
+    LongBuffer buffer = inputBuffer(input, rows * columns);
+    for (int i = 0; i < rows * columns; i++) {
+      buffer.put(1);
+    }
+    return OnnxTensor.createTensor(environment, buffer.flip(), new long[] {rows, columns});
+  }
+
+  /**
+   * Creates a tensor of zeros for a batch of rows (e.g., token type ids), as {@link #createInputTensor}.
+   *
+   * @param input index of the input
+   * @param rows number of rows
+   * @param columns length of the rows
+   * @return tensor of zeros
+   * @throws OrtException if error encountered creating the tensor
+   */
+  protected OnnxTensor createZeroTensor(int input, int rows, int columns) throws OrtException {
+    LongBuffer buffer = inputBuffer(input, rows * columns);
+    for (int i = 0; i < rows * columns; i++) {
+      buffer.put(0);
+    }
+    return OnnxTensor.createTensor(environment, buffer.flip(), new long[] {rows, columns});
+  }
+
+  private LongBuffer inputBuffer(int input, int size) {
+    LongBuffer[] buffers = inputBuffers.get();
+    if (buffers[input] == null || buffers[input].capacity() < size) {
+      int capacity = Math.max(size, buffers[input] == null ? 0 : 2 * buffers[input].capacity());
+      // ONNX Runtime uses direct buffers in native byte order as they are, without copying them.
+      buffers[input] = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+    return buffers[input].clear();
+  }
+
   public abstract T encode(@NotNull String query) throws OrtException;
 
+  /**
+   * Tokenizes a query into the input ids of the model, for {@link #batchEncode}. Encoders that support batching
+   * override this method along with {@link #encodeBatch} and {@link #supportsBatching}.
+   *
+   * @param query query
+   * @return input ids
+   */
+  protected long[] tokenizeToInputIds(@NotNull String query) {
+    throw new UnsupportedOperationException(String.format("%s does not support batching.", getClass().getSimpleName()));
+  }
+
+  /**
+   * Runs the model on a batch of queries. All rows of the batch have the same length, since only queries with the
+   * same number of input ids are batched together, so no row is padded.
+   *
+   * @param inputIds input ids of the queries, one row per query
+   * @return encodings, in the same order as the rows
+   * @throws OrtException if error encountered running the model
+   */
+  protected List<T> encodeBatch(long[][] inputIds) throws OrtException {
+    throw new UnsupportedOperationException(String.format("%s does not support batching.", getClass().getSimpleName()));
+  }
+
+  /**
+   * Returns whether this encoder can encode queries in batch (see {@link #batchEncode}), rather than one at a time.
+   *
+   * @return whether this encoder supports batching
+   */
+  public boolean supportsBatching() {
+    return false;
+  }
+
+  /**
+   * Sets the number of queries that {@link #batchEncode} runs through the model at once.
+   *
+   * @param batchSize batch size
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive!");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Encodes queries in batch. Queries are bucketed by length, and queries of the same length are run through the
+   * model in batches of up to the batch size, without padding, so that each query is encoded as it would be on its
+   * own. Encoders that don't support batching encode the queries one at a time.
+   *
+   * @param queries queries
+   * @return encodings, in the same order as the queries
+   * @throws OrtException if error encountered encoding the queries
+   */
+  public List<T> batchEncode(@NotNull List<String> queries) throws OrtException {
+    List<T> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    if (!supportsBatching()) {
+      for (int i = 0; i < queries.size(); i++) {
+        results.set(i, encode(queries.get(i)));
+      }
+      return results;
+    }
+
+    long[][] ids = new long[queries.size()][];
+    int[] lengths = new int[queries.size()];
+    for (int i = 0; i < queries.size(); i++) {
+      ids[i] = tokenizeToInputIds(queries.get(i));
+      lengths[i] = ids[i].length;
+    }
+
+    for (int[] batch : partition(lengths, batchSize)) {
+      long[][] batchIds = new long[batch.length][];
+      for (int i = 0; i < batch.length; i++) {
+        batchIds[i] = ids[batch[i]];
+      }
+
+      List<T> encoded = encodeBatch(batchIds);
+      for (int i = 0; i < batch.length; i++) {
+        results.set(batch[i], encoded.get(i));
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Partitions queries into batches of up to {@code batchSize} queries of the same length: queries are sorted by
+   * length, and split into consecutive batches, which never hold queries of different lengths.
+   *
+   * @param lengths lengths of the queries
+   * @param batchSize maximum number of queries in a batch
+   * @return batches, each holding the indexes of its queries
+   */
+  static List<int[]> partition(int[] lengths, int batchSize) {
+    Integer[] order = new Integer[lengths.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingInt(i -> lengths[i]));
+
+    List<int[]> batches = new ArrayList<>();
+    int start = 0;
+    while (start < order.length) {
+      int end = start + 1;
+      while (end < order.length && end - start < batchSize && lengths[order[end]] == lengths[order[start]]) {
+        end++;
+      }
+
+      int[] batch = new int[end - start];
+      for (int i = start; i < end; i++) {
+        batch[i - start] = order[i];
+      }
+      batches.add(batch);
+      start = end;
+    }
+
+    return batches;
+  }
+
+  /**
+   * Encodes queries in batch, as {@link #batchEncode}, going through the query cache if it is enabled: only the
+   * queries that aren't cached are run through the model.
+   *
+   * @param queries queries
+   * @return encodings, in the same order as the queries
+   * @throws OrtException if error encountered encoding the queries
+   */
+  public List<T> encodeQueries(@NotNull List<String> queries) throws OrtException {
+    return queryCache == null ? batchEncode(queries) : queryCache.getAll(queries, this::batchEncode);
+  }
+
+  /**
+   * Returns the codec used to store encodings in the {@link QueryEncodingCache}.
+   *
+   * @return codec for encodings
+   */
+  protected abstract QueryEncodingCache.Codec<T> getQueryCodec();
+
+  /**
+   * Caches query encodings: in memory and, since the same queries tend to be encoded over and over again (e.g., the
+   * topics of regressions), on disk in the cache dir, keyed by encoder and query.
+   *
+   * @param capacity number of encodings to keep in memory
+   */
+  public void enableQueryCache(int capacity) {
+    this.queryCache = new QueryEncodingCache<>(Path.of(getCacheDir(), QUERY_CACHE_DIR_NAME, getClass().getSimpleName()),
+        getClass().getName(), capacity, getQueryCodec());
+  }
+
+  /**
+   * Returns the query cache, if enabled.
+   *
+   * @return query cache, or {@code null} if not enabled
+   */
+  public QueryEncodingCache<T> getQueryCache() {
+    return queryCache;
+  }
+
+  /**
+   * Encodes a query, going through the query cache if it is enabled (see {@link #enableQueryCache}).
+   *
+   * @param query query
+   * @return encoded query
+   * @throws OrtException if error encountered encoding the query
+   */
+  public T encodeQuery(@NotNull String query) throws OrtException {
+    return queryCache == null ? encode(query) : queryCache.get(query, this::encode);
+  }
+
   public void close() {
     try {
       this.session.close();
@@ -0,0 +1,340 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.encoder;
+
+import ai.onnxruntime.OrtException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A cache of query encodings, so that the same queries (e.g., the topics of a regression, searched again and again
+ * with different parameters) don't go through the model every time. Encodings are kept in an in-memory LRU cache, in
+ * front of a persistent cache on disk with one file per query. Files are content-addressed, i.e., named by the
+ * SHA-256 hash of the encoder and the query, and also hold the query itself, so that a hash collision is a miss.</p>
+ *
+ * <p>Entries are never invalidated: the cache assumes that an encoder always produces the same encoding for a query,
+ * so it needs to be cleared if an encoder's model changes.</p>
+ *
+ * @param <T> type of encoding
+ */
+public class QueryEncodingCache<T> {
+  private static final Logger LOG = LogManager.getLogger(QueryEncodingCache.class);
+
+  private static final int MAGIC = 0x51454e43;
+
+  /**
+   * Serializes encodings for the persistent cache, and copies them so that callers can't modify cached encodings.
+   *
+   * @param <T> type of encoding
+   */
+  public interface Codec<T> {
+    void write(T encoding, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    T copy(T encoding);
+  }
+
+  /**
+   * Encodes a query, i.e., runs the model.
+   *
+   * @param <T> type of encoding
+   */
+  @FunctionalInterface
+  public interface Encoding<T> {
+    T encode(String query) throws OrtException;
+  }
+
+  /**
+   * Encodes queries in batch, i.e., runs the model on several queries at once.
+   *
+   * @param <T> type of encoding
+   */
+  @FunctionalInterface
+  public interface BatchEncoding<T> {
+    List<T> encode(List<String> queries) throws OrtException;
+  }
+
+  private final Path dir;
+  private final String encoderName;
+  private final Codec<T> codec;
+  private final Map<String, T> lru;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private volatile boolean writable = true;
+
+  /**
+   * Creates a cache.
+   *
+   * @param dir directory of the persistent cache, created if needed; {@code null} to only cache in memory
+   * @param encoderName name of the encoder, part of the key of each query
+   * @param capacity number of encodings to keep in memory
+   * @param codec codec for the encodings
+   */
+  public QueryEncodingCache(@Nullable Path dir, String encoderName, int capacity, Codec<T> codec) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative!");
+    }
+    this.dir = dir;
+    this.encoderName = encoderName;
+    this.codec = codec;
+    this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Returns the encoding of a query, from the cache if possible, otherwise from the encoder (and then caches it).
+   *
+   * @param query query
+   * @param encoder encoder, called on a miss
+   * @return encoding of the query, which the caller is free to modify
+   * @throws OrtException if error encountered encoding the query
+   */
+  public T get(String query, Encoding<T> encoder) throws OrtException {
+    String key = key(query);
+
+    T encoding;
+    synchronized (lru) {
+      encoding = lru.get(key);
+    }
+    if (encoding != null) {
+      memoryHits.incrementAndGet();
+      return codec.copy(encoding);
+    }
+
+    encoding = read(key, query);
+    if (encoding != null) {
+      diskHits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      encoding = encoder.encode(query);
+      write(key, query, encoding);
+    }
+
+    synchronized (lru) {
+      lru.put(key, codec.copy(encoding));
+    }
+    return encoding;
+  }
+
+  /**
+   * Returns the encodings of queries, as {@link #get}, but encodes all the queries that aren't cached in one call to
+   * the encoder, so that they can be encoded in batch.
+   *
+   * @param queries queries
+   * @param encoder encoder, called once with the queries that aren't cached, if any
+   * @return encodings of the queries, in the same order as the queries
+   * @throws OrtException if error encountered encoding the queries
+   */
+  public List<T> getAll(List<String> queries, BatchEncoding<T> encoder) throws OrtException {
+    List<T> encodings = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    List<String> keys = new ArrayList<>(queries.size());
+    List<Integer> missing = new ArrayList<>();
+    // The same query may be repeated, in which case we only encode it once.
+    Map<String, Integer> pending = new HashMap<>();
+
+    for (int i = 0; i < queries.size(); i++) {
+      String key = key(queries.get(i));
+      keys.add(key);
+
+      T encoding;
+      synchronized (lru) {
+        encoding = lru.get(key);
+      }
+      if (encoding != null) {
+        memoryHits.incrementAndGet();
+        encodings.set(i, codec.copy(encoding));
+        continue;
+      }
+      if (pending.containsKey(key)) {
+        missing.add(i);
+        continue;
+      }
+
+      encoding = read(key, queries.get(i));
+      if (encoding != null) {
+        diskHits.incrementAndGet();
+        encodings.set(i, encoding);
+        synchronized (lru) {
+          lru.put(key, codec.copy(encoding));
+        }
+      } else {
+        pending.put(key, pending.size());
+        missing.add(i);
+      }
+    }
+
+    if (!pending.isEmpty()) {
+      String[] toEncode = new String[pending.size()];
+      for (int i : missing) {
+        toEncode[pending.get(keys.get(i))] = queries.get(i);
+      }
+      List<T> encoded = encoder.encode(List.of(toEncode));
+      misses.addAndGet(toEncode.length);
+      for (int j = 0; j < toEncode.length; j++) {
+        String key = key(toEncode[j]);
+        write(key, toEncode[j], encoded.get(j));
+        synchronized (lru) {
+          lru.put(key, codec.copy(encoded.get(j)));
+        }
+      }
+      for (int i : missing) {
+        encodings.set(i, codec.copy(encoded.get(pending.get(keys.get(i)))));
+      }
+    }
+
+    return encodings;
+  }
+
+  /**
+   * Returns the number of queries found in memory.
+   *
+   * @return number of queries found in memory
+   */
+  public long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  /**
+   * Returns the number of queries found on disk, but not in memory.
+   *
+   * @return number of queries found on disk
+   */
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  /**
+   * Returns the number of queries that had to be encoded.
+   *
+   * @return number of queries encoded
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private String key(String query) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(encoderName.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(query.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Files are spread over subdirectories by the first two hex digits, so that no directory gets too large.
+  private Path path(String key) {
+    return dir.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private T read(String key, String query) {
+    if (dir == null) {
+      return null;
+    }
+
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path(key))));
+      if (in.readInt() != MAGIC || !in.readUTF().equals(encoderName) || !readString(in).equals(query)) {
+        return null;
+      }
+      return codec.read(in);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(String.format("Ignoring unreadable cached query encoding %s: %s", key, e.getMessage()));
+      return null;
+    }
+  }
+
+  private void write(String key, String query, T encoding) {
+    if (dir == null || !writable) {
+      return;
+    }
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeUTF(encoderName);
+      writeString(query, out);
+      codec.write(encoding, out);
+      out.flush();
+
+      // Write to a temporary file first, so that readers (possibly in other processes) never see a partial file.
+      Path path = path(key);
+      Files.createDirectories(path.getParent());
+      Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+      try {
+        Files.write(tmp, bytes.toByteArray());
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      // We can still cache in memory, so just stop trying to write.
+      LOG.warn(String.format("Unable to write query encodings to %s, caching in memory only: %s", dir, e.getMessage()));
+      writable = false;
+    }
+  }
+
+  // Unlike DataOutput.writeUTF, not limited to 64KB, since queries (e.g., documents as queries) can be long.
+  private static void writeString(String s, DataOutput out) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.encoder;
+
+import ai.djl.modality.nlp.Vocabulary;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A WordPiece tokenizer that turns text directly into vocabulary ids, without going through token strings. It
+ * produces exactly the same ids as DJL's {@code BertFullTokenizer} followed by a vocabulary lookup, which is what the
+ * encoders used to do, but the vocabulary is a trie, so that the longest wordpiece at each position is found in a
+ * single pass over the word, and words that are all ASCII (i.e., almost all words in English queries) are tokenized
+ * without allocating anything except the array of ids that is returned.</p>
+ *
+ * <p>Words with non-ASCII characters go through the same normalization as {@code BertFullTokenizer} (lowercasing,
+ * NFD, stripping accents, and splitting off punctuation), which does allocate.</p>
+ */
+public final class WordPieceTokenizer {
+  private static final String CLS = "[CLS]";
+  private static final String SEP = "[SEP]";
+  private static final String UNK = "[UNK]";
+  private static final String CONTINUATION = "##";
+
+  // Longer words are [UNK], as in BertFullTokenizer.
+  private static final int MAX_INPUT_CHARS = 200;
+
+  // How BertFullTokenizer splits punctuation off words with non-ASCII characters.
+  private static final Pattern PUNCTUATION =
+      Pattern.compile("\\s+|(?<=[\\p{Punct}\\p{IsPunctuation}])|(?=[\\p{Punct}\\p{IsPunctuation}])");
+
+  // The trie: the children of node n are children[childStart[n]] to children[childStart[n + 1] - 1], sorted by their
+  // labels, and ids[n] is the id of the token that ends at node n, or -1. The root is node 0.
+  private final int[] childStart;
+  private final char[] labels;
+  private final int[] children;
+  private final long[] ids;
+  // Node of the "##" prefix, under which are the pieces that continue a word.
+  private final int continuation;
+
+  private final long cls;
+  private final long sep;
+  private final long unk;
+  private final boolean lowerCase;
+
+  // Scratch space for the word being tokenized and the ids produced so far, reused by each thread.
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  private static final class Scratch {
+    char[] word = new char[64];
+    long[] ids = new long[64];
+    int size;
+
+    void add(long id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * size);
+      }
+      ids[size++] = id;
+    }
+  }
+
+  // Node of the trie while it's built.
+  private static final class Node {
+    final Map<Character, Node> children = new HashMap<>();
+    long id = -1;
+    int index;
+
+    List<Character> labels() {
+      return children.keySet().stream().sorted().toList();
+    }
+  }
+
+  /**
+   * Creates a tokenizer for a vocabulary.
+   *
+   * @param vocabulary vocabulary, which must contain {@code [CLS]}, {@code [SEP]}, and {@code [UNK]}
+   * @param lowerCase whether to lowercase text, as for uncased models
+   */
+  public WordPieceTokenizer(Vocabulary vocabulary, boolean lowerCase) {
+    this.lowerCase = lowerCase;
+    this.cls = vocabulary.getIndex(CLS);
+    this.sep = vocabulary.getIndex(SEP);
+    this.unk = vocabulary.getIndex(UNK);
+
+    Node root = new Node();
+    for (long i = 0; i < vocabulary.size(); i++) {
+      String token = vocabulary.getToken(i);
+      Node node = root;
+      for (int j = 0; j < token.length(); j++) {
+        node = node.children.computeIfAbsent(token.charAt(j), c -> new Node());
+      }
+      // A token that's in the vocabulary more than once has the id that the vocabulary gives it.
+      node.id = vocabulary.getIndex(token);
+    }
+
+    // Lays out the trie breadth-first, so that the children of each node are next to each other.
+    List<Node> nodes = new ArrayList<>();
+    nodes.add(root);
+    for (int n = 0; n < nodes.size(); n++) {
+      nodes.get(n).index = n;
+      for (char label : nodes.get(n).labels()) {
+        nodes.add(nodes.get(n).children.get(label));
+      }
+    }
+
+    this.childStart = new int[nodes.size() + 1];
+    this.labels = new char[nodes.size() - 1];
+    this.children = new int[nodes.size() - 1];
+    this.ids = new long[nodes.size()];
+    int next = 0;
+    for (int n = 0; n < nodes.size(); n++) {
+      Node node = nodes.get(n);
+      ids[n] = node.id;
+      childStart[n] = next;
+      for (char label : node.labels()) {
+        labels[next] = label;
+        children[next] = node.children.get(label).index;
+        next++;
+      }
+    }
+    childStart[nodes.size()] = next;
+
+    int node = 0;
+    for (int i = 0; i < CONTINUATION.length() && node >= 0; i++) {
+      node = child(node, CONTINUATION.charAt(i));
+    }
+    this.continuation = node;
+  }
+
+  /**
+   * Tokenizes text into vocabulary ids, between {@code [CLS]} and {@code [SEP]}. Text that has more tokens than fit is
+   * truncated, keeping its first tokens, and still ends with {@code [SEP]}.
+   *
+   * @param text text
+   * @param maxLength maximum number of ids, including {@code [CLS]} and {@code [SEP]}, at least 2
+   * @return ids
+   */
+  public long[] encode(String text, int maxLength) {
+    Scratch s = scratch.get();
+    s.size = 0;
+    s.add(cls);
+
+    // Words are separated by whitespace, after control characters are removed.
+    int length = 0;
+    for (int i = 0; i < text.length() && s.size < maxLength - 1; i++) {
+      char c = text.charAt(i);
+      if (c == 0 || c == 0xFFFD || isControl(c)) {
+        continue;
+      }
+      if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+        tokenizeWord(s, length);
+        length = 0;
+        continue;
+      }
+      if (length == s.word.length) {
+        s.word = Arrays.copyOf(s.word, 2 * length);
+      }
+      s.word[length++] = c;
+    }
+    if (s.size < maxLength - 1) {
+      tokenizeWord(s, length);
+    }
+
+    // Truncates only at the end, since a word that's too long as a whole becomes [UNK].
+    int size = Math.min(s.size, maxLength - 1);
+    long[] encoded = Arrays.copyOf(s.ids, size + 1);
+    encoded[size] = sep;
+    return encoded;
+  }
+
+  /**
+   * Tokenizes text into vocabulary ids, between {@code [CLS]} and {@code [SEP]}.
+   *
+   * @param text text
+   * @return ids
+   */
+  public long[] encode(String text) {
+    return encode(text, Integer.MAX_VALUE);
+  }
+
+  private void tokenizeWord(Scratch s, int length) {
+    if (length == 0) {
+      return;
+    }
+
+    char[] word = s.word;
+    boolean ascii = true;
+    for (int i = 0; i < length && ascii; i++) {
+      ascii = word[i] < 128;
+    }
+
+    if (ascii) {
+      // Lowercasing and normalization don't change ASCII words (other than their case), and each punctuation
+      // character is a piece of its own.
+      int start = 0;
+      for (int i = 0; i < length; i++) {
+        char c = word[i];
+        if (lowerCase && c >= 'A' && c <= 'Z') {
+          word[i] = (char) (c + ('a' - 'A'));
+        } else if (isAsciiPunctuation(c)) {
+          tokenizePiece(s, word, start, i - start);
+          tokenizePiece(s, word, i, 1);
+          start = i + 1;
+        }
+      }
+      tokenizePiece(s, word, start, length - start);
+      return;
+    }
+
+    String normalized = new String(word, 0, length);
+    if (lowerCase) {
+      normalized = normalized.toLowerCase(Locale.ENGLISH);
+    }
+    normalized = Normalizer.normalize(normalized, Normalizer.Form.NFD);
+    StringBuilder stripped = new StringBuilder(normalized.length());
+    for (int i = 0; i < normalized.length(); i++) {
+      if (Character.getType(normalized.charAt(i)) != Character.NON_SPACING_MARK) {
+        stripped.append(normalized.charAt(i));
+      }
+    }
+    for (String piece : PUNCTUATION.split(stripped)) {
+      piece = piece.trim();
+      tokenizePiece(s, piece.toCharArray(), 0, piece.length());
+    }
+  }
+
+  // Greedily splits a piece of a word into the longest wordpieces in the vocabulary, or [UNK] if it can't be.
+  private void tokenizePiece(Scratch s, char[] piece, int offset, int length) {
+    if (length == 0) {
+      return;
+    }
+    if (length > MAX_INPUT_CHARS) {
+      s.add(unk);
+      return;
+    }
+
+    int size = s.size;
+    int start = 0;
+    while (start < length) {
+      int node = start == 0 ? 0 : continuation;
+      long id = -1;
+      int end = start;
+      for (int i = start; i < length && node >= 0; i++) {
+        node = child(node, piece[offset + i]);
+        if (node >= 0 && ids[node] >= 0) {
+          id = ids[node];
+          end = i + 1;
+        }
+      }
+
+      if (id < 0) {
+        s.size = size;
+        s.add(unk);
+        return;
+      }
+      s.add(id);
+      start = end;
+    }
+  }
+
+  private int child(int node, char label) {
+    if (node < 0) {
+      return -1;
+    }
+    int i = Arrays.binarySearch(labels, childStart[node], childStart[node + 1], label);
+    return i < 0 ? -1 : children[i];
+  }
+
+  private static boolean isControl(char c) {
+    return c != '\t' && c != '\n' && c != '\r' && Character.isISOControl(c);
+  }
+
+  private static boolean isAsciiPunctuation(char c) {
+    return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+  }
+}
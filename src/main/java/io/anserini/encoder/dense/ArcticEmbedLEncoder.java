@@ -25,7 +25,6 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
  
@@ -48,32 +47,41 @@ import java.util.Map;
    public ArcticEmbedLEncoder() throws IOException, OrtException, URISyntaxException {
      super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL);
    }
+
+   public ArcticEmbedLEncoder(OrtSession.SessionOptions options) throws IOException, OrtException, URISyntaxException {
+     super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL, options);
+   }
  
    @Override
    public float[] encode(@NotNull String query) throws OrtException {
-     List<String> queryTokens = new ArrayList<>();
-     queryTokens.add(CLS);
-     queryTokens.addAll(tokenizer.tokenize(INSTRUCTION + query));
-     queryTokens.add(SEP);
- 
-     Map<String, OnnxTensor> inputs = new HashMap<>();
-     long[] queryTokenIds = convertTokensToIds(queryTokens, MAX_SEQ_LEN);
-     long[][] inputTokenIds = new long[1][queryTokenIds.length];
-     inputTokenIds[0] = queryTokenIds;
-     long[][] tokenTypeIds = new long[1][queryTokenIds.length];
-     long[][] attentionMask = new long[1][queryTokenIds.length];
-     Arrays.fill(attentionMask[0], 1);
- 
-     inputs.put(MODEL_INPUT_IDS, OnnxTensor.createTensor(environment, inputTokenIds));
-     inputs.put(MODEL_TOKEN_TYPE_IDS, OnnxTensor.createTensor(environment, tokenTypeIds));
-     inputs.put(MODEL_ATTENTION_MASK, OnnxTensor.createTensor(environment, attentionMask));
- 
-     float[] embeddings = new float[EMBEDDING_DIM];
-     try (OrtSession.Result results = session.run(inputs)) {
+     long[] queryTokenIds = tokenizeToInputIds(query);
+     return encodeBatch(new long[][] {queryTokenIds}).get(0);
+   }
+
+   @Override
+   protected long[] tokenizeToInputIds(@NotNull String query) {
+     return wordPieceTokenizer.encode(INSTRUCTION + query, MAX_SEQ_LEN);
+   }
+
+   @Override
+   protected List<float[]> encodeBatch(long[][] inputIds) throws OrtException {
+     try (OnnxTensor ids = createInputTensor(0, inputIds);
+          OnnxTensor tokenTypeIds = createZeroTensor(1, inputIds.length, inputIds[0].length);
+          OnnxTensor attentionMask = createMaskTensor(2, inputIds.length, inputIds[0].length);
+          OrtSession.Result results = session.run(Map.of(
+              MODEL_INPUT_IDS, ids, MODEL_TOKEN_TYPE_IDS, tokenTypeIds, MODEL_ATTENTION_MASK, attentionMask))) {
        float[][][] tensorData = (float[][][]) results.get(0).getValue();
-       System.arraycopy(tensorData[0][0], 0, embeddings, 0, EMBEDDING_DIM);
 
-       return normalize(embeddings);
+       List<float[]> embeddings = new ArrayList<>(inputIds.length);
+       for (float[][] hiddenState : tensorData) {
+         embeddings.add(normalize(Arrays.copyOf(hiddenState[0], EMBEDDING_DIM)));
+       }
+       return embeddings;
      }
    }
+
+   @Override
+   public boolean supportsBatching() {
+     return true;
+   }
  }
\ No newline at end of file
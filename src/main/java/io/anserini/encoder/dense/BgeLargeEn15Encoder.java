@@ -24,7 +24,6 @@ import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -46,26 +45,39 @@ public class BgeLargeEn15Encoder extends DenseEncoder {
     super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL);
   }
 
+  public BgeLargeEn15Encoder(OrtSession.SessionOptions options) throws IOException, OrtException, URISyntaxException {
+    super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL, options);
+  }
+
   @Override
   public float[] encode(@NotNull String query) throws OrtException {
-    List<String> queryTokens = new ArrayList<>();
-    queryTokens.add(CLS);
-    queryTokens.addAll(this.tokenizer.tokenize(INSTRUCTION + query));
-    queryTokens = (queryTokens.size() > MAX_SEQ_LEN - 2) ? queryTokens.subList(0, MAX_SEQ_LEN - 2) : queryTokens;
-    queryTokens.add(SEP);
-    
-    Map<String, OnnxTensor> inputs = new HashMap<>();
-    long[] queryTokenIds = convertTokensToIds(queryTokens, MAX_SEQ_LEN);
-    long[][] inputTokenIds = new long[1][queryTokenIds.length];
-    inputTokenIds[0] = queryTokenIds;
-    inputs.put(MODEL_INPUT_IDS, OnnxTensor.createTensor(this.environment, inputTokenIds));
+    long[] queryTokenIds = tokenizeToInputIds(query);
+    return encodeBatch(new long[][] {queryTokenIds}).get(0);
+  }
+
+  @Override
+  protected long[] tokenizeToInputIds(@NotNull String query) {
+    // Queries have always been truncated to one token less than the model takes.
+    return wordPieceTokenizer.encode(INSTRUCTION + query, MAX_SEQ_LEN - 1);
+  }
 
-    float[] weights;
-    try (OrtSession.Result results = this.session.run(inputs)) {
+  @Override
+  protected List<float[]> encodeBatch(long[][] inputIds) throws OrtException {
+    try (OnnxTensor ids = createInputTensor(0, inputIds);
+         OrtSession.Result results = this.session.run(Map.of(MODEL_INPUT_IDS, ids))) {
       assert (results.get(MODEL_LAST_HIDDEN_STATE).isPresent());
-      weights = ((float[][][]) results.get(MODEL_LAST_HIDDEN_STATE).get().getValue())[0][0];
+      float[][][] hiddenStates = (float[][][]) results.get(MODEL_LAST_HIDDEN_STATE).get().getValue();
 
-      return normalize(weights);
+      List<float[]> embeddings = new ArrayList<>(inputIds.length);
+      for (float[][] hiddenState : hiddenStates) {
+        embeddings.add(normalize(hiddenState[0]));
+      }
+      return embeddings;
     }
   }
+
+  @Override
+  public boolean supportsBatching() {
+    return true;
+  }
 }
\ No newline at end of file
@@ -24,7 +24,6 @@ import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,23 +42,33 @@ public class CosDprDistilEncoder extends DenseEncoder {
     super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL);
   }
 
+  public CosDprDistilEncoder(OrtSession.SessionOptions options) throws IOException, OrtException, URISyntaxException {
+    super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL, options);
+  }
+
   @Override
   public float[] encode(@NotNull String query) throws OrtException {
-    List<String> queryTokens = new ArrayList<>();
-    queryTokens.add(CLS);
-    queryTokens.addAll(this.tokenizer.tokenize(query));
-    queryTokens.add(SEP);
-    
-    Map<String, OnnxTensor> inputs = new HashMap<>();
-    long[] queryTokenIds = convertTokensToIds(queryTokens);
-    long[][] inputTokenIds = new long[1][queryTokenIds.length];
-    inputTokenIds[0] = queryTokenIds;
-    inputs.put(MODEL_INPUT_IDS, OnnxTensor.createTensor(this.environment, inputTokenIds));
+    long[] queryTokenIds = tokenizeToInputIds(query);
+    return encodeBatch(new long[][] {queryTokenIds}).get(0);
+  }
+
+  @Override
+  protected long[] tokenizeToInputIds(@NotNull String query) {
+    return wordPieceTokenizer.encode(query);
+  }
 
-    try (OrtSession.Result results = this.session.run(inputs)) {
+  @Override
+  protected List<float[]> encodeBatch(long[][] inputIds) throws OrtException {
+    try (OnnxTensor ids = createInputTensor(0, inputIds);
+         OrtSession.Result results = this.session.run(Map.of(MODEL_INPUT_IDS, ids))) {
       assert (results.get(MODEL_POOLER_OUTPUT).isPresent());
 
-      return ((float[][]) results.get(MODEL_POOLER_OUTPUT).get().getValue())[0];
+      return new ArrayList<>(List.of((float[][]) results.get(MODEL_POOLER_OUTPUT).get().getValue()));
     }
   }
+
+  @Override
+  public boolean supportsBatching() {
+    return true;
+  }
 }
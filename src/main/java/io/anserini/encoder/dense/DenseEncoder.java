@@ -17,17 +17,59 @@
 package io.anserini.encoder.dense;
 
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
 import io.anserini.encoder.OnnxEncoder;
+import io.anserini.encoder.QueryEncodingCache;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.URISyntaxException;
 
 public abstract class DenseEncoder extends OnnxEncoder<float[]> {
+  /**
+   * Codec for caching dense encodings.
+   */
+  public static final QueryEncodingCache.Codec<float[]> QUERY_CODEC = new QueryEncodingCache.Codec<>() {
+    @Override
+    public void write(float[] encoding, DataOutput out) throws IOException {
+      out.writeInt(encoding.length);
+      for (float v : encoding) {
+        out.writeFloat(v);
+      }
+    }
+
+    @Override
+    public float[] read(DataInput in) throws IOException {
+      float[] encoding = new float[in.readInt()];
+      for (int i = 0; i < encoding.length; i++) {
+        encoding[i] = in.readFloat();
+      }
+      return encoding;
+    }
+
+    @Override
+    public float[] copy(float[] encoding) {
+      return encoding.clone();
+    }
+  };
+
   public DenseEncoder(String modelName, String modelURL, String vocabName, String vocabURL, String configURL)
       throws IOException, OrtException, URISyntaxException {
     super(modelName, modelURL, vocabName, vocabURL, configURL);
   }
 
+  public DenseEncoder(String modelName, String modelURL, String vocabName, String vocabURL, String configURL,
+                      OrtSession.SessionOptions options)
+      throws IOException, OrtException, URISyntaxException {
+    super(modelName, modelURL, vocabName, vocabURL, configURL, options);
+  }
+
+  @Override
+  protected QueryEncodingCache.Codec<float[]> getQueryCodec() {
+    return QUERY_CODEC;
+  }
+
   public static float[] normalize(float[] vector) {
     final float EPS = 1e-12f;
     float norm = 0;
@@ -17,21 +17,64 @@
 package io.anserini.encoder.sparse;
 
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
 import io.anserini.encoder.OnnxEncoder;
+import io.anserini.encoder.QueryEncodingCache;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public abstract class SparseEncoder extends OnnxEncoder<Map<String, Integer>> {
 
+  /**
+   * Codec for caching sparse encodings. Cached encodings iterate over their tokens in the same order as the original
+   * ones, so that queries built from them are exactly the same.
+   */
+  public static final QueryEncodingCache.Codec<Map<String, Integer>> QUERY_CODEC = new QueryEncodingCache.Codec<>() {
+    @Override
+    public void write(Map<String, Integer> encoding, DataOutput out) throws IOException {
+      out.writeInt(encoding.size());
+      for (Map.Entry<String, Integer> entry : encoding.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+    }
+
+    @Override
+    public Map<String, Integer> read(DataInput in) throws IOException {
+      int size = in.readInt();
+      Map<String, Integer> encoding = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        encoding.put(in.readUTF(), in.readInt());
+      }
+      return encoding;
+    }
+
+    @Override
+    public Map<String, Integer> copy(Map<String, Integer> encoding) {
+      return new LinkedHashMap<>(encoding);
+    }
+  };
+
   protected int weightRange;
   protected int quantRange;
 
+  /**
+   * Expands token weights into a string in which each token is repeated as many times as its weight. Searching the
+   * weights directly (see {@link io.anserini.search.query.BagOfWordsQueryGenerator#buildImpactQuery}) is preferable,
+   * since the length of the string grows with the weights.
+   *
+   * @param intWeights token weights
+   * @return string in which each token is repeated as many times as its weight
+   */
   public static String flatten(Map<String, Integer> intWeights) {
     List<String> tokens = new ArrayList<>();
     for (Map.Entry<String, Integer> entry : intWeights.entrySet()) {
@@ -54,6 +97,16 @@ public abstract class SparseEncoder extends OnnxEncoder<Map<String, Integer>> {
     this.quantRange = quantRange;
   }
 
+  public SparseEncoder(int weightRange, int quantRange,
+                       @NotNull String modelName, @NotNull String modelUrl,
+                       @NotNull String vocabName, @NotNull String vocabUrl, String configUrl,
+                       @NotNull OrtSession.SessionOptions options)
+      throws IOException, OrtException, URISyntaxException {
+    super(modelName, modelUrl, vocabName, vocabUrl, configUrl, options);
+    this.weightRange = weightRange;
+    this.quantRange = quantRange;
+  }
+
   public Map<String, Integer> quantizeFloatWeights(Map<String, Float> tokenFloatWeights) {
     Map<String, Integer> tokenIntWeights = new HashMap<>();
     tokenFloatWeights.forEach((token, weight) -> tokenIntWeights.put(token, Math.round(weight / weightRange * quantRange)));
@@ -66,13 +119,13 @@ public abstract class SparseEncoder extends OnnxEncoder<Map<String, Integer>> {
     return quantizeFloatWeights(computeFloatWeights(query));
   }
 
-  public long[] tokenizeToIds(String query) {
-    List<String> queryTokens = new ArrayList<>();
-    queryTokens.add(CLS);
-    queryTokens.addAll(tokenizer.tokenize(query));
-    queryTokens.add(SEP);
+  @Override
+  protected QueryEncodingCache.Codec<Map<String, Integer>> getQueryCodec() {
+    return QUERY_CODEC;
+  }
 
-    return convertTokensToIds(queryTokens);
+  public long[] tokenizeToIds(String query) {
+    return wordPieceTokenizer.encode(query);
   }
 
   protected abstract Map<String, Float> computeFloatWeights(String query) throws OrtException;
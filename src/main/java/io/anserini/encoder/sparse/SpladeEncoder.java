@@ -23,11 +23,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
 public abstract class SpladeEncoder extends SparseEncoder {
@@ -47,27 +43,23 @@ public abstract class SpladeEncoder extends SparseEncoder {
     super(WEIGHT_RANGE, QUANT_RANGE, modelName, modelUrl, vocabName, vocabUrl, configUrl);
   }
 
+  protected SpladeEncoder(@NotNull String modelName, @NotNull String modelUrl,
+                          @NotNull String vocabName, @NotNull String vocabUrl, String configUrl,
+                          @NotNull OrtSession.SessionOptions options)
+      throws IOException, OrtException, URISyntaxException {
+    super(WEIGHT_RANGE, QUANT_RANGE, modelName, modelUrl, vocabName, vocabUrl, configUrl, options);
+  }
+
   @Override
   protected Map<String, Float> computeFloatWeights(String query) throws OrtException {
-    List<String> queryTokens = new ArrayList<>();
-    queryTokens.add(CLS);
-    queryTokens.addAll(tokenizer.tokenize(query));
-    queryTokens = (queryTokens.size() > MAX_SEQ_LEN - 2) ? queryTokens.subList(0, MAX_SEQ_LEN - 2) : queryTokens;
-    queryTokens.add(SEP);
-
-    Map<String, OnnxTensor> inputs = new HashMap<>();
-    long[] queryTokenIds = convertTokensToIds(queryTokens, MAX_SEQ_LEN);
-    long[][] inputTokenIds = new long[1][queryTokenIds.length];
-    inputTokenIds[0] = queryTokenIds;
-    long[][] attentionMask = new long[1][queryTokenIds.length];
-    Arrays.fill(attentionMask[0], 1);
-    long[][] tokenTypeIds = new long[1][queryTokenIds.length];
-
-    inputs.put(MODEL_INPUT_IDS, OnnxTensor.createTensor(environment, inputTokenIds));
-    inputs.put(MODEL_TOKEN_TYPE_IDS, OnnxTensor.createTensor(environment, tokenTypeIds));
-    inputs.put(MODEL_ATTENTION_MASK, OnnxTensor.createTensor(environment, attentionMask));
+    // Queries have always been truncated to one token less than the model takes.
+    long[] queryTokenIds = wordPieceTokenizer.encode(query, MAX_SEQ_LEN - 1);
 
-    try (OrtSession.Result results = session.run(inputs)) {
+    try (OnnxTensor ids = createInputTensor(0, new long[][] {queryTokenIds});
+         OnnxTensor tokenTypeIds = createZeroTensor(1, 1, queryTokenIds.length);
+         OnnxTensor attentionMask = createMaskTensor(2, 1, queryTokenIds.length);
+         OrtSession.Result results = session.run(Map.of(
+             MODEL_INPUT_IDS, ids, MODEL_TOKEN_TYPE_IDS, tokenTypeIds, MODEL_ATTENTION_MASK, attentionMask))) {
       assert (results.get(MODEL_OUTPUT_IDX).isPresent());
       assert (results.get(MODEL_OUTPUT_WEIGHTS).isPresent());
 
@@ -17,6 +17,7 @@
 package io.anserini.encoder.sparse;
 
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -32,4 +33,8 @@ public class SpladeV3Encoder extends SpladeEncoder {
   public SpladeV3Encoder() throws IOException, OrtException, URISyntaxException {
     super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL);
   }
+
+  public SpladeV3Encoder(OrtSession.SessionOptions options) throws IOException, OrtException, URISyntaxException {
+    super(MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL, options);
+  }
 }
\ No newline at end of file
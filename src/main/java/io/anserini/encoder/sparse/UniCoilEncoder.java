@@ -19,12 +19,11 @@ package io.anserini.encoder.sparse;
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
-import org.apache.commons.lang3.ArrayUtils;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,49 +42,58 @@ public class UniCoilEncoder extends SparseEncoder {
     super(5, 256, MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL);
   }
 
+  public UniCoilEncoder(OrtSession.SessionOptions options) throws IOException, OrtException, URISyntaxException {
+    super(5, 256, MODEL_NAME, MODEL_URL, VOCAB_NAME, VOCAB_URL, CONFIG_URL, options);
+  }
+
   @Override
   protected Map<String, Float> computeFloatWeights(String query) throws OrtException {
-    List<String> queryTokens = new ArrayList<>();
-    queryTokens.add(CLS);
-    queryTokens.addAll(tokenizer.tokenize(query));
-    queryTokens.add(SEP);
-
-    Map<String, OnnxTensor> inputs = new HashMap<>();
-    long[] queryTokenIds = convertTokensToIds(queryTokens);
-    long[][] inputTokenIds = new long[1][queryTokenIds.length];
-    inputTokenIds[0] = queryTokenIds;
-    inputs.put(MODEL_INPUT_IDS, OnnxTensor.createTensor(environment, inputTokenIds));
-
-    try (OrtSession.Result results = session.run(inputs)) {
-      float[] computedWeights = flattenResults(results.get(0).getValue());
-
-      Map<String, Float> tokenWeightMap = new LinkedHashMap<>();
-      for (int i = 0; i < queryTokens.size(); ++i) {
-        String token = queryTokens.get(i);
-        if (token.equals(CLS) || token.equals(PAD)) {
-          continue;
-        }
+    long[] queryTokenIds = tokenizeToInputIds(query);
+    return computeFloatWeights(new long[][] {queryTokenIds}).get(0);
+  }
 
-        tokenWeightMap.put(token,
-            tokenWeightMap.containsKey(token) ? tokenWeightMap.get(token) + computedWeights[i] : computedWeights[i]);
+  private List<Map<String, Float>> computeFloatWeights(long[][] inputIds) throws OrtException {
+    try (OnnxTensor ids = createInputTensor(0, inputIds);
+         OrtSession.Result results = session.run(Map.of(MODEL_INPUT_IDS, ids))) {
+      float[][][] computedWeights = (float[][][]) results.get(0).getValue();
+      final long cls = vocab.getIndex(CLS);
+      final long pad = vocab.getIndex(PAD);
+
+      List<Map<String, Float>> tokenWeightMaps = new ArrayList<>(inputIds.length);
+      for (int b = 0; b < inputIds.length; b++) {
+        Map<String, Float> tokenWeightMap = new LinkedHashMap<>();
+        for (int i = 0; i < inputIds[b].length; ++i) {
+          if (inputIds[b][i] == cls || inputIds[b][i] == pad) {
+            continue;
+          }
+
+          String token = vocab.getToken(inputIds[b][i]);
+          float weight = computedWeights[b][i][0];
+          tokenWeightMap.put(token, tokenWeightMap.containsKey(token) ? tokenWeightMap.get(token) + weight : weight);
+        }
+        tokenWeightMaps.add(tokenWeightMap);
       }
 
-      return tokenWeightMap;
+      return tokenWeightMaps;
     }
   }
 
-  private float[] flattenResults(Object obj) {
-    List<Float> weightsList = new ArrayList<>();
-    Object[] inputs = (Object[]) obj;
-    for (Object input : inputs) {
-      float[][] weights = (float[][]) input;
-      for (float[] weight : weights) {
-        weightsList.add(weight[0]);
-      }
+  @Override
+  protected long[] tokenizeToInputIds(@NotNull String query) {
+    return tokenizeToIds(query);
+  }
+
+  @Override
+  protected List<Map<String, Integer>> encodeBatch(long[][] inputIds) throws OrtException {
+    List<Map<String, Integer>> encodings = new ArrayList<>(inputIds.length);
+    for (Map<String, Float> tokenWeights : computeFloatWeights(inputIds)) {
+      encodings.add(quantizeFloatWeights(tokenWeights));
     }
+    return encodings;
+  }
 
-    Float[] floatObjects = new Float[weightsList.size()];
-    floatObjects = weightsList.toArray(floatObjects);
-    return ArrayUtils.toPrimitive(floatObjects);
+  @Override
+  public boolean supportsBatching() {
+    return true;
   }
-}
\ No newline at end of file
+}
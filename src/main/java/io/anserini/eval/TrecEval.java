@@ -0,0 +1,603 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.eval;
+
+import io.anserini.search.ScoredDoc;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>A pure-Java, in-process implementation of the subset of <a href="https://github.com/usnistgov/trec_eval">trec_eval</a>
+ * used by our regressions, built on {@link RelevanceJudgments}. Unlike the native binary (see {@code trec_eval}), it
+ * does not need to spawn a process or write runs to disk, the same judgments can be reused across any number of
+ * evaluations (e.g., when sweeping parameters), and queries can be evaluated in parallel.</p>
+ *
+ * <p>Options follow trec_eval: {@code -c} (average over all queries in the judgments), {@code -q} (per-query output),
+ * {@code -M n} (only consider the top n documents of each ranked list), {@code -l n} (minimum relevance grade for a
+ * document to count as relevant), and {@code -m measure}. Supported measures are {@code map}, {@code recip_rank},
+ * {@code ndcg}, {@code num_ret}, {@code num_rel}, {@code num_rel_ret}, and the cutoff measures {@code P},
+ * {@code recall}, {@code map_cut}, and {@code ndcg_cut} (e.g., {@code ndcg_cut.10} or {@code recall.100,1000}). In
+ * addition, {@code judged.k} gives the fraction of the top k documents that are judged. As with trec_eval, documents
+ * are ranked by decreasing score, with ties broken by decreasing docid; ranks in the run are ignored.</p>
+ */
+public class TrecEval {
+  // Grade of unjudged documents, which no judgment can have.
+  private static final int UNJUDGED = Integer.MIN_VALUE;
+  private static final int[] DEFAULT_CUTOFFS = {5, 10, 15, 20, 30, 100, 200, 500, 1000};
+  // Number of queries that each task of a parallel evaluation evaluates.
+  private static final int QUERIES_PER_TASK = 64;
+
+  private final RelevanceJudgments qrels;
+
+  public TrecEval(RelevanceJudgments qrels) {
+    this.qrels = qrels;
+  }
+
+  /**
+   * A run, i.e., a ranked list of documents for each query.
+   */
+  public static final class Run {
+    private final Map<String, QueryRun> queries = new LinkedHashMap<>();
+
+    private static final class QueryRun {
+      String[] docids = new String[16];
+      double[] scores = new double[16];
+      int size;
+      boolean sorted;
+
+      void add(String docid, double score) {
+        if (size == docids.length) {
+          docids = Arrays.copyOf(docids, size * 2);
+          scores = Arrays.copyOf(scores, size * 2);
+        }
+        docids[size] = docid;
+        scores[size] = score;
+        size++;
+        sorted = false;
+      }
+
+      // Sorts by decreasing score, breaking ties by decreasing docid, which is what trec_eval does.
+      synchronized void sort() {
+        if (sorted) {
+          return;
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+          order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+          int c = Double.compare(scores[b], scores[a]);
+          return c != 0 ? c : docids[b].compareTo(docids[a]);
+        });
+        String[] sortedDocids = new String[size];
+        double[] sortedScores = new double[size];
+        for (int i = 0; i < size; i++) {
+          sortedDocids[i] = docids[order[i]];
+          sortedScores[i] = scores[order[i]];
+        }
+        docids = sortedDocids;
+        scores = sortedScores;
+        sorted = true;
+      }
+    }
+
+    public void add(String qid, String docid, double score) {
+      queries.computeIfAbsent(qid, k -> new QueryRun()).add(docid, score);
+    }
+
+    public int size() {
+      return queries.size();
+    }
+
+    /**
+     * Reads a run in TREC format.
+     *
+     * @param path path to the run
+     * @return run
+     * @throws IOException if error encountered reading the run
+     */
+    public static Run read(Path path) throws IOException {
+      Run run = new Run();
+      try (BufferedReader reader = Files.newBufferedReader(path)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] arr = line.trim().split("\\s+");
+          if (arr.length < 6) {
+            continue;
+          }
+          run.add(arr[0], arr[2], Double.parseDouble(arr[4]));
+        }
+      }
+      return run;
+    }
+
+    /**
+     * Creates a run from search results held in memory, e.g., by {@code SearchCollection}. Scores are rounded to six
+     * decimal places, as in runs written by {@code RunOutputWriter}, so that ties (and hence ranks) are exactly the
+     * same as when evaluating the run file.
+     *
+     * @param results results for each query
+     * @param <K> type of qid
+     * @return run
+     */
+    public static <K> Run fromResults(Map<K, ScoredDoc[]> results) {
+      Run run = new Run();
+      results.forEach((qid, docs) -> run.add(qid.toString(), docs));
+      return run;
+    }
+
+    /**
+     * Adds the search results for a query, with scores rounded as in {@link #fromResults}.
+     *
+     * @param qid qid
+     * @param docs results
+     */
+    public void add(String qid, ScoredDoc[] docs) {
+      for (ScoredDoc doc : docs) {
+        add(qid, doc.docid, round(doc.score));
+      }
+    }
+
+    // Rounds half away from zero, as "%f" does. Scaling a float by 10^6 is exact in double precision.
+    private static double round(float score) {
+      double scaled = Math.round(Math.abs((double) score) * 1e6) / 1e6;
+      return score < 0 ? -scaled : scaled;
+    }
+  }
+
+  private enum Measure {
+    MAP("map", false),
+    RECIP_RANK("recip_rank", false),
+    NDCG("ndcg", false),
+    NUM_RET("num_ret", false),
+    NUM_REL("num_rel", false),
+    NUM_REL_RET("num_rel_ret", false),
+    P("P", true),
+    RECALL("recall", true),
+    MAP_CUT("map_cut", true),
+    NDCG_CUT("ndcg_cut", true),
+    JUDGED("judged", true);
+
+    final String name;
+    final boolean hasCutoffs;
+
+    Measure(String name, boolean hasCutoffs) {
+      this.name = name;
+      this.hasCutoffs = hasCutoffs;
+    }
+
+    boolean isSum() {
+      return this == NUM_RET || this == NUM_REL || this == NUM_REL_RET;
+    }
+
+    static Measure of(String name) {
+      for (Measure m : values()) {
+        if (m.name.equals(name)) {
+          return m;
+        }
+      }
+      throw new IllegalArgumentException("Unsupported measure: " + name);
+    }
+  }
+
+  // A measure at a particular cutoff, e.g., ndcg_cut.10.
+  private record Metric(Measure measure, int cutoff) {
+    String label() {
+      return measure.hasCutoffs ? measure.name + "_" + cutoff : measure.name;
+    }
+  }
+
+  /**
+   * Evaluation results: the value of each metric for each query, along with their aggregate.
+   */
+  public static final class Result {
+    private final String[] metrics;
+    private final String[] qids;
+    private final double[][] values;
+    private final double[] aggregates;
+    private final boolean[] sums;
+    private final boolean[] retrieved;
+
+    private Result(String[] metrics, String[] qids, double[][] values, boolean[] sums, boolean[] retrieved) {
+      this.metrics = metrics;
+      this.qids = qids;
+      this.values = values;
+      this.sums = sums;
+      this.retrieved = retrieved;
+      this.aggregates = new double[metrics.length];
+      for (int m = 0; m < metrics.length; m++) {
+        double total = 0.0;
+        for (int q = 0; q < qids.length; q++) {
+          total += values[m][q];
+        }
+        aggregates[m] = sums[m] || qids.length == 0 ? total : total / qids.length;
+      }
+    }
+
+    /**
+     * Returns the names of the metrics, as trec_eval would print them (e.g., {@code ndcg_cut_10}).
+     *
+     * @return names of the metrics
+     */
+    public List<String> getMetrics() {
+      return Collections.unmodifiableList(Arrays.asList(metrics));
+    }
+
+    /**
+     * Returns the aggregate value of a metric over all queries.
+     *
+     * @param metric metric name, e.g., {@code ndcg_cut_10}
+     * @return aggregate value
+     */
+    public double get(String metric) {
+      return aggregates[indexOf(metric)];
+    }
+
+    /**
+     * Returns the value of a metric for a query.
+     *
+     * @param metric metric name, e.g., {@code ndcg_cut_10}
+     * @param qid qid
+     * @return value for the query
+     */
+    public double get(String metric, String qid) {
+      int q = Arrays.asList(qids).indexOf(qid);
+      if (q < 0) {
+        throw new IllegalArgumentException("Query not evaluated: " + qid);
+      }
+      return values[indexOf(metric)][q];
+    }
+
+    /**
+     * Returns the aggregate value of each metric over all queries.
+     *
+     * @return map from metric name to aggregate value
+     */
+    public Map<String, Double> getAggregates() {
+      Map<String, Double> map = new LinkedHashMap<>();
+      for (int m = 0; m < metrics.length; m++) {
+        map.put(metrics[m], aggregates[m]);
+      }
+      return map;
+    }
+
+    private int indexOf(String metric) {
+      for (int m = 0; m < metrics.length; m++) {
+        if (metrics[m].equals(metric)) {
+          return m;
+        }
+      }
+      throw new IllegalArgumentException("Metric not evaluated: " + metric);
+    }
+
+    /**
+     * Formats the results in the same way as trec_eval.
+     *
+     * @param perQuery whether to include per-query values
+     * @return formatted results
+     */
+    public String format(boolean perQuery) {
+      StringBuilder sb = new StringBuilder();
+      if (perQuery) {
+        for (int q = 0; q < qids.length; q++) {
+          // As with trec_eval, queries without results are only reflected in the aggregates.
+          if (!retrieved[q]) {
+            continue;
+          }
+          for (int m = 0; m < metrics.length; m++) {
+            sb.append(formatLine(metrics[m], qids[q], values[m][q], sums[m]));
+          }
+        }
+      }
+      for (int m = 0; m < metrics.length; m++) {
+        sb.append(formatLine(metrics[m], "all", aggregates[m], sums[m]));
+      }
+      return sb.toString();
+    }
+
+    private static String formatLine(String metric, String qid, double value, boolean sum) {
+      return sum ? String.format("%-22s\t%s\t%d\n", metric, qid, (long) value) :
+          String.format("%-22s\t%s\t%.4f\n", metric, qid, value);
+    }
+  }
+
+  /**
+   * Parsed trec_eval options.
+   *
+   * @param complete whether to average over all queries in the judgments ({@code -c})
+   * @param maxDocs number of documents to consider in each ranked list ({@code -M})
+   * @param level minimum relevance grade for a document to count as relevant ({@code -l})
+   * @param metrics metrics to compute ({@code -m})
+   */
+  private record Options(boolean complete, int maxDocs, int level, List<Metric> metrics) {
+    static Options parse(String... options) {
+      boolean complete = false;
+      int maxDocs = Integer.MAX_VALUE;
+      int level = 1;
+      List<Metric> metrics = new ArrayList<>();
+
+      for (int i = 0; i < options.length; i++) {
+        switch (options[i]) {
+          case "-c" -> complete = true;
+          case "-q", "-n" -> {
+            // Per-query output is up to the caller; see Result#format.
+          }
+          case "-M" -> maxDocs = Integer.parseInt(requireValue(options, ++i));
+          case "-l" -> level = Integer.parseInt(requireValue(options, ++i));
+          case "-m" -> metrics.addAll(parseMetrics(requireValue(options, ++i)));
+          default -> {
+            if (options[i].startsWith("-M")) {
+              maxDocs = Integer.parseInt(options[i].substring(2));
+            } else if (options[i].startsWith("-l")) {
+              level = Integer.parseInt(options[i].substring(2));
+            } else if (options[i].startsWith("-m")) {
+              metrics.addAll(parseMetrics(options[i].substring(2)));
+            } else {
+              throw new IllegalArgumentException("Unsupported option: " + options[i]);
+            }
+          }
+        }
+      }
+      if (metrics.isEmpty()) {
+        throw new IllegalArgumentException("No measures specified.");
+      }
+
+      return new Options(complete, maxDocs, level, metrics);
+    }
+  }
+
+  /**
+   * Checks that trec_eval options are well-formed and only ask for supported measures, so that callers can fail fast
+   * before spending time generating a run.
+   *
+   * @param options trec_eval options
+   * @throws IllegalArgumentException if the options are not valid
+   */
+  public static void checkOptions(String... options) {
+    Options.parse(options);
+  }
+
+  /**
+   * Evaluates a run.
+   *
+   * @param run run
+   * @param options trec_eval options, e.g., {@code "-c", "-M", "100", "-m", "map"}
+   * @return evaluation results
+   */
+  public Result evaluate(Run run, String... options) {
+    return evaluate(run, (ExecutorService) null, options);
+  }
+
+  /**
+   * Evaluates a run, in parallel over queries on an executor, if one is given and there are enough queries.
+   *
+   * @param run run
+   * @param executor executor to evaluate queries on, which the caller shuts down; {@code null} to evaluate them one
+   *     after another in the calling thread
+   * @param options trec_eval options, e.g., {@code "-c", "-M", "100", "-m", "map"}
+   * @return evaluation results
+   */
+  public Result evaluate(Run run, @Nullable ExecutorService executor, String... options) {
+    Options parsed = Options.parse(options);
+    List<Metric> metrics = parsed.metrics();
+
+    // Queries that are both in the run and in the judgments, plus, with -c, those only in the judgments.
+    TreeSet<String> qidSet = new TreeSet<>();
+    for (String qid : run.queries.keySet()) {
+      if (qrels.getDocMap(qid) != null) {
+        qidSet.add(qid);
+      }
+    }
+    if (parsed.complete()) {
+      qidSet.addAll(qrels.getQids());
+    }
+    String[] qids = qidSet.toArray(new String[0]);
+
+    double[][] values = new double[metrics.size()][qids.length];
+    if (executor == null || qids.length <= QUERIES_PER_TASK) {
+      for (int q = 0; q < qids.length; q++) {
+        evaluateQuery(run.queries.get(qids[q]), qrels.getDocMap(qids[q]), parsed.maxDocs(), parsed.level(), metrics,
+            values, q);
+      }
+    } else {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int from = 0; from < qids.length; from += QUERIES_PER_TASK) {
+        int start = from;
+        int end = Math.min(from + QUERIES_PER_TASK, qids.length);
+        futures.add(executor.submit(() -> {
+          for (int q = start; q < end; q++) {
+            evaluateQuery(run.queries.get(qids[q]), qrels.getDocMap(qids[q]), parsed.maxDocs(), parsed.level(),
+                metrics, values, q);
+          }
+        }));
+      }
+      try {
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(e);
+      } catch (ExecutionException e) {
+        throw new CompletionException(e.getCause());
+      }
+    }
+
+    String[] labels = new String[metrics.size()];
+    boolean[] sums = new boolean[metrics.size()];
+    for (int m = 0; m < labels.length; m++) {
+      labels[m] = metrics.get(m).label();
+      sums[m] = metrics.get(m).measure.isSum();
+    }
+
+    boolean[] retrieved = new boolean[qids.length];
+    for (int q = 0; q < qids.length; q++) {
+      retrieved[q] = run.queries.containsKey(qids[q]);
+    }
+
+    return new Result(labels, qids, values, sums, retrieved);
+  }
+
+  private static String requireValue(String[] options, int i) {
+    if (i >= options.length) {
+      throw new IllegalArgumentException("Missing value for option " + options[i - 1]);
+    }
+    return options[i];
+  }
+
+  private static List<Metric> parseMetrics(String spec) {
+    int dot = spec.indexOf('.');
+    Measure measure = Measure.of(dot < 0 ? spec : spec.substring(0, dot));
+    List<Metric> metrics = new ArrayList<>();
+    if (!measure.hasCutoffs) {
+      if (dot >= 0) {
+        throw new IllegalArgumentException("Measure does not take cutoffs: " + spec);
+      }
+      metrics.add(new Metric(measure, 0));
+    } else if (dot < 0) {
+      for (int cutoff : DEFAULT_CUTOFFS) {
+        metrics.add(new Metric(measure, cutoff));
+      }
+    } else {
+      for (String cutoff : spec.substring(dot + 1).split(",")) {
+        metrics.add(new Metric(measure, Integer.parseInt(cutoff)));
+      }
+    }
+    return metrics;
+  }
+
+  private static void evaluateQuery(Run.QueryRun queryRun, Map<String, Integer> judgments, int maxDocs, int level,
+                                    List<Metric> metrics, double[][] values, int q) {
+    // Grades of the retrieved documents, in rank order; UNJUDGED for unjudged documents, since judgments can be
+    // negative.
+    int numRet = 0;
+    int[] grades = new int[0];
+    if (queryRun != null) {
+      queryRun.sort();
+      numRet = Math.min(queryRun.size, maxDocs);
+      grades = new int[numRet];
+      for (int i = 0; i < numRet; i++) {
+        Integer grade = judgments.get(queryRun.docids[i]);
+        grades[i] = grade == null ? UNJUDGED : grade;
+      }
+    }
+
+    // Grades of the judged documents, in decreasing order, for computing ideal DCG.
+    int numRel = 0;
+    int[] idealGrades = new int[judgments.size()];
+    int numIdeal = 0;
+    for (int grade : judgments.values()) {
+      if (grade >= level) {
+        numRel++;
+      }
+      if (grade > 0) {
+        idealGrades[numIdeal++] = grade;
+      }
+    }
+    Arrays.sort(idealGrades, 0, numIdeal);
+
+    // Cumulative number of relevant documents, sum of precisions at relevant documents, and DCG, at each rank.
+    int[] relRet = new int[numRet + 1];
+    double[] sumPrec = new double[numRet + 1];
+    double[] dcg = new double[numRet + 1];
+    int firstRel = -1;
+    for (int i = 0; i < numRet; i++) {
+      boolean rel = grades[i] >= level;
+      relRet[i + 1] = relRet[i] + (rel ? 1 : 0);
+      sumPrec[i + 1] = sumPrec[i] + (rel ? (double) relRet[i + 1] / (i + 1) : 0.0);
+      dcg[i + 1] = dcg[i] + (grades[i] > 0 ? grades[i] / log2(i + 2) : 0.0);
+      if (rel && firstRel < 0) {
+        firstRel = i;
+      }
+    }
+
+    for (int m = 0; m < metrics.size(); m++) {
+      Metric metric = metrics.get(m);
+      int k = metric.cutoff();
+      int atK = Math.min(k, numRet);
+      double value = switch (metric.measure()) {
+        case MAP -> numRel == 0 ? 0.0 : sumPrec[numRet] / numRel;
+        case RECIP_RANK -> firstRel < 0 ? 0.0 : 1.0 / (firstRel + 1);
+        case NDCG -> ndcg(dcg[numRet], idealGrades, numIdeal, numIdeal);
+        case NUM_RET -> numRet;
+        // As with trec_eval, num_rel counts the documents with a grade of at least -l.
+        case NUM_REL -> numRel;
+        case NUM_REL_RET -> relRet[numRet];
+        case P -> (double) relRet[atK] / k;
+        case RECALL -> numRel == 0 ? 0.0 : (double) relRet[atK] / numRel;
+        case MAP_CUT -> numRel == 0 ? 0.0 : sumPrec[atK] / numRel;
+        case NDCG_CUT -> ndcg(dcg[atK], idealGrades, numIdeal, k);
+        case JUDGED -> {
+          int judged = 0;
+          for (int i = 0; i < atK; i++) {
+            if (grades[i] != UNJUDGED) {
+              judged++;
+            }
+          }
+          yield (double) judged / k;
+        }
+      };
+      values[m][q] = value;
+    }
+  }
+
+  // idealGrades[0..numIdeal) is sorted in increasing order.
+  private static double ndcg(double dcg, int[] idealGrades, int numIdeal, int k) {
+    double idcg = 0.0;
+    for (int i = 0; i < Math.min(k, numIdeal); i++) {
+      idcg += idealGrades[numIdeal - 1 - i] / log2(i + 2);
+    }
+    return idcg == 0.0 ? 0.0 : dcg / idcg;
+  }
+
+  private static double log2(double x) {
+    return Math.log(x) / Math.log(2.0);
+  }
+
+  /**
+   * Evaluates a run from the command line, with the same arguments and output as trec_eval.
+   *
+   * @param args trec_eval options, followed by the judgments and the run
+   * @throws IOException if error encountered reading the judgments or the run
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: TrecEval [-c] [-q] [-M n] [-l n] {-m measure}* qrels run");
+      System.exit(1);
+    }
+
+    String[] options = Arrays.copyOf(args, args.length - 2);
+    TrecEval eval = new TrecEval(new RelevanceJudgments(args[args.length - 2]));
+    Result result = eval.evaluate(Run.read(Path.of(args[args.length - 1])), options);
+    System.out.print(result.format(Arrays.asList(options).contains("-q")));
+  }
+}
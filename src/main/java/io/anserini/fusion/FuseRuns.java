@@ -22,7 +22,7 @@ import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.ParserProperties;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
-import io.anserini.search.ScoredDocs;
+import io.anserini.util.TermVocabulary;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -53,7 +53,10 @@ public class FuseRuns {
   }
 
   private final RunsFuser fuser;
-  private final List<ScoredDocs> runs = new ArrayList<ScoredDocs>();
+  // Runs share vocabularies of topics and docids, so that they can be merged by ordinal.
+  private final TermVocabulary topics = new TermVocabulary();
+  private final TermVocabulary docids = new TermVocabulary();
+  private final List<TrecRun> runs = new ArrayList<TrecRun>();
 
   public FuseRuns(Args args) throws IOException {
     this.fuser = new RunsFuser(args);
@@ -68,6 +71,7 @@ public class FuseRuns {
     LOG.info("Pool depth: " + args.depth);
     LOG.info("Resort TREC run files: " + args.resort);
     LOG.info("Min-max normalization: " + args.minMaxNormalization);
+    LOG.info("Threads: " + args.threads);
     if (args.weights != null) {
       LOG.info("Weights: " + args.weights);
     }
@@ -80,6 +84,9 @@ public class FuseRuns {
       if (args.k <= 0) {
         throw new IllegalArgumentException("Option k must be greater than 0");
       }
+      if (args.threads <= 0) {
+        throw new IllegalArgumentException("Option threads must be greater than 0");
+      }
     } catch (Exception e) {
       throw new IllegalArgumentException(String.format("Error: %s. Please check the provided arguments. Use the \"-options\" flag to print out detailed information about available options and their usage.\n",
         e.getMessage()));
@@ -88,7 +95,7 @@ public class FuseRuns {
     for (String runFile : args.runs) {
       try {
         Path path = Paths.get(runFile);
-        ScoredDocs run = ScoredDocsFuser.readRun(path, args.resort);
+        TrecRun run = TrecRun.read(path, args.resort, topics, docids);
         runs.add(run);
       } catch (Exception e) {
         throw new IllegalArgumentException(String.format("Error: %s. Please check the provided arguments. Use the \"-options\" flag to print out detailed information about available options and their usage.\n",
@@ -99,7 +106,7 @@ public class FuseRuns {
 
   public void run() throws IOException {
     LOG.info("============ Launching Fusion ============");
-    fuser.fuse(runs);
+    fuser.fuseRuns(runs);
   }
 
   public static void main(String[] args) throws Exception {
@@ -17,14 +17,16 @@
 package io.anserini.fusion;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.kohsuke.args4j.Option;
 
 import io.anserini.search.ScoredDocs;
+import io.anserini.util.TermVocabulary;
 
 /**
  * Main logic class for Fusion
@@ -64,6 +66,9 @@ public class RunsFuser {
 
     @Option(name = "-min_max_normalization", required = false, usage = "Apply min-max normalization before fusion")
     public boolean minMaxNormalization = false;
+
+    @Option(name = "-threads", metaVar = "[number]", required = false, usage = "Number of threads to merge topics with.")
+    public int threads = 1;
   }
 
   public RunsFuser(Args args) {
@@ -139,19 +144,6 @@ public class RunsFuser {
     return ScoredDocsFuser.merge(runs, depth, k);
   }
 
-  /**
-   * Apply min-max normalization to runs if requested.
-   *
-   * @param runs List of ScoredDocs objects to normalize.
-   */
-  private void normalizeRuns(List<ScoredDocs> runs) {
-    if (args.minMaxNormalization) {
-      for (ScoredDocs run : runs) {
-        ScoredDocsFuser.normalizeScores(run);
-      }
-    }
-  }
-
   /**
    * Parse comma-separated weights string into a list of doubles.
    *
@@ -174,18 +166,18 @@ public class RunsFuser {
   /**
    * Validate inputs and parse weights for weighted fusion method.
    *
-   * @param runs List of ScoredDocs objects.
+   * @param numRuns Number of runs.
    * @return Parsed weights list for weighted fusion, null for other methods.
    * @throws IllegalArgumentException If validation fails.
    */
-  private List<Double> validateAndParse(List<ScoredDocs> runs) {
+  private List<Double> validateAndParse(int numRuns) {
     switch (args.method.toLowerCase()) {
       case METHOD_RRF:
         break;
       case METHOD_AVERAGE:
           break;
       case METHOD_INTERPOLATION:
-        if (runs.size() != 2) {
+        if (numRuns != 2) {
           throw new IllegalArgumentException("Interpolation requires exactly 2 runs");
         }
         break;
@@ -194,7 +186,7 @@ public class RunsFuser {
           throw new IllegalArgumentException("Weights must be provided for weighted fusion method");
         }
         List<Double> weights = parseWeights(args.weights);
-        if (runs.size() != weights.size()) {
+        if (numRuns != weights.size()) {
           throw new IllegalArgumentException("Number of runs must match number of weights");
         }
         return weights;
@@ -211,33 +203,67 @@ public class RunsFuser {
    * @throws IOException If an I/O error occurs while saving the output.
    */
   public void fuse(List<ScoredDocs> runs) throws IOException {
+    TermVocabulary topics = new TermVocabulary();
+    TermVocabulary docids = new TermVocabulary();
+    List<TrecRun> trecRuns = new ArrayList<>();
+    for (ScoredDocs run : runs) {
+      trecRuns.add(TrecRun.fromScoredDocs(run, topics, docids));
+    }
+
+    fuseRuns(trecRuns);
+  }
+
+  /**
+   * Process the fusion of runs based on the specified method. Runs are rescored in place, then merged, in parallel over
+   * topics with more than one thread; see {@link TrecRun#merge(List, int, int, ExecutorService)}.
+   *
+   * @param runs List of runs to be fused, which must share vocabularies.
+   * @throws IOException If an I/O error occurs while saving the output.
+   */
+  public void fuseRuns(List<TrecRun> runs) throws IOException {
     // Validate inputs and parse weights if needed
-    List<Double> weights = validateAndParse(runs);
-    
+    List<Double> weights = validateAndParse(runs.size());
+
     // Apply min-max normalization if requested
-    normalizeRuns(runs);
-    
-    ScoredDocs fusedRun;
+    if (args.minMaxNormalization) {
+      for (TrecRun run : runs) {
+        run.normalizeScores();
+      }
+    }
 
-    // Select fusion method and perform fusion
+    // Select fusion method and rescore runs accordingly
     switch (args.method.toLowerCase()) {
       case METHOD_RRF:
-        fusedRun = reciprocalRankFusion(runs, args.rrf_k, args.depth, args.k);
+        for (TrecRun run : runs) {
+          run.rescore(ScoredDocsFuser.RescoreMethod.RRF, args.rrf_k, 0);
+        }
         break;
       case METHOD_INTERPOLATION:
-        fusedRun = interpolation(runs, args.alpha, args.depth, args.k);
+        runs.get(0).rescore(ScoredDocsFuser.RescoreMethod.SCALE, 0, args.alpha);
+        runs.get(1).rescore(ScoredDocsFuser.RescoreMethod.SCALE, 0, 1 - args.alpha);
         break;
       case METHOD_AVERAGE:
-        fusedRun = average(runs, args.depth, args.k);
+        for (TrecRun run : runs) {
+          run.rescore(ScoredDocsFuser.RescoreMethod.SCALE, 0, 1 / (double) runs.size());
+        }
         break;
       case METHOD_WEIGHTED:
-        fusedRun = weighted(runs, weights, args.depth, args.k);
+        for (int i = 0; i < runs.size(); i++) {
+          runs.get(i).rescore(ScoredDocsFuser.RescoreMethod.SCALE, 0, weights.get(i));
+        }
         break;
       default:
         throw new IllegalArgumentException("Unknown fusion method: " + args.method + ". Supported methods are: average, rrf, interpolation, weighted.");
     }
 
-    Path outputPath = Paths.get(args.output);
-    ScoredDocsFuser.saveToTxt(outputPath, args.runtag, fusedRun);
+    TrecRun fusedRun;
+    if (args.threads > 1) {
+      try (ExecutorService executor = Executors.newFixedThreadPool(args.threads)) {
+        fusedRun = TrecRun.merge(runs, args.depth, args.k, executor);
+      }
+    } else {
+      fusedRun = TrecRun.merge(runs, args.depth, args.k);
+    }
+    fusedRun.write(Paths.get(args.output), args.runtag);
   }
-}
\ No newline at end of file
+}
@@ -16,25 +16,21 @@
 
 package io.anserini.fusion;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.StoredField;
 
 import io.anserini.search.ScoredDocs;
+import io.anserini.util.TermVocabulary;
 
 //replace topic wtih const
 public class ScoredDocsFuser {
@@ -46,45 +42,15 @@ public class ScoredDocsFuser {
   }
 
   /**
-   * Reads a TREC run file and returns a ScoredDocs containing the data.
-   * 
+   * Reads a TREC run file and returns a ScoredDocs containing the data, grouped by topic. See {@link TrecRun} for the
+   * columnar representation used for fusion.
+   *
    * @param filepath Path to the TREC run file.
    * @throws IOException If the file cannot be read.
    * @return A ScoredDocs object containing the data from the TREC run file.
    */
   public static ScoredDocs readRun(Path filepath, boolean reSort) throws IOException {
-    ScoredDocs scoredDocs = new ScoredDocs();
-    try (BufferedReader br = new BufferedReader(new FileReader(filepath.toFile()))) {
-      List<Document> lucene_documents = new ArrayList<>(); // topic
-      List<String> docids = new ArrayList<>(); // docid
-      List<Float> scores = new ArrayList<>(); // score
-      List<Integer> rank = new ArrayList<>(); // rank
-
-      String line;
-      while ((line = br.readLine()) != null) {
-        String[] data = line.split("\\s+");
-  
-        // Populate the lists with the parsed topic and docid
-        Document doc = new Document();
-        doc.add(new StoredField(TOPIC, data[0]));
-        lucene_documents.add(doc);
-        docids.add(data[2]);
-
-        // Parse RANK as integer
-        int rankInt = Integer.parseInt(data[3]);
-        rank.add(rankInt);
-
-        // Parse SCORE as float
-        float scoreFloat = Float.parseFloat(data[4]);
-        scores.add(scoreFloat);
-      }
-
-      scoredDocs.lucene_documents = lucene_documents.toArray(new Document[0]);
-      scoredDocs.docids = docids.toArray(new String[0]);
-      scoredDocs.scores = ArrayUtils.toPrimitive(scores.toArray(new Float[scores.size()]), Float.NaN);
-      scoredDocs.lucene_docids = ArrayUtils.toPrimitive(rank.toArray(new Integer[0]));
-    }
-  
+    ScoredDocs scoredDocs = TrecRun.read(filepath, false, new TermVocabulary(), new TermVocabulary()).toScoredDocs();
     if (reSort) {
       ScoredDocsFuser.sortScoredDocs(scoredDocs);
     }
@@ -166,7 +132,8 @@ public class ScoredDocsFuser {
 
   /**
    * Merges multiple ScoredDocs instances into a single ScoredDocs instance.
-   * The merged ScoredDocs will contain the top documents for each topic, with scores summed across the input runs.
+   * The merged ScoredDocs will contain the top documents for each topic, with scores summed across the input runs,
+   * and ties broken by decreasing docid. See {@link TrecRun#merge}.
    *
    * @param runs  List of ScoredDocs instances to merge.
    * @param depth Maximum number of documents to consider from each run for each topic (null for no limit).
@@ -179,50 +146,15 @@ public class ScoredDocsFuser {
       throw new IllegalArgumentException("Merge requires at least 2 runs.");
     }
 
-    // for every topic, produce a map of docid to score, num of accumulated
-    HashMap<String, HashMap<String, AbstractMap.SimpleEntry<Float, Integer>>> docScores = new HashMap<>();
+    TermVocabulary topics = new TermVocabulary();
+    TermVocabulary docids = new TermVocabulary();
+    List<TrecRun> trecRuns = new ArrayList<>();
     for (ScoredDocs run : runs) {
-      for (int i = 0; i < run.lucene_documents.length; i++) {
-        String query = run.lucene_documents[i].get(TOPIC);
-        String docid = run.docids[i];
-        Float score = run.scores[i];
-        docScores.computeIfAbsent(query, key -> new HashMap<>())
-          .merge(docid, new AbstractMap.SimpleEntry<>(score, 1), 
-                (existing, newValue) -> 
-                  existing.getValue() >= depth ? existing : new AbstractMap.SimpleEntry<>(existing.getKey() + newValue.getKey(), existing.getValue() + 1));
-      }
-    }
-    
-    List<Document> lucene_documents = new ArrayList<>(); // topic
-    List<String> docids = new ArrayList<>(); // docid
-    List<Float> score = new ArrayList<>(); // score
-    List<Integer> rank = new ArrayList<>(); // rank
-    for (String query : docScores.keySet()) {
-      // for the current query, a list of all docids and scores, sorted by scores
-      List<Map.Entry<String, Float>> sortedDocScores = docScores.get(query).entrySet().stream()
-        .map(entry -> Map.entry(entry.getKey(), entry.getValue().getKey()))
-        .sorted(Map.Entry.<String, Float>comparingByValue().reversed())
-        .limit(k != null ? k : Integer.MAX_VALUE)
-        .collect(Collectors.toList());
-
-      for (int i = 0; i < sortedDocScores.size(); i++) {
-        Map.Entry<String, Float> entry = sortedDocScores.get(i);
-        Document doc = new Document();
-        doc.add(new StoredField(TOPIC, query));
-        lucene_documents.add(doc);
-        docids.add(entry.getKey());
-        rank.add(i + 1);
-        score.add(entry.getValue());
-      }
+      trecRuns.add(TrecRun.fromScoredDocs(run, topics, docids));
     }
 
-    ScoredDocs mergedRun = new ScoredDocs();
-    mergedRun.lucene_documents = lucene_documents.toArray(new Document[0]);
-    mergedRun.docids = docids.toArray(new String[0]);
-    mergedRun.scores = ArrayUtils.toPrimitive(score.toArray(new Float[score.size()]), Float.NaN);
-    mergedRun.lucene_docids = ArrayUtils.toPrimitive(rank.toArray(new Integer[0]));
-    
-    return mergedRun;
+    return TrecRun.merge(trecRuns, depth != null ? depth : Integer.MAX_VALUE, k != null ? k : Integer.MAX_VALUE)
+        .toScoredDocs();
   }
 
   /**
@@ -281,7 +213,7 @@ public class ScoredDocsFuser {
     ScoredDocsFuser.sortScoredDocs(run);
     try (BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
       for (int i = 0; i < run.lucene_documents.length; i++) {
-        writer.write(String.format("%s Q0 %s %d %.6f %s%n", 
+        writer.write(String.format(Locale.US, "%s Q0 %s %d %.6f %s%n",
           run.lucene_documents[i].get(TOPIC), run.docids[i], run.lucene_docids[i], run.scores[i], tag));
       }
     }
@@ -0,0 +1,733 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.fusion;
+
+import io.anserini.search.ScoredDocs;
+import io.anserini.util.TermVocabulary;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.apache.lucene.util.IntroSorter;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * <p>A TREC run in columnar form, for fusion. Topics and docids are interned into ordinals of {@link TermVocabulary}s
+ * that are shared by the runs that are fused together, and the rows are held in primitive columns (docid ordinals,
+ * ranks, and scores), grouped by topic: the rows of the i-th topic are those from {@code offsets[i]} (inclusive) to
+ * {@code offsets[i + 1]} (exclusive). Compared to {@link ScoredDocs} with a Lucene {@link Document} per row, this
+ * takes a fraction of the memory, and fusion is a pass over primitive arrays per topic, which can be run in parallel
+ * over topics.</p>
+ *
+ * <p>Runs are read with a byte-level parser that neither splits lines with a regex nor decodes topics and docids into
+ * {@link String}s (those are only decoded once each, for output).</p>
+ */
+public class TrecRun {
+  private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+  // Integers up to this are exactly representable as floats.
+  private static final long MAX_EXACT_FLOAT_MANTISSA = 1L << 24;
+  // Number of topics that each task of a parallel merge merges.
+  private static final int TOPICS_PER_TASK = 16;
+
+  private final TermVocabulary topicVocabulary;
+  private final TermVocabulary docidVocabulary;
+
+  // Topic ordinals, and the offsets of their rows, in order of first appearance (or of topic, for fused runs).
+  private final int[] topics;
+  private final int[] offsets;
+
+  private final int[] docids;
+  private final int[] ranks;
+  private final float[] scores;
+
+  private TrecRun(TermVocabulary topicVocabulary, TermVocabulary docidVocabulary, int[] topics, int[] offsets,
+                  int[] docids, int[] ranks, float[] scores) {
+    this.topicVocabulary = topicVocabulary;
+    this.docidVocabulary = docidVocabulary;
+    this.topics = topics;
+    this.offsets = offsets;
+    this.docids = docids;
+    this.ranks = ranks;
+    this.scores = scores;
+  }
+
+  /**
+   * Reads a run in TREC format, i.e., lines of topic, "Q0", docid, rank, score, and tag, separated by whitespace.
+   *
+   * @param path path to the run
+   * @param reSort whether to sort the rows of each topic by decreasing score (ties keep their order in the file)
+   * @param topicVocabulary vocabulary of topics, shared by the runs to be fused together
+   * @param docidVocabulary vocabulary of docids, shared by the runs to be fused together
+   * @return run
+   * @throws IOException if error encountered reading the run
+   * @throws IllegalArgumentException if a line is malformed, or has a topic or docid longer than
+   *     {@link TermVocabulary#MAX_TERM_LENGTH} bytes
+   */
+  public static TrecRun read(Path path, boolean reSort, TermVocabulary topicVocabulary,
+                             TermVocabulary docidVocabulary) throws IOException {
+    Builder builder = new Builder(topicVocabulary, docidVocabulary);
+    BytesRef field = new BytesRef();
+    // Bounds of the fields of a line: topic, Q0, docid, rank, score.
+    int[] bounds = new int[10];
+    // The last topic read, since the lines of a topic are usually all together.
+    byte[] lastTopic = new byte[0];
+    int lastTopicOrdinal = -1;
+
+    // FileInputStream (unlike Files.newInputStream) reports missing files as "path (No such file or directory)".
+    try (InputStream in = new FileInputStream(path.toFile())) {
+      byte[] buffer = new byte[1 << 16];
+      int start = 0;
+      int end = 0;
+      int lineNumber = 0;
+      boolean eof = false;
+      while (true) {
+        int newline = start;
+        while (newline < end && buffer[newline] != '\n') {
+          newline++;
+        }
+        if (newline == end && !eof) {
+          // Incomplete line: move it to the beginning of the buffer (growing it if needed), and read more.
+          int length = end - start;
+          if (length == buffer.length) {
+            buffer = ArrayUtil.grow(buffer, length + 1);
+          }
+          System.arraycopy(buffer, start, buffer, 0, length);
+          start = 0;
+          end = length;
+          int read = in.read(buffer, end, buffer.length - end);
+          if (read < 0) {
+            eof = true;
+          } else {
+            end += read;
+          }
+          continue;
+        }
+        if (start == end) {
+          break;
+        }
+
+        lineNumber++;
+        int numFields = split(buffer, start, newline, bounds);
+        start = Math.min(newline + 1, end);
+        if (numFields == 0) {
+          continue;
+        }
+        if (numFields < 5) {
+          throw new IllegalArgumentException(String.format(Locale.US,
+              "Malformed line %d of run %s: expected at least 5 fields", lineNumber, path));
+        }
+
+        int topicLength = bounds[1] - bounds[0];
+        if (topicLength > TermVocabulary.MAX_TERM_LENGTH || bounds[5] - bounds[4] > TermVocabulary.MAX_TERM_LENGTH) {
+          throw new IllegalArgumentException(String.format(Locale.US,
+              "Malformed line %d of run %s: topics and docids can be at most %d bytes long",
+              lineNumber, path, TermVocabulary.MAX_TERM_LENGTH));
+        }
+        if (lastTopicOrdinal < 0 ||
+            !Arrays.equals(buffer, bounds[0], bounds[1], lastTopic, 0, lastTopic.length)) {
+          field.bytes = buffer;
+          field.offset = bounds[0];
+          field.length = topicLength;
+          lastTopicOrdinal = topicVocabulary.add(field);
+          lastTopic = ArrayUtil.copyOfSubArray(buffer, bounds[0], bounds[1]);
+        }
+
+        field.bytes = buffer;
+        field.offset = bounds[4];
+        field.length = bounds[5] - bounds[4];
+        int docid = docidVocabulary.add(field);
+
+        builder.add(lastTopicOrdinal, docid, parseRank(buffer, bounds[6], bounds[7]),
+            parseScore(buffer, bounds[8], bounds[9]));
+      }
+    }
+
+    TrecRun run = builder.build();
+    if (reSort) {
+      run.sortTopics();
+    }
+    return run;
+  }
+
+  // Finds the bounds of the first five whitespace-separated fields of a line, and returns how many there are.
+  private static int split(byte[] buffer, int from, int to, int[] bounds) {
+    int numFields = 0;
+    int i = from;
+    while (numFields < 5) {
+      while (i < to && isWhitespace(buffer[i])) {
+        i++;
+      }
+      if (i == to) {
+        break;
+      }
+      bounds[2 * numFields] = i;
+      while (i < to && !isWhitespace(buffer[i])) {
+        i++;
+      }
+      bounds[2 * numFields + 1] = i;
+      numFields++;
+    }
+    return numFields;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B;
+  }
+
+  private static int parseRank(byte[] buffer, int from, int to) {
+    // Ranks are short, so the digits can't overflow an int; anything else is left to Integer.parseInt.
+    if (to - from > 9) {
+      return Integer.parseInt(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+    }
+    int rank = 0;
+    for (int i = from; i < to; i++) {
+      int digit = buffer[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Integer.parseInt(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+      }
+      rank = rank * 10 + digit;
+    }
+    return rank;
+  }
+
+  /**
+   * Parses a score, with the same result as {@link Float#parseFloat}. Scores in runs are usually plain decimals with a
+   * few significant digits (e.g., "12.345600"), which are parsed without allocating: when both the digits (as an
+   * integer) and the power of ten to divide them by are exactly representable as floats, a single float division is
+   * correctly rounded. Anything else (more digits, exponents, etc.) is left to {@link Float#parseFloat}.
+   */
+  static float parseScore(byte[] buffer, int from, int to) {
+    int i = from;
+    boolean negative = false;
+    if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+      negative = buffer[i] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int significantDigits = 0;
+    int scale = 0;
+    boolean digits = false;
+    boolean point = false;
+    for (; i < to; i++) {
+      int digit = buffer[i] - '0';
+      if (digit >= 0 && digit <= 9) {
+        if (significantDigits == 18) {
+          return Float.parseFloat(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+        }
+        mantissa = mantissa * 10 + digit;
+        if (mantissa != 0) {
+          significantDigits++;
+        }
+        if (point) {
+          scale++;
+        }
+        digits = true;
+      } else if (buffer[i] == '.' && !point) {
+        point = true;
+      } else {
+        return Float.parseFloat(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+      }
+    }
+
+    while (scale > 0 && mantissa % 10 == 0) {
+      mantissa /= 10;
+      scale--;
+    }
+    if (!digits || mantissa > MAX_EXACT_FLOAT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+      return Float.parseFloat(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+    }
+    float score = (float) mantissa / POWERS_OF_TEN[scale];
+    return negative ? -score : score;
+  }
+
+  /**
+   * Creates a run from {@link ScoredDocs} read by {@link ScoredDocsFuser#readRun}, i.e., with the topic of each row in
+   * the {@link ScoredDocsFuser#TOPIC} field of its Lucene document, and its rank in {@code lucene_docids}.
+   *
+   * @param scoredDocs scored docs
+   * @param topicVocabulary vocabulary of topics, shared by the runs to be fused together
+   * @param docidVocabulary vocabulary of docids, shared by the runs to be fused together
+   * @return run
+   */
+  public static TrecRun fromScoredDocs(ScoredDocs scoredDocs, TermVocabulary topicVocabulary,
+                                       TermVocabulary docidVocabulary) {
+    Builder builder = new Builder(topicVocabulary, docidVocabulary);
+    int length = scoredDocs.lucene_documents == null ? 0 : scoredDocs.lucene_documents.length;
+    for (int i = 0; i < length; i++) {
+      builder.add(topicVocabulary.add(scoredDocs.lucene_documents[i].get(ScoredDocsFuser.TOPIC)),
+          docidVocabulary.add(scoredDocs.docids[i]), scoredDocs.lucene_docids[i], scoredDocs.scores[i]);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Converts this run into {@link ScoredDocs}, as returned by {@link ScoredDocsFuser#readRun}. The rows of a topic
+   * share the same Lucene document.
+   *
+   * @return scored docs
+   */
+  public ScoredDocs toScoredDocs() {
+    ScoredDocs scoredDocs = new ScoredDocs();
+    int size = size();
+    scoredDocs.lucene_documents = new Document[size];
+    scoredDocs.docids = new String[size];
+    scoredDocs.lucene_docids = Arrays.copyOf(ranks, size);
+    scoredDocs.scores = Arrays.copyOf(scores, size);
+    for (int t = 0; t < topics.length; t++) {
+      Document document = new Document();
+      document.add(new StoredField(ScoredDocsFuser.TOPIC, topicVocabulary.term(topics[t])));
+      for (int i = offsets[t]; i < offsets[t + 1]; i++) {
+        scoredDocs.lucene_documents[i] = document;
+        scoredDocs.docids[i] = docidVocabulary.term(docids[i]);
+      }
+    }
+    return scoredDocs;
+  }
+
+  public int size() {
+    return offsets[topics.length];
+  }
+
+  public int numTopics() {
+    return topics.length;
+  }
+
+  public String topic(int t) {
+    return topicVocabulary.term(topics[t]);
+  }
+
+  public String docid(int i) {
+    return docidVocabulary.term(docids[i]);
+  }
+
+  public int rank(int i) {
+    return ranks[i];
+  }
+
+  public float score(int i) {
+    return scores[i];
+  }
+
+  /**
+   * Rescores the rows of this run, with the same arithmetic as {@link ScoredDocsFuser#rescore}.
+   *
+   * @param method rescore method
+   * @param rrfK parameter k needed for reciprocal rank fusion
+   * @param scale scaling factor needed for rescoring by scaling
+   */
+  public void rescore(ScoredDocsFuser.RescoreMethod method, int rrfK, double scale) {
+    switch (method) {
+      case RRF -> {
+        for (int i = 0; i < size(); i++) {
+          scores[i] = (float) (1.0 / (rrfK + ranks[i]));
+        }
+      }
+      case SCALE -> {
+        for (int i = 0; i < size(); i++) {
+          scores[i] = (float) (scores[i] * scale);
+        }
+      }
+      default -> throw new UnsupportedOperationException("Unknown rescore method: " + method);
+    }
+  }
+
+  /**
+   * Applies min-max normalization to the scores of each topic, with the same arithmetic as
+   * {@link ScoredDocsFuser#normalizeScores}.
+   */
+  public void normalizeScores() {
+    for (int t = 0; t < topics.length; t++) {
+      int from = offsets[t];
+      int to = offsets[t + 1];
+      float minScore = scores[from];
+      float maxScore = scores[to - 1];
+      for (int i = from; i < to; i++) {
+        minScore = Float.min(minScore, scores[i]);
+        maxScore = Float.max(maxScore, scores[i]);
+      }
+      for (int i = from; i < to; i++) {
+        scores[i] = maxScore == minScore ? 1.0f : (scores[i] - minScore) / (maxScore - minScore);
+      }
+    }
+  }
+
+  // Sorts the rows of each topic by decreasing score; the sort is stable.
+  private void sortTopics() {
+    InPlaceMergeSorter sorter = new InPlaceMergeSorter() {
+      @Override
+      protected int compare(int i, int j) {
+        return Float.compare(scores[j], scores[i]);
+      }
+
+      @Override
+      protected void swap(int i, int j) {
+        TrecRun.this.swap(i, j);
+      }
+    };
+    for (int t = 0; t < topics.length; t++) {
+      sorter.sort(offsets[t], offsets[t + 1]);
+    }
+  }
+
+  private void swap(int i, int j) {
+    int docid = docids[i];
+    docids[i] = docids[j];
+    docids[j] = docid;
+    int rank = ranks[i];
+    ranks[i] = ranks[j];
+    ranks[j] = rank;
+    float score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+
+  /**
+   * Merges runs into a single run, one topic after another; see {@link #merge(List, int, int, ExecutorService)}.
+   *
+   * @param runs runs to merge, which must share vocabularies
+   * @param depth maximum number of rows from each run to consider for each topic
+   * @param k maximum number of rows of the merged run for each topic
+   * @return merged run
+   * @throws IllegalArgumentException if less than 2 runs are provided, or if they don't share vocabularies
+   */
+  public static TrecRun merge(List<TrecRun> runs, int depth, int k) {
+    return merge(runs, depth, k, null);
+  }
+
+  /**
+   * Merges runs into a single run, in parallel over topics on an executor, if one is given. For each topic, the scores of a docid are summed over the
+   * top {@code depth} rows of each run (in run order, as floats, as {@link ScoredDocsFuser#merge} does), and the top
+   * {@code k} docids are ranked by decreasing score, with ties broken by decreasing docid, as trec_eval does. Topics
+   * of the merged run are in {@link String} order.
+   *
+   * @param runs runs to merge, which must share vocabularies
+   * @param depth maximum number of rows from each run to consider for each topic
+   * @param k maximum number of rows of the merged run for each topic
+   * @param executor executor to merge topics on, which the caller shuts down; {@code null} to merge them one after
+   *     another in the calling thread
+   * @return merged run
+   * @throws IllegalArgumentException if less than 2 runs are provided, or if they don't share vocabularies
+   */
+  public static TrecRun merge(List<TrecRun> runs, int depth, int k, @Nullable ExecutorService executor) {
+    if (runs.size() < 2) {
+      throw new IllegalArgumentException("Merge requires at least 2 runs.");
+    }
+    TermVocabulary topicVocabulary = runs.get(0).topicVocabulary;
+    TermVocabulary docidVocabulary = runs.get(0).docidVocabulary;
+    for (TrecRun run : runs) {
+      if (run.topicVocabulary != topicVocabulary || run.docidVocabulary != docidVocabulary) {
+        throw new IllegalArgumentException("Runs to merge must share vocabularies.");
+      }
+    }
+
+    // Decoded up front, since vocabularies can't be read from many threads.
+    String[] topicStrings = topicVocabulary.terms();
+    String[] docidStrings = docidVocabulary.terms();
+
+    // For each run, the index of each topic (by ordinal) in the run, if it has it.
+    int[][] topicIndexes = new int[runs.size()][];
+    boolean[] hasTopic = new boolean[topicStrings.length];
+    for (int r = 0; r < runs.size(); r++) {
+      TrecRun run = runs.get(r);
+      topicIndexes[r] = new int[topicStrings.length];
+      Arrays.fill(topicIndexes[r], -1);
+      for (int t = 0; t < run.topics.length; t++) {
+        topicIndexes[r][run.topics[t]] = t;
+        hasTopic[run.topics[t]] = true;
+      }
+    }
+    int[] mergedTopics = IntStream.range(0, topicStrings.length).filter(t -> hasTopic[t]).boxed()
+        .sorted((t1, t2) -> topicStrings[t1].compareTo(topicStrings[t2])).mapToInt(Integer::intValue).toArray();
+
+    int[][] topicDocids = new int[mergedTopics.length][];
+    float[][] topicScores = new float[mergedTopics.length][];
+    // Each task merges a range of topics, into its own slots of the arrays above.
+    IntBinaryOperator mergeTopics = (fromTopic, toTopic) -> {
+      for (int t = fromTopic; t < toTopic; t++) {
+        TopicAccumulator accumulator = new TopicAccumulator(docidStrings);
+        for (int r = 0; r < runs.size(); r++) {
+          int index = topicIndexes[r][mergedTopics[t]];
+          if (index >= 0) {
+            TrecRun run = runs.get(r);
+            int from = run.offsets[index];
+            int to = (int) Math.min(run.offsets[index + 1], (long) from + depth);
+            for (int i = from; i < to; i++) {
+              accumulator.add(run.docids[i], run.scores[i]);
+            }
+          }
+        }
+        accumulator.sort();
+        int size = Math.min(accumulator.size, k);
+        topicDocids[t] = Arrays.copyOf(accumulator.docids, size);
+        topicScores[t] = Arrays.copyOf(accumulator.scores, size);
+      }
+      return toTopic - fromTopic;
+    };
+
+    if (executor == null || mergedTopics.length <= TOPICS_PER_TASK) {
+      mergeTopics.applyAsInt(0, mergedTopics.length);
+    } else {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (int t = 0; t < mergedTopics.length; t += TOPICS_PER_TASK) {
+        int fromTopic = t;
+        int toTopic = Math.min(t + TOPICS_PER_TASK, mergedTopics.length);
+        futures.add(executor.submit(() -> mergeTopics.applyAsInt(fromTopic, toTopic)));
+      }
+      try {
+        for (Future<Integer> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(e);
+      } catch (ExecutionException e) {
+        throw new CompletionException(e.getCause());
+      }
+    }
+
+    int[] offsets = new int[mergedTopics.length + 1];
+    for (int t = 0; t < mergedTopics.length; t++) {
+      offsets[t + 1] = offsets[t] + topicDocids[t].length;
+    }
+    int[] docids = new int[offsets[mergedTopics.length]];
+    int[] ranks = new int[docids.length];
+    float[] scores = new float[docids.length];
+    for (int t = 0; t < mergedTopics.length; t++) {
+      System.arraycopy(topicDocids[t], 0, docids, offsets[t], topicDocids[t].length);
+      System.arraycopy(topicScores[t], 0, scores, offsets[t], topicScores[t].length);
+      for (int i = 0; i < topicDocids[t].length; i++) {
+        ranks[offsets[t] + i] = i + 1;
+      }
+    }
+
+    return new TrecRun(topicVocabulary, docidVocabulary, mergedTopics, offsets, docids, ranks, scores);
+  }
+
+  /**
+   * Writes this run in TREC format, in the order of its rows, in the same format as {@link ScoredDocsFuser#saveToTxt}.
+   *
+   * @param path path to the output file
+   * @param tag tag to be added to each row
+   * @throws IOException if error encountered writing the run
+   * @throws IllegalStateException if the run is empty
+   */
+  public void write(Path path, String tag) throws IOException {
+    if (size() == 0) {
+      throw new IllegalStateException("Nothing to save. ScoredDocs is empty");
+    }
+
+    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+      for (int t = 0; t < topics.length; t++) {
+        String topic = topicVocabulary.term(topics[t]);
+        for (int i = offsets[t]; i < offsets[t + 1]; i++) {
+          writer.write(String.format(Locale.US, "%s Q0 %s %d %.6f %s%n",
+              topic, docidVocabulary.term(docids[i]), ranks[i], scores[i], tag));
+        }
+      }
+    }
+  }
+
+  // Sums the scores of the docids of a topic, in an open-addressing hash table from docid ordinals to slots.
+  private static final class TopicAccumulator extends IntroSorter {
+    private final String[] docidStrings;
+    private int[] table = new int[64];
+    private int[] docids = new int[32];
+    private float[] scores = new float[32];
+    private int size;
+    private int pivotDocid;
+    private float pivotScore;
+
+    private TopicAccumulator(String[] docidStrings) {
+      this.docidStrings = docidStrings;
+    }
+
+    private void add(int docid, float score) {
+      int mask = table.length - 1;
+      int h = mix(docid) & mask;
+      // Slots are stored plus one, so that zero means empty.
+      while (table[h] != 0) {
+        int slot = table[h] - 1;
+        if (docids[slot] == docid) {
+          scores[slot] += score;
+          return;
+        }
+        h = (h + 1) & mask;
+      }
+
+      if (size == docids.length) {
+        docids = ArrayUtil.grow(docids, size + 1);
+        scores = ArrayUtil.growExact(scores, docids.length);
+      }
+      docids[size] = docid;
+      scores[size] = score;
+      table[h] = ++size;
+      if (2 * size > table.length) {
+        rehash();
+      }
+    }
+
+    private void rehash() {
+      table = new int[2 * table.length];
+      int mask = table.length - 1;
+      for (int slot = 0; slot < size; slot++) {
+        int h = mix(docids[slot]) & mask;
+        while (table[h] != 0) {
+          h = (h + 1) & mask;
+        }
+        table[h] = slot + 1;
+      }
+    }
+
+    private static int mix(int docid) {
+      return docid * 0x9E3779B9;
+    }
+
+    // Sorts by decreasing score, then decreasing docid; the hash table is no longer valid afterwards.
+    private void sort() {
+      sort(0, size);
+    }
+
+    @Override
+    protected void swap(int i, int j) {
+      int docid = docids[i];
+      docids[i] = docids[j];
+      docids[j] = docid;
+      float score = scores[i];
+      scores[i] = scores[j];
+      scores[j] = score;
+    }
+
+    @Override
+    protected void setPivot(int i) {
+      pivotDocid = docids[i];
+      pivotScore = scores[i];
+    }
+
+    @Override
+    protected int comparePivot(int j) {
+      return compare(pivotDocid, pivotScore, docids[j], scores[j]);
+    }
+
+    @Override
+    protected int compare(int i, int j) {
+      return compare(docids[i], scores[i], docids[j], scores[j]);
+    }
+
+    private int compare(int docid1, float score1, int docid2, float score2) {
+      int c = Float.compare(score2, score1);
+      return c != 0 ? c : docidStrings[docid2].compareTo(docidStrings[docid1]);
+    }
+  }
+
+  // Accumulates rows, then groups them by topic (keeping their order within each topic).
+  private static final class Builder {
+    private final TermVocabulary topicVocabulary;
+    private final TermVocabulary docidVocabulary;
+    private int[] topics = new int[1024];
+    private int[] docids = new int[1024];
+    private int[] ranks = new int[1024];
+    private float[] scores = new float[1024];
+    private int size;
+    private boolean grouped = true;
+
+    private Builder(TermVocabulary topicVocabulary, TermVocabulary docidVocabulary) {
+      this.topicVocabulary = topicVocabulary;
+      this.docidVocabulary = docidVocabulary;
+    }
+
+    private void add(int topic, int docid, int rank, float score) {
+      if (size == topics.length) {
+        topics = ArrayUtil.grow(topics, size + 1);
+        docids = ArrayUtil.growExact(docids, topics.length);
+        ranks = ArrayUtil.growExact(ranks, topics.length);
+        scores = ArrayUtil.growExact(scores, topics.length);
+      }
+      topics[size] = topic;
+      docids[size] = docid;
+      ranks[size] = rank;
+      scores[size] = score;
+      size++;
+    }
+
+    private TrecRun build() {
+      // Topics in order of first appearance, and the number of rows of each.
+      int[] indexes = new int[topicVocabulary.size()];
+      Arrays.fill(indexes, -1);
+      int[] runTopics = new int[16];
+      int[] counts = new int[16];
+      int numTopics = 0;
+      for (int i = 0; i < size; i++) {
+        int index = indexes[topics[i]];
+        if (index < 0) {
+          index = indexes[topics[i]] = numTopics++;
+          if (numTopics > runTopics.length) {
+            runTopics = ArrayUtil.grow(runTopics, numTopics);
+            counts = ArrayUtil.growExact(counts, runTopics.length);
+          }
+          runTopics[index] = topics[i];
+        } else if (topics[i] != topics[i - 1]) {
+          grouped = false;
+        }
+        counts[index]++;
+      }
+
+      int[] offsets = new int[numTopics + 1];
+      for (int t = 0; t < numTopics; t++) {
+        offsets[t + 1] = offsets[t] + counts[t];
+      }
+      if (grouped) {
+        return new TrecRun(topicVocabulary, docidVocabulary, ArrayUtil.copyOfSubArray(runTopics, 0, numTopics),
+            offsets, ArrayUtil.copyOfSubArray(docids, 0, size), ArrayUtil.copyOfSubArray(ranks, 0, size),
+            ArrayUtil.copyOfSubArray(scores, 0, size));
+      }
+
+      // A stable counting sort of the rows by topic.
+      int[] next = Arrays.copyOf(offsets, numTopics);
+      int[] groupedDocids = new int[size];
+      int[] groupedRanks = new int[size];
+      float[] groupedScores = new float[size];
+      for (int i = 0; i < size; i++) {
+        int j = next[indexes[topics[i]]]++;
+        groupedDocids[j] = docids[i];
+        groupedRanks[j] = ranks[i];
+        groupedScores[j] = scores[i];
+      }
+      return new TrecRun(topicVocabulary, docidVocabulary, ArrayUtil.copyOfSubArray(runTopics, 0, numTopics),
+          offsets, groupedDocids, groupedRanks, groupedScores);
+    }
+  }
+}
@@ -40,6 +40,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
@@ -70,6 +71,32 @@ public abstract class AbstractIndexer implements Runnable {
     @Option(name = "-threads", metaVar = "[num]", usage = "Number of indexing threads.")
     public int threads = 4;
 
+    @Option(name = "-splitSize", metaVar = "[mb]",
+        usage = "Cuts line-oriented files (e.g., JSON Lines) larger than this size (in MB) at record boundaries " +
+            "into splits that are indexed in parallel; 0 disables splitting.")
+    public int splitSize = 0;
+
+    @Option(name = "-pipeline",
+        usage = "Indexes with a staged pipeline of reader, generator, and writer threads connected by bounded queues; " +
+            "-threads is ignored in favor of the per-stage thread counts.")
+    public boolean pipeline = false;
+
+    @Option(name = "-pipeline.readers", metaVar = "[num]", usage = "Number of reader threads in the pipeline.")
+    public int pipelineReaders = 2;
+
+    @Option(name = "-pipeline.generators", metaVar = "[num]", usage = "Number of generator threads in the pipeline.")
+    public int pipelineGenerators = 4;
+
+    @Option(name = "-pipeline.writers", metaVar = "[num]", usage = "Number of writer threads in the pipeline.")
+    public int pipelineWriters = 4;
+
+    @Option(name = "-pipeline.queueSize", metaVar = "[num]", usage = "Capacity of each queue in the pipeline.")
+    public int pipelineQueueSize = 10000;
+
+    @Option(name = "-pipeline.batchSize", metaVar = "[num]",
+        usage = "Maximum number of documents added to the index at once by a writer thread.")
+    public int pipelineBatchSize = 256;
+
     @Option(name = "-verbose", metaVar = "[boolean]", forbids = {"-quiet"}, usage = "Enables verbose logging for each indexing thread.")
     public boolean verbose = false;
 
@@ -90,6 +117,7 @@ public abstract class AbstractIndexer implements Runnable {
 
   public class IndexerThread extends Thread {
     private final Path inputFile;
+    private final SegmentSplit split;
     private final LuceneDocumentGenerator<SourceDocument> generator;
     private final Set<String> whitelistDocids;
 
@@ -98,16 +126,31 @@ public abstract class AbstractIndexer implements Runnable {
     }
 
     public IndexerThread(Path inputFile, LuceneDocumentGenerator<SourceDocument> generator, Set<String> docids) {
+      this(inputFile, null, generator, docids);
+    }
+
+    /**
+     * Creates a thread that indexes either an entire file or, if {@code split} is non-null, only a split of it.
+     *
+     * @param inputFile path of the file
+     * @param split split of the file, or {@code null} to index the entire file
+     * @param generator document generator
+     * @param docids whitelisted docids, or {@code null} to index all documents
+     */
+    public IndexerThread(Path inputFile, SegmentSplit split, LuceneDocumentGenerator<SourceDocument> generator,
+                         Set<String> docids) {
       this.inputFile = inputFile;
+      this.split = split;
       this.generator = generator;
       this.whitelistDocids = docids;
 
-      setName(inputFile.getFileName().toString());
+      setName(split == null ? inputFile.getFileName().toString() : split.toString());
     }
 
     @Override
     public void run() {
-      try (FileSegment<? extends SourceDocument> segment = collection.createFileSegment(inputFile)) {
+      try (FileSegment<? extends SourceDocument> segment = split == null ?
+          collection.createFileSegment(inputFile) : collection.createFileSegment(split.open())) {
         // We keep track of two separate counts: the total count of documents in this file segment (cnt),
         // and the number of documents in this current "batch" (batch). We update the global counter every
         // 10k documents: this is so that we get intermediate updates, which is informative if a collection
@@ -190,6 +233,7 @@ public abstract class AbstractIndexer implements Runnable {
   protected DocumentCollection<? extends SourceDocument> collection;
   protected Class<LuceneDocumentGenerator<? extends SourceDocument>> generatorClass;
   protected IndexWriter writer;
+  protected IndexingPipeline pipeline;
 
   @SuppressWarnings("unchecked")
   public AbstractIndexer(Args args) {
@@ -213,7 +257,17 @@ public abstract class AbstractIndexer implements Runnable {
     LOG.info(" + DocumentCollection path: {}", args.input);
     LOG.info(" + CollectionClass: {}", args.collectionClass);
     LOG.info(" + Index path: {}", args.index);
-    LOG.info(" + Threads: {}", args.threads);
+    if (args.pipeline) {
+      LOG.info(" + Pipeline threads (read/generate/write): {}/{}/{}",
+          args.pipelineReaders, args.pipelineGenerators, args.pipelineWriters);
+      LOG.info(" + Pipeline queue size: {}", args.pipelineQueueSize);
+      LOG.info(" + Pipeline batch size: {}", args.pipelineBatchSize);
+    } else {
+      LOG.info(" + Threads: {}", args.threads);
+    }
+    if (args.splitSize > 0) {
+      LOG.info(" + Split size: {} MB", args.splitSize);
+    }
     LOG.info(" + Optimize (merge segments)? {}", args.optimize);
 
     // Our documentation uses /path/to/foo as a convention: to make copy and paste of the commands work,
@@ -247,12 +301,18 @@ public abstract class AbstractIndexer implements Runnable {
     final int segmentCnt = segmentPaths.size();
     AtomicInteger completedTaskCount = new AtomicInteger(0);
 
-    LOG.info("Thread pool with {} threads initialized.", args.threads);
+    if (!args.pipeline) {
+      LOG.info("Thread pool with {} threads initialized.", args.threads);
+    }
     LOG.info(String.format("%,d %s found in %s", segmentCnt, (segmentCnt == 1 ? "file" : "files"), collectionPath));
     LOG.info("Starting to index...");
 
-    // Dispatch to default method to process the segments; subclasses can override this method if desired.
-    processSegments(segmentPaths, completedTaskCount);
+    if (args.pipeline) {
+      processSegmentsPipelined(segmentPaths, completedTaskCount);
+    } else {
+      // Dispatch to default method to process the segments; subclasses can override this method if desired.
+      processSegments(segmentPaths, completedTaskCount);
+    }
 
     if (segmentCnt != completedTaskCount.get()) {
       throw new RuntimeException("totalFiles = " + segmentCnt +
@@ -297,6 +357,11 @@ public abstract class AbstractIndexer implements Runnable {
     LOG.info(String.format("skipped:     %,12d", counters.skipped.get()));
     LOG.info(String.format("errors:      %,12d", counters.errors.get()));
 
+    if (pipeline != null) {
+      LOG.info("============ Pipeline Statistics ============");
+      pipeline.logStatistics();
+    }
+
     final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     LOG.info(String.format("Total %,d documents indexed in %s", numIndexed,
         DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss")));
@@ -321,20 +386,28 @@ public abstract class AbstractIndexer implements Runnable {
     List<Callable<Void>> tasks = new ArrayList<>(segmentPaths.size());
 
     for (Path segmentPath : segmentPaths) {
-      tasks.add(() -> {
-        try {
-          // Each thread gets its own document generator, so we don't need to make any assumptions about its thread safety.
-          @SuppressWarnings("unchecked")
-          LuceneDocumentGenerator<SourceDocument> generator = (LuceneDocumentGenerator<SourceDocument>)
-              generatorClass.getDeclaredConstructor((Class<?>[]) null).newInstance();
-
-            new IndexerThread(segmentPath, generator).run();
-            completedTaskCount.incrementAndGet();
-        } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-            throw new IllegalArgumentException(String.format("Unable to load LuceneDocumentGenerator \"%s\".", generatorClass.getSimpleName()));
+      // A file counts as completed once all of its splits have been indexed.
+      List<SegmentSplit> splits = splitSegment(segmentPath);
+      AtomicInteger remainingSplits = new AtomicInteger(splits.size());
+
+      for (SegmentSplit split : splits) {
+        tasks.add(() -> {
+          try {
+            // Each thread gets its own document generator, so we don't need to make any assumptions about its thread safety.
+            @SuppressWarnings("unchecked")
+            LuceneDocumentGenerator<SourceDocument> generator = (LuceneDocumentGenerator<SourceDocument>)
+                generatorClass.getDeclaredConstructor((Class<?>[]) null).newInstance();
+
+            new IndexerThread(segmentPath, split, generator, null).run();
+            if (remainingSplits.decrementAndGet() == 0) {
+              completedTaskCount.incrementAndGet();
             }
-        return null;
-      });
+          } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+            throw new IllegalArgumentException(String.format("Unable to load LuceneDocumentGenerator \"%s\".", generatorClass.getSimpleName()));
+          }
+          return null;
+        });
+      }
     }
 
     try (ExecutorService executor = Executors.newWorkStealingPool(args.threads);
@@ -363,6 +436,71 @@ public abstract class AbstractIndexer implements Runnable {
     }
   }
 
+  /**
+   * Processes the segments with an {@link IndexingPipeline}, in which reading, document generation, and writing
+   * each run in their own threads.
+   *
+   * @param segmentPaths paths of the segments
+   * @param completedTaskCount incremented as each segment is completed
+   */
+  protected void processSegmentsPipelined(List<Path> segmentPaths, AtomicInteger completedTaskCount) {
+    pipeline = new IndexingPipeline(collection, writer, counters, this::createGenerator, getWhitelistDocids(), args);
+
+    try (ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor()) {
+      // log progress every minute
+      monitor.scheduleAtFixedRate(() -> LOG.info(String.format("%,d documents indexed (%s)",
+          counters.indexed.get(), pipeline.progress())), 1, 1, TimeUnit.MINUTES);
+
+      // block until all documents have made it through the pipeline
+      pipeline.run(segmentPaths, this::splitSegment, completedTaskCount);
+      monitor.shutdown();
+    }
+  }
+
+  /**
+   * Creates a new document generator. Each indexing thread gets its own generator, so we don't need to make any
+   * assumptions about its thread safety. Subclasses that construct generators differently should override this.
+   *
+   * @return a new document generator
+   * @throws ReflectiveOperationException if the generator cannot be instantiated
+   */
+  @SuppressWarnings("unchecked")
+  protected LuceneDocumentGenerator<SourceDocument> createGenerator() throws ReflectiveOperationException {
+    return (LuceneDocumentGenerator<SourceDocument>) generatorClass.getDeclaredConstructor((Class<?>[]) null).newInstance();
+  }
+
+  /**
+   * Returns the docids to index, or {@code null} to index all documents.
+   *
+   * @return whitelisted docids
+   */
+  protected Set<String> getWhitelistDocids() {
+    return null;
+  }
+
+  /**
+   * Cuts a file into splits if splitting is enabled, the collection supports it for this file, and the file is larger
+   * than the split size. Otherwise, returns a list with a single {@code null} split, meaning the entire file.
+   *
+   * @param segmentPath path of the file
+   * @return splits of the file
+   */
+  protected List<SegmentSplit> splitSegment(Path segmentPath) {
+    if (args.splitSize > 0 && collection.isSplittable(segmentPath)) {
+      try {
+        List<SegmentSplit> splits = SegmentSplit.split(segmentPath, (long) args.splitSize * 1024 * 1024);
+        if (splits.size() > 1) {
+          LOG.info("{}: cut into {} splits.", segmentPath.getFileName(), splits.size());
+          return splits;
+        }
+      } catch (IOException e) {
+        LOG.warn("{}: unable to split, indexing as a whole: {}", segmentPath.getFileName(), e.getMessage());
+      }
+    }
+
+    return Collections.singletonList(null);
+  }
+
   public Counters getCounters() {
     return this.counters;
   }
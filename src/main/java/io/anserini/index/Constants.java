@@ -24,6 +24,9 @@ public final class Constants {
   // This is the name of the field in the Lucene document that should be searched by default.
   public static final String CONTENTS = "contents";
 
+  // This is the name of the field in the Lucene document where the bigrams of the contents for SDM are indexed.
+  public static final String CONTENTS_BIGRAMS = "contents_bigrams";
+
   // This is the name of the field in the Lucene document where the raw document is stored.
   public static final String RAW = "raw";
 
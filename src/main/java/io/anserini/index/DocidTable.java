@@ -0,0 +1,492 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.IntroSorter;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A lookup table between collection docids and Lucene internal docids, stored as a sidecar file in the index
+ * directory and memory-mapped (if the directory is, as {@link org.apache.lucene.store.FSDirectory#open} does on 64-bit
+ * platforms). Looking up a Lucene docid by collection docid otherwise takes a {@link
+ * org.apache.lucene.search.TermQuery} on the {@link Constants#ID} field, which adds up for bulk lookups, e.g.,
+ * relevance feedback from qrels or fetching many documents.</p>
+ *
+ * <p>The table holds the UTF-8 bytes of the docids in Lucene docid order, their offsets, and the Lucene docids sorted
+ * by docid. Looking up a collection docid takes O(1), looking up a Lucene docid takes O(log n) comparisons on the
+ * mapped bytes, and neither allocates anything beyond the returned docid. Like the {@code TermQuery}, lookups skip
+ * deleted documents and, if a docid occurs more than once, return its first Lucene docid.</p>
+ *
+ * <p>The table is built at index time with {@code IndexCollection -docidTable}, or lazily with {@link
+ * #getOrBuild(IndexReader)}. It records the index commit it was built for, and is ignored (or rebuilt) once the
+ * index changes. If the index directory isn't writable, e.g., a shared prebuilt index, a lazily built table is kept in
+ * memory instead.</p>
+ */
+public final class DocidTable implements Closeable {
+  private static final Logger LOG = LogManager.getLogger(DocidTable.class);
+
+  /**
+   * Name of the sidecar file in the index directory; it doesn't look like a Lucene index file, so Lucene leaves it be.
+   */
+  public static final String FILE_NAME = "anserini.docids";
+
+  private static final String CODEC = "AnseriniDocidTable";
+  private static final int VERSION = 0;
+  private static final String TEMP_PREFIX = "anserini_docids";
+
+  // Tables of open readers, keyed by the cache key of the reader; empty if the index doesn't have a table.
+  private static final Map<IndexReader.CacheKey, Optional<DocidTable>> TABLES = new ConcurrentHashMap<>();
+
+  private final IndexInput input;
+  private final Closeable directory;
+  private final int maxDoc;
+  private final int size;
+  private final RandomAccessInput data;
+  private final long offsetsStart;
+  private final long sortedStart;
+
+  private DocidTable(IndexInput input, Closeable directory, int maxDoc, int size, long start, long blobLength)
+      throws IOException {
+    this.input = input;
+    this.directory = directory;
+    this.maxDoc = maxDoc;
+    this.size = size;
+    this.data = input.randomAccessSlice(start, input.length() - CodecUtil.footerLength() - start);
+    this.offsetsStart = blobLength;
+    this.sortedStart = offsetsStart + 8L * (maxDoc + 1);
+  }
+
+  /**
+   * Returns the table of an index if it has an up-to-date one, opening it on first use. The table stays open until
+   * the reader is closed.
+   *
+   * @param reader index reader
+   * @return table of the index, or {@code null} if the index doesn't have one
+   */
+  public static DocidTable get(IndexReader reader) {
+    try {
+      return lookup(reader, false);
+    } catch (IOException e) {
+      LOG.warn(String.format("Unable to open docid table: %s", e.getMessage()));
+      return null;
+    }
+  }
+
+  /**
+   * Returns the table of an index, building it first if the index doesn't have an up-to-date one. The table stays
+   * open until the reader is closed.
+   *
+   * @param reader index reader
+   * @return table of the index, or {@code null} if the reader isn't a {@link DirectoryReader}
+   * @throws IOException if error encountered reading the index or writing the table
+   */
+  public static DocidTable getOrBuild(IndexReader reader) throws IOException {
+    return lookup(reader, true);
+  }
+
+  private static DocidTable lookup(IndexReader reader, boolean build) throws IOException {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (!(reader instanceof DirectoryReader) || helper == null) {
+      return null;
+    }
+
+    Optional<DocidTable> table = TABLES.get(helper.getKey());
+    if (table != null && (table.isPresent() || !build)) {
+      return table.orElse(null);
+    }
+
+    synchronized (TABLES) {
+      table = TABLES.get(helper.getKey());
+      if (table != null && (table.isPresent() || !build)) {
+        return table.orElse(null);
+      }
+
+      DirectoryReader directoryReader = (DirectoryReader) reader;
+      DocidTable opened = open(directoryReader.directory(), commitOf(directoryReader), reader.maxDoc(), null);
+      if (opened == null && build) {
+        opened = build(directoryReader);
+      }
+
+      if (table == null) {
+        helper.addClosedListener(key -> {
+          Optional<DocidTable> closed = TABLES.remove(key);
+          if (closed != null && closed.isPresent()) {
+            closed.get().close();
+          }
+        });
+      }
+      TABLES.put(helper.getKey(), Optional.ofNullable(opened));
+      return opened;
+    }
+  }
+
+  private static DocidTable build(DirectoryReader reader) throws IOException {
+    String commit = commitOf(reader);
+    try {
+      write(reader, reader.directory(), commit);
+      return open(reader.directory(), commit, reader.maxDoc(), null);
+    } catch (IOException e) {
+      LOG.warn(String.format("Unable to write docid table to index, keeping it in memory instead: %s", e.getMessage()));
+    }
+
+    Directory memory = new ByteBuffersDirectory();
+    try {
+      write(reader, memory, commit);
+      return open(memory, commit, reader.maxDoc(), memory);
+    } catch (IOException | RuntimeException e) {
+      memory.close();
+      throw e;
+    }
+  }
+
+  private static String commitOf(DirectoryReader reader) throws IOException {
+    return reader.getIndexCommit().getSegmentsFileName();
+  }
+
+  /**
+   * Builds the table of an index and writes it to the index directory, replacing any existing table.
+   *
+   * @param reader index reader
+   * @throws IOException if error encountered reading the index or writing the table
+   */
+  public static void write(DirectoryReader reader) throws IOException {
+    write(reader, reader.directory(), commitOf(reader));
+  }
+
+  private static void write(IndexReader reader, Directory dir, String commit) throws IOException {
+    final int maxDoc = reader.maxDoc();
+    final int[] sorted = new int[maxDoc];
+    int size = 0;
+    long blobLength = 0;
+
+    // First, write the docids (as UTF-8 bytes) and their offsets in Lucene docid order, to temporary files.
+    String blobName;
+    String offsetsName;
+    try (IndexOutput blob = dir.createTempOutput(TEMP_PREFIX, "blob", IOContext.DEFAULT);
+         IndexOutput offsets = dir.createTempOutput(TEMP_PREFIX, "offsets", IOContext.DEFAULT)) {
+      blobName = blob.getName();
+      offsetsName = offsets.getName();
+
+      for (LeafReaderContext context : reader.leaves()) {
+        LeafReader leaf = context.reader();
+        BinaryDocValues ids = IndexReaderUtils.getIdDocValues(leaf);
+        StoredFields storedFields = ids == null ? leaf.storedFields() : null;
+        Bits liveDocs = leaf.getLiveDocs();
+
+        for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+          BytesRef id = null;
+          if (ids != null) {
+            if (ids.advanceExact(doc)) {
+              id = ids.binaryValue();
+            }
+          } else {
+            String value = storedFields.document(doc, Set.of(Constants.ID)).get(Constants.ID);
+            if (value != null) {
+              id = new BytesRef(value);
+            }
+          }
+
+          offsets.writeLong(blobLength);
+          if (id != null && id.length > 0) {
+            blob.writeBytes(id.bytes, id.offset, id.length);
+            blobLength += id.length;
+            if (liveDocs == null || liveDocs.get(doc)) {
+              sorted[size++] = context.docBase + doc;
+            }
+          }
+        }
+      }
+      offsets.writeLong(blobLength);
+    }
+
+    // Then, sort the Lucene docids by docid and write the final table, which we move into place once complete.
+    String tableName = null;
+    boolean success = false;
+    try (IndexInput blob = dir.openInput(blobName, IOContext.READ);
+         IndexInput offsets = dir.openInput(offsetsName, IOContext.READ)) {
+      new DocidSorter(blob.randomAccessSlice(0, blobLength), offsets.randomAccessSlice(0, 8L * (maxDoc + 1)), sorted)
+          .sort(0, size);
+
+      try (IndexOutput out = dir.createTempOutput(TEMP_PREFIX, "table", IOContext.DEFAULT)) {
+        tableName = out.getName();
+        CodecUtil.writeHeader(out, CODEC, VERSION);
+        out.writeString(commit);
+        out.writeInt(maxDoc);
+        out.writeInt(size);
+        out.writeLong(blobLength);
+        out.copyBytes(blob, blobLength);
+        out.copyBytes(offsets, 8L * (maxDoc + 1));
+        for (int i = 0; i < size; i++) {
+          out.writeInt(sorted[i]);
+        }
+        CodecUtil.writeFooter(out);
+      }
+
+      dir.sync(Set.of(tableName));
+      try {
+        dir.deleteFile(FILE_NAME);
+      } catch (NoSuchFileException | FileNotFoundException e) {
+        // No previous table, which is fine.
+      }
+      dir.rename(tableName, FILE_NAME);
+      dir.syncMetaData();
+      success = true;
+    } finally {
+      IOUtils.deleteFilesIgnoringExceptions(dir, blobName, offsetsName);
+      if (!success && tableName != null) {
+        IOUtils.deleteFilesIgnoringExceptions(dir, tableName);
+      }
+    }
+
+    LOG.info(String.format("Docid table with %,d docids written for %s", size, commit));
+  }
+
+  // Opens the table in a directory, returning null if there isn't one for the given index commit. The table closes the
+  // directory if it owns it.
+  private static DocidTable open(Directory dir, String commit, int maxDoc, Directory owned) throws IOException {
+    IndexInput input;
+    try {
+      input = dir.openInput(FILE_NAME, IOContext.DEFAULT);
+    } catch (NoSuchFileException | FileNotFoundException e) {
+      return null;
+    }
+
+    boolean success = false;
+    try {
+      CodecUtil.checkHeader(input, CODEC, VERSION, VERSION);
+      String tableCommit = input.readString();
+      int tableMaxDoc = input.readInt();
+      int size = input.readInt();
+      long blobLength = input.readLong();
+      if (!tableCommit.equals(commit) || tableMaxDoc != maxDoc) {
+        LOG.info(String.format("Ignoring docid table for %s, since the index is at %s", tableCommit, commit));
+        return null;
+      }
+      long start = input.getFilePointer();
+      CodecUtil.retrieveChecksum(input);
+
+      DocidTable table = new DocidTable(input, owned, maxDoc, size, start, blobLength);
+      success = true;
+      return table;
+    } finally {
+      if (!success) {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of Lucene docids in the index, i.e., its {@code maxDoc}.
+   *
+   * @return number of Lucene docids
+   */
+  public int maxDoc() {
+    return maxDoc;
+  }
+
+  /**
+   * Returns the number of docids that can be looked up, i.e., the number of live documents with a docid.
+   *
+   * @return number of docids
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Converts a Lucene internal docid to a collection docid.
+   *
+   * @param luceneDocid Lucene internal docid
+   * @return corresponding collection docid, or {@code null} if out of range or the document doesn't have a docid
+   * @throws IOException if error encountered reading the table
+   */
+  public String getDocid(int luceneDocid) throws IOException {
+    if (luceneDocid < 0 || luceneDocid >= maxDoc) {
+      return null;
+    }
+
+    long start = data.readLong(offsetsStart + 8L * luceneDocid);
+    int length = (int) (data.readLong(offsetsStart + 8L * luceneDocid + 8) - start);
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = data.readByte(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Converts a collection docid to a Lucene internal docid.
+   *
+   * @param docid collection docid
+   * @return corresponding Lucene internal docid, or -1 if not found
+   * @throws IOException if error encountered reading the table
+   */
+  public int getLuceneDocid(String docid) throws IOException {
+    // Binary search for the first Lucene docid with the docid.
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compare(docid, data.readInt(sortedStart + 4L * mid)) > 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    if (lo < size) {
+      int luceneDocid = data.readInt(sortedStart + 4L * lo);
+      if (compare(docid, luceneDocid) == 0) {
+        return luceneDocid;
+      }
+    }
+    return -1;
+  }
+
+  // Compares a docid with the docid of a document, decoding the UTF-8 bytes on the fly rather than encoding the docid,
+  // so that lookups don't allocate. Code point order is the same as the byte order that the table is sorted in.
+  private int compare(String docid, int luceneDocid) throws IOException {
+    long pos = data.readLong(offsetsStart + 8L * luceneDocid);
+    long end = data.readLong(offsetsStart + 8L * luceneDocid + 8);
+
+    int i = 0;
+    while (i < docid.length() && pos < end) {
+      int cp = docid.codePointAt(i);
+      i += Character.charCount(cp);
+      if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+        // Unpaired surrogates are encoded as U+FFFD, as in UnicodeUtil.UTF16toUTF8, which BytesRef and terms use.
+        cp = 0xfffd;
+      }
+
+      int b = data.readByte(pos++) & 0xff;
+      int other;
+      if (b < 0x80) {
+        other = b;
+      } else if (b < 0xe0) {
+        other = (b & 0x1f) << 6 | (data.readByte(pos++) & 0x3f);
+      } else if (b < 0xf0) {
+        other = (b & 0x0f) << 12 | (data.readByte(pos++) & 0x3f) << 6 | (data.readByte(pos++) & 0x3f);
+      } else {
+        other = (b & 0x07) << 18 | (data.readByte(pos++) & 0x3f) << 12 | (data.readByte(pos++) & 0x3f) << 6 |
+            (data.readByte(pos++) & 0x3f);
+      }
+
+      if (cp != other) {
+        return Integer.compare(cp, other);
+      }
+    }
+    return Boolean.compare(i < docid.length(), pos < end);
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOUtils.close(input, directory);
+  }
+
+  // Sorts Lucene docids by the (unsigned) bytes of their docids, breaking ties by Lucene docid.
+  private static final class DocidSorter extends IntroSorter {
+    private final RandomAccessInput blob;
+    private final RandomAccessInput offsets;
+    private final int[] docs;
+    private int pivot;
+
+    DocidSorter(RandomAccessInput blob, RandomAccessInput offsets, int[] docs) {
+      this.blob = blob;
+      this.offsets = offsets;
+      this.docs = docs;
+    }
+
+    @Override
+    protected void swap(int i, int j) {
+      int tmp = docs[i];
+      docs[i] = docs[j];
+      docs[j] = tmp;
+    }
+
+    @Override
+    protected void setPivot(int i) {
+      pivot = docs[i];
+    }
+
+    @Override
+    protected int comparePivot(int j) {
+      try {
+        return compareDocs(pivot, docs[j]);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private int compareDocs(int a, int b) throws IOException {
+      long posA = offsets.readLong(8L * a);
+      long endA = offsets.readLong(8L * a + 8);
+      long posB = offsets.readLong(8L * b);
+      long endB = offsets.readLong(8L * b + 8);
+
+      // Compare eight bytes at a time while we can; the longs are little-endian, so reverse them first.
+      while (endA - posA >= 8 && endB - posB >= 8) {
+        long x = Long.reverseBytes(blob.readLong(posA));
+        long y = Long.reverseBytes(blob.readLong(posB));
+        if (x != y) {
+          return Long.compareUnsigned(x, y);
+        }
+        posA += 8;
+        posB += 8;
+      }
+      while (posA < endA && posB < endB) {
+        int x = blob.readByte(posA++) & 0xff;
+        int y = blob.readByte(posB++) & 0xff;
+        if (x != y) {
+          return Integer.compare(x, y);
+        }
+      }
+
+      int cmp = Long.compare(endA - posA, endB - posB);
+      return cmp != 0 ? cmp : Integer.compare(a, b);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.collection.DocumentCollection;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Term frequency vectors of documents, as read by relevance feedback. {@link #open} reads them from the first source
+ * an index has: its {@link ForwardIndex}, its stored term vectors, or else by re-analyzing the stored raw documents.
+ */
+public interface DocumentVectors {
+  /**
+   * Consumer of the terms of a document vector.
+   */
+  @FunctionalInterface
+  interface TermConsumer {
+    /**
+     * Accepts a term of a document vector.
+     *
+     * @param term term, as UTF-8 bytes, which are only valid until the consumer returns
+     * @param freq frequency of the term in the document
+     * @throws IOException if error encountered consuming the term
+     */
+    void accept(BytesRef term, long freq) throws IOException;
+  }
+
+  /**
+   * Visits the terms of the vector of a document. Terms from a forward index or term vectors are visited in the order
+   * of their bytes; terms from re-analyzed documents are visited in no particular order.
+   *
+   * @param docid Lucene docid
+   * @param consumer consumer of the terms
+   * @return whether the document has a vector, i.e., {@code false} if there's no source to read it from
+   * @throws IOException if error encountered reading the document
+   */
+  boolean visit(int docid, TermConsumer consumer) throws IOException;
+
+  /**
+   * Returns the document vectors of a field of an index, read from its forward index (for the {@link
+   * Constants#CONTENTS} field), from its stored term vectors, or from its stored raw documents, in that order. Raw
+   * documents are only re-analyzed if a collection class is given. The vectors aren't thread-safe.
+   *
+   * @param reader index reader
+   * @param field field
+   * @param analyzer analyzer, for documents without a stored vector
+   * @param parser collection class, for documents without a stored vector, or {@code null}
+   * @return document vectors
+   */
+  static DocumentVectors open(IndexReader reader, String field, Analyzer analyzer,
+                              Class<? extends DocumentCollection<?>> parser) {
+    return new IndexDocumentVectors(reader, field, analyzer, parser);
+  }
+}
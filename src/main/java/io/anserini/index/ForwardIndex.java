@@ -0,0 +1,507 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A forward index of the {@link Constants#CONTENTS} field, i.e., the terms and term frequencies of each document,
+ * stored as a sidecar file in the index directory and memory-mapped (if the directory is, as {@link
+ * org.apache.lucene.store.FSDirectory#open} does on 64-bit platforms). Relevance feedback otherwise needs term vectors,
+ * which are stored with positions and roughly double the size of an index, or else re-parses and re-analyzes the raw
+ * documents for every feedback document of every query.</p>
+ *
+ * <p>The forward index holds the terms of the field in sorted order, and, for each document, the ordinals of its terms
+ * in ascending order along with their frequencies, as delta-encoded variable-length ints. Documents are stored in blocks
+ * of 128, with the offset of each block, so that reading a document skips at most a block's worth of documents. The
+ * terms and frequencies are those indexed, so document vectors are the same as from term vectors.</p>
+ *
+ * <p>The forward index is built at index time with {@code IndexCollection -forwardIndex}, or with {@link
+ * #write(DirectoryReader)}. Like {@link DocidTable}, it records the index commit it was built for, and is ignored once
+ * the index changes. Feedback reads it through {@link DocumentVectors}.</p>
+ */
+public final class ForwardIndex implements DocumentVectors, Closeable {
+  private static final Logger LOG = LogManager.getLogger(ForwardIndex.class);
+
+  /**
+   * Name of the sidecar file in the index directory; it doesn't look like a Lucene index file, so Lucene leaves it be.
+   */
+  public static final String FILE_NAME = "anserini.forward";
+
+  private static final String CODEC = "AnseriniForwardIndex";
+  private static final int VERSION = 0;
+  private static final String TEMP_PREFIX = "anserini_forward";
+
+  private static final int BLOCK_SHIFT = 7;
+  private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  // Number of postings inverted at a time while building, which bounds the memory needed to about 8 bytes each.
+  private static final int DEFAULT_BUFFER_SIZE = 1 << 22;
+
+  // Forward indexes of open readers, keyed by the cache key of the reader; empty if the index doesn't have one.
+  private static final Map<IndexReader.CacheKey, Optional<ForwardIndex>> INDEXES = new ConcurrentHashMap<>();
+
+  private final IndexInput input;
+  private final String field;
+  private final int maxDoc;
+  private final int numTerms;
+  private final IndexInput terms;
+  private final RandomAccessInput termOffsets;
+  private final IndexInput docs;
+  private final RandomAccessInput blockOffsets;
+
+  private ForwardIndex(IndexInput input, String field, int maxDoc, int numTerms, long start, long termsLength,
+                       long docsLength) throws IOException {
+    this.input = input;
+    this.field = field;
+    this.maxDoc = maxDoc;
+    this.numTerms = numTerms;
+
+    long pos = start;
+    this.terms = input.slice("terms", pos, termsLength);
+    pos += termsLength;
+    this.termOffsets = input.randomAccessSlice(pos, 8L * (numTerms + 1));
+    pos += 8L * (numTerms + 1);
+    this.docs = input.slice("docs", pos, docsLength);
+    pos += docsLength;
+    this.blockOffsets = input.randomAccessSlice(pos, 8L * numBlocks(maxDoc));
+  }
+
+  private static int numBlocks(int maxDoc) {
+    return (maxDoc + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+  }
+
+  /**
+   * Returns the forward index of an index if it has an up-to-date one, opening it on first use. The forward index stays
+   * open until the reader is closed.
+   *
+   * @param reader index reader
+   * @return forward index of the index, or {@code null} if the index doesn't have one
+   */
+  public static ForwardIndex get(IndexReader reader) {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (!(reader instanceof DirectoryReader) || helper == null) {
+      return null;
+    }
+
+    Optional<ForwardIndex> index = INDEXES.get(helper.getKey());
+    if (index != null) {
+      return index.orElse(null);
+    }
+
+    synchronized (INDEXES) {
+      index = INDEXES.get(helper.getKey());
+      if (index != null) {
+        return index.orElse(null);
+      }
+
+      ForwardIndex opened = null;
+      try {
+        DirectoryReader directoryReader = (DirectoryReader) reader;
+        opened = open(directoryReader.directory(), commitOf(directoryReader), reader.maxDoc());
+      } catch (IOException e) {
+        LOG.warn(String.format("Unable to open forward index: %s", e.getMessage()));
+      }
+
+      helper.addClosedListener(key -> {
+        Optional<ForwardIndex> closed = INDEXES.remove(key);
+        if (closed != null && closed.isPresent()) {
+          closed.get().close();
+        }
+      });
+      INDEXES.put(helper.getKey(), Optional.ofNullable(opened));
+      return opened;
+    }
+  }
+
+  private static String commitOf(DirectoryReader reader) throws IOException {
+    return reader.getIndexCommit().getSegmentsFileName();
+  }
+
+  /**
+   * Builds the forward index of the {@link Constants#CONTENTS} field of an index and writes it to the index directory,
+   * replacing any existing forward index.
+   *
+   * @param reader index reader
+   * @throws IOException if error encountered reading the index or writing the forward index
+   */
+  public static void write(DirectoryReader reader) throws IOException {
+    write(reader, Constants.CONTENTS, DEFAULT_BUFFER_SIZE);
+  }
+
+  static void write(DirectoryReader reader, String field, int bufferSize) throws IOException {
+    Directory dir = reader.directory();
+    String commit = commitOf(reader);
+    int maxDoc = reader.maxDoc();
+    long[] blocks = new long[numBlocks(maxDoc)];
+
+    // First, merge the terms of all segments into the terms of the index, and write them along with the documents to
+    // temporary files.
+    String termsName = null;
+    String termOffsetsName = null;
+    String docsName = null;
+    String indexName = null;
+    int numTerms;
+    long termsLength;
+    long docsLength;
+    boolean success = false;
+    try {
+      int[][] ordinals;
+      try (IndexOutput terms = dir.createTempOutput(TEMP_PREFIX, "terms", IOContext.DEFAULT);
+           IndexOutput termOffsets = dir.createTempOutput(TEMP_PREFIX, "offsets", IOContext.DEFAULT)) {
+        termsName = terms.getName();
+        termOffsetsName = termOffsets.getName();
+        ordinals = new int[reader.leaves().size()][];
+        numTerms = mergeTerms(reader, field, terms, termOffsets, ordinals);
+        termsLength = terms.getFilePointer();
+      }
+
+      try (IndexOutput docs = dir.createTempOutput(TEMP_PREFIX, "docs", IOContext.DEFAULT)) {
+        docsName = docs.getName();
+        for (LeafReaderContext context : reader.leaves()) {
+          writeDocs(context, field, ordinals[context.ord], bufferSize, docs, blocks);
+        }
+        docsLength = docs.getFilePointer();
+      }
+
+      // Then, write the final forward index, which we move into place once complete.
+      try (IndexInput terms = dir.openInput(termsName, IOContext.READONCE);
+           IndexInput termOffsets = dir.openInput(termOffsetsName, IOContext.READONCE);
+           IndexInput docs = dir.openInput(docsName, IOContext.READONCE);
+           IndexOutput out = dir.createTempOutput(TEMP_PREFIX, "index", IOContext.DEFAULT)) {
+        indexName = out.getName();
+        CodecUtil.writeHeader(out, CODEC, VERSION);
+        out.writeString(commit);
+        out.writeString(field);
+        out.writeInt(maxDoc);
+        out.writeInt(numTerms);
+        out.writeLong(termsLength);
+        out.writeLong(docsLength);
+        out.copyBytes(terms, termsLength);
+        out.copyBytes(termOffsets, 8L * (numTerms + 1));
+        out.copyBytes(docs, docsLength);
+        for (long block : blocks) {
+          out.writeLong(block);
+        }
+        CodecUtil.writeFooter(out);
+      }
+
+      dir.sync(Set.of(indexName));
+      try {
+        dir.deleteFile(FILE_NAME);
+      } catch (NoSuchFileException | FileNotFoundException e) {
+        // No previous forward index, which is fine.
+      }
+      dir.rename(indexName, FILE_NAME);
+      dir.syncMetaData();
+      success = true;
+    } finally {
+      IOUtils.deleteFilesIgnoringExceptions(dir, termsName, termOffsetsName, docsName);
+      if (!success && indexName != null) {
+        IOUtils.deleteFilesIgnoringExceptions(dir, indexName);
+      }
+    }
+
+    LOG.info(String.format("Forward index with %,d terms and %,d documents written for %s", numTerms, maxDoc, commit));
+  }
+
+  // Merges the sorted terms of all segments, writing each distinct term and its offset, and filling in the ordinals of
+  // the terms of each segment in the merged terms.
+  private static int mergeTerms(IndexReader reader, String field, IndexOutput terms, IndexOutput termOffsets,
+                                int[][] ordinals) throws IOException {
+    PriorityQueue<SegmentTerms> queue = new PriorityQueue<>(Math.max(1, reader.leaves().size())) {
+      @Override
+      protected boolean lessThan(SegmentTerms a, SegmentTerms b) {
+        return a.term.compareTo(b.term) < 0;
+      }
+    };
+    for (LeafReaderContext context : reader.leaves()) {
+      Terms segmentTerms = context.reader().terms(field);
+      ordinals[context.ord] = new int[0];
+      if (segmentTerms != null) {
+        SegmentTerms top = new SegmentTerms(context.ord, segmentTerms.iterator());
+        if (top.next()) {
+          queue.add(top);
+        }
+      }
+    }
+
+    BytesRefBuilder last = new BytesRefBuilder();
+    int numTerms = 0;
+    termOffsets.writeLong(0);
+    while (queue.size() > 0) {
+      SegmentTerms top = queue.top();
+      if (numTerms == 0 || !top.term.bytesEquals(last.get())) {
+        terms.writeBytes(top.term.bytes, top.term.offset, top.term.length);
+        termOffsets.writeLong(terms.getFilePointer());
+        last.copyBytes(top.term);
+        numTerms++;
+      }
+
+      int[] segmentOrdinals = ordinals[top.segment] = ArrayUtil.grow(ordinals[top.segment], top.ordinal + 1);
+      segmentOrdinals[top.ordinal++] = numTerms - 1;
+      if (top.next()) {
+        queue.updateTop();
+      } else {
+        queue.pop();
+      }
+    }
+    return numTerms;
+  }
+
+  private static final class SegmentTerms {
+    final int segment;
+    final TermsEnum termsEnum;
+    BytesRef term;
+    int ordinal;
+
+    SegmentTerms(int segment, TermsEnum termsEnum) {
+      this.segment = segment;
+      this.termsEnum = termsEnum;
+    }
+
+    boolean next() throws IOException {
+      term = termsEnum.next();
+      return term != null;
+    }
+  }
+
+  // Inverts the postings of a segment into documents, a range of documents at a time so that at most bufferSize
+  // postings are held, and writes them.
+  private static void writeDocs(LeafReaderContext context, String field, int[] ordinals, int bufferSize,
+                                IndexOutput out, long[] blocks) throws IOException {
+    LeafReader leaf = context.reader();
+    int maxDoc = leaf.maxDoc();
+    Terms terms = leaf.terms(field);
+
+    // Count the terms of each document, to work out the ranges.
+    int[] counts = new int[maxDoc + 1];
+    PostingsEnum postings = null;
+    if (terms != null) {
+      TermsEnum termsEnum = terms.iterator();
+      while (termsEnum.next() != null) {
+        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+          counts[doc]++;
+        }
+      }
+    }
+
+    int[] starts = new int[maxDoc + 1];
+    int[] termOrdinals = new int[0];
+    int[] freqs = new int[0];
+    ByteBuffersDataOutput buffer = new ByteBuffersDataOutput();
+    int from = 0;
+    while (from < maxDoc) {
+      // Always take at least one document, however many terms it has.
+      int to = from + 1;
+      long size = counts[from];
+      while (to < maxDoc && size + counts[to] <= bufferSize) {
+        size += counts[to++];
+      }
+
+      starts[from] = 0;
+      for (int doc = from; doc < to; doc++) {
+        starts[doc + 1] = starts[doc] + counts[doc];
+      }
+      termOrdinals = ArrayUtil.grow(termOrdinals, (int) size);
+      freqs = ArrayUtil.grow(freqs, (int) size);
+
+      // Terms are visited in order, so the terms of each document end up sorted.
+      if (size > 0) {
+        int[] next = new int[to - from];
+        TermsEnum termsEnum = terms.iterator();
+        int ordinal = 0;
+        while (termsEnum.next() != null) {
+          postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+          for (int doc = postings.advance(from); doc < to; doc = postings.nextDoc()) {
+            int i = starts[doc] + next[doc - from]++;
+            termOrdinals[i] = ordinals[ordinal];
+            freqs[i] = postings.freq();
+          }
+          ordinal++;
+        }
+      }
+
+      for (int doc = from; doc < to; doc++) {
+        int docid = context.docBase + doc;
+        if ((docid & (BLOCK_SIZE - 1)) == 0) {
+          blocks[docid >>> BLOCK_SHIFT] = out.getFilePointer();
+        }
+
+        // Each document is its length in bytes, its number of terms, then a delta-encoded ordinal for each term, with
+        // the lowest bit set if the term occurs once, and otherwise followed by its frequency.
+        buffer.reset();
+        buffer.writeVInt(counts[doc]);
+        int previous = 0;
+        for (int i = starts[doc]; i < starts[doc + 1]; i++) {
+          int delta = termOrdinals[i] - previous;
+          previous = termOrdinals[i];
+          if (freqs[i] == 1) {
+            buffer.writeVInt(delta << 1 | 1);
+          } else {
+            buffer.writeVInt(delta << 1);
+            buffer.writeVInt(freqs[i]);
+          }
+        }
+        out.writeVLong(buffer.size());
+        buffer.copyTo(out);
+      }
+      from = to;
+    }
+  }
+
+  // Opens the forward index in a directory, returning null if there isn't one for the given index commit.
+  private static ForwardIndex open(Directory dir, String commit, int maxDoc) throws IOException {
+    IndexInput input;
+    try {
+      input = dir.openInput(FILE_NAME, IOContext.DEFAULT);
+    } catch (NoSuchFileException | FileNotFoundException e) {
+      return null;
+    }
+
+    boolean success = false;
+    try {
+      CodecUtil.checkHeader(input, CODEC, VERSION, VERSION);
+      String indexCommit = input.readString();
+      String field = input.readString();
+      int indexMaxDoc = input.readInt();
+      int numTerms = input.readInt();
+      long termsLength = input.readLong();
+      long docsLength = input.readLong();
+      if (!indexCommit.equals(commit) || indexMaxDoc != maxDoc) {
+        LOG.info(String.format("Ignoring forward index for %s, since the index is at %s", indexCommit, commit));
+        return null;
+      }
+      long start = input.getFilePointer();
+      CodecUtil.retrieveChecksum(input);
+
+      ForwardIndex index = new ForwardIndex(input, field, maxDoc, numTerms, start, termsLength, docsLength);
+      success = true;
+      return index;
+    } finally {
+      if (!success) {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the field that this is the forward index of.
+   *
+   * @return field
+   */
+  public String field() {
+    return field;
+  }
+
+  /**
+   * Returns the number of Lucene docids in the index, i.e., its {@code maxDoc}.
+   *
+   * @return number of Lucene docids
+   */
+  public int maxDoc() {
+    return maxDoc;
+  }
+
+  /**
+   * Returns the number of distinct terms in the field.
+   *
+   * @return number of terms
+   */
+  public int numTerms() {
+    return numTerms;
+  }
+
+  /**
+   * Visits the terms of a document in the order of their bytes. This is thread-safe.
+   *
+   * @param docid Lucene docid
+   * @param consumer consumer of the terms
+   * @return whether the docid is in range
+   * @throws IOException if error encountered reading the forward index
+   */
+  @Override
+  public boolean visit(int docid, TermConsumer consumer) throws IOException {
+    if (docid < 0 || docid >= maxDoc) {
+      return false;
+    }
+
+    IndexInput in = docs.clone();
+    in.seek(blockOffsets.readLong(8L * (docid >>> BLOCK_SHIFT)));
+    for (int i = docid & (BLOCK_SIZE - 1); i > 0; i--) {
+      in.skipBytes(in.readVLong());
+    }
+    in.readVLong();
+
+    IndexInput termsIn = null;
+    BytesRef term = new BytesRef();
+    int count = in.readVInt();
+    int ordinal = 0;
+    for (int i = 0; i < count; i++) {
+      int code = in.readVInt();
+      ordinal += code >>> 1;
+      int freq = (code & 1) != 0 ? 1 : in.readVInt();
+
+      if (termsIn == null) {
+        termsIn = terms.clone();
+      }
+      long start = termOffsets.readLong(8L * ordinal);
+      int length = (int) (termOffsets.readLong(8L * ordinal + 8) - start);
+      term.bytes = ArrayUtil.grow(term.bytes, length);
+      term.length = length;
+      termsIn.seek(start);
+      termsIn.readBytes(term.bytes, 0, length);
+      consumer.accept(term, freq);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
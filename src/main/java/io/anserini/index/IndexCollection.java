@@ -28,7 +28,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.similarities.BM25Similarity;
@@ -41,7 +43,7 @@ import org.kohsuke.args4j.ParserProperties;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
 import java.io.File;
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -70,6 +72,10 @@ public final class IndexCollection extends AbstractIndexer {
         usage = "Boolean switch to index store term positions; needed for phrase queries.")
     public boolean storePositions = false;
 
+    @Option(name = "-sdmBigrams", forbids = "-impact",
+        usage = "Boolean switch to index the bigrams of the contents; speeds up ordered windows of SDM queries.")
+    public boolean sdmBigrams = false;
+
     @Option(name = "-storeDocvectors",
         usage = "Boolean switch to store document vectors; needed for (pseudo) relevance feedback.")
     public boolean storeDocvectors = false;
@@ -102,6 +108,14 @@ public final class IndexCollection extends AbstractIndexer {
         usage = "Boolean switch to store impacts (no norms).")
     public boolean impact = false;
 
+    @Option(name = "-docidTable",
+        usage = "Boolean switch to build a table of docids for fast lookups of Lucene docids by docid.")
+    public boolean docidTable = false;
+
+    @Option(name = "-forwardIndex",
+        usage = "Boolean switch to build a forward index of the contents for relevance feedback without doc vectors.")
+    public boolean forwardIndex = false;
+
     @Option(name = "-bm25.accurate",
         usage = "Boolean switch to use AccurateBM25Similarity (computes accurate document lengths).")
     public boolean bm25Accurate = false;
@@ -170,7 +184,12 @@ public final class IndexCollection extends AbstractIndexer {
     }
 
     final Directory dir = FSDirectory.open(Paths.get(args.index));
-    final IndexWriterConfig config = new IndexWriterConfig(getAnalyzer());
+    Analyzer analyzer = getAnalyzer();
+    if (args.sdmBigrams) {
+      analyzer = new PerFieldAnalyzerWrapper(analyzer,
+          Map.of(Constants.CONTENTS_BIGRAMS, new SdmBigramAnalyzer(analyzer)));
+    }
+    final IndexWriterConfig config = new IndexWriterConfig(analyzer);
 
     if (args.bm25Accurate) {
       // Necessary during indexing as the norm used in BM25 is already determined at index time.
@@ -195,6 +214,8 @@ public final class IndexCollection extends AbstractIndexer {
     LOG.info(" + Stopwords: " + args.stopwords);
     LOG.info(" + Store positions? " + args.storePositions);
     LOG.info(" + Store docvectors? " + args.storeDocvectors);
+    LOG.info(" + Index SDM bigrams? " + args.sdmBigrams);
+    LOG.info(" + Build forward index? " + args.forwardIndex);
     LOG.info(" + Store document \"contents\" field? " + args.storeContents);
     LOG.info(" + Store document \"raw\" field? " + args.storeRaw);
     LOG.info(" + Additional fields to index: " + Arrays.toString(args.fields));
@@ -247,16 +268,52 @@ public final class IndexCollection extends AbstractIndexer {
     }
   }
 
+  @Override
+  public void run() {
+    super.run();
+
+    if (((Args) super.args).docidTable) {
+      LOG.info("============ Building Docid Table ============");
+      try (Directory dir = FSDirectory.open(Paths.get(args.index));
+           DirectoryReader reader = DirectoryReader.open(dir)) {
+        DocidTable.write(reader);
+      } catch (IOException e) {
+        // The index itself is fine, so just log the error and move on.
+        LOG.error(e);
+      }
+    }
+
+    if (((Args) super.args).forwardIndex) {
+      LOG.info("============ Building Forward Index ============");
+      try (Directory dir = FSDirectory.open(Paths.get(args.index));
+           DirectoryReader reader = DirectoryReader.open(dir)) {
+        ForwardIndex.write(reader);
+      } catch (IOException e) {
+        // The index itself is fine, so just log the error and move on.
+        LOG.error(e);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected LuceneDocumentGenerator<SourceDocument> createGenerator() throws ReflectiveOperationException {
+    return (LuceneDocumentGenerator<SourceDocument>) generatorClass.getDeclaredConstructor(Args.class).newInstance(this.args);
+  }
+
+  @Override
+  protected Set<String> getWhitelistDocids() {
+    return whitelistDocids;
+  }
+
   protected void processSegments(ThreadPoolExecutor executor, List<Path> segmentPaths) {
     segmentPaths.forEach((segmentPath) -> {
       try {
         // Each thread gets its own document generator, so we don't need to make any assumptions about its thread safety.
-        @SuppressWarnings("unchecked")
-        LuceneDocumentGenerator<SourceDocument> generator = (LuceneDocumentGenerator<SourceDocument>)
-                generatorClass.getDeclaredConstructor(Args.class).newInstance(this.args);
+        LuceneDocumentGenerator<SourceDocument> generator = createGenerator();
 
         executor.execute(new AbstractIndexer.IndexerThread(segmentPath, generator, whitelistDocids));
-      } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+      } catch (ReflectiveOperationException e) {
         throw new IllegalArgumentException(String.format("Unable to load LuceneDocumentGenerator \"%s\".", generatorClass.getSimpleName()));
       }
     });
@@ -266,21 +323,26 @@ public final class IndexCollection extends AbstractIndexer {
     List<Callable<Void>> tasks = new ArrayList<>(segmentPaths.size());
 
     for (Path segmentPath : segmentPaths) {
-      tasks.add(() -> {
-        try {
-          // Each thread gets its own document generator, so we don't need to make any assumptions about its thread safety.
-          @SuppressWarnings("unchecked")
-          LuceneDocumentGenerator<SourceDocument> generator = (LuceneDocumentGenerator<SourceDocument>)
-                  generatorClass.getDeclaredConstructor(Args.class).newInstance(this.args);
-
-          new IndexerThread(segmentPath, generator, whitelistDocids).run();
-          completedTaskCount.incrementAndGet();
-        } catch (InstantiationException | IllegalAccessException | InvocationTargetException |
-                 NoSuchMethodException e) {
-          throw new IllegalArgumentException(String.format("Unable to load LuceneDocumentGenerator \"%s\".", generatorClass.getSimpleName()));
-        }
-        return null;
-      });
+      // A file counts as completed once all of its splits have been indexed.
+      List<SegmentSplit> splits = splitSegment(segmentPath);
+      AtomicInteger remainingSplits = new AtomicInteger(splits.size());
+
+      for (SegmentSplit split : splits) {
+        tasks.add(() -> {
+          try {
+            // Each thread gets its own document generator, so we don't need to make any assumptions about its thread safety.
+            LuceneDocumentGenerator<SourceDocument> generator = createGenerator();
+
+            new IndexerThread(segmentPath, split, generator, whitelistDocids).run();
+            if (remainingSplits.decrementAndGet() == 0) {
+              completedTaskCount.incrementAndGet();
+            }
+          } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(String.format("Unable to load LuceneDocumentGenerator \"%s\".", generatorClass.getSimpleName()));
+          }
+          return null;
+        });
+      }
     }
 
     try (
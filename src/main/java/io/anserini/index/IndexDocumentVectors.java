@@ -0,0 +1,92 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.analysis.AnalyzerUtils;
+import io.anserini.collection.DocumentCollection;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Document vectors of an index, falling back from its forward index to its term vectors to its raw documents.
+ */
+final class IndexDocumentVectors implements DocumentVectors {
+  private final IndexReader reader;
+  private final String field;
+  private final Analyzer analyzer;
+  private final Class<? extends DocumentCollection<?>> parser;
+  private final ForwardIndex forwardIndex;
+
+  private TermVectors termVectors;
+  private StoredFields storedFields;
+  private BytesRefBuilder scratch;
+
+  IndexDocumentVectors(IndexReader reader, String field, Analyzer analyzer,
+                       Class<? extends DocumentCollection<?>> parser) {
+    this.reader = reader;
+    this.field = field;
+    this.analyzer = analyzer;
+    this.parser = parser;
+
+    ForwardIndex forwardIndex = ForwardIndex.get(reader);
+    this.forwardIndex = forwardIndex != null && forwardIndex.field().equals(field) ? forwardIndex : null;
+  }
+
+  @Override
+  public boolean visit(int docid, TermConsumer consumer) throws IOException {
+    if (forwardIndex != null) {
+      return forwardIndex.visit(docid, consumer);
+    }
+
+    if (termVectors == null) {
+      termVectors = reader.termVectors();
+    }
+    Terms terms = termVectors.get(docid, field);
+    if (terms != null) {
+      TermsEnum termsEnum = terms.iterator();
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        consumer.accept(term, termsEnum.totalTermFreq());
+      }
+      return true;
+    }
+
+    if (parser == null) {
+      return false;
+    }
+    if (storedFields == null) {
+      storedFields = reader.storedFields();
+      scratch = new BytesRefBuilder();
+    }
+    Map<String, Long> termFreqMap = AnalyzerUtils.computeDocumentVector(analyzer, parser,
+        storedFields.document(docid).getField(Constants.RAW).stringValue());
+    for (Map.Entry<String, Long> e : termFreqMap.entrySet()) {
+      scratch.copyChars(e.getKey());
+      consumer.accept(scratch.get(), e.getValue());
+    }
+    return true;
+  }
+}
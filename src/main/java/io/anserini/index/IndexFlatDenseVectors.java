@@ -18,6 +18,7 @@ package io.anserini.index;
 
 import io.anserini.collection.SourceDocument;
 import io.anserini.collection.ParquetDenseVectorCollection;
+import io.anserini.index.codecs.AnseriniLucene99BinaryQuantizedVectorsFormat;
 import io.anserini.index.codecs.AnseriniLucene99FlatVectorFormat;
 import io.anserini.index.codecs.AnseriniLucene99ScalarQuantizedVectorsFormat;
 import io.anserini.index.generator.LuceneDocumentGenerator;
@@ -56,6 +57,10 @@ public final class IndexFlatDenseVectors extends AbstractIndexer {
     @Option(name = "-quantize.int8", usage = "Quantize vectors into int8.")
     public boolean quantizeInt8 = false;
 
+    @Option(name = "-quantize.binary", forbids = {"-quantize.int8"},
+        usage = "Quantize vectors into both int8 and 1-bit, so that either can be searched and rescored.")
+    public boolean quantizeBinary = false;
+
     @Option(name = "-storeVectors", usage = "Boolean switch to store raw raw vectors.")
     public boolean storeVectors = false;
 
@@ -87,7 +92,15 @@ public final class IndexFlatDenseVectors extends AbstractIndexer {
       final Directory dir = FSDirectory.open(Paths.get(args.index));
       final IndexWriterConfig config;
 
-      if (args.quantizeInt8) {
+      if (args.quantizeBinary) {
+        config = new IndexWriterConfig().setCodec(
+            new Lucene99Codec() {
+              @Override
+              public KnnVectorsFormat getKnnVectorsFormatForField(String field) {
+                return new DelegatingKnnVectorsFormat(new AnseriniLucene99BinaryQuantizedVectorsFormat(), 4096);
+              }
+            });
+      } else if (args.quantizeInt8) {
         config = new IndexWriterConfig().setCodec(
             new Lucene99Codec() {
               @Override
@@ -119,6 +132,7 @@ public final class IndexFlatDenseVectors extends AbstractIndexer {
     LOG.info(" + Generator: " + args.generatorClass);
     LOG.info(" + Store document vectors? " + args.storeVectors);
     LOG.info(" + Int8 quantization? " + args.quantizeInt8);
+    LOG.info(" + Binary quantization? " + args.quantizeBinary);
     LOG.info(" + Document ID field: " + args.docidField);
     LOG.info(" + Vector field: " + args.vectorField);
     LOG.info(" + Normalize vectors? " + args.normalizeVectors);
@@ -27,16 +27,22 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.MultiTerms;
 import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
@@ -735,7 +741,7 @@ public class IndexReaderUtils {
   // TODO: Write a variant of computeQueryDocumentScore that takes a set of documents.
 
   /**
-   * Converts a collection docid to a Lucene internal docid.
+   * Converts a collection docid to a Lucene internal docid, using the {@link DocidTable} of the index if it has one.
    *
    * @param reader index reader
    * @param docid collection docid
@@ -743,6 +749,11 @@ public class IndexReaderUtils {
    */
   public static int convertDocidToLuceneDocid(IndexReader reader, String docid) {
     try {
+      DocidTable table = DocidTable.get(reader);
+      if (table != null) {
+        return table.getLuceneDocid(docid);
+      }
+
       IndexSearcher searcher = new IndexSearcher(reader);
       Query q = new TermQuery(new Term(Constants.ID, docid));
       TopDocs rs = searcher.search(q, 1);
@@ -772,6 +783,11 @@ public class IndexReaderUtils {
       return null;
 
     try {
+      DocidTable table = DocidTable.get(reader);
+      if (table != null) {
+        return table.getDocid(docid);
+      }
+
       return reader.storedFields().document(docid).get(Constants.ID);
     } catch (IOException e) {
       // Eat any exceptions and just return null.
@@ -779,6 +795,77 @@ public class IndexReaderUtils {
     }
   }
 
+  /**
+   * Converts Lucene internal docids (e.g., the hits of a query) to collection docids. Docids are read from the
+   * {@link Constants#ID} doc values, which is much cheaper than fetching stored documents, since that decompresses
+   * whole blocks of stored fields (often including the raw documents). Segments without these doc values (or written
+   * by Lucene 8, whose doc values we avoid) fall back to the stored fields. The {@link DocidTable} of the index is used
+   * instead if it has one.
+   *
+   * @param reader index reader
+   * @param docids Lucene internal docids
+   * @return corresponding collection docids
+   * @throws IOException if error encountered reading the index
+   */
+  public static String[] convertLuceneDocidsToDocids(IndexReader reader, int[] docids) throws IOException {
+    String[] results = new String[docids.length];
+
+    DocidTable table = DocidTable.get(reader);
+    if (table != null) {
+      for (int i = 0; i < docids.length; i++) {
+        results[i] = table.getDocid(docids[i]);
+      }
+      return results;
+    }
+
+    // Doc values are read forward, so we visit the docids in increasing order (keeping track of where each came from).
+    long[] order = new long[docids.length];
+    for (int i = 0; i < docids.length; i++) {
+      order[i] = ((long) docids[i] << 32) | i;
+    }
+    Arrays.sort(order);
+
+    List<LeafReaderContext> leaves = reader.leaves();
+    LeafReaderContext leaf = null;
+    int nextLeaf = 0;
+    BinaryDocValues ids = null;
+    StoredFields storedFields = null;
+    int lastDocid = -1;
+    String lastId = null;
+    for (long key : order) {
+      int docid = (int) (key >>> 32);
+      int index = (int) key;
+      // Doc values can't be read twice for the same document, which comes up if the same hit occurs more than once.
+      if (docid != lastDocid) {
+        while (leaf == null || docid >= leaf.docBase + leaf.reader().maxDoc()) {
+          leaf = leaves.get(nextLeaf++);
+          ids = getIdDocValues(leaf.reader());
+        }
+        if (ids != null && ids.advanceExact(docid - leaf.docBase)) {
+          lastId = ids.binaryValue().utf8ToString();
+        } else {
+          if (storedFields == null) {
+            storedFields = reader.storedFields();
+          }
+          lastId = storedFields.document(docid, Set.of(Constants.ID)).get(Constants.ID);
+        }
+        lastDocid = docid;
+      }
+      results[index] = lastId;
+    }
+
+    return results;
+  }
+
+  static BinaryDocValues getIdDocValues(LeafReader reader) throws IOException {
+    FieldInfo info = reader.getFieldInfos().fieldInfo(Constants.ID);
+    if (info == null || info.getDocValuesType() != DocValuesType.BINARY ||
+        reader.getMetaData().getCreatedVersionMajor() < 9) {
+      return null;
+    }
+    return reader.getBinaryDocValues(Constants.ID);
+  }
+
   /**
    * Returns index statistics.
    *
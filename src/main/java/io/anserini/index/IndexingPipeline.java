@@ -0,0 +1,467 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.collection.DocumentCollection;
+import io.anserini.collection.FileSegment;
+import io.anserini.collection.SourceDocument;
+import io.anserini.index.generator.EmptyDocumentException;
+import io.anserini.index.generator.GeneratorException;
+import io.anserini.index.generator.InvalidDocumentException;
+import io.anserini.index.generator.LuceneDocumentGenerator;
+import io.anserini.index.generator.SkippedDocumentException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * <p>A staged indexing pipeline. Reader threads iterate over file segments and produce {@link SourceDocument}s,
+ * generator threads turn them into Lucene {@link Document}s, and writer threads add them to the {@link IndexWriter}
+ * in batches. Each stage has its own thread count, and stages are connected by bounded queues, so that slow
+ * decompression or parsing in one file no longer stalls analysis, and a slow stage applies back pressure to the
+ * stages upstream of it rather than letting documents pile up in memory.</p>
+ *
+ * <p>Each stage keeps track of the number of items it has processed and the time it spent doing so (excluding time
+ * spent waiting on queues), and the depth of each queue is sampled periodically; together, these show which stage
+ * is the bottleneck.</p>
+ */
+public final class IndexingPipeline {
+  private static final Logger LOG = LogManager.getLogger(IndexingPipeline.class);
+
+  // Sentinels marking the end of each queue; compared by identity.
+  private static final SourceDocument END_OF_SOURCE_DOCUMENTS = new SourceDocument() {
+    @Override
+    public String id() {
+      return null;
+    }
+
+    @Override
+    public String contents() {
+      return null;
+    }
+
+    @Override
+    public String raw() {
+      return null;
+    }
+
+    @Override
+    public boolean indexable() {
+      return false;
+    }
+  };
+  private static final GeneratedDocument END_OF_DOCUMENTS = new GeneratedDocument(null, new Document());
+
+  // A Lucene document along with the id of its source document, since generators need not store the id.
+  private static final class GeneratedDocument {
+    private final String id;
+    private final Document document;
+
+    private GeneratedDocument(String id, Document document) {
+      this.id = id;
+      this.document = document;
+    }
+  }
+
+  /**
+   * Statistics for a stage of the pipeline.
+   */
+  public static final class Stage {
+    public final String name;
+    public final int threads;
+    public final AtomicLong processed = new AtomicLong();
+    public final AtomicLong busyNanos = new AtomicLong();
+
+    private Stage(String name, int threads) {
+      this.name = name;
+      this.threads = threads;
+    }
+
+    /**
+     * Returns the fraction of time the threads of this stage spent doing work, as opposed to waiting on queues.
+     *
+     * @param elapsedNanos elapsed wall time
+     * @return utilization of this stage
+     */
+    public double utilization(long elapsedNanos) {
+      return elapsedNanos == 0 ? 0.0 : (double) busyNanos.get() / ((double) elapsedNanos * threads);
+    }
+  }
+
+  /**
+   * Statistics for a queue connecting two stages of the pipeline.
+   */
+  public static final class QueueStats {
+    public final String name;
+    public final int capacity;
+    private final BlockingQueue<?> queue;
+    private long samples = 0;
+    private long totalDepth = 0;
+    private int maxDepth = 0;
+
+    private QueueStats(String name, BlockingQueue<?> queue, int capacity) {
+      this.name = name;
+      this.queue = queue;
+      this.capacity = capacity;
+    }
+
+    private synchronized void sample() {
+      int depth = queue.size();
+      samples++;
+      totalDepth += depth;
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    public int depth() {
+      return queue.size();
+    }
+
+    public synchronized double meanDepth() {
+      return samples == 0 ? 0.0 : (double) totalDepth / samples;
+    }
+
+    public synchronized int maxDepth() {
+      return maxDepth;
+    }
+  }
+
+  private final DocumentCollection<? extends SourceDocument> collection;
+  private final IndexWriter writer;
+  private final Counters counters;
+  private final Callable<LuceneDocumentGenerator<SourceDocument>> generatorFactory;
+  private final Set<String> whitelistDocids;
+  private final boolean uniqueDocid;
+  private final int batchSize;
+
+  private final BlockingQueue<SourceDocument> sourceDocuments;
+  private final BlockingQueue<GeneratedDocument> documents;
+
+  public final Stage readers;
+  public final Stage generators;
+  public final Stage writers;
+  public final QueueStats sourceDocumentsQueue;
+  public final QueueStats documentsQueue;
+
+  private long startNanos;
+  private long endNanos;
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param collection collection to index
+   * @param writer index writer
+   * @param counters counters to update
+   * @param generatorFactory factory for document generators; each generator thread gets its own generator
+   * @param whitelistDocids whitelisted docids, or {@code null} to index all documents
+   * @param args indexing arguments that configure the pipeline
+   */
+  public IndexingPipeline(DocumentCollection<? extends SourceDocument> collection, IndexWriter writer,
+                          Counters counters, Callable<LuceneDocumentGenerator<SourceDocument>> generatorFactory,
+                          Set<String> whitelistDocids, AbstractIndexer.Args args) {
+    if (args.pipelineReaders < 1 || args.pipelineGenerators < 1 || args.pipelineWriters < 1) {
+      throw new IllegalArgumentException("Each stage of the pipeline must have at least one thread.");
+    }
+    if (args.pipelineQueueSize < 1 || args.pipelineBatchSize < 1) {
+      throw new IllegalArgumentException("Pipeline queue size and batch size must be positive.");
+    }
+
+    this.collection = collection;
+    this.writer = writer;
+    this.counters = counters;
+    this.generatorFactory = generatorFactory;
+    this.whitelistDocids = whitelistDocids;
+    this.uniqueDocid = args.uniqueDocid;
+    this.batchSize = args.pipelineBatchSize;
+
+    this.sourceDocuments = new ArrayBlockingQueue<>(args.pipelineQueueSize);
+    this.documents = new ArrayBlockingQueue<>(args.pipelineQueueSize);
+
+    this.readers = new Stage("read", args.pipelineReaders);
+    this.generators = new Stage("generate", args.pipelineGenerators);
+    this.writers = new Stage("write", args.pipelineWriters);
+    this.sourceDocumentsQueue = new QueueStats("read -> generate", sourceDocuments, args.pipelineQueueSize);
+    this.documentsQueue = new QueueStats("generate -> write", documents, args.pipelineQueueSize);
+  }
+
+  /**
+   * Runs the pipeline over a list of file segments, blocking until all documents have been handed to the writer.
+   *
+   * @param segmentPaths paths of the file segments
+   * @param splitter cuts a file segment into splits; a {@code null} split stands for the entire file
+   * @param completedTaskCount incremented once all documents from a file have been read
+   */
+  public void run(List<Path> segmentPaths, Function<Path, List<SegmentSplit>> splitter,
+                  AtomicInteger completedTaskCount) {
+    // Units of work for the readers: a file, or a split thereof.
+    Queue<Runnable> work = new ConcurrentLinkedQueue<>();
+    for (Path segmentPath : segmentPaths) {
+      List<SegmentSplit> splits = splitter.apply(segmentPath);
+      AtomicInteger remainingSplits = new AtomicInteger(splits.size());
+
+      for (SegmentSplit split : splits) {
+        work.add(() -> {
+          read(segmentPath, split);
+          if (remainingSplits.decrementAndGet() == 0) {
+            completedTaskCount.incrementAndGet();
+          }
+        });
+      }
+    }
+
+    AtomicInteger activeReaders = new AtomicInteger(readers.threads);
+    AtomicInteger activeGenerators = new AtomicInteger(generators.threads);
+
+    startNanos = System.nanoTime();
+    try (ExecutorService executor = Executors.newFixedThreadPool(readers.threads + generators.threads + writers.threads);
+         ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor()) {
+      sampler.scheduleAtFixedRate(() -> {
+        sourceDocumentsQueue.sample();
+        documentsQueue.sample();
+      }, 0, 100, TimeUnit.MILLISECONDS);
+
+      for (int i = 0; i < readers.threads; i++) {
+        executor.execute(() -> {
+          Runnable task;
+          while ((task = work.poll()) != null && !Thread.currentThread().isInterrupted()) {
+            task.run();
+          }
+          // The last reader to finish tells each generator that there is nothing more to come.
+          if (activeReaders.decrementAndGet() == 0) {
+            endOfQueue(sourceDocuments, END_OF_SOURCE_DOCUMENTS, generators.threads);
+          }
+        });
+      }
+
+      for (int i = 0; i < generators.threads; i++) {
+        executor.execute(() -> {
+          generate();
+          // Likewise, the last generator to finish tells each writer that there is nothing more to come.
+          if (activeGenerators.decrementAndGet() == 0) {
+            endOfQueue(documents, END_OF_DOCUMENTS, writers.threads);
+          }
+        });
+      }
+
+      for (int i = 0; i < writers.threads; i++) {
+        executor.execute(this::write);
+      }
+
+      // Wait for all stages to drain, then stop sampling.
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        // Keep waiting.
+      }
+      sampler.shutdown();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    endNanos = System.nanoTime();
+  }
+
+  private static <T> void endOfQueue(BlockingQueue<T> queue, T sentinel, int consumers) {
+    try {
+      for (int i = 0; i < consumers; i++) {
+        queue.put(sentinel);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void read(Path path, SegmentSplit split) {
+    String name = split == null ? path.getFileName().toString() : split.toString();
+
+    try (FileSegment<? extends SourceDocument> segment = split == null ?
+        collection.createFileSegment(path) : collection.createFileSegment(split.open())) {
+      long start = System.nanoTime();
+      for (SourceDocument d : segment) {
+        readers.busyNanos.addAndGet(System.nanoTime() - start);
+
+        if (!d.indexable()) {
+          counters.unindexable.incrementAndGet();
+        } else if (whitelistDocids != null && !whitelistDocids.contains(d.id())) {
+          counters.skipped.incrementAndGet();
+        } else {
+          readers.processed.incrementAndGet();
+          sourceDocuments.put(d);
+        }
+
+        start = System.nanoTime();
+      }
+
+      int skipped = segment.getSkippedCount();
+      if (skipped > 0) {
+        counters.skipped.addAndGet(skipped);
+        LOG.warn("{}: {} docs skipped.", name, skipped);
+      }
+
+      if (segment.getErrorStatus()) {
+        counters.errors.incrementAndGet();
+        LOG.error("{}: error iterating through segment.", name);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      LOG.error("{}: Unexpected Exception: {}", name, e.getMessage());
+    }
+  }
+
+  private void generate() {
+    LuceneDocumentGenerator<SourceDocument> generator;
+    try {
+      generator = generatorFactory.call();
+    } catch (Exception e) {
+      // Without a generator, we can't do anything, but we still need to drain the queue so that readers don't block.
+      LOG.error("Unable to create document generator: {}", e.getMessage());
+      generator = null;
+    }
+
+    try {
+      SourceDocument d;
+      while ((d = sourceDocuments.take()) != END_OF_SOURCE_DOCUMENTS) {
+        if (generator == null) {
+          counters.errors.incrementAndGet();
+          continue;
+        }
+
+        long start = System.nanoTime();
+        try {
+          Document doc = generator.createDocument(d);
+          generators.busyNanos.addAndGet(System.nanoTime() - start);
+          generators.processed.incrementAndGet();
+          documents.put(new GeneratedDocument(d.id(), doc));
+        } catch (EmptyDocumentException e1) {
+          counters.empty.incrementAndGet();
+        } catch (SkippedDocumentException e2) {
+          counters.skipped.incrementAndGet();
+        } catch (InvalidDocumentException e3) {
+          counters.errors.incrementAndGet();
+        } catch (GeneratorException | RuntimeException e4) {
+          counters.errors.incrementAndGet();
+          LOG.error("{}: Unexpected Exception: {}", d.id(), e4.getMessage());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write() {
+    List<GeneratedDocument> batch = new ArrayList<>(batchSize);
+    List<Document> batchDocuments = new ArrayList<>(batchSize);
+
+    try {
+      boolean done = false;
+      while (!done) {
+        batch.clear();
+        batch.add(documents.take());
+        documents.drainTo(batch, batchSize - 1);
+
+        // The batch may contain sentinels; a writer is done once it sees one, and hands back any others it took
+        // so that the remaining writers see theirs.
+        int sentinels = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+          if (batch.get(i) == END_OF_DOCUMENTS) {
+            batch.remove(i);
+            sentinels++;
+          }
+        }
+        if (sentinels > 0) {
+          done = true;
+          endOfQueue(documents, END_OF_DOCUMENTS, sentinels - 1);
+        }
+
+        if (batch.isEmpty()) {
+          continue;
+        }
+
+        long start = System.nanoTime();
+        try {
+          if (uniqueDocid) {
+            for (GeneratedDocument doc : batch) {
+              writer.updateDocument(new Term(Constants.ID, doc.id), doc.document);
+            }
+          } else {
+            batchDocuments.clear();
+            for (GeneratedDocument doc : batch) {
+              batchDocuments.add(doc.document);
+            }
+            writer.addDocuments(batchDocuments);
+          }
+          counters.indexed.addAndGet(batch.size());
+          writers.processed.addAndGet(batch.size());
+        } catch (Exception e) {
+          counters.errors.addAndGet(batch.size());
+          LOG.error("Unable to write batch of {} documents: {}", batch.size(), e.getMessage());
+        }
+        writers.busyNanos.addAndGet(System.nanoTime() - start);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns a one-line summary of the progress of each stage and the current depth of each queue.
+   *
+   * @return progress summary
+   */
+  public String progress() {
+    return String.format("read: %,d, generated: %,d, written: %,d; queue depths: %d/%d, %d/%d",
+        readers.processed.get(), generators.processed.get(), writers.processed.get(),
+        sourceDocumentsQueue.depth(), sourceDocumentsQueue.capacity,
+        documentsQueue.depth(), documentsQueue.capacity);
+  }
+
+  /**
+   * Logs throughput and utilization of each stage, and the depth of each queue.
+   */
+  public void logStatistics() {
+    long elapsedNanos = (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+    double elapsedSeconds = elapsedNanos / 1e9;
+
+    for (Stage stage : List.of(readers, generators, writers)) {
+      LOG.info(String.format("%-9s %2d threads, %,12d docs, %,10.1f docs/s, %5.1f%% busy",
+          stage.name + ":", stage.threads, stage.processed.get(),
+          elapsedSeconds == 0 ? 0.0 : stage.processed.get() / elapsedSeconds,
+          stage.utilization(elapsedNanos) * 100));
+    }
+    for (QueueStats queue : List.of(sourceDocumentsQueue, documentsQueue)) {
+      LOG.info(String.format("queue %-18s mean depth %,.1f, max depth %,d (capacity %,d)",
+          queue.name + ":", queue.meanDepth(), queue.maxDepth(), queue.capacity));
+    }
+  }
+}
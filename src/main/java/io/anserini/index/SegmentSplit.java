@@ -0,0 +1,129 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A contiguous byte range of a line-oriented segment file (e.g., JSON Lines), cut at record boundaries. Splits allow
+ * a single large file to be parsed and indexed by multiple threads in parallel, since each split can be read
+ * independently of the others.
+ */
+public final class SegmentSplit {
+  private static final int BUFFER_SIZE = 1 << 16; // 64K
+
+  public final Path path;
+  public final long start;
+  public final long end;
+
+  public SegmentSplit(Path path, long start, long end) {
+    if (start < 0 || end < start) {
+      throw new IllegalArgumentException(String.format("Invalid split [%d, %d) of \"%s\".", start, end, path));
+    }
+
+    this.path = path;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Cuts a file into splits of roughly {@code splitSize} bytes. Each split (except the last) is extended to end just
+   * past a newline, so that no record straddles two splits. Since UTF-8 never uses the newline byte inside a
+   * multi-byte sequence, it is safe to cut at the byte level.
+   *
+   * @param path path of the file
+   * @param splitSize target size of each split, in bytes
+   * @return list of splits that together cover the entire file
+   * @throws IOException if error encountered reading the file
+   */
+  public static List<SegmentSplit> split(Path path, long splitSize) throws IOException {
+    if (splitSize <= 0) {
+      throw new IllegalArgumentException("Split size must be positive.");
+    }
+
+    final long size = Files.size(path);
+    List<SegmentSplit> splits = new ArrayList<>();
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      long start = 0;
+      do {
+        long end = start + splitSize >= size ? size : nextLineStart(channel, buffer, start + splitSize, size);
+        splits.add(new SegmentSplit(path, start, end));
+        start = end;
+      } while (start < size);
+    }
+
+    return splits;
+  }
+
+  // Returns the offset just past the first newline at or after pos, or the size of the file if there is none.
+  private static long nextLineStart(FileChannel channel, ByteBuffer buffer, long pos, long size) throws IOException {
+    while (pos < size) {
+      buffer.clear();
+      int n = channel.read(buffer, pos);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (buffer.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += n;
+    }
+
+    return size;
+  }
+
+  /**
+   * Opens a reader over the contents of this split; the reader reports EOF at the end of the split.
+   *
+   * @return reader over the contents of this split
+   * @throws IOException if error encountered opening the file
+   */
+  public BufferedReader open() throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    channel.position(start);
+
+    InputStream stream = BoundedInputStream.builder()
+        .setInputStream(Channels.newInputStream(channel))
+        .setMaxCount(end - start)
+        .get();
+
+    return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[%d-%d]", path.getFileName(), start, end);
+  }
+}
@@ -0,0 +1,485 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index.codecs;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FlatVectorsFormat;
+import org.apache.lucene.codecs.FlatVectorsReader;
+import org.apache.lucene.codecs.FlatVectorsWriter;
+import org.apache.lucene.codecs.KnnFieldVectorsWriter;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.KnnVectorsReader;
+import org.apache.lucene.codecs.KnnVectorsWriter;
+import org.apache.lucene.codecs.lucene99.Lucene99ScalarQuantizedVectorsFormat;
+import org.apache.lucene.index.ByteVectorValues;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.MergeState;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.index.Sorter;
+import org.apache.lucene.index.VectorEncoding;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.KnnCollector;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BitUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.VectorUtil;
+import org.apache.lucene.util.hnsw.OrdinalTranslatedKnnCollector;
+import org.apache.lucene.util.hnsw.RandomVectorScorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A flat vector format that stores, along with the float vectors and their int8 quantization (as
+ * {@link AnseriniLucene99ScalarQuantizedVectorsFormat}), a 1-bit quantization of each vector, i.e., the sign of each
+ * dimension, which is 32 times smaller than the float vector. Searching the field as usual scans the int8 vectors,
+ * whereas {@link AnseriniLucene99BinaryQuantizedVectorReader#searchBinary} scans the 1-bit vectors. Either way, the
+ * candidates can then be rescored against the float vectors (see {@code QuantizedVectorRescorer}).</p>
+ *
+ * <p>Each 1-bit vector is stored with the mean of the absolute values of its dimensions, which is the scale that
+ * best approximates the vector from its signs, and its squared norm, so that similarities can be estimated with a
+ * query vector as they would be with the float vectors.</p>
+ */
+public class AnseriniLucene99BinaryQuantizedVectorsFormat extends KnnVectorsFormat {
+
+  public static final String NAME = "AnseriniLucene99BinaryQuantizedVectorsFormat";
+
+  static final String META_CODEC_NAME = "AnseriniLucene99BinaryQuantizedVectorsFormatMeta";
+  static final String DATA_CODEC_NAME = "AnseriniLucene99BinaryQuantizedVectorsFormatData";
+  static final String META_EXTENSION = "vembq";
+  static final String DATA_EXTENSION = "vebq";
+  static final int VERSION_START = 0;
+  static final int VERSION_CURRENT = VERSION_START;
+
+  private final FlatVectorsFormat format = new Lucene99ScalarQuantizedVectorsFormat();
+
+  /**
+   * Sole constructor
+   */
+  public AnseriniLucene99BinaryQuantizedVectorsFormat() {
+    super(NAME);
+  }
+
+  @Override
+  public KnnVectorsWriter fieldsWriter(SegmentWriteState state) throws IOException {
+    return new AnseriniLucene99BinaryQuantizedVectorWriter(state, format.fieldsWriter(state));
+  }
+
+  @Override
+  public KnnVectorsReader fieldsReader(SegmentReadState state) throws IOException {
+    return new AnseriniLucene99BinaryQuantizedVectorReader(state, format.fieldsReader(state));
+  }
+
+  // Each vector is stored as its bits, followed by its scale and squared norm.
+  private static int bytesPerCode(int dimension) {
+    return (dimension + 7) / 8;
+  }
+
+  private static int recordLength(int dimension) {
+    return bytesPerCode(dimension) + 2 * Float.BYTES;
+  }
+
+  // Encodes a vector into its record, in the same byte order as the rest of the index.
+  private static void encode(float[] vector, byte[] record, int offset) {
+    int bytes = bytesPerCode(vector.length);
+    Arrays.fill(record, offset, offset + bytes, (byte) 0);
+    float sum = 0;
+    for (int i = 0; i < vector.length; i++) {
+      if (vector[i] > 0) {
+        record[offset + (i >> 3)] |= (byte) (1 << (i & 7));
+      }
+      sum += Math.abs(vector[i]);
+    }
+    BitUtil.VH_LE_FLOAT.set(record, offset + bytes, sum / vector.length);
+    BitUtil.VH_LE_FLOAT.set(record, offset + bytes + Float.BYTES, VectorUtil.dotProduct(vector, vector));
+  }
+
+  private record FieldEntry(int dimension, int size, long recordsOffset, long docsOffset,
+                            VectorSimilarityFunction similarity) {}
+
+  public static class AnseriniLucene99BinaryQuantizedVectorWriter extends KnnVectorsWriter {
+
+    private final FlatVectorsWriter writer;
+    private final IndexOutput meta;
+    private final IndexOutput data;
+    private final List<FieldWriter> fields = new ArrayList<>();
+    private boolean finished;
+
+    public AnseriniLucene99BinaryQuantizedVectorWriter(SegmentWriteState state, FlatVectorsWriter writer)
+        throws IOException {
+      super();
+      this.writer = writer;
+
+      IndexOutput meta = null;
+      IndexOutput data = null;
+      boolean success = false;
+      try {
+        meta = state.directory.createOutput(IndexFileNames.segmentFileName(
+            state.segmentInfo.name, state.segmentSuffix, META_EXTENSION), state.context);
+        data = state.directory.createOutput(IndexFileNames.segmentFileName(
+            state.segmentInfo.name, state.segmentSuffix, DATA_EXTENSION), state.context);
+        CodecUtil.writeIndexHeader(meta, META_CODEC_NAME, VERSION_CURRENT, state.segmentInfo.getId(),
+            state.segmentSuffix);
+        CodecUtil.writeIndexHeader(data, DATA_CODEC_NAME, VERSION_CURRENT, state.segmentInfo.getId(),
+            state.segmentSuffix);
+        success = true;
+      } finally {
+        if (!success) {
+          IOUtils.closeWhileHandlingException(meta, data, writer);
+        }
+      }
+      this.meta = meta;
+      this.data = data;
+    }
+
+    @Override
+    public KnnFieldVectorsWriter<?> addField(FieldInfo fieldInfo) throws IOException {
+      if (fieldInfo.getVectorEncoding() != VectorEncoding.FLOAT32) {
+        return writer.addField(fieldInfo, null);
+      }
+      // The flat writer hands each vector on to this field writer as well, to keep its 1-bit quantization.
+      FieldWriter field = new FieldWriter(fieldInfo);
+      fields.add(field);
+      return writer.addField(fieldInfo, field);
+    }
+
+    @Override
+    public void flush(int maxDoc, Sorter.DocMap sortMap) throws IOException {
+      writer.flush(maxDoc, sortMap);
+      for (FieldWriter field : fields) {
+        field.flush(maxDoc, sortMap);
+      }
+    }
+
+    @Override
+    public void mergeOneField(FieldInfo fieldInfo, MergeState mergeState) throws IOException {
+      writer.mergeOneField(fieldInfo, mergeState);
+      if (fieldInfo.getVectorEncoding() != VectorEncoding.FLOAT32) {
+        return;
+      }
+
+      // Vectors are merged in the same order as the flat writer merges them.
+      FloatVectorValues vectors = MergedVectorValues.mergeFloatVectorValues(fieldInfo, mergeState);
+      byte[] record = new byte[recordLength(fieldInfo.getVectorDimension())];
+      int[] docs = new int[0];
+      int size = 0;
+      long recordsOffset = data.getFilePointer();
+      for (int doc = vectors.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = vectors.nextDoc()) {
+        encode(vectors.vectorValue(), record, 0);
+        data.writeBytes(record, record.length);
+        docs = ArrayUtil.grow(docs, size + 1);
+        docs[size++] = doc;
+      }
+      writeField(fieldInfo, mergeState.segmentInfo.maxDoc(), recordsOffset, docs, size);
+    }
+
+    private void writeField(FieldInfo fieldInfo, int maxDoc, long recordsOffset, int[] docs, int size)
+        throws IOException {
+      // Docs are only stored if some are missing vectors, since otherwise they're the same as the ordinals.
+      long docsOffset = -1;
+      if (size != maxDoc) {
+        docsOffset = data.getFilePointer();
+        for (int i = 0; i < size; i++) {
+          data.writeInt(docs[i]);
+        }
+      }
+
+      meta.writeInt(fieldInfo.number);
+      meta.writeInt(fieldInfo.getVectorDimension());
+      meta.writeInt(size);
+      meta.writeLong(recordsOffset);
+      meta.writeLong(docsOffset);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      if (finished) {
+        throw new IllegalStateException("already finished");
+      }
+      finished = true;
+      writer.finish();
+
+      meta.writeInt(-1);
+      CodecUtil.writeFooter(meta);
+      CodecUtil.writeFooter(data);
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOUtils.close(meta, data, writer);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      long total = writer.ramBytesUsed();
+      for (FieldWriter field : fields) {
+        total += field.ramBytesUsed();
+      }
+      return total;
+    }
+
+    // Keeps the 1-bit quantization of the vectors of a field until they're flushed, which is small enough to not
+    // bother writing out as the vectors are added.
+    private final class FieldWriter extends KnnFieldVectorsWriter<float[]> {
+      private final FieldInfo fieldInfo;
+      private final int recordLength;
+      private byte[] records = new byte[0];
+      private int[] docs = new int[0];
+      private int size;
+
+      FieldWriter(FieldInfo fieldInfo) {
+        this.fieldInfo = fieldInfo;
+        this.recordLength = recordLength(fieldInfo.getVectorDimension());
+      }
+
+      @Override
+      public void addValue(int docID, float[] vector) throws IOException {
+        if (size > 0 && docs[size - 1] >= docID) {
+          throw new IllegalArgumentException(String.format(
+              "VectorValuesField \"%s\" appears more than once in this document (only one value is allowed per field)",
+              fieldInfo.name));
+        }
+        records = ArrayUtil.grow(records, (size + 1) * recordLength);
+        docs = ArrayUtil.grow(docs, size + 1);
+        encode(vector, records, size * recordLength);
+        docs[size++] = docID;
+      }
+
+      @Override
+      public float[] copyValue(float[] vector) {
+        throw new UnsupportedOperationException();
+      }
+
+      void flush(int maxDoc, Sorter.DocMap sortMap) throws IOException {
+        // If the index is sorted, vectors are written in the order of their new docs.
+        Integer[] order = new Integer[size];
+        int[] newDocs = new int[size];
+        for (int i = 0; i < size; i++) {
+          order[i] = i;
+          newDocs[i] = sortMap == null ? docs[i] : sortMap.oldToNew(docs[i]);
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(newDocs[a], newDocs[b]));
+
+        long recordsOffset = data.getFilePointer();
+        int[] sortedDocs = new int[size];
+        for (int i = 0; i < size; i++) {
+          data.writeBytes(records, order[i] * recordLength, recordLength);
+          sortedDocs[i] = newDocs[order[i]];
+        }
+        writeField(fieldInfo, maxDoc, recordsOffset, sortedDocs, size);
+      }
+
+      @Override
+      public long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(records) + RamUsageEstimator.sizeOf(docs);
+      }
+    }
+  }
+
+  public static class AnseriniLucene99BinaryQuantizedVectorReader extends KnnVectorsReader {
+
+    private final FlatVectorsReader reader;
+    private final Map<String, FieldEntry> fields = new HashMap<>();
+    private final IndexInput data;
+
+    public AnseriniLucene99BinaryQuantizedVectorReader(SegmentReadState state, FlatVectorsReader reader)
+        throws IOException {
+      super();
+      this.reader = reader;
+
+      boolean success = false;
+      IndexInput data = null;
+      try {
+        String metaName = IndexFileNames.segmentFileName(state.segmentInfo.name, state.segmentSuffix, META_EXTENSION);
+        try (ChecksumIndexInput meta = state.directory.openChecksumInput(metaName, state.context)) {
+          Throwable priorE = null;
+          try {
+            CodecUtil.checkIndexHeader(meta, META_CODEC_NAME, VERSION_START, VERSION_CURRENT,
+                state.segmentInfo.getId(), state.segmentSuffix);
+            for (int number = meta.readInt(); number != -1; number = meta.readInt()) {
+              FieldInfo info = state.fieldInfos.fieldInfo(number);
+              if (info == null) {
+                throw new CorruptIndexException("Invalid field number: " + number, meta);
+              }
+              fields.put(info.name, new FieldEntry(meta.readInt(), meta.readInt(), meta.readLong(), meta.readLong(),
+                  info.getVectorSimilarityFunction()));
+            }
+          } catch (Throwable exception) {
+            priorE = exception;
+          } finally {
+            CodecUtil.checkFooter(meta, priorE);
+          }
+        }
+
+        String dataName = IndexFileNames.segmentFileName(state.segmentInfo.name, state.segmentSuffix, DATA_EXTENSION);
+        data = state.directory.openInput(dataName, state.context);
+        CodecUtil.checkIndexHeader(data, DATA_CODEC_NAME, VERSION_START, VERSION_CURRENT,
+            state.segmentInfo.getId(), state.segmentSuffix);
+        CodecUtil.retrieveChecksum(data);
+        success = true;
+      } finally {
+        if (!success) {
+          IOUtils.closeWhileHandlingException(data, reader);
+        }
+      }
+      this.data = data;
+    }
+
+    @Override
+    public void checkIntegrity() throws IOException {
+      reader.checkIntegrity();
+      CodecUtil.checksumEntireFile(data);
+    }
+
+    @Override
+    public FloatVectorValues getFloatVectorValues(String field) throws IOException {
+      return reader.getFloatVectorValues(field);
+    }
+
+    @Override
+    public ByteVectorValues getByteVectorValues(String field) throws IOException {
+      return reader.getByteVectorValues(field);
+    }
+
+    @Override
+    public void search(String field, float[] target, KnnCollector knnCollector, Bits acceptDocs) throws IOException {
+      collectAllMatchingDocs(knnCollector, acceptDocs, reader.getRandomVectorScorer(field, target));
+    }
+
+    private void collectAllMatchingDocs(KnnCollector knnCollector, Bits acceptDocs, RandomVectorScorer scorer) throws IOException {
+      OrdinalTranslatedKnnCollector collector = new OrdinalTranslatedKnnCollector(knnCollector, scorer::ordToDoc);
+      Bits acceptedOrds = scorer.getAcceptOrds(acceptDocs);
+      for (int i = 0; i < scorer.maxOrd(); i++) {
+        if (acceptedOrds == null || acceptedOrds.get(i)) {
+          collector.collect(i, scorer.score(i));
+          collector.incVisitedCount(1);
+        }
+      }
+      assert collector.earlyTerminated() == false;
+    }
+
+    @Override
+    public void search(String field, byte[] target, KnnCollector knnCollector, Bits acceptDocs) throws IOException {
+      collectAllMatchingDocs(knnCollector, acceptDocs, reader.getRandomVectorScorer(field, target));
+    }
+
+    /**
+     * Searches the 1-bit vectors of a field, scoring each with the similarity to the target that's estimated from
+     * the signs of its dimensions, scale, and norm.
+     *
+     * @param field field
+     * @param target target vector
+     * @param knnCollector collector of the nearest documents
+     * @param acceptDocs documents that may be returned, or {@code null} for all documents
+     * @throws IOException if error encountered reading the vectors
+     */
+    public void searchBinary(String field, float[] target, KnnCollector knnCollector, Bits acceptDocs)
+        throws IOException {
+      FieldEntry entry = fields.get(field);
+      if (entry == null || entry.size() == 0) {
+        return;
+      }
+      if (target.length != entry.dimension()) {
+        throw new IllegalArgumentException(String.format(
+            "Vector dimension %d differs from field dimension %d.", target.length, entry.dimension()));
+      }
+
+      // The sum of the target over the set bits of each byte value at each position of the code, so that the dot
+      // product of the target and the signs of a vector takes a lookup per byte rather than work per dimension.
+      int bytes = bytesPerCode(entry.dimension());
+      float[] sums = new float[bytes * 256];
+      for (int j = 0; j < bytes; j++) {
+        for (int b = 1; b < 256; b++) {
+          int dim = 8 * j + Integer.numberOfTrailingZeros(b);
+          sums[j * 256 + b] = sums[j * 256 + (b & (b - 1))] + (dim < target.length ? target[dim] : 0);
+        }
+      }
+      float targetSum = 0;
+      for (float value : target) {
+        targetSum += value;
+      }
+      float targetNorm = VectorUtil.dotProduct(target, target);
+
+      IndexInput records = data.slice("binary-vectors", entry.recordsOffset(),
+          (long) entry.size() * recordLength(entry.dimension()));
+      RandomAccessInput docs = entry.docsOffset() < 0 ? null :
+          data.randomAccessSlice(entry.docsOffset(), (long) entry.size() * Integer.BYTES);
+      byte[] code = new byte[bytes];
+      for (int ord = 0; ord < entry.size(); ord++) {
+        records.readBytes(code, 0, bytes);
+        float scale = Float.intBitsToFloat(records.readInt());
+        float norm = Float.intBitsToFloat(records.readInt());
+
+        int doc = docs == null ? ord : docs.readInt((long) ord * Integer.BYTES);
+        if (acceptDocs != null && !acceptDocs.get(doc)) {
+          continue;
+        }
+
+        float set = 0;
+        for (int j = 0; j < bytes; j++) {
+          set += sums[j * 256 + (code[j] & 0xFF)];
+        }
+        // The dot product of the target with the vector, approximated by its signs times its scale.
+        float dot = scale * (2 * set - targetSum);
+        knnCollector.collect(doc, estimate(entry.similarity(), dot, norm, targetNorm));
+        knnCollector.incVisitedCount(1);
+      }
+    }
+
+    // Estimates the score of a vector as VectorSimilarityFunction would, from its estimated dot product with the
+    // target and the norms.
+    private static float estimate(VectorSimilarityFunction similarity, float dot, float norm, float targetNorm) {
+      switch (similarity) {
+        case EUCLIDEAN:
+          return 1 / (1 + Math.max(targetNorm + norm - 2 * dot, 0));
+        case DOT_PRODUCT:
+          return Math.max((1 + dot) / 2, 0);
+        case COSINE:
+          return Math.max((1 + dot / (float) Math.sqrt((double) norm * targetNorm)) / 2, 0);
+        case MAXIMUM_INNER_PRODUCT:
+          return VectorUtil.scaleMaxInnerProductScore(dot);
+        default:
+          throw new IllegalArgumentException("Unsupported similarity: " + similarity);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOUtils.close(data, reader);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return reader.ramBytesUsed() + RamUsageEstimator.shallowSizeOf(fields);
+    }
+  }
+}
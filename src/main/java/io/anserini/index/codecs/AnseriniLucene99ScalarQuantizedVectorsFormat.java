@@ -40,7 +40,7 @@ import java.io.IOException;
 
 public class AnseriniLucene99ScalarQuantizedVectorsFormat extends KnnVectorsFormat {
 
-  static final String NAME = "AnseriniLucene99ScalarQuantizedVectorsFormat";
+  public static final String NAME = "AnseriniLucene99ScalarQuantizedVectorsFormat";
 
   private final FlatVectorsFormat format = new Lucene99ScalarQuantizedVectorsFormat();
 
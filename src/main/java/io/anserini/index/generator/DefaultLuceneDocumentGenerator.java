@@ -16,6 +16,7 @@
 
 package io.anserini.index.generator;
 
+import io.anserini.analysis.ImpactTokenStream;
 import io.anserini.collection.InvalidContentsException;
 import io.anserini.collection.MultifieldSourceDocument;
 import io.anserini.collection.SourceDocument;
@@ -52,20 +53,36 @@ public class DefaultLuceneDocumentGenerator<T extends SourceDocument> implements
     this.args = args;
   }
 
+  // For impact indexes, documents that expose (term, impact) pairs directly can be indexed without generating a
+  // pseudo-document in which each term is repeated impact times. This yields the same postings, but only applies when
+  // the pseudo-document would have been tokenized on whitespace, and when neither positions (which Lucene does not
+  // allow with custom term frequencies) nor contents (for which we need the pseudo-document) are stored.
+  private boolean indexImpactsDirectly() {
+    return args.impact && args.pretokenized && !args.storePositions && !args.storeDocvectors && !args.storeContents;
+  }
+
   @Override
   public Document createDocument(T src) throws GeneratorException {
     String id = src.id();
-    String contents;
-
-    try {
-      contents = src.contents();
-    } catch (InvalidContentsException e) {
-      // Catch and rethrow; indexer will eat the exception at top level and increment counters accordingly.
-      throw new InvalidDocumentException();
-    }
-
-    if (contents.trim().length() == 0) {
-      throw new EmptyDocumentException();
+    String contents = null;
+    ImpactTokenStream impacts = null;
+
+    if (indexImpactsDirectly() && src.impacts() != null) {
+      impacts = new ImpactTokenStream(src.impacts());
+      if (impacts.size() == 0) {
+        throw new EmptyDocumentException();
+      }
+    } else {
+      try {
+        contents = src.contents();
+      } catch (InvalidContentsException e) {
+        // Catch and rethrow; indexer will eat the exception at top level and increment counters accordingly.
+        throw new InvalidDocumentException();
+      }
+
+      if (contents.trim().length() == 0) {
+        throw new EmptyDocumentException();
+      }
     }
 
     // Make a new, empty document.
@@ -96,7 +113,20 @@ public class DefaultLuceneDocumentGenerator<T extends SourceDocument> implements
       fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
     }
 
-    document.add(new Field(Constants.CONTENTS, contents, fieldType));
+    if (impacts != null) {
+      document.add(new Field(Constants.CONTENTS, impacts, fieldType));
+    } else {
+      document.add(new Field(Constants.CONTENTS, contents, fieldType));
+    }
+
+    // The bigrams only need frequencies, and are scored with the norms of the contents.
+    if (args.sdmBigrams && contents != null) {
+      FieldType bigramFieldType = new FieldType();
+      bigramFieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+      bigramFieldType.setTokenized(true);
+      bigramFieldType.setOmitNorms(true);
+      document.add(new Field(Constants.CONTENTS_BIGRAMS, contents, bigramFieldType));
+    }
 
     // If this document has other fields, then we want to index it also.
     // Currently, we just use all the settings of the main "content" field.
@@ -24,14 +24,16 @@ import org.kohsuke.args4j.Option;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import io.anserini.eval.RelevanceJudgments;
+import io.anserini.eval.TrecEval;
 import io.anserini.index.IndexReaderUtils;
 import io.anserini.index.IndexInfo;
 import java.nio.file.Paths;
@@ -91,6 +93,7 @@ public class RunRepro {
 
     ProcessBuilder pb;
     Process process;
+    Map<String, TrecEval> evaluators = new HashMap<>();
 
     final long start = System.nanoTime();
 
@@ -216,21 +219,21 @@ public class RunRepro {
           System.out.println();
         }
 
-        // running the evaluation command
+        // Evaluate in-process: the run is read once, and the judgments are loaded once per eval key.
         Map<String, Map<String, String>> evalDefinitions = metricDefinitions.getMetricDefinitions().get(collection);
-        InputStream stdout;
+        TrecEval.Run run = null;
 
         for (Map<String, Double> expected : topic.scores) {
           Map<String, String> evalCommands = new LinkedHashMap<>();
+          String evalKey = topic.eval_key;
 
           // Go through and gather the eval commands in a first pass, so that we can print all at once if desired.
           for (String metric : expected.keySet()) {
-            String evalKey = topic.eval_key;
             if (!evalDefinitions.get(evalKey).containsKey(metric)) {
               throw new RuntimeException("Invalid metric: " + metric);
             }
 
-            evalCommands.put(metric, "java -cp $fatjarPath trec_eval $metric $evalKey $output"
+            evalCommands.put(metric, "java -cp $fatjarPath io.anserini.eval.TrecEval $metric $evalKey $output"
                 .replace("$fatjarPath", fatjarPath)
                 .replace("$metric", evalDefinitions.get(evalKey).get(metric))
                 .replace("$evalKey", evalKey)
@@ -245,34 +248,39 @@ public class RunRepro {
             System.out.println();
           }
 
-          // We've already gathered the eval commands, so just run them now and check.
-          for (Map.Entry<String, String> entry : evalCommands.entrySet()) {
-            String metric = entry.getKey();
-            String cmd = entry.getValue();
-
-            if (!dryRun) {
-              pb = new ProcessBuilder(cmd.split(" "));
-              process = pb.start();
-
-              int resultCode = process.waitFor();
-              stdout = process.getInputStream();
-              if (resultCode == 0) {
-                String scoreString = new String(stdout.readAllBytes()).replaceAll(".*?(\\d+\\.\\d+)$", "$1").trim();
-                double score = Double.parseDouble(scoreString);
-                double delta = Math.abs(score - expected.get(metric));
-
-                if (score > expected.get(metric)) {
-                  System.out.printf("    %8s: %.4f %s expected %.4f%n", metric, score, OKAY_ISH, expected.get(metric));
-                } else if (delta < 0.00001) {
-                  System.out.printf("    %8s: %.4f [OK]%n", metric, score);
-                } else if (delta < 0.0002) {
-                  System.out.printf("    %8s: %.4f %s expected %.4f%n", metric, score, OKAY_ISH, expected.get(metric));
-                } else {
-                  System.out.printf("    %8s: %.4f %s expected %.4f%n", metric, score, FAIL, expected.get(metric));
-                }
-              } else {
-                System.out.println("Evaluation command failed for metric: " + metric);
+          // We've already gathered the eval commands, so just evaluate them now and check.
+          for (String metric : evalCommands.keySet()) {
+            if (dryRun) {
+              continue;
+            }
+
+            double score;
+            try {
+              if (run == null) {
+                run = TrecEval.Run.read(Path.of(output));
               }
+              TrecEval eval = evaluators.get(evalKey);
+              if (eval == null) {
+                eval = new TrecEval(new RelevanceJudgments(evalKey));
+                evaluators.put(evalKey, eval);
+              }
+              TrecEval.Result result = eval.evaluate(run, evalDefinitions.get(evalKey).get(metric).split(" "));
+              // Round to the precision that trec_eval prints, which is what the expected scores are recorded at.
+              score = Double.parseDouble(String.format(Locale.US, "%.4f", result.get(result.getMetrics().get(0))));
+            } catch (IOException | RuntimeException e) {
+              System.out.println("Evaluation command failed for metric: " + metric);
+              continue;
+            }
+            double delta = Math.abs(score - expected.get(metric));
+
+            if (score > expected.get(metric)) {
+              System.out.printf("    %8s: %.4f %s expected %.4f%n", metric, score, OKAY_ISH, expected.get(metric));
+            } else if (delta < 0.00001) {
+              System.out.printf("    %8s: %.4f [OK]%n", metric, score);
+            } else if (delta < 0.0002) {
+              System.out.printf("    %8s: %.4f %s expected %.4f%n", metric, score, OKAY_ISH, expected.get(metric));
+            } else {
+              System.out.printf("    %8s: %.4f %s expected %.4f%n", metric, score, FAIL, expected.get(metric));
             }
           }
           System.out.println();
@@ -21,6 +21,8 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -29,10 +31,12 @@ public class RerankerContext<K> {
   private final Query query;
   private final K queryId;
   private final String queryDocId; // this is for News Track Background Linking task
-  private final String queryText;
-  private final List<String> queryTokens;
+  private final Map<String, Integer> queryWeights;
+  private String queryText;
+  private List<String> queryTokens;
   private final Query filter;
   private final SearchCollection.Args searchArgs;
+  private boolean needsLuceneDocuments = true;
 
   public Map<String, Float> feedbackTerms;
 
@@ -44,6 +48,23 @@ public class RerankerContext<K> {
     this.queryDocId = queryDocId;
     this.queryText = queryText;
     this.queryTokens = queryTokens;
+    this.queryWeights = null;
+    this.filter = filter;
+    this.searchArgs = searchArgs;
+  }
+
+  /**
+   * Creates a context for a query given as (token, weight) pairs, e.g., the output of a learned sparse encoder. The
+   * textual forms of the query, in which each token is repeated as many times as its weight, are only materialized if
+   * a reranker asks for them via {@link #getQueryText()} or {@link #getQueryTokens()}.
+   */
+  public RerankerContext(IndexSearcher searcher, K queryId, Query query, Map<String, Integer> queryWeights,
+      Query filter, SearchCollection.Args searchArgs) throws IOException {
+    this.searcher = searcher;
+    this.query = query;
+    this.queryId = queryId;
+    this.queryDocId = null;
+    this.queryWeights = queryWeights;
     this.filter = filter;
     this.searchArgs = searchArgs;
   }
@@ -69,14 +90,51 @@ public class RerankerContext<K> {
   }
   
   public String getQueryText() {
+    if (queryText == null && queryWeights != null) {
+      queryText = String.join(" ", getQueryTokens());
+    }
     return queryText;
   }
 
   public List<String> getQueryTokens() {
+    if (queryTokens == null && queryWeights != null) {
+      List<String> tokens = new ArrayList<>();
+      queryWeights.forEach((token, weight) -> tokens.addAll(Collections.nCopies(Math.max(weight, 0), token)));
+      queryTokens = tokens;
+    }
     return queryTokens;
   }
 
+  /**
+   * Returns the query as (token, weight) pairs, if the context was created from them.
+   *
+   * @return query token weights, or {@code null} if the context was created from query text
+   */
+  public Map<String, Integer> getQueryWeights() {
+    return queryWeights;
+  }
+
   public SearchCollection.Args getSearchArgs() {
     return searchArgs;
   }
+
+  /**
+   * Returns whether the docs returned by rerankers should hold the Lucene documents. This is the case unless the
+   * caller says otherwise, since the documents are part of the results of the interactive searchers.
+   *
+   * @return whether the docs returned by rerankers should hold the Lucene documents
+   */
+  public boolean needsLuceneDocuments() {
+    return needsLuceneDocuments;
+  }
+
+  /**
+   * Sets whether the docs returned by rerankers should hold the Lucene documents. Without them, rerankers only need
+   * to look up docids, which is much cheaper than fetching the stored documents.
+   *
+   * @param needsLuceneDocuments whether the docs returned by rerankers should hold the Lucene documents
+   */
+  public void setNeedsLuceneDocuments(boolean needsLuceneDocuments) {
+    this.needsLuceneDocuments = needsLuceneDocuments;
+  }
 }
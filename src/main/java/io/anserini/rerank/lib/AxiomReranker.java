@@ -16,9 +16,10 @@
 
 package io.anserini.rerank.lib;
 
-import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.collection.DocumentCollection;
 import io.anserini.index.Constants;
+import io.anserini.index.DocumentVectors;
+import io.anserini.index.IndexReaderUtils;
 import io.anserini.index.generator.TweetGenerator;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
@@ -34,11 +35,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermVectors;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
@@ -241,7 +238,7 @@ public class AxiomReranker<T> implements Reranker<T> {
       rs = searcher.search(finalQuery, context.getSearchArgs().hits, BREAK_SCORE_TIES_BY_DOCID, true);
     }
 
-    return ScoredDocs.fromTopDocs(rs, searcher);
+    return ScoredDocs.fromTopDocs(rs, searcher, context.needsLuceneDocuments());
   }
 
 
@@ -371,9 +368,11 @@ public class AxiomReranker<T> implements Reranker<T> {
         while (docidSet.size() < targetSize) {
           if (AxiomReranker.externalDocidsCache != null) {
             String docid = AxiomReranker.externalDocidsCache.get(random.nextInt(AxiomReranker.externalDocidsCache.size()));
-            Query q = new TermQuery(new Term(Constants.ID, docid));
-            TopDocs rs = searcher.search(q, 1);
-            docidSet.add(rs.scoreDocs[0].doc);
+            int luceneDocid = IndexReaderUtils.convertDocidToLuceneDocid(reader, docid);
+            // Docids in the list that aren't in the index are skipped.
+            if (luceneDocid != -1) {
+              docidSet.add(luceneDocid);
+            }
           } else {
             docidSet.add(AxiomReranker.internalDocidsCache[random.nextInt(AxiomReranker.internalDocidsCache.length)].doc);
           }
@@ -413,47 +412,23 @@ public class AxiomReranker<T> implements Reranker<T> {
       reader = searcher.getIndexReader();
     }
     Map<String, Set<Integer>> termDocidSets = new HashMap<>();
-    StoredFields storedFields = reader.storedFields();
-    TermVectors termVectors = reader.termVectors();
+    DocumentVectors documentVectors = DocumentVectors.open(reader, Constants.CONTENTS, analyzer, parser);
     for (int docid : docIds) {
-      Terms terms = termVectors.get(docid, Constants.CONTENTS);
-      if (terms == null) {
-        if (parser == null) {
-          LOG.warn("Document vector not stored for docid: " + docid + "\n" +
-                  "Please make sure if provided index have stored doc vectors available or search with input -collection param");
-          continue;
-        }
-        Map<String, Long> termFreqMap = AnalyzerUtils.computeDocumentVector(analyzer, parser,
-            storedFields.document(docid).getField(Constants.RAW).stringValue());
-        for (String term : termFreqMap.keySet()) {
-          // We do some noisy filtering here ... pure empirical heuristic
-          if (term.length() < 2) continue;
-          if (!term.matches("[a-z]+")) continue;
-          if (filterPattern == null || filterPattern.matcher(term).matches()) {
-            if (!termDocidSets.containsKey(term)) {
-              termDocidSets.put(term, new HashSet<>());
-            }
-            termDocidSets.get(term).add(docid);
-          }
-        }
-      } else {
-        TermsEnum te = terms.iterator();
-        if (te == null) {
-          LOG.warn("Document vector not stored for docid: " + docid);
-          continue;
-        }
-        while ((te.next()) != null) {
-          String term = te.term().utf8ToString();
-          // We do some noisy filtering here ... pure empirical heuristic
-          if (term.length() < 2) continue;
-          if (!term.matches("[a-z]+")) continue;
-          if (filterPattern == null || filterPattern.matcher(term).matches()) {
-            if (!termDocidSets.containsKey(term)) {
-              termDocidSets.put(term, new HashSet<>());
-            }
-            termDocidSets.get(term).add(docid);
+      boolean found = documentVectors.visit(docid, (bytes, freq) -> {
+        String term = bytes.utf8ToString();
+        // We do some noisy filtering here ... pure empirical heuristic
+        if (term.length() < 2) return;
+        if (!term.matches("[a-z]+")) return;
+        if (filterPattern == null || filterPattern.matcher(term).matches()) {
+          if (!termDocidSets.containsKey(term)) {
+            termDocidSets.put(term, new HashSet<>());
           }
+          termDocidSets.get(term).add(docid);
         }
+      });
+      if (!found) {
+        LOG.warn("Document vector not stored for docid: " + docid + "\n" +
+                "Please make sure if provided index have stored doc vectors available or search with input -collection param");
       }
     }
     return termDocidSets;
@@ -16,19 +16,17 @@
 
 package io.anserini.rerank.lib;
 
-import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.collection.DocumentCollection;
-import io.anserini.index.Constants;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.search.ScoredDocs;
+import io.anserini.util.OrdinalFeatureVector;
+import io.anserini.util.TermVocabulary;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
@@ -128,15 +126,17 @@ public class BM25PrfReranker<T> implements Reranker<T> {
       return docs;
     }
 
-    return ScoredDocs.fromTopDocs(rs, searcher);
+    return ScoredDocs.fromTopDocs(rs, searcher, context.needsLuceneDocuments());
   }
 
   private PrfFeatures expandQuery(List<String> originalTerms, ScoredDocs docs, IndexReader reader, boolean useRf) {
     PrfFeatures newFeatures = new PrfFeatures();
 
-    Set<String> vocab = new HashSet<>();
+    FeedbackTerms feedbackTerms = new FeedbackTerms(reader, field, analyzer, parser, null);
+    TermVocabulary vocab = feedbackTerms.vocabulary();
 
-    Map<Integer, Set<String>> docToTermsMap = new HashMap<>();
+    Set<Integer> fbDocids = new HashSet<>();
+    List<OrdinalFeatureVector> docVectors = new ArrayList<>();
     int numFbDocs;
     if (useRf) {
       numFbDocs = docs.lucene_documents.length;
@@ -150,51 +150,50 @@ public class BM25PrfReranker<T> implements Reranker<T> {
         if (useRf && docs.scores[i] <= 0) {
           continue;
         }
-        Terms terms = reader.termVectors().get(docs.lucene_docids[i], field);
-        if (terms != null) {
-          Set<String> termsStr = getTermsStr(terms);
-          docToTermsMap.put(docs.lucene_docids[i], termsStr);
-          vocab.addAll(termsStr);
-        } else {
-          if (parser == null) {
-            throw new NullPointerException("Please provide an index with stored doc vectors or input -collection param");
-          }
-          Map<String, Long> termFreqMap = AnalyzerUtils.computeDocumentVector(analyzer, parser,
-              reader.storedFields().document(docs.lucene_docids[i]).getField(Constants.RAW).stringValue());
-          docToTermsMap.put(docs.lucene_docids[i], termFreqMap.keySet());
-          vocab.addAll(termFreqMap.keySet());
+        OrdinalFeatureVector docVector = feedbackTerms.documentVector(docs.lucene_docids[i]);
+        if (fbDocids.add(docs.lucene_docids[i])) {
+          docVectors.add(docVector);
         }
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
 
-    int numRelDocs = docToTermsMap.size();
+    int numRelDocs = docVectors.size();
 
-    Set<String> originalTermsSet = new HashSet<>(originalTerms);
+    // Count the feedback documents each term occurs in, indexed by term ordinal. The original terms are added to the
+    // vocabulary as well, since they need counts even if they don't occur in any of the feedback documents.
+    boolean[] isOriginalTerm = new boolean[vocab.size()];
+    int[] originalOrdinals = new int[originalTerms.size()];
+    for (int i = 0; i < originalTerms.size(); i++) {
+      originalOrdinals[i] = vocab.add(originalTerms.get(i));
+      if (originalOrdinals[i] < isOriginalTerm.length) {
+        isOriginalTerm[originalOrdinals[i]] = true;
+      }
+    }
+    int[] dfRels = new int[vocab.size()];
+    for (OrdinalFeatureVector docVector : docVectors) {
+      for (int j = 0; j < docVector.size(); j++) {
+        dfRels[docVector.ordinalAt(j)]++;
+      }
+    }
 
     // Add New Terms
-    for (String term : vocab) {
-      if (originalTermsSet.contains(term)) continue;
-      if (term.length() < 2 || term.length() > 20) continue;
-      if (!term.matches("[a-z0-9]+")) continue;
-      if (term.matches("[0-9]+")) continue;
+    for (int ordinal = 0; ordinal < isOriginalTerm.length; ordinal++) {
+      if (isOriginalTerm[ordinal]) continue;
+      int dfRel = dfRels[ordinal];
+      if (dfRel < 2) {
+        continue;
+      }
+      BytesRef term = vocab.bytes(ordinal);
+      int length = FeedbackTerms.length(term);
+      if (length < 2 || length > 20) continue;
+      if (!FeedbackTerms.isLowercaseAlphanumeric(term)) continue;
+      if (FeedbackTerms.isNumeric(term)) continue;
 
       try {
-        int df = reader.docFreq(new Term(Constants.CONTENTS, term));
-        int dfRel = 0;
-
-        for (Map.Entry<Integer, Set<String>> entry : docToTermsMap.entrySet()) {
-          Set<String> terms = entry.getValue();
-          if (terms.contains(term)) {
-            dfRel++;
-          }
-        }
-
-        if (dfRel < 2) {
-          continue;
-        }
-        newFeatures.addFeature(term, df, dfRel, numDocs, numRelDocs, newTermWeight);
+        int df = feedbackTerms.docFreq(ordinal);
+        newFeatures.addFeature(vocab.term(ordinal), df, dfRel, numDocs, numRelDocs, newTermWeight);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -202,18 +201,10 @@ public class BM25PrfReranker<T> implements Reranker<T> {
 
     newFeatures.pruneToSize(fbTerms);
 
-    for (String term : originalTerms) {
+    for (int i = 0; i < originalTerms.size(); i++) {
       try {
-        int df = reader.docFreq(new Term(Constants.CONTENTS, term));
-        int dfRel = 0;
-
-        for (Map.Entry<Integer, Set<String>> entry : docToTermsMap.entrySet()) {
-          Set<String> terms = entry.getValue();
-          if (terms.contains(term)) {
-            dfRel++;
-          }
-        }
-        newFeatures.addFeature(term, df, dfRel, numDocs, numRelDocs);
+        int df = feedbackTerms.docFreq(originalOrdinals[i]);
+        newFeatures.addFeature(originalTerms.get(i), df, dfRels[originalOrdinals[i]], numDocs, numRelDocs);
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -226,27 +217,6 @@ public class BM25PrfReranker<T> implements Reranker<T> {
     return "BM25PRF(fbDocs=" + fbDocs + ",fbTerms=" + fbTerms + ",k1=" + k1 + ",b=" + b + ",newTermWeight=" + newTermWeight;
   }
 
-  private Set<String> getTermsStr(Terms terms) {
-    Set<String> termsStr = new HashSet<>();
-
-    try {
-      TermsEnum termsEnum = terms.iterator();
-
-      BytesRef text;
-      while ((text = termsEnum.next()) != null) {
-        String term = text.utf8ToString();
-        termsStr.add(term);
-
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
-      // Return empty feature vector
-      return termsStr;
-    }
-
-    return termsStr;
-  }
-
   class PrfFeature {
     int df;
     int dfRel;
@@ -0,0 +1,228 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.rerank.lib;
+
+import io.anserini.collection.DocumentCollection;
+import io.anserini.index.Constants;
+import io.anserini.index.DocumentVectors;
+import io.anserini.util.OrdinalFeatureVector;
+import io.anserini.util.TermVocabulary;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The terms of the feedback documents for a single query. Document vectors are read through {@link DocumentVectors}
+ * into {@link OrdinalFeatureVector}s over a shared {@link TermVocabulary}, straight from the term bytes of the forward
+ * index or term vectors. Whether a term passes the reranker's filter, and its document frequency, are worked out once
+ * per term, however many feedback documents it occurs in.
+ */
+class FeedbackTerms {
+  interface TermFilter {
+    boolean accept(FeedbackTerms terms, int ordinal) throws IOException;
+  }
+
+  private static final byte UNKNOWN = 0;
+  private static final byte ACCEPTED = 1;
+  private static final byte REJECTED = 2;
+
+  private final IndexReader reader;
+  private final String field;
+  private final Analyzer analyzer;
+  private final Class<? extends DocumentCollection<?>> parser;
+  private final TermFilter filter;
+  private final TermVocabulary vocabulary = new TermVocabulary();
+
+  private DocumentVectors documentVectors;
+  private byte[] verdicts = new byte[0];
+  private int[] docFreqs = new int[0];
+
+  /**
+   * Creates the feedback terms for a query.
+   *
+   * @param reader index reader
+   * @param field field to read document vectors from
+   * @param analyzer analyzer, for documents without stored document vectors
+   * @param parser collection class, for documents without stored document vectors
+   * @param filter filter on terms from feedback documents, or {@code null} to keep all terms
+   */
+  FeedbackTerms(IndexReader reader, String field, Analyzer analyzer, Class<? extends DocumentCollection<?>> parser,
+                TermFilter filter) {
+    this.reader = reader;
+    this.field = field;
+    this.analyzer = analyzer;
+    this.parser = parser;
+    this.filter = filter;
+  }
+
+  TermVocabulary vocabulary() {
+    return vocabulary;
+  }
+
+  /**
+   * Returns the term frequency vector of a document, without the terms rejected by the filter.
+   *
+   * @param docid Lucene docid
+   * @return term frequency vector
+   * @throws IOException if error encountered reading the document
+   */
+  OrdinalFeatureVector documentVector(int docid) throws IOException {
+    OrdinalFeatureVector f = new OrdinalFeatureVector(vocabulary);
+    if (documentVectors == null) {
+      documentVectors = DocumentVectors.open(reader, field, analyzer, parser);
+    }
+
+    boolean found = documentVectors.visit(docid, (term, freq) -> {
+      int ordinal = vocabulary.add(term);
+      if (accept(ordinal)) {
+        f.addFeatureValue(ordinal, (float) freq);
+      }
+    });
+    if (!found) {
+      throw new NullPointerException("Please provide an index with stored doc vectors or input -collection param");
+    }
+
+    return f;
+  }
+
+  /**
+   * Returns a vector with unit weight for each occurrence of the given terms, as in
+   * {@link io.anserini.util.FeatureVector#fromTerms}. The filter does not apply to query terms.
+   *
+   * @param terms terms
+   * @return term vector
+   */
+  OrdinalFeatureVector fromTerms(Collection<String> terms) {
+    OrdinalFeatureVector f = new OrdinalFeatureVector(vocabulary);
+    for (String t : terms) {
+      f.addFeatureValue(vocabulary.add(t), 1.0f);
+    }
+    return f;
+  }
+
+  /**
+   * Returns a vector with the given weights of terms, e.g., the query weights of a reranker context, skipping terms
+   * whose weights aren't positive. The filter does not apply to query terms.
+   *
+   * @param weights map from terms to weights
+   * @return term vector
+   */
+  OrdinalFeatureVector fromWeights(Map<String, Integer> weights) {
+    OrdinalFeatureVector f = new OrdinalFeatureVector(vocabulary);
+    for (Map.Entry<String, Integer> e : weights.entrySet()) {
+      if (e.getValue() > 0) {
+        f.addFeatureValue(vocabulary.add(e.getKey()), e.getValue());
+      }
+    }
+    return f;
+  }
+
+  /**
+   * Returns the document frequency of a term in the {@link Constants#CONTENTS} field, looking it up only once.
+   *
+   * @param ordinal ordinal of the term
+   * @return document frequency
+   * @throws IOException if error encountered reading the index
+   */
+  int docFreq(int ordinal) throws IOException {
+    if (ordinal >= docFreqs.length) {
+      int oldLength = docFreqs.length;
+      docFreqs = ArrayUtil.grow(docFreqs, ordinal + 1);
+      Arrays.fill(docFreqs, oldLength, docFreqs.length, -1);
+    }
+    if (docFreqs[ordinal] < 0) {
+      docFreqs[ordinal] = reader.docFreq(new Term(Constants.CONTENTS, BytesRef.deepCopyOf(vocabulary.bytes(ordinal))));
+    }
+    return docFreqs[ordinal];
+  }
+
+  private boolean accept(int ordinal) throws IOException {
+    if (filter == null) {
+      return true;
+    }
+    if (ordinal >= verdicts.length) {
+      verdicts = ArrayUtil.grow(verdicts, ordinal + 1);
+    }
+    if (verdicts[ordinal] == UNKNOWN) {
+      verdicts[ordinal] = filter.accept(this, ordinal) ? ACCEPTED : REJECTED;
+    }
+    return verdicts[ordinal] == ACCEPTED;
+  }
+
+  /**
+   * Returns the length of a term in UTF-16 code units, i.e., {@link String#length()} of the decoded term.
+   *
+   * @param term term, as UTF-8 bytes
+   * @return length of the decoded term
+   */
+  static int length(BytesRef term) {
+    int length = 0;
+    for (int i = term.offset; i < term.offset + term.length; i++) {
+      int b = term.bytes[i] & 0xff;
+      if ((b & 0xc0) != 0x80) {
+        // Lead byte: four-byte sequences decode to a surrogate pair.
+        length += (b >= 0xf0) ? 2 : 1;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Returns whether a term matches {@code [a-z0-9]+}.
+   *
+   * @param term term, as UTF-8 bytes
+   * @return whether the term is lowercase alphanumeric
+   */
+  static boolean isLowercaseAlphanumeric(BytesRef term) {
+    if (term.length == 0) {
+      return false;
+    }
+    for (int i = term.offset; i < term.offset + term.length; i++) {
+      byte b = term.bytes[i];
+      if (!((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a term matches {@code [0-9]+}.
+   *
+   * @param term term, as UTF-8 bytes
+   * @return whether the term is numeric
+   */
+  static boolean isNumeric(BytesRef term) {
+    if (term.length == 0) {
+      return false;
+    }
+    for (int i = term.offset; i < term.offset + term.length; i++) {
+      byte b = term.bytes[i];
+      if (b < '0' || b > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
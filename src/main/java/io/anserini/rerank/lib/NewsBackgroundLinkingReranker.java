@@ -16,9 +16,9 @@
 
 package io.anserini.rerank.lib;
 
-import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.collection.DocumentCollection;
 import io.anserini.index.Constants;
+import io.anserini.index.DocumentVectors;
 import io.anserini.index.IndexReaderUtils;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
@@ -26,9 +26,6 @@ import io.anserini.search.ScoredDocs;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.StoredFields;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -120,23 +117,11 @@ public class NewsBackgroundLinkingReranker implements Reranker<Integer> {
   private Map<String, Long> convertDocVectorToMap(IndexReader reader, String docid) {
     Map<String, Long> m = new HashMap<>();
     try {
-      StoredFields storedFields = reader.storedFields();
-      Terms terms = reader.termVectors().get(
-          IndexReaderUtils.convertDocidToLuceneDocid(reader, docid), Constants.CONTENTS);
-      if (terms != null) {
-        TermsEnum it = terms.iterator();
-        while (it.next() != null) {
-          String term = it.term().utf8ToString();
-          long tf = it.totalTermFreq();
-          m.put(term, tf);
-        }
-      } else {
-        if (parser == null) {
-          throw new NullPointerException("Please provide an index with stored doc vectors or input -collection param");
-        }
-        Map<String, Long> termFreqMap = AnalyzerUtils.computeDocumentVector(analyzer, parser,
-            storedFields.document(IndexReaderUtils.convertDocidToLuceneDocid(reader, docid)).getField(Constants.RAW).stringValue());
-        return termFreqMap;
+      DocumentVectors documentVectors = DocumentVectors.open(reader, Constants.CONTENTS, analyzer, parser);
+      boolean found = documentVectors.visit(IndexReaderUtils.convertDocidToLuceneDocid(reader, docid),
+          (term, tf) -> m.put(term.utf8ToString(), tf));
+      if (!found) {
+        throw new NullPointerException("Please provide an index with stored doc vectors or input -collection param");
       }
     } catch (Exception e) {
       e.printStackTrace();
@@ -18,19 +18,15 @@ package io.anserini.rerank.lib;
 
 import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.collection.DocumentCollection;
-import io.anserini.index.Constants;
 import io.anserini.rerank.Reranker;
 import io.anserini.rerank.RerankerContext;
 import io.anserini.search.ScoredDocs;
-import io.anserini.util.FeatureVector;
+import io.anserini.util.OrdinalFeatureVector;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
@@ -38,15 +34,10 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import static io.anserini.search.SearchCollection.BREAK_SCORE_TIES_BY_DOCID;
 
@@ -92,15 +83,22 @@ public class RocchioReranker<T> implements Reranker<T> {
     // The Rocchio Algorithm:
     //   q_new = alpha * q_original + beta * mean(top k document vectors) - gamma * mean(tail k document vectors)
 
+    boolean tweetsearch = context.getSearchArgs().searchTweets;
+    int numDocs = reader.numDocs();
+    FeedbackTerms feedbackTerms = new FeedbackTerms(reader, field, analyzer, parser,
+        (terms, ordinal) -> acceptFeedbackTerm(terms, ordinal, numDocs, tweetsearch));
+
     // Compute q_original:
-    FeatureVector queryVector = FeatureVector.fromTerms(AnalyzerUtils.analyze(analyzer, context.getQueryText())).scaleToUnitL2Norm();
+    OrdinalFeatureVector queryVector = (context.getQueryWeights() != null ?
+        feedbackTerms.fromWeights(context.getQueryWeights()) :
+        feedbackTerms.fromTerms(AnalyzerUtils.analyze(analyzer, context.getQueryText()))).scaleToUnitL2Norm();
 
     // Compute mean(top k relevant document vectors):
-    FeatureVector meanRelevantDocumentVector;
+    OrdinalFeatureVector meanRelevantDocumentVector;
     boolean relevantFlag;
     try {
       relevantFlag = true;
-      meanRelevantDocumentVector = computeMeanOfDocumentVectors(docs, reader, context.getSearchArgs().searchTweets, topFbTerms, topFbDocs, relevantFlag);
+      meanRelevantDocumentVector = computeMeanOfDocumentVectors(docs, feedbackTerms, topFbTerms, topFbDocs, relevantFlag);
     } catch (IOException e) {
       // If we run into any issues, just return the original results - as if we never performed feedback.
       e.printStackTrace();
@@ -108,40 +106,39 @@ public class RocchioReranker<T> implements Reranker<T> {
     }
 
     // Compute mean(tail k nonrelevant document vectors):
-    FeatureVector meanNonRelevantDocumentVector;
+    OrdinalFeatureVector meanNonRelevantDocumentVector;
     if (useNegative != false) {
       try {
         relevantFlag = false;
-        meanNonRelevantDocumentVector = computeMeanOfDocumentVectors(docs, reader, context.getSearchArgs().searchTweets, bottomFbTerms, bottomFbDocs, relevantFlag);
+        meanNonRelevantDocumentVector = computeMeanOfDocumentVectors(docs, feedbackTerms, bottomFbTerms, bottomFbDocs, relevantFlag);
       } catch (IOException e) {
         // If we run into any issues, just return the original results - as if we never performed feedback.
         e.printStackTrace();
         return docs;
       }
     } else {
-      meanNonRelevantDocumentVector = new FeatureVector();
+      meanNonRelevantDocumentVector = new OrdinalFeatureVector(feedbackTerms.vocabulary());
     }
 
     // Compute q_new based on alpha, beta and gamma weights:
-    FeatureVector weightedVector = computeWeightedVector(queryVector, meanRelevantDocumentVector, meanNonRelevantDocumentVector, alpha, beta, gamma);
+    OrdinalFeatureVector weightedVector = computeWeightedVector(queryVector, meanRelevantDocumentVector, meanNonRelevantDocumentVector, alpha, beta, gamma);
 
     // Use the weights as boosts to a second-round Lucene query:
-    Map<String, Float> feedbackTerms = new HashMap<>();
     BooleanQuery.Builder feedbackQueryBuilder = new BooleanQuery.Builder();
-    weightedVector.iterator().forEachRemaining(term -> {
-      float boost = weightedVector.getValue(term);
-      feedbackTerms.put(term, boost);
+    for (int i = 0; i < weightedVector.size(); i++) {
+      String term = feedbackTerms.vocabulary().term(weightedVector.ordinalAt(i));
+      float boost = weightedVector.valueAt(i);
       feedbackQueryBuilder.add(new BoostQuery(new TermQuery(new Term(this.field, term)), boost), BooleanClause.Occur.SHOULD);
-    });
+    }
 
     Query feedbackQuery = feedbackQueryBuilder.build();
-    context.feedbackTerms = feedbackTerms;
+    context.feedbackTerms = weightedVector.toMap();
 
     if (this.outputQuery) {
       LOG.info("QID: " + context.getQueryId());
       LOG.info("Original Query: " + context.getQuery().toString(this.field));
       LOG.info("Feedback Query: " + feedbackQuery.toString(this.field));
-      feedbackTerms.forEach((k, v) -> LOG.info("Feedback term: " + k + " -> " + v));
+      context.feedbackTerms.forEach((k, v) -> LOG.info("Feedback term: " + k + " -> " + v));
     }
 
     TopDocs results;
@@ -167,19 +164,16 @@ public class RocchioReranker<T> implements Reranker<T> {
       return docs;
     }
 
-    return ScoredDocs.fromTopDocs(results, searcher);
+    return ScoredDocs.fromTopDocs(results, searcher, context.needsLuceneDocuments());
   }
 
-  private FeatureVector computeMeanOfDocumentVectors(ScoredDocs docs, IndexReader reader, boolean tweetsearch, int fbTerms, int fbDocs, boolean relevantFlag) throws IOException, NullPointerException {
-    FeatureVector f = new FeatureVector();
+  private OrdinalFeatureVector computeMeanOfDocumentVectors(ScoredDocs docs, FeedbackTerms feedbackTerms, int fbTerms, int fbDocs, boolean relevantFlag) throws IOException, NullPointerException {
+    OrdinalFeatureVector f = new OrdinalFeatureVector(feedbackTerms.vocabulary());
 
-    Set<String> vocab = new HashSet<>();
     int numdocs;
-    FeatureVector docVector;
     numdocs = docs.lucene_documents.length < fbDocs ? docs.lucene_documents.length : fbDocs;
 
-    List<FeatureVector> docvectors = new ArrayList<>();
-    StoredFields storedFields = reader.storedFields();
+    List<OrdinalFeatureVector> docvectors = new ArrayList<>();
     for (int i = 0; i < numdocs; i++) {
       int docid;
       if (relevantFlag) {
@@ -187,19 +181,7 @@ public class RocchioReranker<T> implements Reranker<T> {
       } else {
         docid = docs.lucene_docids[docs.lucene_docids.length - i - 1];
       }
-      Terms terms = reader.termVectors().get(docid, field);
-      if (terms != null) {
-        docVector = createDocumentVector(terms, reader, tweetsearch);
-      } else {
-        if (parser == null) {
-          throw new NullPointerException("Please provide an index with stored doc vectors or input -collection param");
-        }
-        Map<String, Long> termFreqMap = AnalyzerUtils.computeDocumentVector(analyzer, parser,
-            storedFields.document(docid).getField(Constants.RAW).stringValue());
-        docVector = createDocumentVectorOnTheFly(termFreqMap, reader, tweetsearch);
-      }
-      vocab.addAll(docVector.getFeatures());
-      docvectors.add(docVector);
+      docvectors.add(feedbackTerms.documentVector(docid));
     }
 
     // Precompute the norms once and cache results.
@@ -208,18 +190,28 @@ public class RocchioReranker<T> implements Reranker<T> {
       norms[i] = (float) docvectors.get(i).computeL2Norm();
     }
 
-    // Get the mean of term weight for the Top n expansion documents
-    for (String term : vocab) {
-      float termWeight = 0.0f;
-      for (int i = 0; i < docvectors.size(); i++) {
+    // Get the mean of term weight for the Top n expansion documents. Weights are accumulated by term ordinal, summing
+    // over the documents in the same order as looking up every term in every document would.
+    int vocabSize = feedbackTerms.vocabulary().size();
+    float[] termWeights = new float[vocabSize];
+    boolean[] inVocab = new boolean[vocabSize];
+    for (int i = 0; i < docvectors.size(); i++) {
+      OrdinalFeatureVector docVector = docvectors.get(i);
+      for (int j = 0; j < docVector.size(); j++) {
+        int ordinal = docVector.ordinalAt(j);
+        inVocab[ordinal] = true;
         // Avoids zero-length feedback documents, which causes division by zero when computing term weights.
         // Zero-length feedback documents occur (e.g., with CAR17) when a document has only terms
         // that contain accents (which are indexed, but not selected for feedback).
         if (norms[i] > 0.001f) {
-          termWeight += (docvectors.get(i).getValue(term) / norms[i]);
+          termWeights[ordinal] += (docVector.valueAt(j) / norms[i]);
         }
       }
-      f.addFeatureValue(term, termWeight / docvectors.size());
+    }
+    for (int ordinal = 0; ordinal < vocabSize; ordinal++) {
+      if (inVocab[ordinal]) {
+        f.addFeatureValue(ordinal, termWeights[ordinal] / docvectors.size());
+      }
     }
 
     f.pruneToSize(fbTerms);
@@ -228,69 +220,41 @@ public class RocchioReranker<T> implements Reranker<T> {
     return f;
   }
 
-  private FeatureVector createDocumentVector(Terms terms, IndexReader reader, boolean tweetsearch) throws IOException {
-    FeatureVector f = new FeatureVector();
-    BytesRef text;
-
-    int numDocs = reader.numDocs();
-    TermsEnum termsEnum = terms.iterator();
-    while ((text = termsEnum.next()) != null) {
-      String term = text.utf8ToString();
-
-      // We're using similar heuristics as in the RM3 implementation. See comments there.
-      if (term.length() < 2 || term.length() > 20) continue;
-      int df = reader.docFreq(new Term(Constants.CONTENTS, term));
-      float ratio = (float) df / numDocs;
-      if (tweetsearch) {
-        if (numDocs > 100000000) {
-          if (ratio > 0.007f) continue;
-        } else {
-          if (ratio > 0.01f) continue;
-        }
-      } else if (ratio > 0.1f) continue;
-
-      f.addFeatureValue(term, (float) termsEnum.totalTermFreq());
-    }
-
-    return f;
-  }
-
-  private FeatureVector createDocumentVectorOnTheFly(Map<String, Long> terms, IndexReader reader, boolean tweetsearch) throws IOException {
-    FeatureVector f = new FeatureVector();
-
-    int numDocs = reader.numDocs();
-    for (String term : terms.keySet()) {
-      // We're using similar heuristics as in the RM3 implementation. See comments there.
-      if (term.length() < 2 || term.length() > 20) continue;
-      int df = reader.docFreq(new Term(Constants.CONTENTS, term));
-      float ratio = (float) df / numDocs;
-      if (tweetsearch) {
-        if (numDocs > 100000000) {
-          if (ratio > 0.007f) continue;
-        } else {
-          if (ratio > 0.01f) continue;
-        }
-      } else if (ratio > 0.1f) continue;
-
-      f.addFeatureValue(term, (float) terms.get(term));
+  private boolean acceptFeedbackTerm(FeedbackTerms terms, int ordinal, int numDocs, boolean tweetsearch)
+      throws IOException {
+    // We're using similar heuristics as in the RM3 implementation. See comments there.
+    int length = FeedbackTerms.length(terms.vocabulary().bytes(ordinal));
+    if (length < 2 || length > 20) return false;
+    int df = terms.docFreq(ordinal);
+    float ratio = (float) df / numDocs;
+    if (tweetsearch) {
+      if (numDocs > 100000000) {
+        return ratio <= 0.007f;
+      } else {
+        return ratio <= 0.01f;
+      }
     }
-
-    return f;
+    return ratio <= 0.1f;
   }
 
-  private FeatureVector computeWeightedVector(FeatureVector a, FeatureVector b, FeatureVector c, float alpha, float beta, float gamma) {
-    FeatureVector z = new FeatureVector();
-    Set<String> vocab = new HashSet<>();
-    vocab.addAll(a.getFeatures());
-    vocab.addAll(b.getFeatures());
-    vocab.addAll(c.getFeatures());
-
-    vocab.iterator().forEachRemaining(feature -> {
-      float weighted_score = alpha * a.getValue(feature) + beta * b.getValue(feature) - gamma * c.getValue(feature);
+  // Three-way merge-join of the vectors, keeping the terms with positive weight.
+  private OrdinalFeatureVector computeWeightedVector(OrdinalFeatureVector a, OrdinalFeatureVector b, OrdinalFeatureVector c, float alpha, float beta, float gamma) {
+    OrdinalFeatureVector z = new OrdinalFeatureVector(a.getVocabulary());
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < a.size() || j < b.size() || k < c.size()) {
+      int feature = Math.min(i < a.size() ? a.ordinalAt(i) : Integer.MAX_VALUE,
+          Math.min(j < b.size() ? b.ordinalAt(j) : Integer.MAX_VALUE, k < c.size() ? c.ordinalAt(k) : Integer.MAX_VALUE));
+      float aValue = (i < a.size() && a.ordinalAt(i) == feature) ? a.valueAt(i++) : 0.0f;
+      float bValue = (j < b.size() && b.ordinalAt(j) == feature) ? b.valueAt(j++) : 0.0f;
+      float cValue = (k < c.size() && c.ordinalAt(k) == feature) ? c.valueAt(k++) : 0.0f;
+
+      float weighted_score = alpha * aValue + beta * bValue - gamma * cValue;
       if (weighted_score > 0) {
         z.addFeatureValue(feature, weighted_score);
       }
-    });
+    }
 
     return z;
   }
@@ -17,8 +17,10 @@
 package io.anserini.search;
 
 import io.anserini.index.Constants;
+import io.anserini.index.IndexReaderUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
 import java.io.IOException;
@@ -119,19 +121,48 @@ public class BaseSearcher<K extends Comparable<K>> {
    * @return processed ranked list
    */
   public ScoredDoc[] processLuceneTopDocs(K qid, TopDocs docs, boolean keepLuceneDocument) {
+    return processLuceneTopDocs(qid, docs, null, keepLuceneDocument);
+  }
+
+  /**
+   * Processes Lucene {@link TopDocs} merged from several shards (e.g., with {@link TopDocs#merge}) based on the
+   * configuration for duplicate removal, docid-as-qid removal, and MaxP. The {@link ScoreDoc#shardIndex} of each hit
+   * identifies the shard it came from, and hence the {@link IndexSearcher} used for accessing the document. Note that
+   * the Lucene docids in the processed ranked list are local to each shard.
+   *
+   * @param qid query id
+   * @param docs Lucene {@link TopDocs}, merged from several shards
+   * @param shards {@link IndexSearcher}s of the shards, in the order of their shard indexes
+   * @param keepLuceneDocument whether to retain references to the original Lucene docs
+   * @return processed ranked list
+   */
+  public ScoredDoc[] processShardedTopDocs(K qid, TopDocs docs, IndexSearcher[] shards, boolean keepLuceneDocument) {
+    return processLuceneTopDocs(qid, docs, shards, keepLuceneDocument);
+  }
+
+  private ScoredDoc[] processLuceneTopDocs(K qid, TopDocs docs, IndexSearcher[] shards, boolean keepLuceneDocument) {
     List<ScoredDoc> results = new ArrayList<>();
     Set<String> docids = new HashSet<>(); // For removing duplicate docids.
 
+    // Unless we're keeping the Lucene documents, we only need their docids, which are much cheaper to look up.
+    String[] resolvedDocids = keepLuceneDocument ? null : resolveDocids(docs, shards);
+
     int rank = 1;
     for (int i = 0; i < docs.scoreDocs.length; i++) {
       int lucene_docid = docs.scoreDocs[i].doc;
-      Document lucene_document;
-      try {
-        lucene_document = searcher.storedFields().document(docs.scoreDocs[i].doc);
-      } catch (IOException e) {
-        throw new RuntimeException(String.format("Unable to fetch document %d", docs.scoreDocs[i].doc));
+      Document lucene_document = null;
+      String docid;
+      if (keepLuceneDocument) {
+        try {
+          IndexSearcher source = shards == null ? searcher : shards[docs.scoreDocs[i].shardIndex];
+          lucene_document = source.storedFields().document(docs.scoreDocs[i].doc);
+        } catch (IOException e) {
+          throw new RuntimeException(String.format("Unable to fetch document %d", docs.scoreDocs[i].doc));
+        }
+        docid = lucene_document.get(Constants.ID);
+      } else {
+        docid = resolvedDocids[i];
       }
-      String docid = lucene_document.get(Constants.ID);
 
       if (args.selectMaxPassage) {
         docid = docid.split(args.selectMaxPassageDelimiter)[0];
@@ -147,8 +178,7 @@ public class BaseSearcher<K extends Comparable<K>> {
       // Note that if keepLuceneDocument == true, then we're retaining references to a lot of objects that cannot be
       // garbage collected. If we're running lots of queries, e.g., from SearchCollection, this can easily exhaust
       // the heap.
-      results.add(new ScoredDoc(docid, lucene_docid, docs.scoreDocs[i].score,
-          keepLuceneDocument ? lucene_document : null));
+      results.add(new ScoredDoc(docid, lucene_docid, docs.scoreDocs[i].score, lucene_document));
 
       // Note that this option is set to false by default because duplicate documents usually indicate some
       // underlying indexing issues, and we don't want to just eat errors silently.
@@ -169,6 +199,46 @@ public class BaseSearcher<K extends Comparable<K>> {
     return results.toArray(new ScoredDoc[0]);
   }
 
+  // Looks up the docids of the hits, shard by shard if the hits were merged from several shards.
+  private String[] resolveDocids(TopDocs docs, IndexSearcher[] shards) {
+    ScoreDoc[] hits = docs.scoreDocs;
+    try {
+      if (shards == null) {
+        int[] luceneDocids = new int[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+          luceneDocids[i] = hits[i].doc;
+        }
+        return IndexReaderUtils.convertLuceneDocidsToDocids(searcher.getIndexReader(), luceneDocids);
+      }
+
+      String[] docids = new String[hits.length];
+      for (int shard = 0; shard < shards.length; shard++) {
+        int n = 0;
+        for (ScoreDoc hit : hits) {
+          if (hit.shardIndex == shard) {
+            n++;
+          }
+        }
+        int[] positions = new int[n];
+        int[] luceneDocids = new int[n];
+        n = 0;
+        for (int i = 0; i < hits.length; i++) {
+          if (hits[i].shardIndex == shard) {
+            positions[n] = i;
+            luceneDocids[n++] = hits[i].doc;
+          }
+        }
+        String[] shardDocids = IndexReaderUtils.convertLuceneDocidsToDocids(shards[shard].getIndexReader(), luceneDocids);
+        for (int i = 0; i < n; i++) {
+          docids[positions[i]] = shardDocids[i];
+        }
+      }
+      return docids;
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to fetch docids", e);
+    }
+  }
+
   /**
    * Processes {@link ScoredDocs} for a query based on the configuration for duplicate removal, docid-as-qid removal,
    * and MaxP. By default, retains references to the original Lucene docs (which can be memory intensive for long
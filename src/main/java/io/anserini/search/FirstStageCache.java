@@ -0,0 +1,234 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>A memory-bounded cache of first-stage results, shared by all the reranker cascades that run on top of the same
+ * ranking model. When sweeping reranker parameters (e.g., RM3 or Rocchio), every cascade starts from exactly the same
+ * first-stage ranking, so there is no need to retrieve it more than once per similarity.</p>
+ *
+ * <p>Results are keyed by the similarity tag, the query, and the number of hits. Concurrent requests for the same key
+ * wait for a single retrieval rather than each running their own. Once the estimated size of the cached results
+ * exceeds the budget, the least recently used results are evicted.</p>
+ */
+public class FirstStageCache {
+  private static final long BYTES_PER_ENTRY = 128;
+  private static final long SCORE_DOC_BYTES = RamUsageEstimator.shallowSizeOfInstance(ScoreDoc.class);
+  private static final long FIELD_DOC_BYTES = RamUsageEstimator.shallowSizeOfInstance(FieldDoc.class);
+  private static final long FLOAT_BYTES = RamUsageEstimator.shallowSizeOfInstance(Float.class);
+  private static final long BYTES_REF_BYTES = RamUsageEstimator.shallowSizeOfInstance(BytesRef.class);
+
+  private record Key(String similarity, Query query, int k) {}
+
+  private static final class Entry {
+    final CompletableFuture<TopDocs> future = new CompletableFuture<>();
+    long bytes;
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxBytes budget for the estimated size of the cached results, in bytes
+   */
+  public FirstStageCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the first-stage results for a query, retrieving them if they are not cached.
+   *
+   * @param similarity tag of the similarity used for retrieval
+   * @param query query
+   * @param k number of hits
+   * @param retriever performs the retrieval
+   * @return first-stage results
+   * @throws IOException if error encountered during retrieval
+   */
+  public TopDocs get(String similarity, Query query, int k, IOSupplier<TopDocs> retriever) throws IOException {
+    Key key = new Key(similarity, query, k);
+    Entry entry;
+    boolean owner = false;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry();
+        entries.put(key, entry);
+        owner = true;
+        misses++;
+      } else {
+        hits++;
+      }
+    }
+
+    if (owner) {
+      TopDocs rs;
+      try {
+        rs = retriever.get();
+      } catch (IOException | RuntimeException e) {
+        synchronized (this) {
+          entries.remove(key);
+        }
+        entry.future.completeExceptionally(e);
+        throw e;
+      }
+      entry.future.complete(rs);
+      synchronized (this) {
+        entry.bytes = ramBytesUsed(rs);
+        bytes += entry.bytes;
+        evict();
+      }
+      return rs;
+    }
+
+    try {
+      return entry.future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Adds first-stage results that were retrieved ahead of time (e.g., along with the results for another similarity),
+   * unless results for the same key are already cached or being retrieved.
+   *
+   * @param similarity tag of the similarity used for retrieval
+   * @param query query
+   * @param k number of hits
+   * @param rs first-stage results
+   */
+  public synchronized void put(String similarity, Query query, int k, TopDocs rs) {
+    Key key = new Key(similarity, query, k);
+    if (entries.containsKey(key)) {
+      return;
+    }
+    Entry entry = new Entry();
+    entry.future.complete(rs);
+    entry.bytes = ramBytesUsed(rs);
+    entries.put(key, entry);
+    bytes += entry.bytes;
+    evict();
+  }
+
+  /**
+   * Estimates the size of first-stage results: the array of hits, and the hits themselves. When ties are broken by
+   * docid, hits are {@link FieldDoc}s, which also hold their sort values (a boxed score and a copy of the docid bytes),
+   * and are several times larger than plain {@link ScoreDoc}s.
+   *
+   * @param rs first-stage results
+   * @return estimated size, in bytes
+   */
+  static long ramBytesUsed(TopDocs rs) {
+    long bytes = BYTES_PER_ENTRY + RamUsageEstimator.shallowSizeOf(rs.scoreDocs);
+    for (ScoreDoc scoreDoc : rs.scoreDocs) {
+      if (!(scoreDoc instanceof FieldDoc fieldDoc)) {
+        bytes += SCORE_DOC_BYTES;
+        continue;
+      }
+      bytes += FIELD_DOC_BYTES;
+      if (fieldDoc.fields == null) {
+        continue;
+      }
+      bytes += RamUsageEstimator.shallowSizeOf(fieldDoc.fields);
+      for (Object field : fieldDoc.fields) {
+        if (field instanceof Float) {
+          bytes += FLOAT_BYTES;
+        } else if (field instanceof BytesRef bytesRef) {
+          bytes += BYTES_REF_BYTES + RamUsageEstimator.sizeOf(bytesRef.bytes);
+        } else if (field != null) {
+          bytes += RamUsageEstimator.sizeOfObject(field);
+        }
+      }
+    }
+    return bytes;
+  }
+
+  // Evicts completed entries, least recently used first, until we're within budget.
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.bytes > 0) {
+        iterator.remove();
+        bytes -= entry.bytes;
+        evictions++;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of retrievals saved, i.e., requests answered from the cache.
+   *
+   * @return number of cache hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of retrievals actually performed.
+   *
+   * @return number of cache misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Returns the estimated size of the cached results.
+   *
+   * @return estimated size, in bytes
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d retrievals saved (%d performed), %d evictions, ~%d MB cached",
+        hits, misses, evictions, bytes >> 20);
+  }
+}
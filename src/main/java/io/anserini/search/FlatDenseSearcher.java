@@ -17,6 +17,8 @@
 package io.anserini.search;
 
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import io.anserini.encoder.OnnxEncoder;
 import io.anserini.encoder.dense.DenseEncoder;
 import io.anserini.index.Constants;
 import io.anserini.index.IndexReaderUtils;
@@ -39,10 +41,12 @@ import org.kohsuke.args4j.Option;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -65,6 +69,37 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
     @Option(name ="-encoder", metaVar = "[encoder]", usage = "Dense encoder to use.")
     public String encoder = null;
 
+    @Option(name = "-encoder.cache", depends = {"-encoder"},
+        usage = "Cache query encodings in memory and on disk, so that the same queries aren't encoded again.")
+    public boolean encoderCache = false;
+
+    @Option(name = "-encoder.cacheSize", metaVar = "[number]", usage = "Number of query encodings to cache in memory.")
+    public int encoderCacheSize = 10000;
+
+    @Option(name = "-encoder.threads", metaVar = "[number]", depends = {"-encoder"},
+        usage = "Number of threads the encoder uses within each operation of the model (0 for the ONNX Runtime default).")
+    public int encoderThreads = 0;
+
+    @Option(name = "-encoder.batchSize", metaVar = "[number]", depends = {"-encoder"},
+        usage = "Number of queries to encode at once, when searching in batch.")
+    public int encoderBatchSize = OnnxEncoder.DEFAULT_BATCH_SIZE;
+
+    @Option(name = "-flat.batch",
+        usage = "Search in batch by scoring blocks of queries against each document vector at once; results are the same.")
+    public boolean flatBatch = false;
+
+    @Option(name = "-flat.queryBlockSize", metaVar = "[number]", depends = {"-flat.batch"},
+        usage = "Number of queries scored against each document vector at once, when searching in batch.")
+    public int flatQueryBlockSize = FlatVectorBatchScorer.DEFAULT_QUERY_BLOCK_SIZE;
+
+    @Option(name = "-quantized.bits", metaVar = "[number]",
+        usage = "Scan the vectors quantized into this many bits (8 or 1), then rescore candidates with the float vectors.")
+    public int quantizedBits = 0;
+
+    @Option(name = "-quantized.oversample", metaVar = "[number]", depends = {"-quantized.bits"},
+        usage = "Number of candidates to rescore, as a multiple of the number of nearest documents to find.")
+    public float quantizedOversample = QuantizedVectorRescorer.DEFAULT_OVERSAMPLE;
+
     @Option(name = "-quiet", metaVar = "[boolean]", usage = "Turns off all logging (except for errors).")
     public boolean quiet = false;
   }
@@ -72,6 +107,8 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
   private final IndexReader reader;
   private final VectorQueryGenerator generator;
   private final DenseEncoder encoder;
+  private final FlatVectorBatchScorer batchScorer;
+  private final QuantizedVectorRescorer rescorer;
   // Dummy, but needed for KnnFloatVectorQuery
   private final int DUMMY_EF_SEARCH = 1000;
 
@@ -108,15 +145,36 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
             args.encoder.substring(0, args.encoder.length() - "Encoder".length()) :
             args.encoder;
 
-        encoder = (DenseEncoder) Class
-            .forName(String.format("io.anserini.encoder.dense.%sEncoder", encoderName))
-            .getConstructor().newInstance();
+        try (OrtSession.SessionOptions options = OnnxEncoder.createSessionOptions(args.encoderThreads, 0)) {
+          encoder = (DenseEncoder) Class
+              .forName(String.format("io.anserini.encoder.dense.%sEncoder", encoderName))
+              .getConstructor(OrtSession.SessionOptions.class).newInstance(options);
+        }
+        encoder.setBatchSize(args.encoderBatchSize);
+        if (args.encoderCache) {
+          encoder.enableQueryCache(args.encoderCacheSize);
+        }
       } catch (Exception e) {
         throw new IllegalArgumentException(String.format("Unable to load Encoder \"%s\".", args.encoder));
       }
     } else {
       encoder = null;
     }
+
+    if (args.flatBatch && FlatVectorBatchScorer.supports(reader, Constants.VECTOR)) {
+      batchScorer = new FlatVectorBatchScorer(reader, Constants.VECTOR, args.flatQueryBlockSize);
+    } else {
+      if (args.flatBatch) {
+        LOG.warn("Index is not a flat index of float vectors (e.g., it is quantized), searching one query at a time.");
+      }
+      batchScorer = null;
+    }
+
+    if (args.quantizedBits != 0) {
+      rescorer = new QuantizedVectorRescorer(reader, Constants.VECTOR, args.quantizedBits, args.quantizedOversample);
+    } else {
+      rescorer = null;
+    }
   }
 
   /**
@@ -129,20 +187,26 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
    * @return a map of query id to search results
    */
   public SortedMap<K, ScoredDoc[]> batch_search(List<String> queries, List<K> qids, int k, int threads) {
+    if (batchScorer != null) {
+      return batch_search_vectors(queryVectors(queries), qids, k, threads);
+    }
+
     final SortedMap<K, ScoredDoc[]> results = new ConcurrentSkipListMap<>();
     final AtomicInteger cnt = new AtomicInteger();
     final long start = System.nanoTime();
     List<Callable<Void>> tasks = new ArrayList<>(qids.size());
 
     assert qids.size() == queries.size();
+    final List<float[]> vectors = batchEncode(queries);
     for (int i = 0; i < qids.size(); i++) {
       K qid = qids.get(i);
       String queryString = queries.get(i);
+      float[] vector = vectors == null ? null : vectors.get(i);
 
       // This is the per-query execution, in parallel.
       tasks.add(() -> {
         try {
-          results.put(qid, search(qid, queryString, k));
+          results.put(qid, vector == null ? search(qid, queryString, k) : search(qid, vector, k));
         } catch (IOException e) {
           throw new CompletionException(e);
         }
@@ -171,6 +235,92 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
     return results;
   }
 
+  /**
+   * Searches the collection with query vectors in batch, scoring blocks of queries against each document vector at
+   * once, which is faster than searching one query at a time. Requires {@code -flat.batch} and a flat index of float
+   * vectors, i.e., {@link #supportsBatchScoring()}. Results are the same as from {@link #search(Comparable, float[], int)}.
+   *
+   * @param vectors list of query vectors
+   * @param qids list of unique query ids
+   * @param k number of hits
+   * @param threads number of threads
+   * @return a map of query id to search results
+   */
+  public SortedMap<K, ScoredDoc[]> batch_search_vectors(List<float[]> vectors, List<K> qids, int k, int threads) {
+    if (batchScorer == null) {
+      throw new IllegalStateException("Searching query vectors in batch requires -flat.batch and a flat index.");
+    }
+
+    assert qids.size() == vectors.size();
+    final long start = System.nanoTime();
+    final SortedMap<K, ScoredDoc[]> results = new TreeMap<>();
+    try {
+      TopDocs[] topDocs = batchScorer.search(vectors.toArray(new float[0][]), DUMMY_EF_SEARCH, k, threads);
+      for (int i = 0; i < qids.size(); i++) {
+        results.put(qids.get(i), super.processLuceneTopDocs(qids.get(i), topDocs[i]));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    LOG.info("{} queries processed in {}{}", qids.size(),
+        DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
+        String.format(" = ~%.2f q/s", qids.size() / (durationMillis / 1000.0)));
+
+    return results;
+  }
+
+  /**
+   * Returns whether query vectors can be searched in batch with {@link #batch_search_vectors}.
+   *
+   * @return whether query vectors can be searched in batch
+   */
+  public boolean supportsBatchScoring() {
+    return batchScorer != null;
+  }
+
+  // Turns queries into vectors, encoding them in batch if possible, or else as they would be searched one at a time.
+  private List<float[]> queryVectors(List<String> queries) {
+    List<float[]> vectors = batchEncode(queries);
+    if (vectors != null) {
+      return vectors;
+    }
+
+    vectors = new ArrayList<>(queries.size());
+    for (String query : queries) {
+      try {
+        vectors.add(encoder != null ? encoder.encodeQuery(query) :
+            generator.buildQuery(Constants.VECTOR, query, DUMMY_EF_SEARCH).getTargetCopy());
+      } catch (OrtException e) {
+        throw new RuntimeException("Error encoding query.");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return vectors;
+  }
+
+  /**
+   * Encodes queries in batch with the underlying encoder, so that they can then be searched as query vectors, which is
+   * faster than encoding them one at a time.
+   *
+   * @param queries queries
+   * @return query vectors, in the same order as the queries, or {@code null} if there is no encoder or it can't encode
+   *     queries in batch, in which case the queries should be searched as strings
+   */
+  public @Nullable List<float[]> batchEncode(List<String> queries) {
+    if (encoder == null || !encoder.supportsBatching()) {
+      return null;
+    }
+
+    try {
+      return encoder.encodeQueries(queries);
+    } catch (OrtException e) {
+      throw new RuntimeException("Error encoding query.");
+    }
+  }
+
   /**
    * Searches the collection with a query vector.
    *
@@ -193,6 +343,10 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
    * @throws IOException if error encountered during search
    */
   public ScoredDoc[] search(@Nullable K qid, float[] query, int k) throws IOException {
+    if (rescorer != null) {
+      return super.processLuceneTopDocs(qid, rescorer.search(query, DUMMY_EF_SEARCH, k));
+    }
+
     KnnFloatVectorQuery vectorQuery = new KnnFloatVectorQuery(Constants.VECTOR, query, DUMMY_EF_SEARCH);
     TopDocs topDocs = getIndexSearcher().search(vectorQuery, k, BREAK_SCORE_TIES_BY_DOCID, true);
 
@@ -223,13 +377,16 @@ public class FlatDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
   public ScoredDoc[] search(@Nullable K qid, String query, int k) throws IOException {
     if (encoder != null) {
       try {
-        return search(qid, encoder.encode(query), k);
+        return search(qid, encoder.encodeQuery(query), k);
       } catch (OrtException e) {
         throw new RuntimeException("Error encoding query.");
       }
     }
 
     KnnFloatVectorQuery vectorQuery = generator.buildQuery(Constants.VECTOR, query, DUMMY_EF_SEARCH);
+    if (rescorer != null) {
+      return search(qid, vectorQuery.getTargetCopy(), k);
+    }
     TopDocs topDocs = getIndexSearcher().search(vectorQuery, k, BREAK_SCORE_TIES_BY_DOCID, true);
 
     return super.processLuceneTopDocs(qid, topDocs);
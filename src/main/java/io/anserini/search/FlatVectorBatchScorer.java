@@ -0,0 +1,276 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import io.anserini.index.codecs.AnseriniLucene99FlatVectorFormat;
+import org.apache.lucene.codecs.perfield.PerFieldKnnVectorsFormat;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.VectorEncoding;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopKnnCollector;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Exact (brute-force) search of a flat vector index for many queries at once. Rather than scoring one query at a
+ * time against every document vector, as {@link org.apache.lucene.search.KnnFloatVectorQuery} does, this scores a
+ * block of queries against each document vector in turn, so that each document vector is read once per block of
+ * queries rather than once per query, and keeps a top-k heap per query. Blocks of queries and ranges of documents
+ * within segments are spread over threads.</p>
+ *
+ * <p>Results are exactly the same as {@link FlatDenseSearcher#search(float[], int)}: scores come from the same
+ * {@link VectorSimilarityFunction}, whose vector operations Lucene already implements with the Panama Vector API when
+ * the {@code jdk.incubator.vector} module is available, and ties are broken in the same way, first to pick the
+ * candidates (as the KNN query does), and then to rank them (as sorting by score and docid does).</p>
+ */
+public final class FlatVectorBatchScorer {
+  public static final int DEFAULT_QUERY_BLOCK_SIZE = 64;
+
+  // Ranges of documents that are scored by a single task are no smaller than this, unless the segment is.
+  private static final int DEFAULT_MIN_RANGE_SIZE = 4096;
+
+  private final IndexReader reader;
+  private final String field;
+  private final int queryBlockSize;
+  private final int minRangeSize;
+
+  // A range of documents within a segment, [start, end).
+  private record Range(LeafReaderContext context, int start, int end) {}
+
+  /**
+   * Creates a scorer.
+   *
+   * @param reader index reader
+   * @param field vector field, which must be indexed with {@link AnseriniLucene99FlatVectorFormat}
+   * @param queryBlockSize number of queries scored against each document vector at once
+   */
+  public FlatVectorBatchScorer(IndexReader reader, String field, int queryBlockSize) {
+    this(reader, field, queryBlockSize, DEFAULT_MIN_RANGE_SIZE);
+  }
+
+  FlatVectorBatchScorer(IndexReader reader, String field, int queryBlockSize, int minRangeSize) {
+    if (!supports(reader, field)) {
+      throw new IllegalArgumentException(String.format("Field \"%s\" is not a flat index of float vectors.", field));
+    }
+    if (queryBlockSize <= 0) {
+      throw new IllegalArgumentException("Query block size must be positive!");
+    }
+    this.reader = reader;
+    this.field = field;
+    this.queryBlockSize = queryBlockSize;
+    this.minRangeSize = minRangeSize;
+  }
+
+  /**
+   * Checks whether a field can be searched exactly by this scorer, i.e., whether it's indexed with
+   * {@link AnseriniLucene99FlatVectorFormat} in every segment. Other formats (e.g., quantized or HNSW indexes) score
+   * or search differently, so searching them exactly wouldn't give the same results.
+   *
+   * @param reader index reader
+   * @param field vector field
+   * @return whether the field can be searched by this scorer
+   */
+  public static boolean supports(IndexReader reader, String field) {
+    for (LeafReaderContext context : reader.leaves()) {
+      FieldInfo info = context.reader().getFieldInfos().fieldInfo(field);
+      if (info == null) {
+        continue;
+      }
+      String format = info.getAttribute(PerFieldKnnVectorsFormat.PER_FIELD_FORMAT_KEY);
+      if (info.getVectorEncoding() != VectorEncoding.FLOAT32 || !AnseriniLucene99FlatVectorFormat.NAME.equals(format)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Searches for the nearest documents of each query. As with {@link org.apache.lucene.search.KnnFloatVectorQuery},
+   * the nearest {@code numCandidates} documents are found first, and then the top {@code k} of them are ranked by
+   * score, breaking ties by docid, as {@link FlatDenseSearcher#BREAK_SCORE_TIES_BY_DOCID}.
+   *
+   * @param queries query vectors
+   * @param numCandidates number of nearest documents to find, i.e., the k of the KNN query
+   * @param k number of hits
+   * @param threads number of threads
+   * @return hits of each query, in the same order as the queries
+   * @throws IOException if error encountered during search
+   */
+  public TopDocs[] search(float[][] queries, int numCandidates, int k, int threads) throws IOException {
+    List<Range> ranges = ranges(threads);
+
+    List<ScoreDoc>[] candidates;
+    try (ExecutorService executor = Executors.newWorkStealingPool(threads)) {
+      // Each task scores a block of queries against a range of documents, keeping the nearest candidates of each
+      // query in that range.
+      List<Future<TopDocs[]>> futures = new ArrayList<>();
+      for (int start = 0; start < queries.length; start += queryBlockSize) {
+        float[][] block = Arrays.copyOfRange(queries, start, Math.min(start + queryBlockSize, queries.length));
+        for (Range range : ranges) {
+          Callable<TopDocs[]> task = () -> score(block, range, numCandidates);
+          futures.add(executor.submit(task));
+        }
+      }
+      candidates = collect(futures, queries.length, ranges.size());
+    }
+
+    TopDocs[] results = new TopDocs[queries.length];
+    for (int i = 0; i < queries.length; i++) {
+      results[i] = rank(reader, candidates[i], numCandidates, k);
+    }
+    return results;
+  }
+
+  // Splits the segments into ranges of documents, so that there are about as many ranges as threads.
+  private List<Range> ranges(int threads) {
+    int size = Math.max(minRangeSize, (reader.maxDoc() + threads - 1) / threads);
+    List<Range> ranges = new ArrayList<>();
+    for (LeafReaderContext context : reader.leaves()) {
+      int maxDoc = context.reader().maxDoc();
+      for (int start = 0; start < maxDoc; start += size) {
+        ranges.add(new Range(context, start, (int) Math.min((long) start + size, maxDoc)));
+      }
+    }
+    return ranges;
+  }
+
+  private TopDocs[] score(float[][] block, Range range, int numCandidates) throws IOException {
+    TopKnnCollector[] collectors = new TopKnnCollector[block.length];
+    for (int q = 0; q < block.length; q++) {
+      collectors[q] = new TopKnnCollector(numCandidates, Integer.MAX_VALUE);
+    }
+
+    FloatVectorValues vectors = range.context().reader().getFloatVectorValues(field);
+    if (vectors != null) {
+      VectorSimilarityFunction similarity =
+          range.context().reader().getFieldInfos().fieldInfo(field).getVectorSimilarityFunction();
+      Bits liveDocs = range.context().reader().getLiveDocs();
+      for (int doc = vectors.advance(range.start()); doc < range.end(); doc = vectors.nextDoc()) {
+        if (liveDocs != null && !liveDocs.get(doc)) {
+          continue;
+        }
+        float[] vector = vectors.vectorValue();
+        for (int q = 0; q < block.length; q++) {
+          collectors[q].collect(doc, similarity.compare(block[q], vector));
+        }
+      }
+    }
+
+    TopDocs[] topDocs = new TopDocs[block.length];
+    for (int q = 0; q < block.length; q++) {
+      topDocs[q] = collectors[q].topDocs();
+      for (ScoreDoc scoreDoc : topDocs[q].scoreDocs) {
+        scoreDoc.doc += range.context().docBase;
+      }
+    }
+    return topDocs;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<ScoreDoc>[] collect(List<Future<TopDocs[]>> futures, int numQueries, int numRanges)
+      throws IOException {
+    List<ScoreDoc>[] candidates = new List[numQueries];
+    for (int i = 0; i < numQueries; i++) {
+      candidates[i] = new ArrayList<>();
+    }
+
+    try {
+      // Futures are in order of blocks of queries, then ranges.
+      for (int f = 0; f < futures.size(); f++) {
+        int first = (f / numRanges) * queryBlockSize;
+        TopDocs[] topDocs = futures.get(f).get();
+        for (int q = 0; q < topDocs.length; q++) {
+          candidates[first + q].addAll(Arrays.asList(topDocs[q].scoreDocs));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while searching.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioe) {
+        throw ioe;
+      }
+      if (e.getCause() instanceof UncheckedIOException uioe) {
+        throw uioe.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      futures.forEach(future -> future.cancel(true));
+    }
+    return candidates;
+  }
+
+  // Picks the nearest candidates as the KNN query does, i.e., breaking ties by Lucene docid, and then ranks them by
+  // score and docid. Candidates are from all segments, i.e., with docBase added.
+  static TopDocs rank(IndexReader reader, List<ScoreDoc> candidates, int numCandidates, int k) throws IOException {
+    candidates.sort(((Comparator<ScoreDoc>) (a, b) -> Float.compare(b.score, a.score)).thenComparingInt(d -> d.doc));
+    List<ScoreDoc> nearest = candidates.subList(0, Math.min(numCandidates, candidates.size()));
+
+    // Docids are looked up in order of Lucene docid, as doc values are read forward.
+    ScoreDoc[] byDoc = nearest.toArray(new ScoreDoc[0]);
+    Arrays.sort(byDoc, Comparator.comparingInt(d -> d.doc));
+    BytesRef[] docids = new BytesRef[byDoc.length];
+    int leaf = -1;
+    BinaryDocValues values = null;
+    List<LeafReaderContext> leaves = reader.leaves();
+    for (int i = 0; i < byDoc.length; i++) {
+      while (leaf + 1 < leaves.size() && leaves.get(leaf + 1).docBase <= byDoc[i].doc) {
+        leaf++;
+        values = DocValues.getBinary(leaves.get(leaf).reader(), Constants.ID);
+      }
+      int doc = byDoc[i].doc - leaves.get(leaf).docBase;
+      docids[i] = values.advanceExact(doc) ? BytesRef.deepCopyOf(values.binaryValue()) : null;
+    }
+
+    Integer[] order = new Integer[byDoc.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    // Documents without docids come first, as when sorting by docid.
+    Comparator<BytesRef> byDocid = Comparator.nullsFirst(Comparator.naturalOrder());
+    Arrays.sort(order, ((Comparator<Integer>) (a, b) -> Float.compare(byDoc[b].score, byDoc[a].score))
+        .thenComparing(i -> docids[i], byDocid)
+        .thenComparingInt(i -> byDoc[i].doc));
+
+    ScoreDoc[] hits = new ScoreDoc[Math.min(k, order.length)];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = byDoc[order[i]];
+    }
+    return new TopDocs(new TotalHits(order.length, TotalHits.Relation.EQUAL_TO), hits);
+  }
+}
@@ -17,6 +17,8 @@
 package io.anserini.search;
 
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import io.anserini.encoder.OnnxEncoder;
 import io.anserini.encoder.dense.DenseEncoder;
 import io.anserini.index.Constants;
 import io.anserini.index.IndexReaderUtils;
@@ -39,10 +41,12 @@ import java.util.SortedMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K> implements AutoCloseable {
   // These are the default tie-breaking rules for documents that end up with the same score with respect to a query.
@@ -63,9 +67,32 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
     @Option(name ="-encoder", metaVar = "[encoder]", usage = "Dense encoder to use.")
     public String encoder = null;
 
+    @Option(name = "-encoder.cache", depends = {"-encoder"},
+        usage = "Cache query encodings in memory and on disk, so that the same queries aren't encoded again.")
+    public boolean encoderCache = false;
+
+    @Option(name = "-encoder.cacheSize", metaVar = "[number]", usage = "Number of query encodings to cache in memory.")
+    public int encoderCacheSize = 10000;
+
+    @Option(name = "-encoder.threads", metaVar = "[number]", depends = {"-encoder"},
+        usage = "Number of threads the encoder uses within each operation of the model (0 for the ONNX Runtime default).")
+    public int encoderThreads = 0;
+
+    @Option(name = "-encoder.batchSize", metaVar = "[number]", depends = {"-encoder"},
+        usage = "Number of queries to encode at once, when searching in batch.")
+    public int encoderBatchSize = OnnxEncoder.DEFAULT_BATCH_SIZE;
+
     @Option(name = "-efSearch", metaVar = "[number]", usage = "efSearch parameter for HNSW search")
     public int efSearch = 100;
 
+    @Option(name = "-hnsw.segmentThreads", metaVar = "[number]",
+        usage = "Number of threads to search the graphs of the segments of each query in parallel (0 to search them in turn).")
+    public int hnswSegmentThreads = 0;
+
+    @Option(name = "-hnsw.sharedEfSearch",
+        usage = "Share the top efSearch scores across segments, so that segments stop searching early; results may differ.")
+    public boolean hnswSharedEfSearch = false;
+
     @Option(name = "-quiet", metaVar = "[boolean]", usage = "Turns off all logging (except for errors).")
     public boolean quiet = false;
   }
@@ -73,8 +100,25 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
   private final IndexReader reader;
   private final VectorQueryGenerator generator;
   private final DenseEncoder encoder;
+  // Only set if this searcher created the executor, and so has to shut it down.
+  private final ExecutorService segmentExecutor;
+  // Numbers of graph nodes visited and of queries searched so far, rather than per query, so that they don't grow.
+  private final LongAdder visitedCount = new LongAdder();
+  private final LongAdder queryCount = new LongAdder();
 
   public HnswDenseSearcher(Args args) {
+    this(args, null);
+  }
+
+  /**
+   * Creates a searcher that searches the graphs of the segments of each query in parallel with an executor, e.g., for
+   * indexes that aren't merged into a single segment.
+   *
+   * @param args arguments
+   * @param executor executor to search segments with, which isn't shut down with this searcher; if {@code null}, one is
+   *     created if {@code -hnsw.segmentThreads} is set, and otherwise segments are searched in turn
+   */
+  public HnswDenseSearcher(Args args, @Nullable Executor executor) {
     super(args);
 
     if (args.quiet) {
@@ -89,7 +133,13 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
       throw new IllegalArgumentException(String.format("\"%s\" does not appear to be a valid index.", args.index));
     }
 
-    setIndexSearcher(new IndexSearcher(this.reader));
+    if (executor == null && args.hnswSegmentThreads > 0) {
+      this.segmentExecutor = Executors.newFixedThreadPool(args.hnswSegmentThreads);
+      executor = segmentExecutor;
+    } else {
+      this.segmentExecutor = null;
+    }
+    setIndexSearcher(new IndexSearcher(this.reader, executor));
 
     try {
       this.generator = (VectorQueryGenerator) Class
@@ -107,9 +157,15 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
             args.encoder.substring(0, args.encoder.length() - "Encoder".length()) :
             args.encoder;
 
-        encoder = (DenseEncoder) Class
-            .forName(String.format("io.anserini.encoder.dense.%sEncoder", encoderName))
-            .getConstructor().newInstance();
+        try (OrtSession.SessionOptions options = OnnxEncoder.createSessionOptions(args.encoderThreads, 0)) {
+          encoder = (DenseEncoder) Class
+              .forName(String.format("io.anserini.encoder.dense.%sEncoder", encoderName))
+              .getConstructor(OrtSession.SessionOptions.class).newInstance(options);
+        }
+        encoder.setBatchSize(args.encoderBatchSize);
+        if (args.encoderCache) {
+          encoder.enableQueryCache(args.encoderCacheSize);
+        }
       } catch (Exception e) {
         throw new IllegalArgumentException(String.format("Unable to load Encoder \"%s\".", args.encoder));
       }
@@ -136,19 +192,26 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
     final SortedMap<K, ScoredDoc[]> results = new ConcurrentSkipListMap<>();
     final AtomicInteger cnt = new AtomicInteger();
     final long start = System.nanoTime();
+    final long visitedBefore = getVisitedCount();
+    final long queriesBefore = getQueryCount();
 
     assert qids.size() == queries.size();
 
     List<Callable<Void>> tasks = new ArrayList<>(qids.size());
+    final List<float[]> vectors = batchEncode(queries);
 
     for (int i = 0; i < qids.size(); i++) {
       K qid = qids.get(i);
       String queryString = queries.get(i);
+      float[] vector = vectors == null ? null : vectors.get(i);
 
       // This adds each query search into the task list
       tasks.add(() -> {
         try {
-          results.put(qid, search(qid, queryString, k));
+          Hits hits = vector == null ?
+              searchWithVisitedCount(qid, queryString, k) : searchWithVisitedCount(qid, vector, k);
+          LOG.info("Query {} visited {} graph nodes", qid, hits.visitedCount());
+          results.put(qid, hits.docs());
           int n = cnt.incrementAndGet();
           if (n % 100 == 0) {
             LOG.info("{} queries processed", n);
@@ -171,10 +234,31 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
     final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     LOG.info("Batch search completed in {}{}", DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
         String.format(" = ~%.2f q/s", queries.size() / (durationMillis / 1000.0)));
+    LOG.info(String.format("Visited ~%.1f graph nodes/query", meanVisitedCount(visitedBefore, queriesBefore)));
 
     return results;
   }
 
+  /**
+   * Encodes queries in batch with the underlying encoder, so that they can then be searched as query vectors, which is
+   * faster than encoding them one at a time.
+   *
+   * @param queries queries
+   * @return query vectors, in the same order as the queries, or {@code null} if there is no encoder or it can't encode
+   *     queries in batch, in which case the queries should be searched as strings
+   */
+  public @Nullable List<float[]> batchEncode(List<String> queries) {
+    if (encoder == null || !encoder.supportsBatching()) {
+      return null;
+    }
+
+    try {
+      return encoder.encodeQueries(queries);
+    } catch (OrtException e) {
+      throw new RuntimeException("Error encoding query.");
+    }
+  }
+
   /**
    * Searches the collection with a query vector.
    *
@@ -197,10 +281,70 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
    * @throws IOException if error encountered during search
    */
   public ScoredDoc[] search(@Nullable K qid, float[] query, int k) throws IOException {
-    KnnFloatVectorQuery vectorQuery = new KnnFloatVectorQuery(Constants.VECTOR, query, ((Args) args).efSearch);
-    TopDocs topDocs = getIndexSearcher().search(vectorQuery, k, BREAK_SCORE_TIES_BY_DOCID, true);
+    return searchWithVisitedCount(qid, query, k).docs();
+  }
+
+  /**
+   * Search results of a query, along with the number of graph nodes visited (i.e., scored) in all segments to find them.
+   *
+   * @param docs array of search results
+   * @param visitedCount number of visited nodes
+   */
+  public record Hits(ScoredDoc[] docs, long visitedCount) {}
+
+  /**
+   * Searches the collection with a query vector, returning the number of graph nodes visited along with the results.
+   *
+   * @param qid query id
+   * @param query query vector
+   * @param k number of hits
+   * @return search results and number of visited nodes
+   * @throws IOException if error encountered during search
+   */
+  public Hits searchWithVisitedCount(@Nullable K qid, float[] query, int k) throws IOException {
+    HnswKnnFloatVectorQuery vectorQuery = new HnswKnnFloatVectorQuery(Constants.VECTOR, query,
+        ((Args) args).efSearch, ((Args) args).hnswSharedEfSearch);
+    // The graphs are searched when the query is rewritten, which is done up front, since otherwise it would be done
+    // again to compute scores.
+    Query rewritten = getIndexSearcher().rewrite(vectorQuery);
+    TopDocs topDocs = getIndexSearcher().search(rewritten, k, BREAK_SCORE_TIES_BY_DOCID, true);
+
+    visitedCount.add(vectorQuery.visitedCount());
+    queryCount.increment();
+
+    return new Hits(super.processLuceneTopDocs(qid, topDocs), vectorQuery.visitedCount());
+  }
+
+  /**
+   * Returns the number of graph nodes visited (i.e., scored) in all segments by all queries searched so far, as counted
+   * by the collectors of the graph searches.
+   *
+   * @return number of visited nodes
+   */
+  public long getVisitedCount() {
+    return visitedCount.sum();
+  }
 
-    return super.processLuceneTopDocs(qid, topDocs);
+  /**
+   * Returns the number of queries searched so far.
+   *
+   * @return number of queries
+   */
+  public long getQueryCount() {
+    return queryCount.sum();
+  }
+
+  /**
+   * Returns the mean number of graph nodes visited per query, over the queries searched since the counts were read,
+   * e.g., by a batch of queries.
+   *
+   * @param visitedBefore number of visited nodes, as read before the batch
+   * @param queriesBefore number of queries, as read before the batch
+   * @return mean number of visited nodes, or zero if no queries have been searched since
+   */
+  public double meanVisitedCount(long visitedBefore, long queriesBefore) {
+    long queries = getQueryCount() - queriesBefore;
+    return queries == 0 ? 0 : (double) (getVisitedCount() - visitedBefore) / queries;
   }
 
   /**
@@ -225,23 +369,38 @@ public class HnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K>
    * @throws IOException if error encountered during search
    */
   public ScoredDoc[] search(@Nullable K qid, String query, int k) throws IOException {
+    return searchWithVisitedCount(qid, query, k).docs();
+  }
+
+  /**
+   * Searches the collection with a string query that will be encoded by the underlying encoder, returning the number
+   * of graph nodes visited along with the results.
+   *
+   * @param qid query id
+   * @param query query
+   * @param k number of hits
+   * @return search results and number of visited nodes
+   * @throws IOException if error encountered during search
+   */
+  public Hits searchWithVisitedCount(@Nullable K qid, String query, int k) throws IOException {
     if (encoder != null) {
       try {
-        return search(qid, encoder.encode(query), k);
+        return searchWithVisitedCount(qid, encoder.encodeQuery(query), k);
       } catch (OrtException e) {
         throw new RuntimeException("Error encoding query.");
       }
     }
 
     KnnFloatVectorQuery vectorQuery = generator.buildQuery(Constants.VECTOR, query, ((Args) args).efSearch);
-    TopDocs topDocs = getIndexSearcher().search(vectorQuery, k, BREAK_SCORE_TIES_BY_DOCID, true);
-
-    return super.processLuceneTopDocs(qid, topDocs);
+    return searchWithVisitedCount(qid, vectorQuery.getTargetCopy(), k);
   }
 
   @Override
   public void close() throws IOException {
     reader.close();
+    if (segmentExecutor != null) {
+      segmentExecutor.shutdown();
+    }
     if (encoder != null) {
       encoder.close();
     }
@@ -0,0 +1,246 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnCollector;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopKnnCollector;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A KNN query over HNSW graphs that counts the nodes visited while searching the graphs of all segments, and that
+ * optionally shares the top {@code k} scores found so far across segments. Lucene searches the graph of each segment
+ * for its own top {@code k} documents, with the same efSearch budget in every segment, even though only the top
+ * {@code k} across all segments are kept. When scores are shared, the graph search of a segment stops once the
+ * remaining candidates can't beat the {@code k}-th best score found in any segment, so segments that are searched
+ * later (or concurrently, when the {@link org.apache.lucene.search.IndexSearcher} has an executor) visit fewer nodes.
+ * This follows the multi-leaf collector of later versions of Lucene.</p>
+ *
+ * <p>Sharing scores makes the search more approximate, and results may then depend on the order in which segments
+ * are searched. With a single segment, results are exactly the same as {@link KnnFloatVectorQuery}, as they are
+ * whenever scores aren't shared.</p>
+ */
+final class HnswKnnFloatVectorQuery extends KnnFloatVectorQuery {
+  // How greedily a segment follows the scores of other segments: it only stops at the k-th best score across
+  // segments once it has found (1 - greediness) * k documents at least as good itself.
+  private static final float GREEDINESS = 0.9f;
+
+  private final float[] target;
+  private final boolean shareScores;
+  // Searching the graphs is done while rewriting, so these are kept for the last rewrite.
+  private volatile TopScores topScores;
+  private final AtomicLong visitedCount = new AtomicLong();
+
+  /**
+   * Creates a query.
+   *
+   * @param field vector field
+   * @param target query vector
+   * @param k number of nearest documents to find, i.e., efSearch
+   * @param shareScores whether to share the top {@code k} scores across segments
+   */
+  HnswKnnFloatVectorQuery(String field, float[] target, int k, boolean shareScores) {
+    super(field, target, k);
+    this.target = target;
+    this.shareScores = shareScores;
+  }
+
+  /**
+   * Returns the number of graph nodes visited (i.e., scored) in all segments when the query was last rewritten, which is
+   * when the graphs are searched.
+   *
+   * @return number of visited nodes
+   */
+  long visitedCount() {
+    return visitedCount.get();
+  }
+
+  @Override
+  public Query rewrite(IndexSearcher indexSearcher) throws IOException {
+    topScores = shareScores ? new TopScores(k) : null;
+    visitedCount.set(0);
+    return super.rewrite(indexSearcher);
+  }
+
+  // Does what LeafReader#searchNearestVectors does, but with a collector that shares scores across segments.
+  @Override
+  protected TopDocs approximateSearch(LeafReaderContext context, Bits acceptDocs, int visitedLimit)
+      throws IOException {
+    LeafReader reader = context.reader();
+    FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+    if (info == null || info.getVectorDimension() == 0) {
+      return TopDocsCollector.EMPTY_TOPDOCS;
+    }
+    FloatVectorValues vectors = reader.getFloatVectorValues(field);
+    int kPerLeaf = vectors == null ? 0 : Math.min(k, vectors.size());
+    if (kPerLeaf == 0) {
+      return TopDocsCollector.EMPTY_TOPDOCS;
+    }
+
+    KnnCollector collector = new TopKnnCollector(kPerLeaf, visitedLimit);
+    TopScores topScores = this.topScores;
+    if (topScores != null) {
+      collector = new SharedScoresKnnCollector(collector, topScores);
+    }
+    reader.searchNearestVectors(field, target, collector, acceptDocs);
+    visitedCount.addAndGet(collector.visitedCount());
+
+    TopDocs topDocs = collector.topDocs();
+    TotalHits.Relation relation =
+        collector.earlyTerminated() ? TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO : TotalHits.Relation.EQUAL_TO;
+    return new TopDocs(new TotalHits(collector.visitedCount(), relation), topDocs.scoreDocs);
+  }
+
+  // A min-heap of the top scores, of a fixed size.
+  private static class ScoreHeap {
+    private final float[] heap;
+    private int size;
+
+    ScoreHeap(int capacity) {
+      this.heap = new float[Math.max(1, capacity)];
+    }
+
+    // Returns the lowest of the top scores, or negative infinity if there aren't yet as many scores as the size.
+    float min() {
+      return size < heap.length ? Float.NEGATIVE_INFINITY : heap[0];
+    }
+
+    // Adds a score, returning whether it's one of the top scores.
+    boolean offer(float score) {
+      if (size < heap.length) {
+        int i = size++;
+        while (i > 0 && heap[(i - 1) / 2] > score) {
+          heap[i] = heap[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        heap[i] = score;
+        return true;
+      }
+      if (score <= heap[0]) {
+        return false;
+      }
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && heap[child + 1] < heap[child]) {
+          child++;
+        }
+        if (heap[child] >= score) {
+          break;
+        }
+        heap[i] = heap[child];
+        i = child;
+      }
+      heap[i] = score;
+      return true;
+    }
+  }
+
+  // The top k scores across segments, which are searched concurrently.
+  private static final class TopScores extends ScoreHeap {
+    TopScores(int k) {
+      super(k);
+    }
+
+    @Override
+    synchronized float min() {
+      return super.min();
+    }
+
+    @Override
+    synchronized boolean offer(float score) {
+      return super.offer(score);
+    }
+  }
+
+  private static final class SharedScoresKnnCollector implements KnnCollector {
+    private final KnnCollector collector;
+    private final TopScores topScores;
+    // The top scores of this segment that it must find before it stops at the top scores across segments.
+    private final ScoreHeap ownScores;
+    private float sharedMin = Float.NEGATIVE_INFINITY;
+
+    SharedScoresKnnCollector(KnnCollector collector, TopScores topScores) {
+      this.collector = collector;
+      this.topScores = topScores;
+      this.ownScores = new ScoreHeap(Math.round((1 - GREEDINESS) * collector.k()));
+    }
+
+    @Override
+    public boolean earlyTerminated() {
+      return collector.earlyTerminated();
+    }
+
+    @Override
+    public void incVisitedCount(int count) {
+      collector.incVisitedCount(count);
+    }
+
+    @Override
+    public long visitedCount() {
+      return collector.visitedCount();
+    }
+
+    @Override
+    public long visitLimit() {
+      return collector.visitLimit();
+    }
+
+    @Override
+    public int k() {
+      return collector.k();
+    }
+
+    @Override
+    public boolean collect(int docId, float similarity) {
+      ownScores.offer(similarity);
+      // A score that isn't among the top scores of this segment can't be among the top scores across segments, since
+      // better ones have already been shared.
+      if (!collector.collect(docId, similarity)) {
+        return false;
+      }
+      topScores.offer(similarity);
+      sharedMin = topScores.min();
+      return true;
+    }
+
+    @Override
+    public float minCompetitiveSimilarity() {
+      return Math.max(collector.minCompetitiveSimilarity(), Math.min(ownScores.min(), sharedMin));
+    }
+
+    @Override
+    public TopDocs topDocs() {
+      return collector.topDocs();
+    }
+  }
+}
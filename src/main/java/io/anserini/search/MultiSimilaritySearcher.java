@@ -0,0 +1,348 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Retrieves the top-k documents for a bag-of-words query under several similarities (e.g., a grid of BM25 k1 and b
+ * values) in a single pass over the postings. Term statistics are looked up once, each posting is read once, and its
+ * contribution under every similarity is accumulated at the same time into one top-k heap per similarity.</p>
+ *
+ * <p>Scores are computed with each similarity's own {@link Similarity.SimScorer} and summed in the same way as
+ * Lucene's disjunctions, so the results are the same as searching with each similarity separately, with ties broken
+ * either by external docid (as with {@code SearchCollection}'s default sort) or by internal Lucene docid. Since all
+ * matching documents are scored, this trades Lucene's dynamic pruning for sharing: it pays off when sweeping many
+ * parameter settings.</p>
+ *
+ * <p>Only disjunctions of (optionally boosted) term queries are supported; see {@link #supports(Query)}.</p>
+ */
+public class MultiSimilaritySearcher {
+  private final IndexReader reader;
+  private final Similarity[] similarities;
+
+  public MultiSimilaritySearcher(IndexReader reader, List<Similarity> similarities) {
+    this.reader = reader;
+    this.similarities = similarities.toArray(new Similarity[0]);
+  }
+
+  public int size() {
+    return similarities.length;
+  }
+
+  // A query term, along with the boost it carries.
+  private record Clause(Term term, float boost) {}
+
+  /**
+   * Returns whether a query can be evaluated in a single pass over multiple similarities, i.e., whether it is a
+   * (possibly boosted) term query, or a pure disjunction of such queries.
+   *
+   * @param query query
+   * @return whether the query is supported
+   */
+  public static boolean supports(Query query) {
+    return clauses(query) != null;
+  }
+
+  private static List<Clause> clauses(Query query) {
+    List<Clause> clauses = new ArrayList<>();
+    if (query instanceof BooleanQuery bq) {
+      if (bq.getMinimumNumberShouldMatch() > 0) {
+        return null;
+      }
+      for (BooleanClause clause : bq.clauses()) {
+        if (clause.getOccur() != BooleanClause.Occur.SHOULD || !addTermClause(clause.getQuery(), clauses)) {
+          return null;
+        }
+      }
+    } else if (!addTermClause(query, clauses)) {
+      return null;
+    }
+    return clauses;
+  }
+
+  private static boolean addTermClause(Query query, List<Clause> clauses) {
+    float boost = 1.0f;
+    while (query instanceof BoostQuery boostQuery) {
+      boost *= boostQuery.getBoost();
+      query = boostQuery.getQuery();
+    }
+    if (query instanceof TermQuery termQuery) {
+      clauses.add(new Clause(termQuery.getTerm(), boost));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Searches with all similarities.
+   *
+   * @param query query; must be supported
+   * @param k number of hits
+   * @param breakTiesByDocid whether to break score ties by external docid, rather than by internal Lucene docid
+   * @return top-k results for each similarity, in the order in which the similarities were given
+   * @throws IOException if error encountered during search
+   */
+  public TopDocs[] search(Query query, int k, boolean breakTiesByDocid) throws IOException {
+    // Rewrite first, so that duplicate clauses are merged in the same way as when searching normally.
+    IndexSearcher searcher = new IndexSearcher(reader);
+    List<Clause> clauses = clauses(searcher.rewrite(query));
+    if (clauses == null) {
+      throw new IllegalArgumentException("Unsupported query: " + query);
+    }
+
+    // Look up statistics once per term, and create one scorer per (term, similarity) pair.
+    List<Clause> matchingClauses = new ArrayList<>();
+    List<Similarity.SimScorer[]> scorers = new ArrayList<>();
+    for (Clause clause : clauses) {
+      TermStates states = TermStates.build(searcher, clause.term(), true);
+      CollectionStatistics collectionStats = searcher.collectionStatistics(clause.term().field());
+      if (states.docFreq() == 0 || collectionStats == null) {
+        continue;
+      }
+      TermStatistics termStats = searcher.termStatistics(clause.term(), states.docFreq(), states.totalTermFreq());
+      Similarity.SimScorer[] termScorers = new Similarity.SimScorer[similarities.length];
+      for (int s = 0; s < similarities.length; s++) {
+        termScorers[s] = similarities[s].scorer(clause.boost(), collectionStats, termStats);
+      }
+      matchingClauses.add(clause);
+      scorers.add(termScorers);
+    }
+
+    List<HitQueue> queues = new ArrayList<>();
+    for (int s = 0; s < similarities.length; s++) {
+      queues.add(new HitQueue(k, breakTiesByDocid));
+    }
+    long totalHits = 0;
+    for (LeafReaderContext context : reader.leaves()) {
+      totalHits += searchLeaf(context, matchingClauses, scorers, queues, breakTiesByDocid);
+    }
+
+    TopDocs[] results = new TopDocs[similarities.length];
+    for (int s = 0; s < similarities.length; s++) {
+      HitQueue queue = queues.get(s);
+      ScoreDoc[] scoreDocs = new ScoreDoc[queue.size()];
+      for (int i = scoreDocs.length - 1; i >= 0; i--) {
+        Hit hit = queue.pop();
+        scoreDocs[i] = new ScoreDoc(hit.doc, hit.score);
+      }
+      results[s] = new TopDocs(new TotalHits(totalHits, TotalHits.Relation.EQUAL_TO), scoreDocs);
+    }
+    return results;
+  }
+
+  // Document-at-a-time over the postings of the query terms in a segment; returns the number of matching documents.
+  private long searchLeaf(LeafReaderContext context, List<Clause> clauses, List<Similarity.SimScorer[]> scorers,
+                          List<HitQueue> queues, boolean breakTiesByDocid) throws IOException {
+    int n = 0;
+    PostingsEnum[] postings = new PostingsEnum[clauses.size()];
+    Similarity.SimScorer[][] termScorers = new Similarity.SimScorer[clauses.size()][];
+    // Norms are read once per document and field, however many query terms are in that field.
+    int[] fieldOf = new int[clauses.size()];
+    Map<String, Integer> fields = new HashMap<>();
+    List<NumericDocValues> norms = new ArrayList<>();
+    for (int i = 0; i < clauses.size(); i++) {
+      PostingsEnum pe = context.reader().postings(clauses.get(i).term(), PostingsEnum.FREQS);
+      if (pe == null) {
+        continue;
+      }
+      String field = clauses.get(i).term().field();
+      Integer f = fields.get(field);
+      if (f == null) {
+        f = norms.size();
+        fields.put(field, f);
+        norms.add(context.reader().getNormValues(field));
+      }
+      postings[n] = pe;
+      termScorers[n] = scorers.get(i);
+      fieldOf[n] = f;
+      n++;
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    // A min-heap of the term cursors, by current docid.
+    int[] heap = new int[n];
+    for (int i = 0; i < n; i++) {
+      postings[i].nextDoc();
+      heap[i] = i;
+    }
+    int heapSize = n;
+    for (int i = n / 2 - 1; i >= 0; i--) {
+      siftDown(heap, heapSize, i, postings);
+    }
+
+    BinaryDocValues ids = breakTiesByDocid ? DocValues.getBinary(context.reader(), Constants.ID) : null;
+    int docBase = context.docBase;
+    double[] acc = new double[similarities.length];
+    long[] normValues = new long[norms.size()];
+    int[] normDoc = new int[norms.size()];
+    Arrays.fill(normDoc, -1);
+    long matches = 0;
+
+    while (heapSize > 0) {
+      int doc = postings[heap[0]].docID();
+      if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+        break;
+      }
+      Arrays.fill(acc, 0.0);
+      while (heapSize > 0 && postings[heap[0]].docID() == doc) {
+        int t = heap[0];
+        int f = fieldOf[t];
+        if (normDoc[f] != doc) {
+          NumericDocValues fieldNorms = norms.get(f);
+          normValues[f] = fieldNorms == null ? 1L : (fieldNorms.advanceExact(doc) ? fieldNorms.longValue() : 0L);
+          normDoc[f] = doc;
+        }
+        float freq = postings[t].freq();
+        Similarity.SimScorer[] ss = termScorers[t];
+        for (int s = 0; s < ss.length; s++) {
+          acc[s] += ss[s].score(freq, normValues[f]);
+        }
+        postings[t].nextDoc();
+        siftDown(heap, heapSize, 0, postings);
+      }
+      matches++;
+
+      BytesRef id = null;
+      boolean fetchedId = false;
+      for (int s = 0; s < acc.length; s++) {
+        HitQueue queue = queues.get(s);
+        float score = (float) acc[s];
+        if (queue.size() == queue.k) {
+          Hit top = queue.top();
+          if (score < top.score || (score == top.score && !breakTiesByDocid)) {
+            continue;
+          }
+        }
+        if (breakTiesByDocid && !fetchedId) {
+          id = ids.advanceExact(doc) ? BytesRef.deepCopyOf(ids.binaryValue()) : null;
+          fetchedId = true;
+        }
+        queue.offer(docBase + doc, score, id);
+      }
+    }
+    return matches;
+  }
+
+  private static void siftDown(int[] heap, int size, int i, PostingsEnum[] postings) {
+    int node = heap[i];
+    int doc = postings[node].docID();
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && postings[heap[child + 1]].docID() < postings[heap[child]].docID()) {
+        child++;
+      }
+      if (postings[heap[child]].docID() >= doc) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = node;
+  }
+
+  private static final class Hit {
+    int doc;
+    float score;
+    BytesRef id;
+
+    Hit(int doc, float score, BytesRef id) {
+      this.doc = doc;
+      this.score = score;
+      this.id = id;
+    }
+  }
+
+  // Keeps the k best hits; the "least" hit at the top is the one to be displaced first.
+  private static final class HitQueue extends PriorityQueue<Hit> {
+    final int k;
+    final boolean breakTiesByDocid;
+
+    HitQueue(int k, boolean breakTiesByDocid) {
+      super(k);
+      this.k = k;
+      this.breakTiesByDocid = breakTiesByDocid;
+    }
+
+    void offer(int doc, float score, BytesRef id) {
+      if (size() < k) {
+        add(new Hit(doc, score, id));
+      } else {
+        Hit candidate = new Hit(doc, score, id);
+        if (lessThan(top(), candidate)) {
+          updateTop(candidate);
+        }
+      }
+    }
+
+    @Override
+    protected boolean lessThan(Hit a, Hit b) {
+      if (a.score != b.score) {
+        return a.score < b.score;
+      }
+      if (breakTiesByDocid) {
+        // Ascending external docid, with documents without one first, as with SortField.Type.STRING_VAL.
+        if (a.id == null || b.id == null) {
+          if (a.id != b.id) {
+            return a.id != null;
+          }
+        } else {
+          int c = a.id.compareTo(b.id);
+          if (c != 0) {
+            return c > 0;
+          }
+        }
+      }
+      return a.doc > b.doc;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.codecs.AnseriniLucene99BinaryQuantizedVectorsFormat;
+import io.anserini.index.codecs.AnseriniLucene99BinaryQuantizedVectorsFormat.AnseriniLucene99BinaryQuantizedVectorReader;
+import io.anserini.index.codecs.AnseriniLucene99ScalarQuantizedVectorsFormat;
+import org.apache.lucene.codecs.KnnVectorsReader;
+import org.apache.lucene.codecs.perfield.PerFieldKnnVectorsFormat;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.VectorEncoding;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopKnnCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Search of a quantized flat vector index in two stages: the quantized vectors (int8 or 1-bit) are scanned first
+ * to find an oversampled set of candidates, which are then rescored against the float vectors, which quantized
+ * indexes also keep. Scanning quantized vectors reads much less, but their scores are only approximate, so some of the
+ * nearest documents may be missed unless enough candidates are rescored.</p>
+ *
+ * <p>Rescored scores are exactly the same as from searching the float vectors, and hits are ranked in the same way as
+ * {@link FlatDenseSearcher#search(float[], int)}, so that with enough candidates, results are the same as searching a
+ * flat index of the float vectors.</p>
+ */
+public final class QuantizedVectorRescorer {
+  public static final float DEFAULT_OVERSAMPLE = 4.0f;
+
+  private final IndexReader reader;
+  private final String field;
+  private final int bits;
+  private final float oversample;
+
+  /**
+   * Creates a rescorer.
+   *
+   * @param reader index reader
+   * @param field vector field, which must be quantized into the given number of bits
+   * @param bits number of bits of the quantized vectors to scan, either 8 or 1
+   * @param oversample number of candidates to rescore, as a multiple of the number of nearest documents to find
+   */
+  public QuantizedVectorRescorer(IndexReader reader, String field, int bits, float oversample) {
+    if (bits != 8 && bits != 1) {
+      throw new IllegalArgumentException("Quantized vectors are either 8 or 1 bits!");
+    }
+    if (!supports(reader, field, bits)) {
+      throw new IllegalArgumentException(
+          String.format("Field \"%s\" is not a flat index of vectors quantized into %d bits.", field, bits));
+    }
+    if (!(oversample >= 1)) {
+      throw new IllegalArgumentException("Oversample must be at least 1!");
+    }
+    this.reader = reader;
+    this.field = field;
+    this.bits = bits;
+    this.oversample = oversample;
+  }
+
+  /**
+   * Checks whether a field can be searched by this rescorer, i.e., whether it's quantized into the given number of
+   * bits in every segment. Vectors indexed with {@link AnseriniLucene99ScalarQuantizedVectorsFormat} are quantized
+   * into 8 bits, and vectors indexed with {@link AnseriniLucene99BinaryQuantizedVectorsFormat} into both 8 and 1
+   * bits.
+   *
+   * @param reader index reader
+   * @param field vector field
+   * @param bits number of bits
+   * @return whether the field can be searched by this rescorer
+   */
+  public static boolean supports(IndexReader reader, String field, int bits) {
+    Set<String> formats = bits == 1 ? Set.of(AnseriniLucene99BinaryQuantizedVectorsFormat.NAME) :
+        Set.of(AnseriniLucene99BinaryQuantizedVectorsFormat.NAME, AnseriniLucene99ScalarQuantizedVectorsFormat.NAME);
+    for (LeafReaderContext context : reader.leaves()) {
+      FieldInfo info = context.reader().getFieldInfos().fieldInfo(field);
+      if (info == null) {
+        continue;
+      }
+      String format = info.getAttribute(PerFieldKnnVectorsFormat.PER_FIELD_FORMAT_KEY);
+      if (info.getVectorEncoding() != VectorEncoding.FLOAT32 || !formats.contains(format)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Searches for the nearest documents of a query. As with {@link org.apache.lucene.search.KnnFloatVectorQuery}, the
+   * nearest {@code numCandidates} documents are found first, here by rescoring the nearest
+   * {@code numCandidates * oversample} documents by their quantized vectors in each segment, and then the top
+   * {@code k} of them are ranked by score, breaking ties by docid, as
+   * {@link FlatDenseSearcher#BREAK_SCORE_TIES_BY_DOCID}.
+   *
+   * @param query query vector
+   * @param numCandidates number of nearest documents to find, i.e., the k of the KNN query
+   * @param k number of hits
+   * @return hits
+   * @throws IOException if error encountered during search
+   */
+  public TopDocs search(float[] query, int numCandidates, int k) throws IOException {
+    long candidates = (long) Math.ceil((double) numCandidates * oversample);
+
+    List<ScoreDoc> rescored = new ArrayList<>();
+    for (LeafReaderContext context : reader.leaves()) {
+      LeafReader leaf = context.reader();
+      FieldInfo info = leaf.getFieldInfos().fieldInfo(field);
+      if (info == null || leaf.maxDoc() == 0) {
+        continue;
+      }
+
+      TopKnnCollector collector = new TopKnnCollector((int) Math.min(candidates, leaf.maxDoc()), Integer.MAX_VALUE);
+      if (bits == 8) {
+        leaf.searchNearestVectors(field, query, collector, leaf.getLiveDocs());
+      } else {
+        binaryReader(leaf).searchBinary(field, query, collector, leaf.getLiveDocs());
+      }
+
+      // Candidates are rescored in order of docid, as the float vectors are read forward.
+      ScoreDoc[] scoreDocs = collector.topDocs().scoreDocs;
+      Arrays.sort(scoreDocs, Comparator.comparingInt(d -> d.doc));
+      FloatVectorValues vectors = leaf.getFloatVectorValues(field);
+      VectorSimilarityFunction similarity = info.getVectorSimilarityFunction();
+      for (ScoreDoc scoreDoc : scoreDocs) {
+        vectors.advance(scoreDoc.doc);
+        rescored.add(new ScoreDoc(context.docBase + scoreDoc.doc, similarity.compare(query, vectors.vectorValue())));
+      }
+    }
+
+    return FlatVectorBatchScorer.rank(reader, rescored, numCandidates, k);
+  }
+
+  private AnseriniLucene99BinaryQuantizedVectorReader binaryReader(LeafReader leaf) {
+    if (FilterLeafReader.unwrap(leaf) instanceof CodecReader codecReader &&
+        codecReader.getVectorReader() instanceof PerFieldKnnVectorsFormat.FieldsReader fieldsReader) {
+      KnnVectorsReader fieldReader = fieldsReader.getFieldReader(field);
+      if (fieldReader instanceof AnseriniLucene99BinaryQuantizedVectorReader binaryReader) {
+        return binaryReader;
+      }
+    }
+    throw new IllegalArgumentException(String.format("Field \"%s\" has no vectors quantized into 1 bit.", field));
+  }
+}
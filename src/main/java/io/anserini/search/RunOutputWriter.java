@@ -30,6 +30,7 @@ import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -45,7 +46,19 @@ public class RunOutputWriter<K extends Comparable<K>> implements Closeable {
   private final String exclude;
 
   public RunOutputWriter(String output, String format, String runtag, String outputRerankerRequests, String exclude) throws IOException {
-    this.out = new PrintWriter(Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8));
+    this(output, format, runtag, outputRerankerRequests, exclude, false);
+  }
+
+  /**
+   * Creates a writer that, if {@code append} is set, adds to the end of an existing run (e.g., when resuming a run
+   * with {@link StreamingRunOutputWriter#resume}) instead of overwriting it.
+   */
+  public RunOutputWriter(String output, String format, String runtag, String outputRerankerRequests, String exclude,
+                         boolean append) throws IOException {
+    this.out = append ?
+        new PrintWriter(Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) :
+        new PrintWriter(Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8));
     this.format = format;
     this.runtag = runtag;
     this.outputRerankerRequests = outputRerankerRequests == null ? null : new PrintWriter(Files.newBufferedWriter(Paths.get(outputRerankerRequests), StandardCharsets.UTF_8));
@@ -105,6 +118,16 @@ public class RunOutputWriter<K extends Comparable<K>> implements Closeable {
     }
   }
 
+  /**
+   * Pushes the topics written so far out to the underlying files.
+   */
+  public void flush() {
+    out.flush();
+    if (outputRerankerRequests != null) {
+      outputRerankerRequests.flush();
+    }
+  }
+
   @Override
   public void close() throws IOException {
     out.close();
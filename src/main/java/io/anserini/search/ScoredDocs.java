@@ -17,14 +17,12 @@
 package io.anserini.search;
 
 import io.anserini.index.Constants;
+import io.anserini.index.IndexReaderUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.StoredFields;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 
 import java.io.IOException;
@@ -47,6 +45,20 @@ public class ScoredDocs {
   public float[] scores;
 
   public static ScoredDocs fromTopDocs(TopDocs rs, IndexSearcher searcher) {
+    return fromTopDocs(rs, searcher, true);
+  }
+
+  /**
+   * Creates an instance of this class from Lucene {@link TopDocs}. Unless the Lucene documents are needed (e.g., by a
+   * reranker that reads their fields, or for writing out reranker requests), the docids are read from doc values,
+   * which is much cheaper than fetching the stored documents; {@link #lucene_documents} then holds {@code null}s.
+   *
+   * @param rs Lucene {@link TopDocs}
+   * @param searcher {@link IndexSearcher} used for accessing documents from the index
+   * @param loadDocuments whether to fetch the Lucene documents
+   * @return scored docs
+   */
+  public static ScoredDocs fromTopDocs(TopDocs rs, IndexSearcher searcher, boolean loadDocuments) {
     ScoredDocs scoredDocs = new ScoredDocs();
     scoredDocs.docids = new String[rs.scoreDocs.length];
     scoredDocs.lucene_documents = new Document[rs.scoreDocs.length];
@@ -54,16 +66,27 @@ public class ScoredDocs {
     scoredDocs.scores = new float[rs.scoreDocs.length];
 
     for (int i=0; i<rs.scoreDocs.length; i++) {
-      try {
-        scoredDocs.lucene_documents[i] = searcher.storedFields().document(rs.scoreDocs[i].doc);
-        scoredDocs.docids[i] = scoredDocs.lucene_documents[i].get(Constants.ID);
-      } catch (NullPointerException | IOException e) {
-        throw new RuntimeException(String.format("Cannot find lucene document %d.", rs.scoreDocs[i].doc));
-      }
       scoredDocs.scores[i] = rs.scoreDocs[i].score;
       scoredDocs.lucene_docids[i] = rs.scoreDocs[i].doc;
     }
 
+    if (loadDocuments) {
+      for (int i=0; i<rs.scoreDocs.length; i++) {
+        try {
+          scoredDocs.lucene_documents[i] = searcher.storedFields().document(rs.scoreDocs[i].doc);
+          scoredDocs.docids[i] = scoredDocs.lucene_documents[i].get(Constants.ID);
+        } catch (NullPointerException | IOException e) {
+          throw new RuntimeException(String.format("Cannot find lucene document %d.", rs.scoreDocs[i].doc));
+        }
+      }
+    } else {
+      try {
+        scoredDocs.docids = IndexReaderUtils.convertLuceneDocidsToDocids(searcher.getIndexReader(), scoredDocs.lucene_docids);
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot read docids of lucene documents.", e);
+      }
+    }
+
     return scoredDocs;
   }
 
@@ -76,19 +99,18 @@ public class ScoredDocs {
     List<Float> score = new ArrayList<>();
 
     try {
-      IndexSearcher searcher = new IndexSearcher(reader);
-      StoredFields storedFields = searcher.storedFields();
+      StoredFields storedFields = reader.storedFields();
       for (Map.Entry<String, Integer> qrelsDocScorePair : qrels.entrySet()) {
         String externalDocid = qrelsDocScorePair.getKey();
-        Query q = new TermQuery(new Term(Constants.ID, externalDocid));
-        TopDocs rs = searcher.search(q, 1);
+        int lucene_docid = IndexReaderUtils.convertDocidToLuceneDocid(reader, externalDocid);
 
         // If for whatever reason we can't find the doc, then skip.
-        if (rs.totalHits.value > 0) {
-          lucene_documents.add(storedFields.document(rs.scoreDocs[0].doc));
-          lucene_docids.add(rs.scoreDocs[0].doc);
+        if (lucene_docid >= 0) {
+          Document lucene_document = storedFields.document(lucene_docid);
+          lucene_documents.add(lucene_document);
+          lucene_docids.add(lucene_docid);
           score.add(Float.valueOf(qrelsDocScorePair.getValue().floatValue()));
-          docids.add(storedFields.document(rs.scoreDocs[0].doc).get(Constants.ID));
+          docids.add(lucene_document.get(Constants.ID));
         }
       }
     } catch (IOException | ArrayIndexOutOfBoundsException | NullPointerException e) {
@@ -16,8 +16,9 @@
 
 package io.anserini.search;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.anserini.analysis.AnalyzerMap;
 import io.anserini.analysis.AnalyzerUtils;
 import io.anserini.analysis.AutoCompositeAnalyzer;
@@ -26,9 +27,13 @@ import io.anserini.analysis.DefaultEnglishAnalyzer;
 import io.anserini.analysis.HuggingFaceTokenizerAnalyzer;
 import io.anserini.analysis.TweetAnalyzer;
 import io.anserini.collection.DocumentCollection;
+import io.anserini.encoder.OnnxEncoder;
 import io.anserini.encoder.sparse.SparseEncoder;
 import io.anserini.eval.ExcludeDocs;
+import io.anserini.eval.RelevanceJudgments;
+import io.anserini.eval.TrecEval;
 import io.anserini.index.Constants;
+import io.anserini.index.DocidTable;
 import io.anserini.index.IndexReaderUtils;
 import io.anserini.index.generator.TweetGenerator;
 import io.anserini.index.generator.WashingtonPostGenerator;
@@ -40,6 +45,8 @@ import io.anserini.rerank.lib.NewsBackgroundLinkingReranker;
 import io.anserini.rerank.lib.Rm3Reranker;
 import io.anserini.rerank.lib.RocchioReranker;
 import io.anserini.rerank.lib.ScoreTiesAdjusterReranker;
+import io.anserini.search.query.BagOfWordsQueryGenerator;
+import io.anserini.search.query.ImpactQuery;
 import io.anserini.search.query.QueryGenerator;
 import io.anserini.search.query.QuerySideBm25QueryGenerator;
 import io.anserini.search.query.SdmQueryGenerator;
@@ -87,6 +94,7 @@ import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 import org.apache.lucene.search.similarities.LambdaDF;
 import org.apache.lucene.search.similarities.NormalizationH2;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.kohsuke.args4j.CmdLineException;
@@ -110,7 +118,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
@@ -132,6 +142,11 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
       new Sort(SortField.FIELD_SCORE,
           new SortField(TweetGenerator.TweetField.ID_LONG.name, SortField.Type.LONG, true));
 
+  /**
+   * Suffix of the latency report written next to each run with {@code -latencyReport}.
+   */
+  public static final String LATENCY_REPORT_SUFFIX = ".latency.json";
+
   private static final Logger LOG = LogManager.getLogger(SearchCollection.class);
 
   public static class Args extends BaseSearchArgs {
@@ -153,6 +168,10 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     @Option(name = "-outputRerankerRequests", metaVar = "[file]", usage = "Output file for reranking")
     public String outputRerankerRequests;
 
+    @Option(name = "-latencyReport",
+        usage = "Boolean switch to write a JSON report of the per-query latency of each search stage next to each run.")
+    public boolean latencyReport = false;
+
     @Option(name = "-topicReader", usage = "TopicReader to use.")
     public String topicReader;
 
@@ -167,6 +186,16 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     @Option(name = "-parallelism", metaVar = "[int]", usage = "Number of threads to use for each individual parameter configuration.")
     public int parallelism = 1;
 
+    @Option(name = "-singlePassSweep",
+        usage = "Retrieve with all ranking model parameter settings (e.g., every -bm25.k1 and -bm25.b pair) in a " +
+            "single pass over the postings of each query, with the same results as separate runs.")
+    public boolean singlePassSweep = false;
+
+    @Option(name = "-firstStageCache", metaVar = "[MB]",
+        usage = "Memory budget for first-stage results shared by all reranker cascades on the same ranking model " +
+            "(e.g., when sweeping RM3 parameters); 0 to disable.")
+    public int firstStageCacheMB = 1024;
+
     @Option(name = "-language", usage = "Analyzer Language")
     public String language = "en";
 
@@ -189,6 +218,10 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     @Option(name = "-skipExists", usage = "When enabled, will skip if the run file exists")
     public Boolean skipExists = false;
 
+    @Option(name = "-resume", forbids = {"-outputRerankerRequests"},
+        usage = "Resume runs that did not finish, searching only the topics that are not already in the run files.")
+    public boolean resume = false;
+
     @Option(name = "-searchTweets", usage = "Whether the search is against a tweet " +
         "index created by IndexCollection -collection TweetCollection")
     public Boolean searchTweets = false;
@@ -232,15 +265,42 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     @Option(name = "-rf.qrels", metaVar = "[file]", usage = "qrels file used for relevance feedback")
     public String rf_qrels = null;
 
+    @Option(name = "-docidTable",
+        usage = "Builds the docid table of the index if it doesn't have one, for fast lookups of Lucene docids by docid.")
+    public boolean docidTable = false;
+
     @Option(name = "-runtag", metaVar = "[tag]", usage = "runtag")
     public String runtag = "Anserini";
 
     @Option(name = "-format", metaVar = "[output format]", usage = "Output format, default \"trec\", alternative \"msmarco\".")
     public String format = "trec";
 
+    @Option(name = "-eval.qrels", metaVar = "[file]", depends = {"-eval.metrics"},
+        usage = "qrels file (or symbol) against which to evaluate runs in-process once they are written")
+    public String evalQrels = null;
+
+    @Option(name = "-eval.metrics", metaVar = "[measures]", handler = StringArrayOptionHandler.class,
+        depends = {"-eval.qrels"}, usage = "trec_eval measures to compute over all queries, e.g., map ndcg_cut.10 recall.1000")
+    public String[] evalMetrics = new String[]{};
+
     @Option(name = "-encoder", usage = "Query encoder for supervised sparse retrieval tasks")
     public String encoder = null;
 
+    @Option(name = "-encoder.cache", depends = {"-encoder"},
+        usage = "Cache query encodings in memory and on disk, so that the same queries aren't encoded again.")
+    public boolean encoderCache = false;
+
+    @Option(name = "-encoder.cacheSize", metaVar = "[number]", usage = "Number of query encodings to cache in memory.")
+    public int encoderCacheSize = 10000;
+
+    @Option(name = "-encoder.threads", metaVar = "[number]", depends = {"-encoder"},
+        usage = "Number of threads the encoder uses within each operation of the model (0 for the ONNX Runtime default).")
+    public int encoderThreads = 0;
+
+    @Option(name = "-encoder.batchSize", metaVar = "[number]", depends = {"-encoder"},
+        usage = "Number of queries to encode at once, for encoders that can encode queries in batch.")
+    public int encoderBatchSize = OnnxEncoder.DEFAULT_BATCH_SIZE;
+
     // ----------------------------------------------------------
     // ranking model: impact scores (basically, just sum of tf's)
     // ----------------------------------------------------------
@@ -250,6 +310,11 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
         usage = "ranking model: BM25")
     public boolean impact = false;
 
+    @Option(name = "-impact.threshold", metaVar = "[factor]", depends = {"-impact"},
+        usage = "impact: factor (at least 1) by which to inflate the top-k score threshold for dynamic pruning; " +
+            "values above 1 trade exactness for speed")
+    public float impactThreshold = 1.0f;
+
     // -------------------
     // ranking model: bm25
     // -------------------
@@ -366,6 +431,10 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     @Option(name = "-sdm.uw", metaVar = "[value]", usage = "unordered window weight in sdm")
     public float sdm_uw = 0.05f;
 
+    @Option(name = "-sdm.spans", usage = "boolean switch to score SDM with span queries rather than a single pass over " +
+        "positions (and the bigrams of the contents, if indexed)")
+    public boolean sdm_spans = false;
+
     // --------------------------
     // query expansion model: rm3
     // --------------------------
@@ -676,15 +745,20 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     private final QueryGenerator generator;
     private final SdmQueryGenerator sdmQueryGenerator;
     private final QuerySideBm25QueryGenerator querySideBm25QueryGenerator;
+    private final String similarityTag;
     private final Args args;
+    // Latencies of searching with this ranking setup.
+    private final SearchLatencies latencies = new SearchLatencies();
 
     public Searcher(IndexSearcher searcher, TaggedSimilarity taggedSimilarity, Args args) {
       super(args);
+      this.similarityTag = taggedSimilarity.getTag();
 
       setIndexSearcher(searcher);
       getIndexSearcher().setSimilarity(taggedSimilarity.getSimilarity());
 
-      this.sdmQueryGenerator = new SdmQueryGenerator(((Args) args).sdm_tw, ((Args) args).sdm_ow, ((Args) args).sdm_uw);
+      this.sdmQueryGenerator = new SdmQueryGenerator(((Args) args).sdm_tw, ((Args) args).sdm_ow, ((Args) args).sdm_uw,
+          ((Args) args).sdm_spans, Constants.CONTENTS_BIGRAMS);
       this.querySideBm25QueryGenerator = new QuerySideBm25QueryGenerator(Float.parseFloat(args.bm25_k1[0]), Float.parseFloat(args.bm25_b[0]), reader);
 
       try {
@@ -696,16 +770,49 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
       this.args = (Args) args;
     }
 
+    /**
+     * Returns whether queries given as (token, weight) pairs can be searched directly, yielding exactly the same
+     * results as searching the string in which each token is repeated as many times as its weight.
+     */
+    public boolean canSearchWeights() {
+      return analyzer instanceof WhitespaceAnalyzer && generator instanceof BagOfWordsQueryGenerator &&
+          !args.sdm && !args.bm25q && args.fields.length == 0 && !args.searchTweets && !args.backgroundLinking;
+    }
+
+    public ScoredDocs search(T qid, Map<String, Integer> queryWeights,
+                             RerankerCascade<T> cascade,
+                             ScoredDocs queryQrels,
+                             boolean hasRelDocs) throws IOException {
+      final long start = System.nanoTime();
+      Query query;
+      if (args.impactThreshold != 1.0f) {
+        Map<String, Float> floatWeights = new HashMap<>();
+        queryWeights.forEach((token, weight) -> floatWeights.put(token, (float) weight));
+        query = new ImpactQuery(Constants.CONTENTS, floatWeights, args.impactThreshold);
+      } else {
+        query = ((BagOfWordsQueryGenerator) generator).buildImpactQuery(Constants.CONTENTS, queryWeights);
+      }
+      RerankerContext<T> context = new RerankerContext<>(getIndexSearcher(), qid, query, queryWeights, null, args);
+      latencies.recordSince(SearchLatencies.Stage.QUERY_GENERATION, start);
+
+      return search(query, context, cascade, queryQrels, hasRelDocs);
+    }
+
     public ScoredDocs search(T qid, String queryString,
                              RerankerCascade<T> cascade,
                              ScoredDocs queryQrels,
                              boolean hasRelDocs) throws IOException {
+      final long start = System.nanoTime();
       Query query;
 
       if (args.sdm) {
         query = sdmQueryGenerator.buildQuery(Constants.CONTENTS, analyzer, queryString);
       } else if (args.bm25q) {
         query = querySideBm25QueryGenerator.buildQuery(Constants.CONTENTS, analyzer, queryString);
+      } else if (args.impactThreshold != 1.0f && args.fields.length == 0 && generator instanceof BagOfWordsQueryGenerator) {
+        Map<String, Float> queryWeights = new HashMap<>();
+        AnalyzerUtils.analyze(analyzer, queryString).forEach(token -> queryWeights.merge(token, 1.0f, Float::sum));
+        query = new ImpactQuery(Constants.CONTENTS, queryWeights, args.impactThreshold);
       } else {
         // If fieldsMap isn't null, then it means that the -fields option is specified. In this case, we search across
         // multiple fields with the associated boosts.
@@ -713,37 +820,81 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
             generator.buildQuery(args.fieldsMap, analyzer, queryString);
       }
 
+      List<String> queryTokens = AnalyzerUtils.analyze(analyzer, queryString);
+      RerankerContext<T> context = new RerankerContext<>(getIndexSearcher(), qid, query, null, queryString, queryTokens, null, args);
+      latencies.recordSince(SearchLatencies.Stage.QUERY_GENERATION, start);
+
+      return search(query, context, cascade, queryQrels, hasRelDocs);
+    }
+
+    private ScoredDocs search(Query query,
+                              RerankerContext<T> context,
+                              RerankerCascade<T> cascade,
+                              ScoredDocs queryQrels,
+                              boolean hasRelDocs) throws IOException {
+      // We only need the Lucene documents (rather than just their docids) for writing out reranker requests.
+      context.setNeedsLuceneDocuments(args.outputRerankerRequests != null);
+
       TopDocs rs = new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[]{});
       if (!isRerank || (args.rerankcutoff > 0 && args.rf_qrels == null) || (args.rf_qrels != null && !hasRelDocs)) {
-        if (args.arbitraryScoreTieBreak) {// Figure out how to break the scoring ties.
-          rs = getIndexSearcher().search(query, (isRerank && args.rf_qrels == null) ? args.rerankcutoff : args.hits);
+        int k = (isRerank && args.rf_qrels == null) ? args.rerankcutoff : args.hits;
+        final long firstStageStart = System.nanoTime();
+        if (firstStageCache != null) {
+          rs = firstStageCache.get(similarityTag, query, k, () -> firstStage(query, k));
         } else {
-          rs = getIndexSearcher().search(query, (isRerank && args.rf_qrels == null) ? args.rerankcutoff : args.hits, BREAK_SCORE_TIES_BY_DOCID, true);
+          rs = firstStage(query, k);
         }
+        latencies.recordSince(SearchLatencies.Stage.FIRST_STAGE, firstStageStart);
       }
 
-      List<String> queryTokens = AnalyzerUtils.analyze(analyzer, queryString);
-      RerankerContext<T> context = new RerankerContext<>(getIndexSearcher(), qid, query, null, queryString, queryTokens, null, args);
+      long start = System.nanoTime();
       ScoredDocs scoredFbDocs;
       if (isRerank && args.rf_qrels != null) {
         if (hasRelDocs) {
           scoredFbDocs = queryQrels;
         } else {//if no relevant documents, only perform score based tie breaking next
-          LOG.info("No relevant documents for {}", qid.toString());
-          scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher());
+          LOG.info("No relevant documents for {}", context.getQueryId().toString());
+          scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher(), context.needsLuceneDocuments());
           cascade = new RerankerCascade<T>();
           cascade.add(new ScoreTiesAdjusterReranker<T>());
         }
       } else {
-        scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher());
+        scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher(), context.needsLuceneDocuments());
       }
+      start = latencies.recordSince(SearchLatencies.Stage.HITS, start);
 
-      return cascade.run(scoredFbDocs, context);
+      ScoredDocs docs = cascade.run(scoredFbDocs, context);
+      latencies.recordSince(SearchLatencies.Stage.RERANK, start);
+      return docs;
+    }
+
+    private TopDocs firstStage(Query query, int k) throws IOException {
+      if (multiSimilaritySearcher != null && MultiSimilaritySearcher.supports(query)) {
+        // Retrieve with every similarity at once; the other configurations pick up their results from the cache.
+        TopDocs[] results = multiSimilaritySearcher.search(query, k, !args.arbitraryScoreTieBreak);
+        TopDocs rs = null;
+        for (int i = 0; i < results.length; i++) {
+          String tag = similarities.get(i).getTag();
+          if (tag.equals(similarityTag)) {
+            rs = results[i];
+          } else {
+            firstStageCache.put(tag, query, k, results[i]);
+          }
+        }
+        return rs;
+      }
+
+      if (args.arbitraryScoreTieBreak) {// Figure out how to break the scoring ties.
+        return getIndexSearcher().search(query, k);
+      } else {
+        return getIndexSearcher().search(query, k, BREAK_SCORE_TIES_BY_DOCID, true);
+      }
     }
 
     public ScoredDocs searchBackgroundLinking(Integer qid,
                                               String docid,
                                               RerankerCascade<Integer> cascade) throws IOException {
+      long start = System.nanoTime();
       // Extract a list of analyzed terms from the document to compose a query.
       List<String> terms = BackgroundLinkingTopicReader.extractTerms(reader, docid, args.backgroundLinkingK, analyzer);
       // Since the terms are already analyzed, we just join them together and use the StandardQueryParser.
@@ -763,6 +914,7 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
       builder.add(filter, BooleanClause.Occur.MUST_NOT);
       builder.add(docQuery, BooleanClause.Occur.MUST);
       Query query = builder.build();
+      start = latencies.recordSince(SearchLatencies.Stage.QUERY_GENERATION, start);
 
       // Search using constructed query.
       TopDocs rs;
@@ -772,15 +924,20 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
         rs = getIndexSearcher().search(query, (isRerank && args.rf_qrels == null) ? args.rerankcutoff :
             args.hits, BREAK_SCORE_TIES_BY_DOCID, true);
       }
+      start = latencies.recordSince(SearchLatencies.Stage.FIRST_STAGE, start);
 
       RerankerContext<Integer> context = new RerankerContext<>(getIndexSearcher(), qid, query, docid,
           StringUtils.join(", ", terms), terms, null, args);
+      ScoredDocs hits = ScoredDocs.fromTopDocs(rs, getIndexSearcher());
+      start = latencies.recordSince(SearchLatencies.Stage.HITS, start);
 
       // Run the existing cascade.
-      ScoredDocs docs = cascade.run(ScoredDocs.fromTopDocs(rs, getIndexSearcher()), context);
+      ScoredDocs docs = cascade.run(hits, context);
 
       // Perform post-processing (e.g., date filter, dedupping, etc.) as a final step.
-      return new NewsBackgroundLinkingReranker(analyzer, collectionClass).rerank(docs, context);
+      docs = new NewsBackgroundLinkingReranker(analyzer, collectionClass).rerank(docs, context);
+      latencies.recordSince(SearchLatencies.Stage.RERANK, start);
+      return docs;
     }
 
     public ScoredDocs searchTweets(T qid,
@@ -789,9 +946,10 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
                                    RerankerCascade<T> cascade,
                                    ScoredDocs queryQrels,
                                    boolean hasRelDocs) throws IOException {
+      long start = System.nanoTime();
       Query keywordQuery;
       if (args.sdm) {
-        keywordQuery = new SdmQueryGenerator(args.sdm_tw, args.sdm_ow, args.sdm_uw).buildQuery(Constants.CONTENTS, analyzer, queryString);
+        keywordQuery = sdmQueryGenerator.buildQuery(Constants.CONTENTS, analyzer, queryString);
       } else {
         try {
           QueryGenerator generator = (QueryGenerator) Class.forName("io.anserini.search.query." + args.queryGenerator)
@@ -811,6 +969,7 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
       builder.add(filter, BooleanClause.Occur.FILTER);
       builder.add(keywordQuery, BooleanClause.Occur.MUST);
       Query compositeQuery = builder.build();
+      start = latencies.recordSince(SearchLatencies.Stage.QUERY_GENERATION, start);
 
       TopDocs rs = new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[]{});
       if (!isRerank || (args.rerankcutoff > 0 && args.rf_qrels == null) || (args.rf_qrels != null && !hasRelDocs)) {
@@ -820,54 +979,77 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
           rs = getIndexSearcher().search(compositeQuery, (isRerank && args.rf_qrels == null) ? args.rerankcutoff : args.hits,
               BREAK_SCORE_TIES_BY_TWEETID, true);
         }
+        start = latencies.recordSince(SearchLatencies.Stage.FIRST_STAGE, start);
       }
 
       RerankerContext<T> context = new RerankerContext<>(getIndexSearcher(), qid, keywordQuery, null, queryString, queryTokens, filter, args);
+      context.setNeedsLuceneDocuments(args.outputRerankerRequests != null);
       ScoredDocs scoredFbDocs;
       if (isRerank && args.rf_qrels != null) {
         if (hasRelDocs) {
           scoredFbDocs = queryQrels;
         } else {//if no relevant documents, only perform score based tie breaking next
-          scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher());
+          scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher(), context.needsLuceneDocuments());
           cascade = new RerankerCascade<T>();
           cascade.add(new ScoreTiesAdjusterReranker<T>());
         }
       } else {
-        scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher());
+        scoredFbDocs = ScoredDocs.fromTopDocs(rs, getIndexSearcher(), context.needsLuceneDocuments());
       }
+      start = latencies.recordSince(SearchLatencies.Stage.HITS, start);
+
+      ScoredDocs docs = cascade.run(scoredFbDocs, context);
+      latencies.recordSince(SearchLatencies.Stage.RERANK, start);
+      return docs;
+    }
+  }
 
-      return cascade.run(scoredFbDocs, context);
+  // A ranking setup: a ranking model, the cascade of rerankers on top of it, and where to write the run.
+  private record RankingConfig<T extends Comparable<T>>(TaggedSimilarity taggedSimilarity,
+                                                        RerankerCascade<T> cascade,
+                                                        String outputPath) {
+    // A short descriptor of the ranking setup.
+    String desc() {
+      return String.format("ranker: %s, reranker: %s", taggedSimilarity.getTag(), cascade.getTag());
     }
   }
 
+  // Runs the topics against one or more ranking setups; each query is prepared once and then searched with every one.
   private final class SearchWorker<T extends Comparable<T>> extends Thread {
-    final private Searcher<T> searcher;
+    final private List<Searcher<T>> searchers = new ArrayList<>();
     final private SortedMap<T, Map<String, String>> topics;
-    final private TaggedSimilarity taggedSimilarity;
-    final private RerankerCascade<T> cascade;
-    final private String outputPath;
+    final private List<RankingConfig<T>> configs;
     final private SparseEncoder queryEncoder;
+    // Queries encoded in batch ahead of searching them.
+    final private Map<T, Map<String, Integer>> encodedQueries = new ConcurrentHashMap<>();
+    // Latencies of the stages done once per topic, whatever the ranking setup.
+    final private SearchLatencies latencies = new SearchLatencies();
+    private long batchEncodingNanos;
 
     private SearchWorker(IndexReader reader,
                          SortedMap<T, Map<String, String>> topics,
-                         TaggedSimilarity taggedSimilarity,
-                         RerankerCascade<T> cascade,
-                         String outputPath) {
+                         List<RankingConfig<T>> configs) {
       // We need to pass in the topics because for tweets, we need to extract the tweet time.
       this.topics = topics;
-      this.taggedSimilarity = taggedSimilarity;
-      this.cascade = cascade;
-      this.outputPath = outputPath;
-      this.searcher = new Searcher<>(new IndexSearcher(reader), taggedSimilarity, args);
+      this.configs = configs;
+      for (RankingConfig<T> config : configs) {
+        searchers.add(new Searcher<>(new IndexSearcher(reader), config.taggedSimilarity(), args));
+      }
 
-      setName(outputPath);
+      setName(configs.get(0).outputPath());
 
       // Initialize query encoder if specified
       if (args.encoder != null) {
         try {
-          this.queryEncoder = (SparseEncoder) Class
-              .forName(String.format("io.anserini.encoder.sparse.%sEncoder", args.encoder))
-              .getConstructor().newInstance();
+          try (OrtSession.SessionOptions options = OnnxEncoder.createSessionOptions(args.encoderThreads, 0)) {
+            this.queryEncoder = (SparseEncoder) Class
+                .forName(String.format("io.anserini.encoder.sparse.%sEncoder", args.encoder))
+                .getConstructor(OrtSession.SessionOptions.class).newInstance(options);
+          }
+          this.queryEncoder.setBatchSize(args.encoderBatchSize);
+          if (args.encoderCache) {
+            this.queryEncoder.enableQueryCache(args.encoderCacheSize);
+          }
         } catch (Exception e) {
           throw new RuntimeException();
         }
@@ -879,132 +1061,324 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     @Override
     @SuppressWarnings("unchecked")
     public void run() {
-      // A short descriptor of the ranking setup.
-      final String desc = String.format("ranker: %s, reranker: %s", taggedSimilarity.getTag(), cascade.getTag());
+      final String desc = configs.size() == 1 ? configs.get(0).desc() :
+          String.format("%d ranking setups", configs.size());
+
+      // The order in which topics are written, and the qid and query under which each is written.
+      List<T> keys = new ArrayList<>();
+      List<T> outputQids = new ArrayList<>();
+      List<String> outputQueries = new ArrayList<>();
+      readTopicOrder(keys, outputQids, outputQueries);
+
+      // When resuming, topics that are already in a run are not searched again for that ranking setup.
+      List<Set<String>> done = new ArrayList<>();
+      for (RankingConfig<T> config : configs) {
+        try {
+          done.add(args.resume ? StreamingRunOutputWriter.resume(Path.of(config.outputPath())) : Set.of());
+        } catch (IOException e) {
+          throw new RuntimeException(String.format("Error resuming run \"%s\".", config.outputPath()));
+        }
+        if (!done.get(done.size() - 1).isEmpty()) {
+          LOG.info("{}: resuming after {} topics", config.desc(), done.get(done.size() - 1).size());
+        }
+      }
 
-      // Data structure for holding the per-query results:
-      ConcurrentSkipListMap<T, ScoredDoc[]> results = new ConcurrentSkipListMap<>();
-      AtomicInteger cnt = new AtomicInteger();
-      List<Callable<Void>> tasks = new ArrayList<>();
+      if (queryEncoder != null && queryEncoder.supportsBatching()) {
+        encodeQueries(keys, outputQids, done);
+      }
+
+      String name = null;
+      if (ExcludeDocs.isExcludable(args.topics[0])){
+        name = args.topics[0];
+      }
 
+      // Results are written out as soon as all earlier topics are done, so that we never hold more than a bounded
+      // number of topics' results in memory.
+      List<TrecEval.Run> runs = new ArrayList<>();
+      List<StreamingRunOutputWriter<T>> writers = new ArrayList<>();
+      AtomicInteger cnt = new AtomicInteger();
+      int searched = 0;
       final long start = System.nanoTime();
-      for (Map.Entry<T, Map<String, String>> entry : topics.entrySet()) {
-        T qid = entry.getKey();
+      try {
+        for (RankingConfig<T> config : configs) {
+          TrecEval.Run run = trecEval == null ? null : new TrecEval.Run();
+          runs.add(run);
+          RunOutputWriter<T> out = new RunOutputWriter<>(config.outputPath(), args.format, args.runtag,
+              args.outputRerankerRequests, name, args.resume);
+          writers.add(new StreamingRunOutputWriter<>(out, args.threads * StreamingRunOutputWriter.TOPICS_PER_THREAD,
+              run == null ? null : (qid, hits) -> run.add(qid.toString(), hits)));
+        }
 
-        tasks.add(() -> {
-          try {
-            StringBuilder queryString = new StringBuilder();
-            if (args.topicField.contains("+")) {
-              for (String field : args.topicField.split("\\+")) {
-                queryString.append(" ").append(entry.getValue().get(field));
+        try (ExecutorService executor = Executors.newWorkStealingPool(args.threads)) {
+          for (int t = 0; t < keys.size(); t++) {
+            final T qid = keys.get(t);
+            final T outputQid = outputQids.get(t);
+            final String outputQuery = outputQueries.get(t);
+
+            // Slot reserved in the output of each ranking setup, or -1 if the setup doesn't need this topic.
+            final int[] slots = new int[configs.size()];
+            boolean pending = false;
+            for (int i = 0; i < configs.size(); i++) {
+              if (done.get(i).contains(outputQid.toString())) {
+                slots[i] = -1;
+              } else {
+                slots[i] = writers.get(i).reserve();
+                pending = true;
               }
-            } else {
-              queryString = new StringBuilder(entry.getValue().get(args.topicField));
             }
-
-            if (queryEncoder != null) {
-              queryString = new StringBuilder(SparseEncoder.flatten(queryEncoder.encode(queryString.toString())));
+            if (!pending) {
+              continue;
             }
+            searched++;
 
-            ScoredDocs queryQrels = null;
-            boolean hasRelDocs = false;
-            String qidString = qid.toString();
-            if (qrels != null) {
-              queryQrels = qrels.get(qidString);
-              if (queriesWithRel.contains(qidString)) {
-                hasRelDocs = true;
+            executor.submit(() -> {
+              try {
+                search(qid, outputQid, outputQuery, slots, writers);
+
+                int n = cnt.incrementAndGet();
+                if (n % 100 == 0) {
+                  LOG.info("{}: {} queries processed", desc, n);
+                }
+              } catch (Exception e) {
+                e.printStackTrace();
+                // Give up the remaining slots for this topic, so that later topics are not held up.
+                for (int i = 0; i < slots.length; i++) {
+                  if (slots[i] >= 0) {
+                    try {
+                      writers.get(i).skip(slots[i]);
+                    } catch (IOException ignored) {
+                      // Writing has already failed, which we report when closing the writer.
+                    }
+                  }
+                }
+                throw new CompletionException(e);
               }
-            }
+            });
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("Error writing runs to \"%s\".", configs.get(writers.size()).outputPath()));
+      } finally {
+        String failed = null;
+        for (int i = 0; i < writers.size(); i++) {
+          try {
+            writers.get(i).close();
+          } catch (IOException | IllegalStateException e) {
+            LOG.error("{}: error writing run: {}", configs.get(i).desc(), e.getMessage());
+            failed = configs.get(i).outputPath();
+          }
+        }
+        if (failed != null) {
+          throw new RuntimeException(String.format("Error writing runs to \"%s\".", failed));
+        }
+      }
 
-            ScoredDocs docs;
-            if (args.searchTweets) {
-              docs = searcher.searchTweets(qid, queryString.toString(), Long.parseLong(entry.getValue().get("time")), cascade, queryQrels, hasRelDocs);
-            } else if (args.backgroundLinking) {
-              docs = searcher.searchBackgroundLinking((Integer) qid, queryString.toString(), (RerankerCascade<Integer>) cascade);
-            } else {
-              docs = searcher.search(qid, queryString.toString(), cascade, queryQrels, hasRelDocs);
-            }
+      final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
-            // If JSON output is requested, we retain references to the Lucene documents.
-            // Note we do *not* want to retain references to the Lucene documents unless requested since it's a waste of memory.
-            if (args.outputRerankerRequests != null) {
-              results.put(qid, searcher.processScoredDocs(qid, docs, true));
-            } else {
-              results.put(qid, searcher.processScoredDocs(qid, docs, false));
-            }
+      LOG.info("{}: {} queries processed in {}{}", desc, searched,
+          DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
+          String.format(" = ~%.2f q/s", searched / (durationMillis / 1000.0)));
 
-            int n = cnt.incrementAndGet();
-            if (n % 100 == 0) {
-              LOG.info("{}: {} queries processed", desc, n);
+      if (args.latencyReport) {
+        for (int i = 0; i < configs.size(); i++) {
+          writeLatencyReport(i, searched, durationMillis);
+        }
+      }
+
+      // Evaluate straight from the results in memory, rather than reading back the runs we've just written; a resumed
+      // run has to be read back, though, since only part of it was searched here.
+      if (trecEval != null) {
+        try (ExecutorService executor = Executors.newFixedThreadPool(args.threads)) {
+          for (int i = 0; i < configs.size(); i++) {
+            TrecEval.Run run = runs.get(i);
+            if (!done.get(i).isEmpty()) {
+              try {
+                run = TrecEval.Run.read(Path.of(configs.get(i).outputPath()));
+              } catch (IOException e) {
+                throw new RuntimeException(String.format("Error reading run \"%s\".", configs.get(i).outputPath()));
+              }
             }
-          } catch (Exception e) {
-            e.printStackTrace();
-            throw new CompletionException(e);
+            TrecEval.Result result = trecEval.evaluate(run, executor, evalOptions);
+            final String configDesc = configs.get(i).desc();
+            result.getAggregates().forEach((metric, value) -> LOG.info("{}: {} = {}", configDesc, metric,
+                String.format(Locale.US, "%.4f", value)));
           }
+        }
+      }
+    }
 
-          return null;
-        });
+    // Writes the latencies of each stage of a ranking setup next to its run, as JSON.
+    private void writeLatencyReport(int i, int searched, long durationMillis) {
+      RankingConfig<T> config = configs.get(i);
+      Map<String, Object> report = new LinkedHashMap<>();
+      report.put("run", config.outputPath());
+      report.put("ranker", config.taggedSimilarity().getTag());
+      report.put("reranker", config.cascade().getTag());
+      report.put("threads", args.threads);
+      report.put("queries", searched);
+      report.put("wall_time_ms", durationMillis);
+      report.put("queries_per_second", searched / (durationMillis / 1000.0));
+      if (batchEncodingNanos > 0) {
+        report.put("batch_encoding_ms", batchEncodingNanos / 1e6);
       }
+      Map<String, Object> stages = new LinkedHashMap<>();
+      latencies.report(stages);
+      searchers.get(i).latencies.report(stages);
+      report.put("stages", stages);
 
-      try (ExecutorService executor = Executors.newWorkStealingPool(args.threads)) {
-        executor.invokeAll(tasks);
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+      Path path = Path.of(config.outputPath() + LATENCY_REPORT_SUFFIX);
+      try {
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(path.toFile(), report);
+        LOG.info("{}: latency report written to {}", config.desc(), path);
+      } catch (IOException e) {
+        // The run itself is fine, so just log the error and move on.
+        LOG.error("{}: error writing latency report: {}", config.desc(), e.getMessage());
       }
+    }
 
-      final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    // Encodes the queries of the topics still to be searched in batch, rather than one at a time as they're searched.
+    private void encodeQueries(List<T> keys, List<T> outputQids, List<Set<String>> done) {
+      // A topic may be written more than once, but only needs to be encoded once.
+      Map<T, String> queries = new LinkedHashMap<>();
+      for (int t = 0; t < keys.size(); t++) {
+        final String outputQid = outputQids.get(t).toString();
+        if (!done.stream().allMatch(d -> d.contains(outputQid))) {
+          queries.computeIfAbsent(keys.get(t), qid -> queryString(qid).toString());
+        }
+      }
 
-      LOG.info("{}: {} queries processed in {}{}", desc, topics.size(),
-          DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
-          String.format(" = ~%.2f q/s", topics.size() / (durationMillis / 1000.0)));
-      
-      String name = null;
-      if (ExcludeDocs.isExcludable(args.topics[0])){
-        name = args.topics[0];
+      try {
+        final long start = System.nanoTime();
+        List<Map<String, Integer>> encoded = queryEncoder.encodeQueries(new ArrayList<>(queries.values()));
+        batchEncodingNanos = System.nanoTime() - start;
+        int i = 0;
+        for (T qid : queries.keySet()) {
+          encodedQueries.put(qid, encoded.get(i++));
+        }
+      } catch (OrtException e) {
+        throw new RuntimeException("Error encoding queries.", e);
       }
-      // Now we write the results to a run file.
-      try (RunOutputWriter<T> out = new RunOutputWriter<>(outputPath, args.format, args.runtag, args.outputRerankerRequests, name)) {
-        // Here's a really screwy corner case that we have to manually hack around: for MS MARCO V1, the query file is not
-        // sorted by qid, but the topic representation internally is (i.e., K is a comparable). The original query runner
-        // SearchMsmarco retained the order of the queries; however, this class does not. Thus, the run files list the
-        // results in different orders. Due to the way that the MS MARCO V1 eval scripts are written (they report MRR to
-        // an excessive number of significant digits), different orders yield slightly different metric values (due to
-        // floating point precision issues). Just to retain exactly the same output as SearchMsmarco (which was used to,
-        // for example, generate Anserini leaderboard runs), we add an ugly hack here to dump the results in the order
-        // of the qids in the query files.
-        boolean isMSMARCOv1_passage = topics.firstKey().equals(2) &&
-            topics.get(2).get("title").equals("Androgen receptor define") &&
-            topics.keySet().size() == 6980;
-        boolean isMAMARCOv1_doc = topics.firstKey().equals(2) &&
-            topics.get(2).get("title").equals("androgen receptor define") &&
-            topics.keySet().size() == 5193;
-
-        if (isMSMARCOv1_passage || isMAMARCOv1_doc) {
-          try (InputStream inputStream = isMSMARCOv1_passage ?
-                Files.newInputStream(TopicReader.getTopicPath(Path.of(Topics.MSMARCO_PASSAGE_DEV_SUBSET.path)), StandardOpenOption.READ):
-                Files.newInputStream(TopicReader.getTopicPath(Path.of(Topics.MSMARCO_DOC_DEV.path)), StandardOpenOption.READ) ) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-              line = line.trim();
-              String[] arr = line.split("\\t");
-              out.writeTopic((T) arr[0], arr[1], results.get(Integer.parseInt(arr[0])));
-            }
-          } catch (IOException e) {
-            throw new RuntimeException(String.format("Error writing output to %s", outputPath));
-          }
+    }
+
+    private StringBuilder queryString(T qid) {
+      Map<String, String> topic = topics.get(qid);
+      StringBuilder queryString = new StringBuilder();
+      if (args.topicField.contains("+")) {
+        for (String field : args.topicField.split("\\+")) {
+          queryString.append(" ").append(topic.get(field));
+        }
+      } else {
+        queryString = new StringBuilder(topic.get(args.topicField));
+      }
+      return queryString;
+    }
+
+    // Searches a topic with each ranking setup that has a slot reserved for it, handing over the results as we go.
+    @SuppressWarnings("unchecked")
+    private void search(T qid, T outputQid, String outputQuery, int[] slots,
+                        List<StreamingRunOutputWriter<T>> writers) throws Exception {
+      Map<String, String> topic = topics.get(qid);
+      StringBuilder queryString = queryString(qid);
+
+      // When possible, we search the encoded (token, weight) pairs directly, without ever expanding them into a
+      // string in which each token is repeated as many times as its weight.
+      Map<String, Integer> queryWeights = null;
+      if (queryEncoder != null) {
+        queryWeights = encodedQueries.get(qid);
+        if (queryWeights == null) {
+          final long start = System.nanoTime();
+          queryWeights = queryEncoder.encodeQuery(queryString.toString());
+          latencies.recordSince(SearchLatencies.Stage.ENCODE, start);
+        }
+        if (!searchers.get(0).canSearchWeights()) {
+          queryString = new StringBuilder(SparseEncoder.flatten(queryWeights));
+          queryWeights = null;
+        }
+      }
+
+      ScoredDocs queryQrels = null;
+      boolean hasRelDocs = false;
+      String qidString = qid.toString();
+      if (qrels != null) {
+        queryQrels = qrels.get(qidString);
+        if (queriesWithRel.contains(qidString)) {
+          hasRelDocs = true;
+        }
+      }
+
+      for (int i = 0; i < configs.size(); i++) {
+        if (slots[i] < 0) {
+          continue;
+        }
+        final long start = System.nanoTime();
+        Searcher<T> searcher = searchers.get(i);
+        RerankerCascade<T> cascade = configs.get(i).cascade();
+
+        ScoredDocs docs;
+        if (args.searchTweets) {
+          docs = searcher.searchTweets(qid, queryString.toString(), Long.parseLong(topic.get("time")), cascade, queryQrels, hasRelDocs);
+        } else if (args.backgroundLinking) {
+          docs = searcher.searchBackgroundLinking((Integer) qid, queryString.toString(), (RerankerCascade<Integer>) cascade);
+        } else if (queryWeights != null) {
+          docs = searcher.search(qid, queryWeights, cascade, queryQrels, hasRelDocs);
         } else {
-            results.forEach((qid, hits) -> {
-              try {
-                out.writeTopic(qid, topics.get(qid).get("title"), results.get(qid));
-              } catch (JsonProcessingException e) {
-                // Handle the exception or rethrow as unchecked.
-                throw new RuntimeException(e);
-              }
-          });
+          docs = searcher.search(qid, queryString.toString(), cascade, queryQrels, hasRelDocs);
+        }
+
+        // If JSON output is requested, we retain references to the Lucene documents.
+        // Note we do *not* want to retain references to the Lucene documents unless requested since it's a waste of memory.
+        final long outputStart = System.nanoTime();
+        ScoredDoc[] hits = searcher.processScoredDocs(qid, docs, args.outputRerankerRequests != null);
+        searcher.latencies.recordSince(SearchLatencies.Stage.OUTPUT, outputStart);
+        searcher.latencies.recordSince(SearchLatencies.Stage.TOTAL, start);
+
+        int slot = slots[i];
+        slots[i] = -1;
+        writers.get(i).write(slot, outputQid, outputQuery, hits);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readTopicOrder(List<T> keys, List<T> outputQids, List<String> outputQueries) {
+      // Here's a really screwy corner case that we have to manually hack around: for MS MARCO V1, the query file is not
+      // sorted by qid, but the topic representation internally is (i.e., K is a comparable). The original query runner
+      // SearchMsmarco retained the order of the queries; however, this class does not. Thus, the run files list the
+      // results in different orders. Due to the way that the MS MARCO V1 eval scripts are written (they report MRR to
+      // an excessive number of significant digits), different orders yield slightly different metric values (due to
+      // floating point precision issues). Just to retain exactly the same output as SearchMsmarco (which was used to,
+      // for example, generate Anserini leaderboard runs), we add an ugly hack here to dump the results in the order
+      // of the qids in the query files.
+      boolean isMSMARCOv1_passage = topics.firstKey().equals(2) &&
+          topics.get(2).get("title").equals("Androgen receptor define") &&
+          topics.keySet().size() == 6980;
+      boolean isMAMARCOv1_doc = topics.firstKey().equals(2) &&
+          topics.get(2).get("title").equals("androgen receptor define") &&
+          topics.keySet().size() == 5193;
+
+      if (isMSMARCOv1_passage || isMAMARCOv1_doc) {
+        try (InputStream inputStream = isMSMARCOv1_passage ?
+              Files.newInputStream(TopicReader.getTopicPath(Path.of(Topics.MSMARCO_PASSAGE_DEV_SUBSET.path)), StandardOpenOption.READ):
+              Files.newInputStream(TopicReader.getTopicPath(Path.of(Topics.MSMARCO_DOC_DEV.path)), StandardOpenOption.READ) ) {
+          BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+          String line;
+          while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            String[] arr = line.split("\\t");
+            keys.add((T) Integer.valueOf(arr[0]));
+            outputQids.add((T) arr[0]);
+            outputQueries.add(arr[1]);
+          }
+        } catch (IOException e) {
+          throw new RuntimeException("Error reading the order of the MS MARCO V1 queries.");
+        }
+      } else {
+        for (Map.Entry<T, Map<String, String>> entry : topics.entrySet()) {
+          keys.add(entry.getKey());
+          outputQids.add(entry.getKey());
+          outputQueries.add(entry.getValue().get("title"));
         }
-      } catch (IOException e) {
-        throw new RuntimeException(String.format("Error writing runs to \"%s\".", outputPath));
       }
     }
   }
@@ -1019,6 +1393,10 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
   private final SortedMap<K, Map<String, String>> topics;
   private Map<String, ScoredDocs> qrels;
   private Set<String> queriesWithRel;
+  private TrecEval trecEval;
+  private String[] evalOptions;
+  private FirstStageCache firstStageCache;
+  private MultiSimilaritySearcher multiSimilaritySearcher;
 
   @SuppressWarnings("unchecked")
   public SearchCollection(Args args) throws IOException {
@@ -1028,6 +1406,9 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     LOG.info("============ Initializing Searcher ============");
     LOG.info("Index: {}", indexPath);
     this.reader = DirectoryReader.open(FSDirectory.open(indexPath));
+    if (args.docidTable) {
+      DocidTable.getOrBuild(reader);
+    }
 
     LOG.info("Threads: {}", args.threads);
     LOG.info("Fields: {}", Arrays.toString(args.fields));
@@ -1044,6 +1425,13 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
       }
     }
 
+    if (args.impact) {
+      LOG.info("Impact threshold factor: {}", args.impactThreshold);
+      if (!(args.impactThreshold >= 1.0f)) {
+        throw new IllegalArgumentException("Error: -impact.threshold must be at least 1!");
+      }
+    }
+
     LOG.info("MaxPassage: {}", args.selectMaxPassage);
     if (args.selectMaxPassage) {
       LOG.info("MaxPassage delimiter: {}", args.selectMaxPassageDelimiter);
@@ -1069,10 +1457,44 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     this.similarities = constructSimilarities();
     this.cascades = constructRerankers();
 
+    // With more than one cascade, each first-stage ranking would otherwise be retrieved once per cascade.
+    if (cascades.size() > 1 && args.firstStageCacheMB > 0) {
+      LOG.info("First-stage cache: {} MB shared across {} cascades", args.firstStageCacheMB, cascades.size());
+      this.firstStageCache = new FirstStageCache((long) args.firstStageCacheMB << 20);
+    }
+
+    // Results of the single pass for the other ranking models are handed over through the first-stage cache.
+    LOG.info("Single-pass sweep: {}", args.singlePassSweep);
+    if (args.singlePassSweep && similarities.size() > 1) {
+      if (args.firstStageCacheMB <= 0) {
+        throw new IllegalArgumentException("Error: -singlePassSweep requires a -firstStageCache budget!");
+      }
+      List<Similarity> models = new ArrayList<>();
+      similarities.forEach(similarity -> models.add(similarity.getSimilarity()));
+      this.multiSimilaritySearcher = new MultiSimilaritySearcher(reader, models);
+      if (this.firstStageCache == null) {
+        this.firstStageCache = new FirstStageCache((long) args.firstStageCacheMB << 20);
+      }
+    }
+
     if (this.isRerank && args.rf_qrels != null) {
       loadQrels(args.rf_qrels);
     }
 
+    // The judgments are loaded once and shared across all parameter settings.
+    if (args.evalQrels != null) {
+      LOG.info("Eval qrels: {}", args.evalQrels);
+      LOG.info("Eval metrics: {}", Arrays.toString(args.evalMetrics));
+      List<String> options = new ArrayList<>(List.of("-c"));
+      for (String metric : args.evalMetrics) {
+        options.add("-m");
+        options.add(metric);
+      }
+      this.evalOptions = options.toArray(new String[0]);
+      TrecEval.checkOptions(evalOptions);
+      this.trecEval = new TrecEval(new RelevanceJudgments(args.evalQrels));
+    }
+
     // Fix for index compatibility issue between Lucene 8 and 9: https://github.com/castorini/anserini/issues/1952
     // If we detect an older index version, we turn off consistent tie-breaking, which avoids accessing docvalues,
     // which is the source of the incompatibility.
@@ -1365,6 +1787,7 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     LOG.info("runtag: {}", args.runtag);
 
     List<Callable<Void>> tasks = new ArrayList<>();
+    List<RankingConfig<K>> configs = new ArrayList<>();
 
     for (TaggedSimilarity taggedSimilarity : similarities) {
       for (RerankerCascade<K> cascade : cascades) {
@@ -1381,8 +1804,22 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
           continue;
         }
 
-        tasks.add (() -> {
-          new SearchWorker<K>(reader, topics, taggedSimilarity, cascade, outputPath).run();
+        configs.add(new RankingConfig<>(taggedSimilarity, cascade, outputPath));
+      }
+    }
+
+    if (multiSimilaritySearcher != null) {
+      // All ranking setups go through the topics together, so that the first stage is shared while it's still cached.
+      if (!configs.isEmpty()) {
+        tasks.add(() -> {
+          new SearchWorker<K>(reader, topics, configs).run();
+          return null;
+        });
+      }
+    } else {
+      for (RankingConfig<K> config : configs) {
+        tasks.add(() -> {
+          new SearchWorker<K>(reader, topics, List.of(config)).run();
           return null;
         });
       }
@@ -1394,6 +1831,10 @@ public final class SearchCollection<K extends Comparable<K>> implements Runnable
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     }
+
+    if (firstStageCache != null) {
+      LOG.info("First-stage cache: {}", firstStageCache);
+    }
   }
 
   public static void main(String[] args) throws Exception {
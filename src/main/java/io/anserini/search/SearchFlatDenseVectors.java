@@ -16,8 +16,6 @@
 
 package io.anserini.search;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.anserini.eval.ExcludeDocs;
 import io.anserini.search.topicreader.TopicReader;
 import io.anserini.search.topicreader.Topics;
@@ -42,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Main entry point for flat search.
@@ -71,6 +70,9 @@ public final class SearchFlatDenseVectors<K extends Comparable<K>> implements Ru
     @Option(name = "-format", metaVar = "[output format]", usage = "Output format, default \"trec\", alternative \"msmarco\".")
     public String format = "trec";
 
+    @Option(name = "-resume", usage = "Resume a run that did not finish, searching only the topics that are not already in the run file.")
+    public boolean resume = false;
+
     @Option(name = "-options", usage = "Print information about options.")
     public Boolean options = false;
   }
@@ -143,29 +145,64 @@ public final class SearchFlatDenseVectors<K extends Comparable<K>> implements Ru
   @Override
   public void run() {
     LOG.info("============ Launching Search Threads ============");
-    SortedMap<K, ScoredDoc[]> results = searcher.batch_search(queries, qids, args.hits, args.threads);
-
     String name = null;
     if (ExcludeDocs.isExcludable(args.topics[0])){
       name = args.topics[0];
     }
 
-    try(RunOutputWriter<K> out = new RunOutputWriter<>(args.output, args.format, args.runtag, null, name)) {
-      // zip query to results
-      results.forEach((qid, hits) -> {
-        try {
-          out.writeTopic(qid, queries.get(qids.indexOf(qid)), results.get(qid));
-        } catch (JsonProcessingException e) {
-          // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
-          throw new RuntimeException(e);
+    try {
+      if (args.resume) {
+        LOG.info("Resuming after {} topics", StreamingRunOutputWriter.resume(Paths.get(args.output), qids, queries));
+      }
+
+      if (searcher.supportsBatchScoring()) {
+        runBatches(name);
+        return;
+      }
+
+      // If the encoder can, encode all the queries in batch up front, rather than one at a time as they're searched.
+      Map<K, float[]> vectors = new ConcurrentHashMap<>();
+      List<float[]> encoded = searcher.batchEncode(queries);
+      if (encoded != null) {
+        for (int i = 0; i < qids.size(); i++) {
+          vectors.put(qids.get(i), encoded.get(i));
         }
-      });
+      }
+
+      // Results are written out in topic order as soon as they can be, rather than once all topics have been searched.
+      RunOutputWriter<K> writer = new RunOutputWriter<>(args.output, args.format, args.runtag, null, name, args.resume);
+      try (StreamingRunOutputWriter<K> out = new StreamingRunOutputWriter<>(writer,
+          args.threads * StreamingRunOutputWriter.TOPICS_PER_THREAD, null)) {
+        out.search(qids, queries, args.threads, (qid, query) -> {
+          float[] vector = vectors.remove(qid);
+          return vector == null ? searcher.search(qid, query, args.hits) : searcher.search(qid, vector, args.hits);
+        });
+      }
     } catch (IOException e) {
       // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
       throw new RuntimeException(e);
     }
   }
 
+  // Searches blocks of topics at once, enough to keep all threads busy, writing out the results of each in turn.
+  private void runBatches(String exclude) throws IOException {
+    int batchSize = args.threads * args.flatQueryBlockSize;
+    LOG.info("Searching {} topics at a time, in blocks of {}", batchSize, args.flatQueryBlockSize);
+    try (RunOutputWriter<K> out =
+             new RunOutputWriter<>(args.output, args.format, args.runtag, null, exclude, args.resume)) {
+      for (int start = 0; start < qids.size(); start += batchSize) {
+        int end = Math.min(start + batchSize, qids.size());
+        SortedMap<K, ScoredDoc[]> results =
+            searcher.batch_search(queries.subList(start, end), qids.subList(start, end), args.hits, args.threads);
+        for (int i = start; i < end; i++) {
+          out.writeTopic(qids.get(i), queries.get(i), results.get(qids.get(i)));
+        }
+        // Topics are written whole and in order, so that the run can be resumed.
+        out.flush();
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     LoggingBootstrap.installJulToSlf4jBridge();
 
@@ -16,8 +16,6 @@
 
 package io.anserini.search;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.anserini.search.topicreader.TopicReader;
 import io.anserini.search.topicreader.Topics;
 import io.anserini.util.LoggingBootstrap;
@@ -40,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Main entry point for HNSW search.
@@ -69,6 +68,9 @@ public final class SearchHnswDenseVectors<K extends Comparable<K>> implements Ru
     @Option(name = "-format", metaVar = "[output format]", usage = "Output format, default \"trec\", alternative \"msmarco\".")
     public String format = "trec";
 
+    @Option(name = "-resume", usage = "Resume a run that did not finish, searching only the topics that are not already in the run file.")
+    public boolean resume = false;
+
     @Option(name = "-options", usage = "Print information about options.")
     public Boolean options = false;
   }
@@ -89,6 +91,19 @@ public final class SearchHnswDenseVectors<K extends Comparable<K>> implements Ru
     LOG.info("Encoder: {}", args.encoder);
     LOG.info("Threads: {}", args.threads);
 
+    readTopics(args, qids, queries);
+  }
+
+  /**
+   * Reads the topics, picking out the queries from the right field.
+   *
+   * @param args arguments
+   * @param qids list to which the query ids are added, in sorted order
+   * @param queries list to which the queries are added, in the same order
+   * @param <K> type of qid
+   * @throws IOException if error encountered reading the topics
+   */
+  static <K extends Comparable<K>> void readTopics(Args args, List<K> qids, List<String> queries) throws IOException {
     // We might not be able to successfully read topics for a variety of reasons. Gather all possible
     // exceptions together as an unchecked exception to make initialization and error reporting clearer.
     SortedMap<K, Map<String, String>> topics = new TreeMap<>();
@@ -141,18 +156,37 @@ public final class SearchHnswDenseVectors<K extends Comparable<K>> implements Ru
   @Override
   public void run() {
     LOG.info("============ Launching Search Threads ============");
-    SortedMap<K, ScoredDoc[]> results = searcher.batch_search(queries, qids, args.hits, args.threads);
+    try {
+      if (args.resume) {
+        LOG.info("Resuming after {} topics", StreamingRunOutputWriter.resume(Paths.get(args.output), qids, queries));
+      }
 
-    try(RunOutputWriter<K> out = new RunOutputWriter<>(args.output, args.format, args.runtag, null)) {
-      // zip query to results
-      results.forEach((qid, hits) -> {
-        try {
-          out.writeTopic(qid, queries.get(qids.indexOf(qid)), results.get(qid));
-        } catch (JsonProcessingException e) {
-          // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
-          throw new RuntimeException(e);
+      long visitedBefore = searcher.getVisitedCount();
+      long queriesBefore = searcher.getQueryCount();
+
+      // If the encoder can, encode all the queries in batch up front, rather than one at a time as they're searched.
+      Map<K, float[]> vectors = new ConcurrentHashMap<>();
+      List<float[]> encoded = searcher.batchEncode(queries);
+      if (encoded != null) {
+        for (int i = 0; i < qids.size(); i++) {
+          vectors.put(qids.get(i), encoded.get(i));
         }
-      });
+      }
+
+      // Results are written out in topic order as soon as they can be, rather than once all topics have been searched.
+      RunOutputWriter<K> writer = new RunOutputWriter<>(args.output, args.format, args.runtag, null, null, args.resume);
+      try (StreamingRunOutputWriter<K> out = new StreamingRunOutputWriter<>(writer,
+          args.threads * StreamingRunOutputWriter.TOPICS_PER_THREAD, null)) {
+        out.search(qids, queries, args.threads, (qid, query) -> {
+          float[] vector = vectors.remove(qid);
+          HnswDenseSearcher.Hits hits = vector == null ?
+              searcher.searchWithVisitedCount(qid, query, args.hits) :
+              searcher.searchWithVisitedCount(qid, vector, args.hits);
+          LOG.info("Query {} visited {} graph nodes", qid, hits.visitedCount());
+          return hits.docs();
+        });
+      }
+      LOG.info(String.format("Visited ~%.1f graph nodes/query", searcher.meanVisitedCount(visitedBefore, queriesBefore)));
     } catch (IOException e) {
       // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
       throw new RuntimeException(e);
@@ -16,8 +16,6 @@
 
 package io.anserini.search;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.anserini.search.topicreader.TopicReader;
 import io.anserini.util.LoggingBootstrap;
 
@@ -69,6 +67,9 @@ public final class SearchInvertedDenseVectors<K extends Comparable<K>> implement
     @Option(name = "-format", metaVar = "[output format]", usage = "Output format, default \"trec\", alternative \"msmarco\".")
     public String format = "trec";
 
+    @Option(name = "-resume", usage = "Resume a run that did not finish, searching only the topics that are not already in the run file.")
+    public boolean resume = false;
+
     @Option(name = "-options", usage = "Print information about options.")
     public Boolean options = false;
   }
@@ -129,17 +130,17 @@ public final class SearchInvertedDenseVectors<K extends Comparable<K>> implement
   @Override
   public void run() {
     LOG.info("============ Launching Search Threads ============");
-    SortedMap<K, ScoredDoc[]> results = searcher.batch_search(queries, qids, args.hits, args.threads);
-
-    try(RunOutputWriter<K> out = new RunOutputWriter<>(args.output, args.format, args.runtag, null)) {
-     results.forEach((qid, hits) -> {
-        try {
-          out.writeTopic(qid, queries.get(qids.indexOf(qid)), results.get(qid));
-        } catch (JsonProcessingException e) {
-          // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
-          throw new RuntimeException(e);
-        }
-      });
+    try {
+      if (args.resume) {
+        LOG.info("Resuming after {} topics", StreamingRunOutputWriter.resume(Paths.get(args.output), qids, queries));
+      }
+
+      // Results are written out in topic order as soon as they can be, rather than once all topics have been searched.
+      RunOutputWriter<K> writer = new RunOutputWriter<>(args.output, args.format, args.runtag, null, null, args.resume);
+      try (StreamingRunOutputWriter<K> out = new StreamingRunOutputWriter<>(writer,
+          args.threads * StreamingRunOutputWriter.TOPICS_PER_THREAD, null)) {
+        out.search(qids, queries, args.threads, (qid, query) -> searcher.search(qid, query, args.hits));
+      }
     } catch (IOException e) {
       // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
       throw new RuntimeException(e);
@@ -0,0 +1,129 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-query latencies of the stages of searching, recorded by each thread into its own histograms, which are merged
+ * when reporting. Recording takes a thread-local lookup and a few increments, so it's always on.
+ */
+final class SearchLatencies {
+  enum Stage {
+    // Encoding the query with a SparseEncoder.
+    ENCODE("encode"),
+    // Building the Lucene query (and analyzing the query string).
+    QUERY_GENERATION("query_generation"),
+    // The first-stage IndexSearcher.search.
+    FIRST_STAGE("first_stage"),
+    // Turning the top docs into hits, which reads the docids (and the documents, if needed) from stored fields.
+    HITS("hits"),
+    // The reranker cascade.
+    RERANK("rerank"),
+    // Turning the reranked hits into the hits of the run, which reads their docids.
+    OUTPUT("output"),
+    // Searching with a ranking setup, from building the query to the hits of the run, i.e., all of the above but
+    // encoding, which is done once per topic.
+    TOTAL("total");
+
+    final String name;
+
+    Stage(String name) {
+      this.name = name;
+    }
+  }
+
+  private final List<LatencyHistogram[]> histograms = new ArrayList<>();
+  private final ThreadLocal<LatencyHistogram[]> local = ThreadLocal.withInitial(() -> {
+    LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    for (int i = 0; i < stages.length; i++) {
+      stages[i] = new LatencyHistogram();
+    }
+    synchronized (histograms) {
+      histograms.add(stages);
+    }
+    return stages;
+  });
+
+  /**
+   * Records the latency of a stage for a query.
+   *
+   * @param stage stage
+   * @param nanos latency in nanoseconds
+   */
+  void record(Stage stage, long nanos) {
+    local.get()[stage.ordinal()].record(nanos);
+  }
+
+  /**
+   * Records the latency of a stage for a query, from the given start until now.
+   *
+   * @param stage stage
+   * @param start start, as from {@link System#nanoTime()}
+   * @return now, as from {@link System#nanoTime()}, which is where the next stage starts
+   */
+  long recordSince(Stage stage, long start) {
+    long now = System.nanoTime();
+    record(stage, now - start);
+    return now;
+  }
+
+  /**
+   * Returns the latencies of a stage recorded by all threads. This should only be called once threads are done
+   * recording.
+   *
+   * @param stage stage
+   * @return merged histogram
+   */
+  LatencyHistogram merged(Stage stage) {
+    LatencyHistogram merged = new LatencyHistogram();
+    synchronized (histograms) {
+      for (LatencyHistogram[] stages : histograms) {
+        merged.add(stages[stage.ordinal()]);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Adds the summary of the latencies of each stage that was recorded to a report, with times in milliseconds.
+   *
+   * @param report map from stage name to its summary
+   */
+  void report(Map<String, Object> report) {
+    for (Stage stage : Stage.values()) {
+      LatencyHistogram histogram = merged(stage);
+      if (histogram.count() == 0) {
+        continue;
+      }
+
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("count", histogram.count());
+      summary.put("mean_ms", histogram.mean() / 1e6);
+      summary.put("p50_ms", histogram.valueAtPercentile(50) / 1e6);
+      summary.put("p90_ms", histogram.valueAtPercentile(90) / 1e6);
+      summary.put("p99_ms", histogram.valueAtPercentile(99) / 1e6);
+      summary.put("max_ms", histogram.max() / 1e6);
+      report.put(stage.name, summary);
+    }
+  }
+}
@@ -23,30 +23,40 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.ParserProperties;
 
 import io.anserini.util.LoggingBootstrap;
+import org.apache.commons.lang3.time.DurationFormatUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Main entry point for sharded HNSW dense vector search.
+ * Main entry point for sharded HNSW dense vector search. Each query is encoded once and searched on all shards at once
+ * with {@link ShardedHnswDenseSearcher}, and the merged global top-k hits are written out in query order as soon as
+ * they are available, without any intermediate per-shard run files.
  */
 public final class SearchShardedHnswDenseVectors<K extends Comparable<K>> implements Runnable, Closeable {
   private static final Logger LOG = LogManager.getLogger(SearchShardedHnswDenseVectors.class);
 
+  // Number of queries (per thread) that may be searched ahead of the next query to be written out.
+  private static final int QUERIES_AHEAD_PER_THREAD = 4;
+
   public static class Args extends SearchHnswDenseVectors.Args {
     // No additional arguments needed
   }
 
   private final Args args;
-  private final List<SearchHnswDenseVectors<K>> searchers;
+  private final ShardedHnswDenseSearcher<K> searcher;
+  private final List<K> qids = new ArrayList<>();
+  private final List<String> queries = new ArrayList<>();
 
   /*
    * Constructor for sharded HNSW dense vector search.
@@ -56,45 +66,18 @@ public final class SearchShardedHnswDenseVectors<K extends Comparable<K>> implem
    */
   public SearchShardedHnswDenseVectors(Args args) throws IOException {
     this.args = args;
-    this.searchers = new ArrayList<>();
-    
-    // Parse comma-separated shard paths
-    String[] shardPaths = args.index.split(",");
-    int threadsPerShard = args.threads;
+    this.searcher = new ShardedHnswDenseSearcher<>(args);
 
     LOG.info("============ Initializing {} ============", this.getClass().getSimpleName());
-    LOG.info("Using {} shards", shardPaths.length);
+    LOG.info("Using {} shards", searcher.getNumShards());
     LOG.info("Topics: {}", Arrays.toString(args.topics));
     LOG.info("Query generator: {}", args.queryGenerator);
     LOG.info("Encoder: {}", args.encoder);
     LOG.info("Threads: {}", args.threads);
-    LOG.info("Threads per shard: {}", threadsPerShard);
 
-    // Initialize searchers for each shard
-    // Each individual searcher will validate its own parameters
     try {
-      for (String shardPath : shardPaths) {
-        Args shardArgs = new Args();
-        // Copy all args from the parent
-        shardArgs.topics = args.topics;
-        shardArgs.output = args.output;
-        shardArgs.topicReader = args.topicReader;
-        shardArgs.topicField = args.topicField;
-        shardArgs.hits = args.hits;
-        shardArgs.runtag = args.runtag;
-        shardArgs.format = args.format;
-        shardArgs.options = args.options;
-
-        // Set shard-specific args
-        shardArgs.index = shardPath;
-        shardArgs.encoder = args.encoder;
-        shardArgs.queryGenerator = args.queryGenerator;
-        shardArgs.efSearch = args.efSearch;
-        shardArgs.threads = threadsPerShard;
-
-        searchers.add(new SearchHnswDenseVectors<K>(shardArgs));
-      }
-    } catch (Exception e) {
+      SearchHnswDenseVectors.readTopics(args, qids, queries);
+    } catch (IOException | RuntimeException e) {
       close();
       throw e;
     }
@@ -102,63 +85,53 @@ public final class SearchShardedHnswDenseVectors<K extends Comparable<K>> implem
 
   @Override
   public void close() throws IOException {
-    LOG.info("Closing searchers...");
-    for (SearchHnswDenseVectors<K> searcher : searchers) {
-      try {
-        searcher.close();
-        LOG.info("Closed searcher: {}", searcher.getClass().getSimpleName());
-      } catch (IOException e) {
-        LOG.warn("Error closing searcher: {}", searcher.getClass().getSimpleName(), e);
-      }
-    }
-    LOG.info("All searchers closed.");
+    searcher.close();
   }
 
   @Override
   public void run() {
     LOG.info("============ Running Sharded Search ============");
+    final long start = System.nanoTime();
+
+    // Queries are searched in parallel, but written out in order as soon as each one is done. We only search a bounded
+    // number of queries ahead of the next one to be written, so memory usage doesn't grow with the number of topics.
+    int queriesAhead = Math.max(1, args.threads) * QUERIES_AHEAD_PER_THREAD;
+    Deque<Future<ScoredDoc[]>> pending = new ArrayDeque<>();
+    // If the encoder can, encode all the queries in batch up front, rather than one at a time as they're searched.
+    List<float[]> vectors = searcher.batchEncode(queries);
+    try (RunOutputWriter<K> out = new RunOutputWriter<>(args.output, args.format, args.runtag, null);
+         ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, args.threads))) {
+      int submitted = 0;
+      for (int i = 0; i < qids.size(); i++) {
+        while (submitted < qids.size() && submitted <= i + queriesAhead) {
+          K qid = qids.get(submitted);
+          String query = queries.get(submitted);
+          float[] vector = vectors == null ? null : vectors.set(submitted, null);
+          pending.add(executor.submit(() ->
+              vector == null ? searcher.search(qid, query, args.hits) : searcher.search(qid, vector, args.hits)));
+          submitted++;
+        }
 
-    List<String> shardOutputPaths = new ArrayList<>();
-    IntStream.range(0, searchers.size()).parallel().forEach(i -> {
-      SearchHnswDenseVectors<K> searcher = searchers.get(i);
-      String shardOutputPath = args.output.replaceFirst("\\.txt$", ".shard" + String.format("%02d", i) + ".txt");
-      if (!args.output.endsWith(".txt")) {
-        shardOutputPath = args.output + ".shard" + String.format("%02d", i);
-      }
-      shardOutputPaths.add(shardOutputPath);
-      LOG.info("Processing shard {} -> {}", i, shardOutputPath);
-
-      searcher.args.output = shardOutputPath;
-      searcher.run();
-    });
-
-    LOG.info("Concatenating shard results into {}", args.output);
-    try {
-      Files.createDirectories(Paths.get(args.output).getParent());
-      Files.write(Paths.get(args.output), new byte[0]);
-
-      boolean anyShardHasContent = false;
-      for (String shardPath : shardOutputPaths) {
-        Path path = Paths.get(shardPath);
-        if (Files.exists(path) && Files.size(path) > 0) {
-          anyShardHasContent = true;
-          Files.write(Paths.get(args.output), Files.readAllBytes(path), StandardOpenOption.APPEND);
-          LOG.info("Appended content from shard file: {} (size: {} bytes)", shardPath, Files.size(path));
-        } else {
-          LOG.warn("Shard file {} does not exist or is empty", shardPath);
+        out.writeTopic(qids.get(i), queries.get(i), pending.poll().get());
+        if ((i + 1) % 100 == 0) {
+          LOG.info("{} queries processed", i + 1);
         }
       }
-      
-      if (!anyShardHasContent) {
-        LOG.warn("No shard files contained any content. Output file will be empty.");
-      } else {
-        LOG.info("All results concatenated successfully.");
-      }
-      
-      LOG.info("Individual shard results are not deleted. Shard results for each shard are stored in the output directory as separate files.");
     } catch (IOException e) {
-      throw new RuntimeException("Error concatenating shard results: " + e.getMessage(), e);
+      // Rethrow as unchecked; if we encounter an exception here, the caller should really look into it.
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pending.forEach(future -> future.cancel(true));
     }
+
+    final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    LOG.info("Sharded search completed in {}{}", DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
+        String.format(" = ~%.2f q/s", qids.size() / (durationMillis / 1000.0)));
   }
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,275 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import io.anserini.encoder.OnnxEncoder;
+import io.anserini.encoder.dense.DenseEncoder;
+import io.anserini.index.Constants;
+import io.anserini.index.IndexReaderUtils;
+import io.anserini.search.query.VectorQueryGenerator;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Searches an HNSW index that has been split into several shards (i.e., separate Lucene indexes), as a single
+ * index. Each query is encoded once and searched on all shards concurrently. The per-shard top-k hits are then merged
+ * into the global top-k with {@link TopDocs#merge}, breaking score ties by docid (as {@link HnswDenseSearcher} does),
+ * so the ranking is the same as if all the documents were in one index.</p>
+ *
+ * <p>Duplicate removal, docid-as-qid removal, and MaxP are applied to the merged ranked list, so they work across
+ * shards. Note that the Lucene docids in results are local to the shard each document comes from.</p>
+ *
+ * @param <K> type of qid, typically string or integer
+ */
+public class ShardedHnswDenseSearcher<K extends Comparable<K>> extends BaseSearcher<K> implements AutoCloseable {
+  private static final Logger LOG = LogManager.getLogger(ShardedHnswDenseSearcher.class);
+
+  private final List<IndexReader> readers = new ArrayList<>();
+  private final IndexSearcher[] shards;
+  private final VectorQueryGenerator generator;
+  private final DenseEncoder encoder;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a searcher over the shards given as comma-separated index paths (or prebuilt index names) in
+   * {@code -index}. Shard searches run on a pool of {@code -threads} threads per shard, since each query searches
+   * every shard.
+   *
+   * @param args arguments
+   */
+  public ShardedHnswDenseSearcher(HnswDenseSearcher.Args args) {
+    super(args);
+
+    if (args.quiet) {
+      // If quiet mode enabled, only report errors and above.
+      Configurator.setRootLevel(Level.ERROR);
+    }
+
+    String[] shardIndexes = args.index.split(",");
+    try {
+      for (String shardIndex : shardIndexes) {
+        try {
+          Path indexPath = IndexReaderUtils.getIndex(shardIndex);
+          readers.add(IndexReaderUtils.getReader(indexPath.toString()));
+        } catch (IOException e) {
+          throw new IllegalArgumentException(String.format("\"%s\" does not appear to be a valid index.", shardIndex));
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      closeReaders();
+      throw e;
+    }
+
+    this.shards = new IndexSearcher[readers.size()];
+    for (int i = 0; i < readers.size(); i++) {
+      shards[i] = new IndexSearcher(readers.get(i));
+    }
+    LOG.info("Searching {} shards", shards.length);
+
+    try {
+      this.generator = (VectorQueryGenerator) Class
+          .forName(String.format("io.anserini.search.query.%s", args.queryGenerator))
+          .getConstructor().newInstance();
+    } catch (Exception e) {
+      closeReaders();
+      throw new IllegalArgumentException(String.format("Unable to load QueryGenerator \"%s\".", args.queryGenerator));
+    }
+
+    if (args.encoder != null) {
+      try {
+        // If Encoder is part of the name, strip ".Encoder" suffix to normalize the name
+        String encoderName = args.encoder.endsWith("Encoder") ?
+            args.encoder.substring(0, args.encoder.length() - "Encoder".length()) :
+            args.encoder;
+
+        try (OrtSession.SessionOptions options = OnnxEncoder.createSessionOptions(args.encoderThreads, 0)) {
+          encoder = (DenseEncoder) Class
+              .forName(String.format("io.anserini.encoder.dense.%sEncoder", encoderName))
+              .getConstructor(OrtSession.SessionOptions.class).newInstance(options);
+        }
+        encoder.setBatchSize(args.encoderBatchSize);
+        if (args.encoderCache) {
+          encoder.enableQueryCache(args.encoderCacheSize);
+        }
+      } catch (Exception e) {
+        closeReaders();
+        throw new IllegalArgumentException(String.format("Unable to load Encoder \"%s\".", args.encoder));
+      }
+    } else {
+      encoder = null;
+    }
+
+    this.executor = Executors.newFixedThreadPool(Math.max(1, args.threads) * shards.length);
+  }
+
+  /**
+   * Returns the number of shards.
+   *
+   * @return number of shards
+   */
+  public int getNumShards() {
+    return shards.length;
+  }
+
+  /**
+   * Encodes queries in batch with the underlying encoder, so that they can then be searched as query vectors, which is
+   * faster than encoding them one at a time.
+   *
+   * @param queries queries
+   * @return query vectors, in the same order as the queries, or {@code null} if there is no encoder or it can't encode
+   *     queries in batch, in which case the queries should be searched as strings
+   */
+  public @Nullable List<float[]> batchEncode(List<String> queries) {
+    if (encoder == null || !encoder.supportsBatching()) {
+      return null;
+    }
+
+    try {
+      return encoder.encodeQueries(queries);
+    } catch (OrtException e) {
+      throw new RuntimeException("Error encoding query.");
+    }
+  }
+
+  /**
+   * Searches all shards with a query vector.
+   *
+   * @param qid query id
+   * @param query query vector
+   * @param k number of hits
+   * @return array of search results
+   * @throws IOException if error encountered during search
+   */
+  public ScoredDoc[] search(@Nullable K qid, float[] query, int k) throws IOException {
+    KnnFloatVectorQuery vectorQuery = generator.buildQuery(Constants.VECTOR, query, ((HnswDenseSearcher.Args) args).efSearch);
+
+    List<Future<TopFieldDocs>> futures = new ArrayList<>(shards.length);
+    for (IndexSearcher shard : shards) {
+      // As in HnswDenseSearcher, the graph is searched when the query is rewritten, which is done up front, since
+      // otherwise it would be done again to compute scores.
+      futures.add(executor.submit(() -> shard.search(shard.rewrite(vectorQuery), k,
+          HnswDenseSearcher.BREAK_SCORE_TIES_BY_DOCID, true)));
+    }
+
+    TopFieldDocs[] shardHits = new TopFieldDocs[shards.length];
+    try {
+      for (int i = 0; i < shards.length; i++) {
+        shardHits[i] = futures.get(i).get();
+        // Records where each hit comes from, which we need both for merging and for fetching the documents.
+        for (ScoreDoc scoreDoc : shardHits[i].scoreDocs) {
+          scoreDoc.shardIndex = i;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while searching shards.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioe) {
+        throw ioe;
+      }
+      throw new RuntimeException(e.getCause());
+    }
+
+    // Ties in both score and docid (i.e., the same document in several shards) are broken by shard index.
+    TopDocs merged = TopDocs.merge(HnswDenseSearcher.BREAK_SCORE_TIES_BY_DOCID, k, shardHits);
+    return processShardedTopDocs(qid, merged, shards, true);
+  }
+
+  /**
+   * Searches all shards with a query vector.
+   *
+   * @param query query vector
+   * @param k number of hits
+   * @return array of search results
+   * @throws IOException if error encountered during search
+   */
+  public ScoredDoc[] search(float[] query, int k) throws IOException {
+    return search(null, query, k);
+  }
+
+  /**
+   * Searches all shards with a string query, which is encoded (or parsed, if there is no encoder) only once.
+   *
+   * @param qid query id
+   * @param query query
+   * @param k number of hits
+   * @return array of search results
+   * @throws IOException if error encountered during search
+   */
+  public ScoredDoc[] search(@Nullable K qid, String query, int k) throws IOException {
+    if (encoder != null) {
+      try {
+        return search(qid, encoder.encodeQuery(query), k);
+      } catch (OrtException e) {
+        throw new RuntimeException("Error encoding query.");
+      }
+    }
+
+    return search(qid, generator.buildQuery(Constants.VECTOR, query, ((HnswDenseSearcher.Args) args).efSearch).getTargetCopy(), k);
+  }
+
+  /**
+   * Searches all shards with a string query, which is encoded (or parsed, if there is no encoder) only once.
+   *
+   * @param query query
+   * @param k number of hits
+   * @return array of search results
+   * @throws IOException if error encountered during search
+   */
+  public ScoredDoc[] search(String query, int k) throws IOException {
+    return search(null, query, k);
+  }
+
+  private void closeReaders() {
+    for (IndexReader reader : readers) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        LOG.warn("Error closing shard reader", e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    closeReaders();
+    if (encoder != null) {
+      encoder.close();
+    }
+  }
+}
@@ -28,6 +28,7 @@ import io.anserini.rerank.lib.Rm3Reranker;
 import io.anserini.rerank.lib.RocchioReranker;
 import io.anserini.rerank.lib.ScoreTiesAdjusterReranker;
 import io.anserini.search.query.BagOfWordsQueryGenerator;
+import io.anserini.search.query.ImpactQuery;
 import io.anserini.search.similarity.ImpactSimilarity;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -77,6 +78,7 @@ public class SimpleImpactSearcher implements Closeable {
   private SparseEncoder queryEncoder = null;
   protected boolean useRM3;
   protected boolean useRocchio;
+  protected float threshold = 1.0f;
 
   protected SimpleImpactSearcher() {
   }
@@ -164,6 +166,18 @@ public class SimpleImpactSearcher implements Closeable {
     }  
   }
 
+  /**
+   * Caches the encodings of queries, in memory and on disk, so that the same queries aren't encoded again.
+   *
+   * @param cacheSize number of encodings to cache in memory
+   */
+  public void set_onnx_query_encoder_cache(int cacheSize) {
+    if (emptyEncoder()) {
+      throw new IllegalStateException("No query encoder set!");
+    }
+    this.queryEncoder.enableQueryCache(cacheSize);
+  }
+
   private boolean emptyEncoder(){
     return this.queryEncoder == null;
   }
@@ -349,6 +363,28 @@ public class SimpleImpactSearcher implements Closeable {
     cascade.add(new ScoreTiesAdjusterReranker<String>());
   }
 
+  /**
+   * Returns the factor by which the top-k score threshold is inflated for dynamic pruning.
+   *
+   * @return threshold factor; 1 for exact search
+   */
+  public float get_threshold() {
+    return threshold;
+  }
+
+  /**
+   * Sets the factor by which the top-k score threshold is inflated for block-max MaxScore dynamic pruning. The default
+   * of 1 yields exact results; values above 1 trade exactness for speed.
+   *
+   * @param thresholdFactor threshold factor, at least 1
+   */
+  public void set_threshold(float thresholdFactor) {
+    if (!(thresholdFactor >= 1.0f)) {
+      throw new IllegalArgumentException("Threshold factor must be at least 1, got " + thresholdFactor);
+    }
+    threshold = thresholdFactor;
+  }
+
   /**
    * Returns the {@link Similarity} (i.e., scoring function) currently being used.
    *
@@ -480,12 +516,23 @@ public class SimpleImpactSearcher implements Closeable {
     List<Callable<Void>> tasks = new ArrayList<>(queryCnt);
     AtomicInteger completionCount = new AtomicInteger();
 
+    // If the encoder can, encode all the queries in batch up front, rather than one at a time in each task.
+    List<Map<String, Integer>> encodedQueries = null;
+    if (queryEncoder != null && queryEncoder.supportsBatching()) {
+      try {
+        encodedQueries = queryEncoder.encodeQueries(queries);
+      } catch (OrtException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
     for (int q = 0; q < queryCnt; ++q) {
       String query = queries.get(q);
       String qid = qids.get(q);
+      Map<String, Integer> encodedQuery = encodedQueries == null ? null : encodedQueries.get(q);
       tasks.add(() -> {
         try {
-          results.put(qid, search(query, k));
+          results.put(qid, encodedQuery == null ? search(query, k) : searchEncodedQuery(encodedQuery, k));
           completionCount.incrementAndGet();
         } catch (IOException | OrtException e) {
           throw new CompletionException(e);
@@ -524,7 +571,7 @@ public class SimpleImpactSearcher implements Closeable {
       return queryTokens.stream().collect(Collectors.toMap(e->e, (a)->1, Integer::sum));
     }
 
-    return this.queryEncoder.encode(queryString);
+    return this.queryEncoder.encodeQuery(queryString);
   }
 
   /**
@@ -580,9 +627,9 @@ public class SimpleImpactSearcher implements Closeable {
    */
   public ScoredDoc[] search(Map<String, Integer> encoded_q, int k) throws IOException, OrtException {
     Map<String, Float> float_encoded_q = intToFloat(encoded_q);
-    Query query = generator.buildQuery(Constants.CONTENTS, float_encoded_q);
-    String encodedQuery = encode_with_onnx(encoded_q);
-    return _search(query, encodedQuery, k);
+    Query query = threshold != 1.0f ? new ImpactQuery(Constants.CONTENTS, float_encoded_q, threshold) :
+        generator.buildQuery(Constants.CONTENTS, float_encoded_q);
+    return _search(query, encoded_q, k);
   }
 
   /**
@@ -596,14 +643,18 @@ public class SimpleImpactSearcher implements Closeable {
    */
   public ScoredDoc[] search(String q, int k) throws IOException, OrtException {
     // make encoded query from raw query
-    Map<String, Integer> encoded_q = encode_with_onnx(q);
-    String encodedQuery = encode_with_onnx(encoded_q);
-    Query query = generator.buildQuery(Constants.CONTENTS, analyzer, encodedQuery);
-    return _search(query, encodedQuery, k);
+    return searchEncodedQuery(encode_with_onnx(q), k);
+  }
+
+  // Searches a string query that has already been encoded, exactly as search(String, int) would.
+  private ScoredDoc[] searchEncodedQuery(Map<String, Integer> encoded_q, int k) throws IOException, OrtException {
+    Query query = threshold != 1.0f ? new ImpactQuery(Constants.CONTENTS, intToFloat(encoded_q), threshold) :
+        generator.buildImpactQuery(Constants.CONTENTS, encoded_q);
+    return _search(query, encoded_q, k);
   }
 
   // internal implementation
-  protected ScoredDoc[] _search(Query query, String encodedQuery, int k) throws IOException, OrtException {
+  protected ScoredDoc[] _search(Query query, Map<String, Integer> encoded_q, int k) throws IOException, OrtException {
     // Create an IndexSearch only once. Note that the object is thread safe.
     if (searcher == null) {
       searcher = new IndexSearcher(reader);
@@ -614,9 +665,6 @@ public class SimpleImpactSearcher implements Closeable {
     searchArgs.arbitraryScoreTieBreak = this.backwardsCompatibilityLucene8;
     searchArgs.hits = k;
 
-    // encoded query can be tokenized using whitespace analyzer
-    List<String> queryTokens = AnalyzerUtils.analyze(analyzer, encodedQuery);
-
     TopDocs rs;
     RerankerContext<String> context;
     if (this.backwardsCompatibilityLucene8) {
@@ -624,7 +672,7 @@ public class SimpleImpactSearcher implements Closeable {
     } else {
       rs = searcher.search(query, k, BREAK_SCORE_TIES_BY_DOCID, true);
     }
-    context = new RerankerContext<>(searcher, null, query, null, encodedQuery, queryTokens, null, searchArgs);
+    context = new RerankerContext<>(searcher, null, query, encoded_q, null, searchArgs);
 
     ScoredDocs hits = cascade.run(ScoredDocs.fromTopDocs(rs, searcher), context);
 
@@ -0,0 +1,356 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>Writes the results of topics that are searched concurrently to a {@link RunOutputWriter} as soon as they can be,
+ * in the order in which the topics were submitted, instead of holding every topic's results until the end.</p>
+ *
+ * <p>The caller {@link #reserve() reserves} a slot for each topic, in order, before submitting it for search; the
+ * search then hands its results over with {@link #write}. Results that complete out of order wait in a reorder buffer
+ * until all earlier topics are done. The buffer holds at most {@code capacity} topics: {@link #reserve()} blocks once
+ * that many topics are in flight, until the earliest one is written. Since slots are reserved in order, the earliest
+ * topic has always been submitted, so this cannot deadlock.</p>
+ *
+ * <p>A crashed run can be picked up again with {@link #resume}, which drops the last (possibly partial) topic from the
+ * run file and returns the topics that are already there, so that they can be skipped.</p>
+ *
+ * @param <K> type of qid, typically string or integer
+ */
+public class StreamingRunOutputWriter<K extends Comparable<K>> implements Closeable {
+  /**
+   * Topics in flight per search thread that make a reasonable capacity: enough to keep the threads busy while a slow
+   * topic holds up the output, but nowhere near all topics of a large set.
+   */
+  public static final int TOPICS_PER_THREAD = 16;
+
+  private static final Logger LOG = LogManager.getLogger(StreamingRunOutputWriter.class);
+
+  /**
+   * Searches a single topic.
+   *
+   * @param <K> type of qid
+   */
+  @FunctionalInterface
+  public interface TopicSearcher<K> {
+    ScoredDoc[] search(K qid, String query) throws IOException;
+  }
+
+  private static final class Pending<K> {
+    final K qid;
+    final String query;
+    final ScoredDoc[] results;
+
+    Pending(K qid, String query, ScoredDoc[] results) {
+      this.qid = qid;
+      this.query = query;
+      this.results = results;
+    }
+  }
+
+  private final RunOutputWriter<K> out;
+  private final Semaphore slots;
+  private final BiConsumer<K, ScoredDoc[]> listener;
+  private final Map<Integer, Pending<K>> buffer = new HashMap<>();
+  private int reserved;
+  private int next;
+  private IOException failure;
+
+  /**
+   * Creates a streaming writer.
+   *
+   * @param out underlying writer, which is closed along with this writer
+   * @param capacity maximum number of topics in flight, i.e., reserved but not yet written
+   * @param listener called with the results of each topic as it is written, in order; may be {@code null}
+   */
+  public StreamingRunOutputWriter(RunOutputWriter<K> out, int capacity, @Nullable BiConsumer<K, ScoredDoc[]> listener) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive!");
+    }
+    this.out = out;
+    this.slots = new Semaphore(capacity);
+    this.listener = listener;
+  }
+
+  /**
+   * Reserves the next slot in the output, blocking if the reorder buffer is full.
+   *
+   * @return sequence number of the slot, to pass to {@link #write} or {@link #skip}
+   * @throws InterruptedException if interrupted while waiting for room in the buffer
+   */
+  public int reserve() throws InterruptedException {
+    slots.acquire();
+    synchronized (this) {
+      return reserved++;
+    }
+  }
+
+  /**
+   * Hands over the results of a topic, writing them along with those of any later topics that are now next in line.
+   *
+   * @param seq sequence number of the slot reserved for the topic
+   * @param qid qid
+   * @param query query
+   * @param results results
+   * @throws IOException if error encountered writing this topic or an earlier one
+   */
+  public void write(int seq, K qid, String query, ScoredDoc[] results) throws IOException {
+    put(seq, new Pending<>(qid, query, results));
+  }
+
+  /**
+   * Gives up a slot without writing anything, e.g., if the search for the topic failed.
+   *
+   * @param seq sequence number of the slot
+   * @throws IOException if error encountered writing an earlier topic
+   */
+  public void skip(int seq) throws IOException {
+    put(seq, new Pending<>(null, null, null));
+  }
+
+  private synchronized void put(int seq, Pending<K> pending) throws IOException {
+    if (seq < next || seq >= reserved || buffer.containsKey(seq)) {
+      throw new IllegalArgumentException(String.format("Slot %d is not pending!", seq));
+    }
+    buffer.put(seq, pending);
+
+    int written = 0;
+    Pending<K> p;
+    while ((p = buffer.remove(next)) != null) {
+      // Once writing fails, we keep draining the buffer (so that no one blocks in reserve) but stop writing.
+      if (failure == null && p.results != null) {
+        try {
+          out.writeTopic(p.qid, p.query, p.results);
+          if (listener != null) {
+            listener.accept(p.qid, p.results);
+          }
+        } catch (IOException e) {
+          failure = e;
+        } catch (RuntimeException e) {
+          failure = new IOException(e);
+        }
+      }
+      next++;
+      written++;
+    }
+
+    if (written > 0) {
+      // Flush, so that a run that crashes can be resumed from the last topic written.
+      out.flush();
+      slots.release(written);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Searches topics on a pool of threads, writing the results of each topic as soon as all earlier topics are done.
+   * Topics whose search fails are left out of the run, as with the batch search methods of the searchers.
+   *
+   * @param qids qids, in the order in which the topics are to be written
+   * @param queries queries, in the same order
+   * @param threads number of threads
+   * @param searcher searcher for a single topic
+   * @throws IOException if error encountered writing the run
+   */
+  public void search(List<K> qids, List<String> queries, int threads, TopicSearcher<K> searcher) throws IOException {
+    assert qids.size() == queries.size();
+    final AtomicInteger cnt = new AtomicInteger();
+    final long start = System.nanoTime();
+
+    try (ExecutorService executor = Executors.newWorkStealingPool(threads)) {
+      for (int i = 0; i < qids.size(); i++) {
+        final K qid = qids.get(i);
+        final String query = queries.get(i);
+        final int slot = reserve();
+
+        executor.submit(() -> {
+          ScoredDoc[] results;
+          try {
+            results = searcher.search(qid, query);
+          } catch (IOException | RuntimeException e) {
+            skip(slot);
+            throw new CompletionException(e);
+          }
+          write(slot, qid, query, results);
+
+          int n = cnt.incrementAndGet();
+          if (n % 100 == 0) {
+            LOG.info("{} queries processed", n);
+          }
+          return null;
+        });
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    final long durationMillis = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    LOG.info("Batch search completed in {}{}", DurationFormatUtils.formatDuration(durationMillis, "HH:mm:ss"),
+        String.format(" = ~%.2f q/s", qids.size() / (durationMillis / 1000.0)));
+  }
+
+  /**
+   * Returns the number of topics written (or skipped) so far.
+   *
+   * @return number of topics written
+   */
+  public synchronized int getWritten() {
+    return next;
+  }
+
+  /**
+   * Closes the underlying writer, rethrowing the error encountered writing topics, if any.
+   *
+   * @throws IOException if error encountered writing topics or closing the writer
+   */
+  @Override
+  public void close() throws IOException {
+    int pending;
+    IOException e;
+    synchronized (this) {
+      pending = reserved - next;
+      e = failure;
+    }
+    out.close();
+    if (e != null) {
+      throw e;
+    }
+    if (pending > 0) {
+      throw new IllegalStateException(String.format("%d topics were reserved but never written!", pending));
+    }
+  }
+
+  /**
+   * Prepares to resume a run that did not finish, as {@link #resume(Path)}, and removes the topics that are already in
+   * the run from the topics to search.
+   *
+   * @param run path to the run
+   * @param qids qids of the topics to search
+   * @param queries queries of the topics to search, in the same order
+   * @param <K> type of qid
+   * @return number of topics removed
+   * @throws IOException if error encountered reading or truncating the run
+   */
+  public static <K> int resume(Path run, List<K> qids, List<String> queries) throws IOException {
+    Set<String> done = resume(run);
+    int n = 0;
+    for (int i = 0; i < qids.size(); i++) {
+      if (!done.contains(qids.get(i).toString())) {
+        qids.set(n, qids.get(i));
+        queries.set(n, queries.get(i));
+        n++;
+      }
+    }
+    int removed = qids.size() - n;
+    qids.subList(n, qids.size()).clear();
+    queries.subList(n, queries.size()).clear();
+    return removed;
+  }
+
+  /**
+   * Prepares to resume a run that did not finish. Since topics are written whole and in order, all topics in the run
+   * file except the last one are complete; the last one is removed from the file, since it may have been cut short.
+   * A run file that does not exist is treated as empty.
+   *
+   * @param run path to the run, in either TREC or MS MARCO format
+   * @return qids of the topics left in the run, which need not be searched again
+   * @throws IOException if error encountered reading or truncating the run
+   */
+  public static Set<String> resume(Path run) throws IOException {
+    Set<String> qids = new HashSet<>();
+    if (!Files.exists(run)) {
+      return qids;
+    }
+
+    String lastQid = null;
+    long lastStart = 0;
+    long offset = 0;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(run), 1 << 16)) {
+      ByteArrayOutputStream qid = new ByteArrayOutputStream();
+      boolean inQid = true;
+      long lineStart = 0;
+      int b;
+      while ((b = in.read()) != -1) {
+        offset++;
+        if (b == '\n') {
+          String current = qid.toString(StandardCharsets.UTF_8);
+          if (!current.equals(lastQid)) {
+            // A new topic starts on this line, so the previous one is complete.
+            if (lastQid != null) {
+              qids.add(lastQid);
+            }
+            lastQid = current;
+            lastStart = lineStart;
+          }
+          qid.reset();
+          inQid = true;
+          lineStart = offset;
+        } else if (inQid) {
+          if (b == ' ' || b == '\t') {
+            inQid = false;
+          } else {
+            qid.write(b);
+          }
+        }
+      }
+
+      // A trailing line without a newline was cut short; if it starts a new topic, drop it along with that topic. If
+      // it was cut short within the qid, we can't tell, and drop it along with the last topic to be on the safe side.
+      if (lineStart < offset && !inQid && !qid.toString(StandardCharsets.UTF_8).equals(lastQid)) {
+        if (lastQid != null) {
+          qids.add(lastQid);
+        }
+        lastStart = lineStart;
+      }
+    }
+
+    try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+      channel.truncate(lastStart);
+    }
+    return qids;
+  }
+}
@@ -69,6 +69,27 @@ public class BagOfWordsQueryGenerator extends QueryGenerator {
     return builder.build();
   }
 
+  /**
+   * Builds a weighted disjunction directly from (token, weight) pairs, e.g., the output of a learned sparse encoder.
+   * The result is the same as analyzing a string in which each token is repeated as many times as its weight, but the
+   * string is never materialized, so the cost does not grow with the weights. Tokens with non-positive weights are
+   * dropped, just as they would be absent from such a string.
+   *
+   * @param field field to search
+   * @param queryTokenWeights token weights
+   * @return query
+   */
+  public Query buildImpactQuery(String field, Map<String, Integer> queryTokenWeights) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (Map.Entry<String, Integer> entry : queryTokenWeights.entrySet()) {
+      if (entry.getValue() > 0) {
+        builder.add(new BoostQuery(new TermQuery(new Term(field, entry.getKey())), (float) entry.getValue()),
+            BooleanClause.Occur.SHOULD);
+      }
+    }
+    return builder.build();
+  }
+
   public Query buildQuery(Map<String, Float> fields, Map<String, Float> queryTokenWeights) {
     BooleanQuery.Builder builder = new BooleanQuery.Builder();
     for (Map.Entry<String, Float> entry : fields.entrySet()) {
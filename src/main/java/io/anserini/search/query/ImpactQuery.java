@@ -0,0 +1,265 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.query;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.FilterScorable;
+import org.apache.lucene.search.FilterScorer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>A weighted disjunction of terms for searching impact indexes (e.g., learned sparse representations such as
+ * SPLADE) with long queries, scored with block-max MaxScore dynamic pruning. For each block of postings, Lucene stores
+ * the maximum impact at index time; these bound the score that a term can contribute within a window of documents.
+ * Terms whose bounds together cannot lift a document into the current top-k are "non-essential": documents that only
+ * contain non-essential terms are never visited, and whole blocks of their postings are skipped.</p>
+ *
+ * <p>With a threshold factor of 1 (the default), pruning is safe: the query rewrites into the equivalent
+ * {@link BooleanQuery} of boosted {@link TermQuery}s, whose top-k scoring in Lucene already implements block-max
+ * MaxScore, and the top-k is exactly the same as with exhaustive evaluation. With a factor greater than 1, the score
+ * threshold that documents must beat is inflated by that factor before being handed to the MaxScore scorer, which
+ * prunes more aggressively at the cost of possibly missing some documents that belong in the top-k. Documents that are
+ * returned always have their exact scores.</p>
+ */
+public class ImpactQuery extends Query {
+  private final String field;
+  private final String[] terms;
+  private final float[] weights;
+  private final float thresholdFactor;
+
+  /**
+   * Creates an exact impact query.
+   *
+   * @param field field to search
+   * @param queryTokenWeights token weights
+   */
+  public ImpactQuery(String field, Map<String, Float> queryTokenWeights) {
+    this(field, queryTokenWeights, 1.0f);
+  }
+
+  /**
+   * Creates an impact query.
+   *
+   * @param field field to search
+   * @param queryTokenWeights token weights
+   * @param thresholdFactor factor by which to inflate the top-k score threshold; 1 for exact search
+   */
+  public ImpactQuery(String field, Map<String, Float> queryTokenWeights, float thresholdFactor) {
+    if (!(thresholdFactor >= 1.0f)) {
+      throw new IllegalArgumentException("Threshold factor must be at least 1, got " + thresholdFactor);
+    }
+
+    // Keep terms in sorted order, so that equal queries are equal regardless of map iteration order.
+    TreeMap<String, Float> sorted = new TreeMap<>();
+    queryTokenWeights.forEach((token, weight) -> {
+      if (weight > 0) {
+        sorted.put(token, weight);
+      }
+    });
+
+    this.field = field;
+    this.terms = sorted.keySet().toArray(new String[0]);
+    this.weights = new float[terms.length];
+    for (int i = 0; i < terms.length; i++) {
+      weights[i] = sorted.get(terms[i]);
+    }
+    this.thresholdFactor = thresholdFactor;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public float getThresholdFactor() {
+    return thresholdFactor;
+  }
+
+  /**
+   * Returns the equivalent {@link BooleanQuery}, which scores documents exhaustively.
+   *
+   * @return equivalent {@code BooleanQuery}
+   */
+  public BooleanQuery toBooleanQuery() {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (int i = 0; i < terms.length; i++) {
+      builder.add(new BoostQuery(new TermQuery(new Term(field, terms[i])), weights[i]), BooleanClause.Occur.SHOULD);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Query rewrite(IndexSearcher searcher) throws IOException {
+    return thresholdFactor == 1.0f ? toBooleanQuery() : this;
+  }
+
+  @Override
+  public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+    Weight in = searcher.createWeight(searcher.rewrite(toBooleanQuery()), scoreMode, boost);
+    // The threshold only means something when we're after the top-scoring documents.
+    if (scoreMode != ScoreMode.TOP_SCORES || thresholdFactor == 1.0f) {
+      return in;
+    }
+
+    return new ThresholdWeight(in);
+  }
+
+  @Override
+  public void visit(QueryVisitor visitor) {
+    if (visitor.acceptField(field)) {
+      Term[] queryTerms = new Term[terms.length];
+      for (int i = 0; i < terms.length; i++) {
+        queryTerms[i] = new Term(field, terms[i]);
+      }
+      visitor.consumeTerms(this, queryTerms);
+    }
+  }
+
+  @Override
+  public String toString(String defaultField) {
+    StringBuilder sb = new StringBuilder("ImpactQuery(");
+    for (int i = 0; i < terms.length; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      if (!field.equals(defaultField)) {
+        sb.append(field).append(':');
+      }
+      sb.append(terms[i]).append('^').append(weights[i]);
+    }
+    sb.append(')');
+    if (thresholdFactor != 1.0f) {
+      sb.append("~").append(thresholdFactor);
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!sameClassAs(other)) {
+      return false;
+    }
+    ImpactQuery that = (ImpactQuery) other;
+    return field.equals(that.field) && Arrays.equals(terms, that.terms) && Arrays.equals(weights, that.weights) &&
+        thresholdFactor == that.thresholdFactor;
+  }
+
+  @Override
+  public int hashCode() {
+    int h = classHash();
+    h = 31 * h + field.hashCode();
+    h = 31 * h + Arrays.hashCode(terms);
+    h = 31 * h + Arrays.hashCode(weights);
+    h = 31 * h + Float.hashCode(thresholdFactor);
+    return h;
+  }
+
+  // Scales the minimum competitive scores that collectors hand to the underlying scorers by the threshold factor.
+  private class ThresholdWeight extends Weight {
+    private final Weight in;
+
+    private ThresholdWeight(Weight in) {
+      super(ImpactQuery.this);
+      this.in = in;
+    }
+
+    @Override
+    public Scorer scorer(LeafReaderContext context) throws IOException {
+      Scorer scorer = in.scorer(context);
+      if (scorer == null) {
+        return null;
+      }
+
+      return new FilterScorer(scorer, this) {
+        @Override
+        public void setMinCompetitiveScore(float minScore) throws IOException {
+          in.setMinCompetitiveScore(minScore * thresholdFactor);
+        }
+
+        @Override
+        public int advanceShallow(int target) throws IOException {
+          return in.advanceShallow(target);
+        }
+
+        @Override
+        public float getMaxScore(int upTo) throws IOException {
+          return in.getMaxScore(upTo);
+        }
+      };
+    }
+
+    @Override
+    public BulkScorer bulkScorer(LeafReaderContext context) throws IOException {
+      BulkScorer bulkScorer = in.bulkScorer(context);
+      if (bulkScorer == null) {
+        return null;
+      }
+
+      return new BulkScorer() {
+        @Override
+        public int score(LeafCollector collector, Bits acceptDocs, int min, int max) throws IOException {
+          return bulkScorer.score(new FilterLeafCollector(collector) {
+            @Override
+            public void setScorer(Scorable scorer) throws IOException {
+              super.setScorer(new FilterScorable(scorer) {
+                @Override
+                public void setMinCompetitiveScore(float minScore) throws IOException {
+                  in.setMinCompetitiveScore(minScore * thresholdFactor);
+                }
+              });
+            }
+          }, acceptDocs, min, max);
+        }
+
+        @Override
+        public long cost() {
+          return bulkScorer.cost();
+        }
+      };
+    }
+
+    @Override
+    public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+      return in.explain(context, doc);
+    }
+
+    @Override
+    public boolean isCacheable(LeafReaderContext context) {
+      return false;
+    }
+  }
+}
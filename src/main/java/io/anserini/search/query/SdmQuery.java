@@ -0,0 +1,586 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.query;
+
+import io.anserini.analysis.SdmBigramFilter;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafSimScorer;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>The Sequential Dependence Model (SDM) of Metzler and Croft, scored in a single pass over the postings of the query
+ * terms. For each document, the score is the weighted sum of three groups of features: the query terms, the ordered
+ * windows of adjacent query terms (at most one position apart), and the unordered windows of adjacent query terms
+ * (within eight positions), each scored by the similarity of the searcher.</p>
+ *
+ * <p>Scores are the same (up to float rounding) as those of the equivalent query built from {@code TermQuery}s and
+ * {@code SpanNearQuery}s by {@link SdmQueryGenerator}, which counts windows the same way, but without the overhead of
+ * a span query per window and three levels of boolean queries: positions are read at most once per term and document,
+ * and only for documents that contain both terms of a window.</p>
+ *
+ * <p>If the index has a field of bigrams generated by {@link SdmBigramFilter}, the ordered windows are counted by
+ * looking up the bigrams instead, and positions are only read for the unordered windows (if at all).</p>
+ */
+public class SdmQuery extends Query {
+  // The slops of the ordered and unordered windows, as in SdmQueryGenerator.
+  private static final int ORDERED_SLOP = 1;
+  private static final int UNORDERED_SLOP = 8;
+
+  private final String field;
+  private final String[] terms;
+  private final float termWeight;
+  private final float orderedWindowWeight;
+  private final float unorderedWindowWeight;
+  private final String bigramField;
+
+  /**
+   * Creates an SDM query that reads positions for all windows.
+   *
+   * @param field field to search
+   * @param terms query terms, in order
+   * @param termWeight weight of the terms
+   * @param orderedWindowWeight weight of the ordered windows
+   * @param unorderedWindowWeight weight of the unordered windows
+   */
+  public SdmQuery(String field, List<String> terms, float termWeight, float orderedWindowWeight,
+                  float unorderedWindowWeight) {
+    this(field, terms, termWeight, orderedWindowWeight, unorderedWindowWeight, null);
+  }
+
+  /**
+   * Creates an SDM query.
+   *
+   * @param field field to search
+   * @param terms query terms, in order
+   * @param termWeight weight of the terms
+   * @param orderedWindowWeight weight of the ordered windows
+   * @param unorderedWindowWeight weight of the unordered windows
+   * @param bigramField field of bigrams generated by {@link SdmBigramFilter}, used for the ordered windows in the
+   *                    segments that have it; or null to always read positions
+   */
+  public SdmQuery(String field, List<String> terms, float termWeight, float orderedWindowWeight,
+                  float unorderedWindowWeight, String bigramField) {
+    if (terms.isEmpty()) {
+      throw new IllegalArgumentException("SDM query must have at least one term");
+    }
+
+    this.field = field;
+    this.terms = terms.toArray(new String[0]);
+    this.termWeight = termWeight;
+    this.orderedWindowWeight = orderedWindowWeight;
+    this.unorderedWindowWeight = unorderedWindowWeight;
+    this.bigramField = bigramField;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public String getBigramField() {
+    return bigramField;
+  }
+
+  @Override
+  public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+    return new SdmWeight(searcher, boost);
+  }
+
+  @Override
+  public void visit(QueryVisitor visitor) {
+    if (visitor.acceptField(field)) {
+      Term[] queryTerms = new Term[terms.length];
+      for (int i = 0; i < terms.length; i++) {
+        queryTerms[i] = new Term(field, terms[i]);
+      }
+      visitor.consumeTerms(this, queryTerms);
+    }
+  }
+
+  @Override
+  public String toString(String defaultField) {
+    StringBuilder sb = new StringBuilder("SdmQuery(");
+    for (int i = 0; i < terms.length; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      if (!field.equals(defaultField)) {
+        sb.append(field).append(':');
+      }
+      sb.append(terms[i]);
+    }
+    sb.append(")^(").append(termWeight).append(',').append(orderedWindowWeight).append(',')
+        .append(unorderedWindowWeight).append(')');
+    return sb.toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!sameClassAs(other)) {
+      return false;
+    }
+    SdmQuery that = (SdmQuery) other;
+    return field.equals(that.field) && Arrays.equals(terms, that.terms) && termWeight == that.termWeight &&
+        orderedWindowWeight == that.orderedWindowWeight && unorderedWindowWeight == that.unorderedWindowWeight &&
+        Objects.equals(bigramField, that.bigramField);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = classHash();
+    h = 31 * h + field.hashCode();
+    h = 31 * h + Arrays.hashCode(terms);
+    h = 31 * h + Float.hashCode(termWeight);
+    h = 31 * h + Float.hashCode(orderedWindowWeight);
+    h = 31 * h + Float.hashCode(unorderedWindowWeight);
+    h = 31 * h + Objects.hashCode(bigramField);
+    return h;
+  }
+
+  private class SdmWeight extends Weight {
+    // Distinct terms, and the distinct term of each query term.
+    private final List<Term> distinct = new ArrayList<>();
+    private final int[] termIndexes = new int[terms.length];
+    private final TermStates[] termStates;
+    // Similarity scorers of the query terms, and of the windows of adjacent query terms; null if they can't match.
+    private final Similarity.SimScorer[] termScorers = new Similarity.SimScorer[terms.length];
+    private final Similarity.SimScorer[] orderedScorers = new Similarity.SimScorer[terms.length - 1];
+    private final Similarity.SimScorer[] unorderedScorers = new Similarity.SimScorer[terms.length - 1];
+
+    private SdmWeight(IndexSearcher searcher, float boost) throws IOException {
+      super(SdmQuery.this);
+
+      Map<String, Integer> indexes = new LinkedHashMap<>();
+      for (int i = 0; i < terms.length; i++) {
+        termIndexes[i] = indexes.computeIfAbsent(terms[i], term -> {
+          distinct.add(new Term(field, term));
+          return distinct.size() - 1;
+        });
+      }
+
+      termStates = new TermStates[distinct.size()];
+      TermStatistics[] termStatistics = new TermStatistics[distinct.size()];
+      for (int i = 0; i < distinct.size(); i++) {
+        termStates[i] = TermStates.build(searcher, distinct.get(i), true);
+        if (termStates[i].docFreq() > 0) {
+          termStatistics[i] = searcher.termStatistics(distinct.get(i), termStates[i].docFreq(),
+              termStates[i].totalTermFreq());
+        }
+      }
+
+      CollectionStatistics collectionStatistics = searcher.collectionStatistics(field);
+      if (collectionStatistics == null) {
+        return;
+      }
+
+      Similarity similarity = searcher.getSimilarity();
+      for (int i = 0; i < terms.length; i++) {
+        TermStatistics statistics = termStatistics[termIndexes[i]];
+        if (statistics != null) {
+          termScorers[i] = similarity.scorer(boost * termWeight, collectionStatistics, statistics);
+        }
+      }
+      // As for span queries, windows are scored with the statistics of their distinct terms.
+      for (int i = 0; i < terms.length - 1; i++) {
+        TermStatistics first = termStatistics[termIndexes[i]];
+        TermStatistics second = termStatistics[termIndexes[i + 1]];
+        if (first != null && second != null) {
+          TermStatistics[] statistics = termIndexes[i] == termIndexes[i + 1] ?
+              new TermStatistics[] {first} : new TermStatistics[] {first, second};
+          orderedScorers[i] = similarity.scorer(boost * orderedWindowWeight, collectionStatistics, statistics);
+          unorderedScorers[i] = similarity.scorer(boost * unorderedWindowWeight, collectionStatistics, statistics);
+        }
+      }
+    }
+
+    @Override
+    public SdmScorer scorer(LeafReaderContext context) throws IOException {
+      LeafReader reader = context.reader();
+      Terms fieldTerms = reader.terms(field);
+      if (fieldTerms == null) {
+        return null;
+      }
+
+      FieldInfo bigramInfo = bigramField == null ? null : reader.getFieldInfos().fieldInfo(bigramField);
+      boolean useBigrams = bigramInfo != null && bigramInfo.getIndexOptions() != IndexOptions.NONE;
+      boolean needsPositions = (unorderedWindowWeight != 0.0f || (orderedWindowWeight != 0.0f && !useBigrams)) &&
+          terms.length > 1;
+      if (needsPositions && !fieldTerms.hasPositions()) {
+        throw new IllegalStateException("field \"" + field + "\" was indexed without position data; cannot run " +
+            "SdmQuery (terms=" + String.join(" ", terms) + ")");
+      }
+
+      PostingsEnum[] postings = new PostingsEnum[distinct.size()];
+      boolean matches = false;
+      TermsEnum termsEnum = fieldTerms.iterator();
+      for (int i = 0; i < distinct.size(); i++) {
+        TermState state = termStates[i].get(context);
+        if (state != null) {
+          termsEnum.seekExact(distinct.get(i).bytes(), state);
+          postings[i] = termsEnum.postings(null, needsPositions ? PostingsEnum.POSITIONS : PostingsEnum.FREQS);
+          matches = true;
+        }
+      }
+      if (!matches) {
+        return null;
+      }
+
+      PostingsEnum[] bigrams = null;
+      PostingsEnum[] gappedBigrams = null;
+      if (useBigrams && orderedWindowWeight != 0.0f) {
+        bigrams = new PostingsEnum[terms.length - 1];
+        gappedBigrams = new PostingsEnum[terms.length - 1];
+        for (int i = 0; i < terms.length - 1; i++) {
+          bigrams[i] = reader.postings(new Term(bigramField, SdmBigramFilter.bigram(terms[i], terms[i + 1])),
+              PostingsEnum.FREQS);
+          gappedBigrams[i] = reader.postings(new Term(bigramField,
+              SdmBigramFilter.gappedBigram(terms[i], terms[i + 1])), PostingsEnum.FREQS);
+        }
+      }
+
+      return new SdmScorer(this, reader, postings, needsPositions, bigrams, gappedBigrams);
+    }
+
+    @Override
+    public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+      SdmScorer scorer = scorer(context);
+      if (scorer == null || scorer.iterator().advance(doc) != doc) {
+        return Explanation.noMatch("no matching terms");
+      }
+
+      float score = scorer.score();
+      List<Explanation> termExplanations = new ArrayList<>();
+      List<Explanation> orderedExplanations = new ArrayList<>();
+      List<Explanation> unorderedExplanations = new ArrayList<>();
+      for (int i = 0; i < terms.length; i++) {
+        if (scorer.termFreqs[i] > 0) {
+          termExplanations.add(new LeafSimScorer(termScorers[i], context.reader(), field, true).explain(doc,
+              Explanation.match(scorer.termFreqs[i], "freq, occurrences of " + terms[i] + " within document")));
+        }
+      }
+      for (int i = 0; i < terms.length - 1; i++) {
+        if (scorer.orderedFreqs[i] > 0) {
+          orderedExplanations.add(new LeafSimScorer(orderedScorers[i], context.reader(), field, true).explain(doc,
+              Explanation.match(scorer.orderedFreqs[i], "phraseFreq, ordered windows of " + terms[i] + " " +
+                  terms[i + 1] + " within document")));
+        }
+        if (scorer.unorderedFreqs[i] > 0) {
+          unorderedExplanations.add(new LeafSimScorer(unorderedScorers[i], context.reader(), field, true).explain(
+              doc, Explanation.match(scorer.unorderedFreqs[i], "phraseFreq, unordered windows of " + terms[i] + " " +
+                  terms[i + 1] + " within document")));
+        }
+      }
+
+      return Explanation.match(score, "sum of:",
+          Explanation.match(scorer.termScore, "terms, sum of:", termExplanations),
+          Explanation.match(scorer.orderedScore, "ordered windows, sum of:", orderedExplanations),
+          Explanation.match(scorer.unorderedScore, "unordered windows, sum of:", unorderedExplanations));
+    }
+
+    @Override
+    public boolean isCacheable(LeafReaderContext context) {
+      return true;
+    }
+  }
+
+  private class SdmScorer extends Scorer {
+    private final int[] termIndexes;
+    private final PostingsEnum[] postings;
+    private final boolean needsPositions;
+    private final PostingsEnum[] bigrams;
+    private final PostingsEnum[] gappedBigrams;
+    private final LeafSimScorer[] termScorers = new LeafSimScorer[terms.length];
+    private final LeafSimScorer[] orderedScorers = new LeafSimScorer[terms.length - 1];
+    private final LeafSimScorer[] unorderedScorers = new LeafSimScorer[terms.length - 1];
+    private final DocIdSetIterator iterator;
+    private final long cost;
+
+    // Positions of the distinct terms in the current document, read on demand.
+    private final int[][] positions;
+    private final int[] numPositions;
+    private final int[] positionsDoc;
+
+    // Frequencies and scores of the current document, computed on demand.
+    private final float[] termFreqs = new float[terms.length];
+    private final float[] orderedFreqs = new float[terms.length - 1];
+    private final float[] unorderedFreqs = new float[terms.length - 1];
+    private float termScore;
+    private float orderedScore;
+    private float unorderedScore;
+    private float score;
+
+    private int doc = -1;
+    private int scoredDoc = -1;
+
+    private SdmScorer(SdmWeight weight, LeafReader reader, PostingsEnum[] postings, boolean needsPositions,
+                      PostingsEnum[] bigrams, PostingsEnum[] gappedBigrams) throws IOException {
+      super(weight);
+      this.termIndexes = weight.termIndexes;
+      this.postings = postings;
+      this.needsPositions = needsPositions;
+      this.bigrams = bigrams;
+      this.gappedBigrams = gappedBigrams;
+
+      for (int i = 0; i < terms.length; i++) {
+        if (weight.termScorers[i] != null) {
+          termScorers[i] = new LeafSimScorer(weight.termScorers[i], reader, field, true);
+        }
+      }
+      for (int i = 0; i < terms.length - 1; i++) {
+        if (weight.orderedScorers[i] != null) {
+          orderedScorers[i] = new LeafSimScorer(weight.orderedScorers[i], reader, field, true);
+          unorderedScorers[i] = new LeafSimScorer(weight.unorderedScorers[i], reader, field, true);
+        }
+      }
+
+      positions = new int[postings.length][];
+      numPositions = new int[postings.length];
+      positionsDoc = new int[postings.length];
+      long cost = 0;
+      for (int i = 0; i < postings.length; i++) {
+        positions[i] = new int[8];
+        positionsDoc[i] = -1;
+        if (postings[i] != null) {
+          cost += postings[i].cost();
+        }
+      }
+      this.cost = cost;
+
+      // A disjunction of the postings of the terms; queries are short enough for a linear scan to do.
+      this.iterator = new DocIdSetIterator() {
+        @Override
+        public int docID() {
+          return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+          return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+          int next = NO_MORE_DOCS;
+          for (PostingsEnum postingsEnum : SdmScorer.this.postings) {
+            if (postingsEnum != null) {
+              int current = postingsEnum.docID();
+              if (current < target) {
+                current = postingsEnum.advance(target);
+              }
+              next = Math.min(next, current);
+            }
+          }
+          return doc = next;
+        }
+
+        @Override
+        public long cost() {
+          return SdmScorer.this.cost;
+        }
+      };
+    }
+
+    @Override
+    public int docID() {
+      return doc;
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+      return iterator;
+    }
+
+    @Override
+    public float getMaxScore(int upTo) {
+      return Float.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public float score() throws IOException {
+      if (scoredDoc != doc) {
+        computeScore();
+        scoredDoc = doc;
+      }
+      return score;
+    }
+
+    // Sums the features the way the equivalent boolean query does: each group in double, then rounded to float.
+    private void computeScore() throws IOException {
+      double termSum = 0;
+      for (int i = 0; i < terms.length; i++) {
+        PostingsEnum postingsEnum = postings[termIndexes[i]];
+        termFreqs[i] = postingsEnum != null && postingsEnum.docID() == doc ? postingsEnum.freq() : 0;
+        if (termFreqs[i] > 0 && termScorers[i] != null) {
+          termSum += termScorers[i].score(doc, termFreqs[i]);
+        }
+      }
+
+      double orderedSum = 0;
+      double unorderedSum = 0;
+      for (int i = 0; i < terms.length - 1; i++) {
+        orderedFreqs[i] = 0;
+        unorderedFreqs[i] = 0;
+        if (termFreqs[i] == 0 || termFreqs[i + 1] == 0 || orderedScorers[i] == null) {
+          continue;
+        }
+
+        if (bigrams != null) {
+          orderedFreqs[i] = bigramFreq(bigrams[i]) + 0.5f * bigramFreq(gappedBigrams[i]);
+        }
+        if (needsPositions) {
+          int first = termIndexes[i];
+          int second = termIndexes[i + 1];
+          readPositions(first);
+          readPositions(second);
+          if (bigrams == null && orderedWindowWeight != 0.0f) {
+            orderedFreqs[i] = orderedFreq(positions[first], numPositions[first], positions[second],
+                numPositions[second]);
+          }
+          if (unorderedWindowWeight != 0.0f) {
+            unorderedFreqs[i] = unorderedFreq(positions[first], numPositions[first], positions[second],
+                numPositions[second]);
+          }
+        }
+
+        if (orderedFreqs[i] > 0) {
+          orderedSum += orderedScorers[i].score(doc, orderedFreqs[i]);
+        }
+        if (unorderedFreqs[i] > 0) {
+          unorderedSum += unorderedScorers[i].score(doc, unorderedFreqs[i]);
+        }
+      }
+
+      termScore = (float) termSum;
+      orderedScore = (float) orderedSum;
+      unorderedScore = (float) unorderedSum;
+      score = (float) ((double) termScore + (double) orderedScore + (double) unorderedScore);
+    }
+
+    private int bigramFreq(PostingsEnum postingsEnum) throws IOException {
+      if (postingsEnum == null) {
+        return 0;
+      }
+      if (postingsEnum.docID() < doc) {
+        postingsEnum.advance(doc);
+      }
+      return postingsEnum.docID() == doc ? postingsEnum.freq() : 0;
+    }
+
+    private void readPositions(int term) throws IOException {
+      if (positionsDoc[term] == doc) {
+        return;
+      }
+      PostingsEnum postingsEnum = postings[term];
+      int freq = postingsEnum.freq();
+      positions[term] = ArrayUtil.grow(positions[term], freq);
+      for (int i = 0; i < freq; i++) {
+        positions[term][i] = postingsEnum.nextPosition();
+      }
+      numPositions[term] = freq;
+      positionsDoc[term] = doc;
+    }
+  }
+
+  /**
+   * Counts the ordered windows of two terms, as a {@code SpanNearQuery} with a slop of 1 does: for each position of the
+   * first term, the next position of the second term after it, if they are at most one position apart, weighted by
+   * the inverse of one plus the gap between them.
+   */
+  static float orderedFreq(int[] first, int numFirst, int[] second, int numSecond) {
+    float freq = 0;
+    int j = 0;
+    for (int i = 0; i < numFirst; i++) {
+      while (j < numSecond && second[j] < first[i] + 1) {
+        j++;
+      }
+      if (j == numSecond) {
+        break;
+      }
+      int width = second[j] - first[i] - 1;
+      if (width <= ORDERED_SLOP) {
+        freq = (float) (freq + 1.0 / (1.0 + width));
+      }
+    }
+    return freq;
+  }
+
+  /**
+   * Counts the unordered windows of two terms, as a {@code SpanNearQuery} with a slop of 8 does: advancing whichever
+   * term is at the earlier position, each time the two current positions are within the slop, weighted by the inverse
+   * of one plus the distance from the earlier position to the end of the later one.
+   */
+  static float unorderedFreq(int[] first, int numFirst, int[] second, int numSecond) {
+    float freq = 0;
+    int i = 0;
+    int j = 0;
+    boolean firstIsTop = !(second[0] < first[0]);
+    int maxEnd = Math.max(first[0], second[0]) + 1;
+    while (true) {
+      int topStart = firstIsTop ? first[i] : second[j];
+      if (maxEnd - topStart - 2 <= UNORDERED_SLOP) {
+        freq = (float) (freq + 1.0 / (1.0 + (maxEnd - topStart)));
+      }
+
+      int otherStart;
+      if (firstIsTop) {
+        if (++i == numFirst) {
+          break;
+        }
+        topStart = first[i];
+        otherStart = second[j];
+      } else {
+        if (++j == numSecond) {
+          break;
+        }
+        topStart = second[j];
+        otherStart = first[i];
+      }
+      maxEnd = Math.max(maxEnd, topStart + 1);
+      if (otherStart < topStart) {
+        firstIsTop = !firstIsTop;
+      }
+    }
+    return freq;
+  }
+}
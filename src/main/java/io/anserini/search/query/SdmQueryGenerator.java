@@ -37,17 +37,31 @@ public class SdmQueryGenerator extends QueryGenerator {
   private final float termWeight;
   private final float orderWindowWeight;
   private final float unorderWindowWeight;
+  private final boolean spans;
+  private final String bigramField;
   
   public SdmQueryGenerator() {
-    this.termWeight = 0.85f;
-    this.orderWindowWeight = 0.1f;
-    this.unorderWindowWeight = 0.05f;
+    this(0.85f, 0.1f, 0.05f);
   }
   
+  /*
+   * Builds the query from span queries, which is the reference for the scores of SdmQuery.
+   */
   public SdmQueryGenerator(float termWeight, float orderWindowWeight, float unorderWindowWeight) {
+    this(termWeight, orderWindowWeight, unorderWindowWeight, true, null);
+  }
+
+  /*
+   * Builds either the query from span queries, or an SdmQuery, which scores the same in a single pass over positions
+   * (and looks up the ordered windows in the bigram field instead, if not null and indexed).
+   */
+  public SdmQueryGenerator(float termWeight, float orderWindowWeight, float unorderWindowWeight, boolean spans,
+                           String bigramField) {
     this.termWeight = termWeight;
     this.orderWindowWeight = orderWindowWeight;
     this.unorderWindowWeight = unorderWindowWeight;
+    this.spans = spans;
+    this.bigramField = bigramField;
   }
   
   /*
@@ -62,6 +76,10 @@ public class SdmQueryGenerator extends QueryGenerator {
       termsBuilder.add(new TermQuery(new Term(field, tokens.get(0))), BooleanClause.Occur.SHOULD);
       return termsBuilder.build();
     }
+
+    if (!spans) {
+      return new SdmQuery(field, tokens, termWeight, orderWindowWeight, unorderWindowWeight, bigramField);
+    }
     
     BooleanQuery.Builder orderedWindowBuilder = new BooleanQuery.Builder();
     BooleanQuery.Builder unorderedWindowBuilder = new BooleanQuery.Builder();
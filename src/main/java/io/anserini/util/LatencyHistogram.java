@@ -0,0 +1,146 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * <p>A histogram of latencies (or any non-negative values), in the style of HdrHistogram: values are counted in buckets
+ * that are linear within each power of two, with 128 buckets per power of two, so that recording a value takes a few
+ * instructions and percentiles are within 1/128 (under 1%) of the exact values, whatever their range. The buckets take
+ * about 1KB per power of two up to the largest value recorded.</p>
+ *
+ * <p>A histogram isn't thread-safe; threads record into their own histograms, which are then merged with {@link
+ * #add(LatencyHistogram)}.</p>
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private long[] counts = new long[2 * SUB_BUCKETS];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  /**
+   * Records a value; negative values are recorded as zero.
+   *
+   * @param value value, e.g., a latency in nanoseconds
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    int index = index(value);
+    if (index >= counts.length) {
+      counts = ArrayUtil.grow(counts, index + 1);
+    }
+    counts[index]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Adds the values recorded in another histogram to this one.
+   *
+   * @param other other histogram
+   */
+  public void add(LatencyHistogram other) {
+    if (other.counts.length > counts.length) {
+      counts = ArrayUtil.growExact(counts, other.counts.length);
+    }
+    for (int i = 0; i < other.counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  // Values below 256 have a bucket each; above that, the buckets of each power of two are twice as wide as the last.
+  private static int index(long value) {
+    int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  private static long highestValue(int index) {
+    int shift = Math.max(0, index / SUB_BUCKETS - 1);
+    long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return number of values
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Returns the smallest value recorded.
+   *
+   * @return smallest value, or 0 if no values were recorded
+   */
+  public long min() {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return largest value, or 0 if no values were recorded
+   */
+  public long max() {
+    return max;
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   *
+   * @return mean, or 0 if no values were recorded
+   */
+  public double mean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Returns the value at a percentile, i.e., the smallest value that the given percentage of values are at most, up to
+   * the precision of the buckets.
+   *
+   * @param percentile percentile, between 0 and 100
+   * @return value at the percentile, or 0 if no values were recorded
+   */
+  public long valueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.max(min, Math.min(max, highestValue(i)));
+      }
+    }
+    return max;
+  }
+}
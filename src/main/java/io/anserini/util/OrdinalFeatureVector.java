@@ -0,0 +1,289 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntroSorter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A sparse feature vector keyed by term ordinals from a {@link TermVocabulary}, held as parallel {@code int[]} and
+ * {@code float[]} arrays sorted by ordinal. This is the primitive counterpart of {@link FeatureVector}, for feedback
+ * models that would otherwise spend most of their time boxing floats and hashing strings: lookups are binary searches,
+ * and combining two vectors is a merge-join.</p>
+ *
+ * <p>The operations compute the same values as their {@link FeatureVector} counterparts; in particular, ties in
+ * feature values are broken by term (in {@link String} order) when pruning.</p>
+ */
+public class OrdinalFeatureVector {
+  private final TermVocabulary vocabulary;
+  private int[] ordinals = new int[8];
+  private float[] values = new float[8];
+  private int size;
+  // Features are appended in whatever order they come; we sort (and merge duplicates) lazily.
+  private boolean sorted = true;
+
+  public OrdinalFeatureVector(TermVocabulary vocabulary) {
+    this.vocabulary = vocabulary;
+  }
+
+  public TermVocabulary getVocabulary() {
+    return vocabulary;
+  }
+
+  public void addFeatureValue(int ordinal, float value) {
+    if (size == ordinals.length) {
+      ordinals = ArrayUtil.grow(ordinals, size + 1);
+      values = ArrayUtil.growExact(values, ordinals.length);
+    }
+    if (size > 0 && ordinal <= ordinals[size - 1]) {
+      sorted = false;
+    }
+    ordinals[size] = ordinal;
+    values[size] = value;
+    size++;
+  }
+
+  public int size() {
+    ensureSorted();
+    return size;
+  }
+
+  /**
+   * Returns the ordinal of the i-th feature, in increasing order of ordinals.
+   *
+   * @param i index of the feature
+   * @return ordinal of the feature
+   */
+  public int ordinalAt(int i) {
+    ensureSorted();
+    return ordinals[i];
+  }
+
+  /**
+   * Returns the value of the i-th feature, in increasing order of ordinals.
+   *
+   * @param i index of the feature
+   * @return value of the feature
+   */
+  public float valueAt(int i) {
+    ensureSorted();
+    return values[i];
+  }
+
+  public float getValue(int ordinal) {
+    ensureSorted();
+    int i = Arrays.binarySearch(ordinals, 0, size, ordinal);
+    return i < 0 ? 0.0f : values[i];
+  }
+
+  public boolean contains(int ordinal) {
+    ensureSorted();
+    return Arrays.binarySearch(ordinals, 0, size, ordinal) >= 0;
+  }
+
+  public OrdinalFeatureVector pruneToSize(int k) {
+    ensureSorted();
+    // Same as FeatureVector, which always keeps at least one feature.
+    int n = Math.min(size, Math.max(k, 1));
+    if (n == size) {
+      return this;
+    }
+
+    int[] top = orderByValueDescending();
+    Arrays.sort(top, 0, n);
+    int[] prunedOrdinals = new int[n];
+    float[] prunedValues = new float[n];
+    for (int i = 0; i < n; i++) {
+      prunedOrdinals[i] = ordinals[top[i]];
+      prunedValues[i] = values[top[i]];
+    }
+
+    ordinals = prunedOrdinals;
+    values = prunedValues;
+    size = n;
+    return this;
+  }
+
+  public OrdinalFeatureVector scaleToUnitL2Norm() {
+    double norm = computeL2Norm();
+    for (int i = 0; i < size; i++) {
+      values[i] = (float) (values[i] / norm);
+    }
+    return this;
+  }
+
+  public OrdinalFeatureVector scaleToUnitL1Norm() {
+    double norm = computeL1Norm();
+    for (int i = 0; i < size; i++) {
+      values[i] = (float) (values[i] / norm);
+    }
+    return this;
+  }
+
+  public double computeL2Norm() {
+    ensureSorted();
+    double norm = 0.0;
+    for (int i = 0; i < size; i++) {
+      norm += Math.pow(values[i], 2.0);
+    }
+    return Math.sqrt(norm);
+  }
+
+  public double computeL1Norm() {
+    ensureSorted();
+    double norm = 0.0;
+    for (int i = 0; i < size; i++) {
+      norm += Math.abs(values[i]);
+    }
+    return norm;
+  }
+
+  /**
+   * Returns the features as a map from terms to values.
+   *
+   * @return map from terms to values
+   */
+  public Map<String, Float> toMap() {
+    ensureSorted();
+    Map<String, Float> map = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      map.put(vocabulary.term(ordinals[i]), values[i]);
+    }
+    return map;
+  }
+
+  /**
+   * Interpolates two vectors over the same vocabulary, as in {@link FeatureVector#interpolate}.
+   *
+   * @param x first vector
+   * @param y second vector
+   * @param xWeight weight of the first vector
+   * @return interpolated vector
+   */
+  public static OrdinalFeatureVector interpolate(OrdinalFeatureVector x, OrdinalFeatureVector y, float xWeight) {
+    if (x.vocabulary != y.vocabulary) {
+      throw new IllegalArgumentException("Cannot interpolate vectors over different vocabularies!");
+    }
+    x.ensureSorted();
+    y.ensureSorted();
+
+    OrdinalFeatureVector z = new OrdinalFeatureVector(x.vocabulary);
+    int i = 0;
+    int j = 0;
+    while (i < x.size || j < y.size) {
+      int ordinal;
+      float xValue = 0.0f;
+      float yValue = 0.0f;
+      if (j == y.size || (i < x.size && x.ordinals[i] < y.ordinals[j])) {
+        ordinal = x.ordinals[i];
+        xValue = x.values[i++];
+      } else if (i == x.size || y.ordinals[j] < x.ordinals[i]) {
+        ordinal = y.ordinals[j];
+        yValue = y.values[j++];
+      } else {
+        ordinal = x.ordinals[i];
+        xValue = x.values[i++];
+        yValue = y.values[j++];
+      }
+      z.addFeatureValue(ordinal, (float) (xWeight * xValue + (1.0 - xWeight) * yValue));
+    }
+    return z;
+  }
+
+  @Override
+  public String toString() {
+    ensureSorted();
+    StringBuilder builder = new StringBuilder("[");
+    int[] order = orderByValueDescending();
+    for (int i = 0; i < size; i++) {
+      if (i != 0) {
+        builder.append(", ");
+      }
+      builder.append(vocabulary.term(ordinals[order[i]])).append('=').append(values[order[i]]);
+    }
+    return builder.append(']').toString();
+  }
+
+  // Returns the indexes of the features by decreasing value, breaking ties by term.
+  private int[] orderByValueDescending() {
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    new IntroSorter() {
+      private int pivot;
+
+      @Override
+      protected void swap(int i, int j) {
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+      }
+
+      @Override
+      protected void setPivot(int i) {
+        pivot = order[i];
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        int other = order[j];
+        if (values[pivot] == values[other]) {
+          return vocabulary.compare(ordinals[pivot], ordinals[other]);
+        }
+        return values[pivot] > values[other] ? -1 : 1;
+      }
+    }.sort(0, size);
+    return order;
+  }
+
+  // Sorts the features by ordinal, summing the values of duplicates in the order they were added.
+  private void ensureSorted() {
+    if (sorted) {
+      return;
+    }
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = ((long) ordinals[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+
+    int[] sortedOrdinals = new int[size];
+    float[] sortedValues = new float[size];
+    int n = 0;
+    for (long key : keys) {
+      int ordinal = (int) (key >>> 32);
+      float value = values[(int) key];
+      if (n > 0 && sortedOrdinals[n - 1] == ordinal) {
+        sortedValues[n - 1] += value;
+      } else {
+        sortedOrdinals[n] = ordinal;
+        sortedValues[n] = 0.0f + value;
+        n++;
+      }
+    }
+
+    ordinals = sortedOrdinals;
+    values = sortedValues;
+    size = n;
+    sorted = true;
+  }
+}
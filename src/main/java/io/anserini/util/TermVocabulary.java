@@ -0,0 +1,126 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.ByteBlockPool;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Assigns dense int ordinals to terms, in order of first appearance, for use with {@link OrdinalFeatureVector}.
+ * Terms are interned from their UTF-8 bytes (e.g., straight from a {@link org.apache.lucene.index.TermsEnum}), so a
+ * term that occurs in many documents is only decoded into a {@link String} once, and only if it is actually needed.
+ * Not thread-safe; a vocabulary is meant to be used for a single query, or for the runs that are fused together.
+ */
+public class TermVocabulary {
+  /**
+   * Maximum length of a term, in UTF-8 bytes.
+   */
+  public static final int MAX_TERM_LENGTH = ByteBlockPool.BYTE_BLOCK_SIZE - 2;
+
+  private final BytesRefHash hash = new BytesRefHash();
+  private final BytesRef scratch = new BytesRef();
+  private String[] terms = new String[0];
+
+  /**
+   * Returns the ordinal of a term, adding it to the vocabulary if it isn't there yet.
+   *
+   * @param term term, as UTF-8 bytes
+   * @return ordinal of the term
+   * @throws BytesRefHash.MaxBytesLengthExceededException if the term is longer than {@link #MAX_TERM_LENGTH} bytes
+   */
+  public int add(BytesRef term) {
+    int ordinal = hash.add(term);
+    return ordinal < 0 ? -ordinal - 1 : ordinal;
+  }
+
+  /**
+   * Returns the ordinal of a term, adding it to the vocabulary if it isn't there yet.
+   *
+   * @param term term
+   * @return ordinal of the term
+   */
+  public int add(String term) {
+    return add(new BytesRef(term));
+  }
+
+  /**
+   * Returns the ordinal of a term.
+   *
+   * @param term term
+   * @return ordinal of the term, or -1 if the term isn't in the vocabulary
+   */
+  public int ordinal(String term) {
+    return hash.find(new BytesRef(term));
+  }
+
+  /**
+   * Returns the UTF-8 bytes of a term. The returned reference is only valid until the next call.
+   *
+   * @param ordinal ordinal of the term
+   * @return bytes of the term
+   */
+  public BytesRef bytes(int ordinal) {
+    return hash.get(ordinal, scratch);
+  }
+
+  /**
+   * Returns a term, decoding it the first time it is asked for.
+   *
+   * @param ordinal ordinal of the term
+   * @return term
+   */
+  public String term(int ordinal) {
+    if (ordinal >= terms.length) {
+      terms = ArrayUtil.growExact(terms, ArrayUtil.oversize(hash.size(), RamUsageEstimator.NUM_BYTES_OBJECT_REF));
+    }
+    if (terms[ordinal] == null) {
+      terms[ordinal] = hash.get(ordinal, scratch).utf8ToString();
+    }
+    return terms[ordinal];
+  }
+
+  /**
+   * Returns all terms, indexed by ordinal, decoding those that haven't been yet. Unlike {@link #term(int)}, the
+   * returned array can be read from many threads.
+   *
+   * @return terms
+   */
+  public String[] terms() {
+    for (int i = 0; i < hash.size(); i++) {
+      term(i);
+    }
+    return ArrayUtil.copyOfSubArray(terms, 0, hash.size());
+  }
+
+  /**
+   * Compares two terms in {@link String} order.
+   *
+   * @param ordinal1 ordinal of the first term
+   * @param ordinal2 ordinal of the second term
+   * @return negative, zero, or positive if the first term sorts before, the same as, or after the second term
+   */
+  public int compare(int ordinal1, int ordinal2) {
+    return ordinal1 == ordinal2 ? 0 : term(ordinal1).compareTo(term(ordinal2));
+  }
+
+  public int size() {
+    return hash.size();
+  }
+}
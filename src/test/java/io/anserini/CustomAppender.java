@@ -19,8 +19,13 @@ package io.anserini;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.appender.AbstractAppender;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class CustomAppender extends AbstractAppender {
   private String lastLog = null;
+  private final List<String> logs = Collections.synchronizedList(new ArrayList<>());
 
   public CustomAppender(String name) {
     super(name, null, null, true, null);
@@ -30,8 +35,13 @@ public class CustomAppender extends AbstractAppender {
     return lastLog;
   }
 
+  public List<String> getLogs() {
+    return logs;
+  }
+
   @Override
   public void append(LogEvent event) {
     lastLog = event.getMessage().getFormattedMessage();
+    logs.add(lastLog);
   }
 }
\ No newline at end of file
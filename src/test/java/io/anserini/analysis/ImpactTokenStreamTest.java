@@ -0,0 +1,142 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import io.anserini.index.Constants;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermFrequencyAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ImpactTokenStreamTest extends LuceneTestCase {
+  private static final List<Map<String, Integer>> DOCS = List.of(
+      Map.of("f1", 1, "f2", 2, "f3", 1, "f4", 4, "f5", 1),
+      Map.of("f4", 3, "f5", 1, "f9", 2, "f22", 6, "f35", 208),
+      Map.of("f1", 0, "f9", 17));
+
+  private static FieldType fieldType() {
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    return fieldType;
+  }
+
+  private static String pseudoDocument(Map<String, Integer> impacts) {
+    StringBuilder sb = new StringBuilder();
+    impacts.forEach((term, cnt) -> sb.append((term + " ").repeat(cnt)));
+    return sb.toString();
+  }
+
+  private static Directory index(boolean direct) throws IOException {
+    Directory dir = new ByteBuffersDirectory();
+    // We use BM25Similarity because its norms depend on document length, which is the sum of the impacts.
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer()).setSimilarity(new BM25Similarity());
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      for (Map<String, Integer> impacts : DOCS) {
+        Document doc = new Document();
+        if (direct) {
+          doc.add(new Field(Constants.CONTENTS, new ImpactTokenStream(new LinkedHashMap<>(impacts)), fieldType()));
+        } else {
+          doc.add(new Field(Constants.CONTENTS, pseudoDocument(impacts), fieldType()));
+        }
+        writer.addDocument(doc);
+      }
+      writer.forceMerge(1);
+    }
+    return dir;
+  }
+
+  @Test
+  public void testTokenStream() throws IOException {
+    ImpactTokenStream stream = new ImpactTokenStream(DOCS.get(2));
+    // Terms with zero impact are dropped.
+    assertEquals(1, stream.size());
+
+    stream.reset();
+    assertTrue(stream.incrementToken());
+    assertEquals("f9", stream.getAttribute(CharTermAttribute.class).toString());
+    assertEquals(17, stream.getAttribute(TermFrequencyAttribute.class).getTermFrequency());
+    assertFalse(stream.incrementToken());
+    stream.end();
+    stream.close();
+  }
+
+  @Test
+  public void testSamePostingsAsPseudoDocument() throws IOException {
+    try (Directory expectedDir = index(false);
+         Directory actualDir = index(true);
+         DirectoryReader expectedReader = DirectoryReader.open(expectedDir);
+         DirectoryReader actualReader = DirectoryReader.open(actualDir)) {
+      LeafReader expected = expectedReader.leaves().get(0).reader();
+      LeafReader actual = actualReader.leaves().get(0).reader();
+
+      Terms expectedTerms = expected.terms(Constants.CONTENTS);
+      Terms actualTerms = actual.terms(Constants.CONTENTS);
+      assertEquals(expectedTerms.size(), actualTerms.size());
+      assertEquals(expectedTerms.getSumDocFreq(), actualTerms.getSumDocFreq());
+      assertEquals(expectedTerms.getSumTotalTermFreq(), actualTerms.getSumTotalTermFreq());
+      assertEquals(expectedTerms.getDocCount(), actualTerms.getDocCount());
+
+      TermsEnum expectedEnum = expectedTerms.iterator();
+      TermsEnum actualEnum = actualTerms.iterator();
+      BytesRef term;
+      while ((term = expectedEnum.next()) != null) {
+        assertEquals(term, actualEnum.next());
+        assertEquals(expectedEnum.docFreq(), actualEnum.docFreq());
+        assertEquals(expectedEnum.totalTermFreq(), actualEnum.totalTermFreq());
+
+        PostingsEnum expectedPostings = expectedEnum.postings(null, PostingsEnum.FREQS);
+        PostingsEnum actualPostings = actualEnum.postings(null, PostingsEnum.FREQS);
+        while (expectedPostings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          assertEquals(expectedPostings.docID(), actualPostings.nextDoc());
+          assertEquals(expectedPostings.freq(), actualPostings.freq());
+        }
+        assertEquals(DocIdSetIterator.NO_MORE_DOCS, actualPostings.nextDoc());
+      }
+      assertNull(actualEnum.next());
+
+      NumericDocValues expectedNorms = expected.getNormValues(Constants.CONTENTS);
+      NumericDocValues actualNorms = actual.getNormValues(Constants.CONTENTS);
+      while (expectedNorms.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+        assertEquals(expectedNorms.docID(), actualNorms.nextDoc());
+        assertEquals(expectedNorms.longValue(), actualNorms.longValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SdmBigramFilterTest extends LuceneTestCase {
+  @Test
+  public void testBigrams() {
+    Analyzer analyzer = new SdmBigramAnalyzer(new WhitespaceAnalyzer());
+    assertEquals(List.of("a b", "a _ a", "b a", "b _ c", "a c"), AnalyzerUtils.analyze(analyzer, "a b a c"));
+    assertEquals(List.of(), AnalyzerUtils.analyze(analyzer, "a"));
+    assertEquals(List.of(), AnalyzerUtils.analyze(analyzer, ""));
+
+    // The ordered window of x and y only matches the closer y.
+    assertEquals(List.of("x y", "y y"), AnalyzerUtils.analyze(analyzer, "x y y"));
+    assertEquals(List.of("x y", "x _ z", "y z", "y _ y", "z y"), AnalyzerUtils.analyze(analyzer, "x y z y"));
+
+    // The analyzer is reused.
+    assertEquals(List.of("c d"), AnalyzerUtils.analyze(analyzer, "c d"));
+  }
+
+  @Test
+  public void testStopwordGaps() {
+    Analyzer analyzer = new SdmBigramAnalyzer(DefaultEnglishAnalyzer.newDefaultInstance());
+    assertEquals(List.of("fox _ river"), AnalyzerUtils.analyze(analyzer, "fox of river"));
+    assertEquals(List.of(), AnalyzerUtils.analyze(analyzer, "fox in the river"));
+    assertEquals(List.of("quick brown", "quick _ fox", "brown fox"), AnalyzerUtils.analyze(analyzer, "quick brown fox"));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.anserini.index.AbstractIndexer;
+import io.anserini.index.IndexCollection;
+import io.anserini.index.IndexFlatDenseVectors;
+import io.anserini.index.IndexHnswDenseVectors;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BenchmarkHotPathsTest extends LuceneTestCase {
+  @BeforeClass
+  public static void setupClass() {
+    Configurator.setLevel(BenchmarkHotPaths.class.getName(), Level.ERROR);
+    Configurator.setLevel(AbstractIndexer.class.getName(), Level.ERROR);
+    Configurator.setLevel(IndexCollection.class.getName(), Level.ERROR);
+    Configurator.setLevel(IndexHnswDenseVectors.class.getName(), Level.ERROR);
+    Configurator.setLevel(IndexFlatDenseVectors.class.getName(), Level.ERROR);
+  }
+
+  private static BenchmarkHotPaths.Args args(Path dir) {
+    BenchmarkHotPaths.Args args = new BenchmarkHotPaths.Args();
+    args.docs = 200;
+    args.queries = 5;
+    args.dimension = 8;
+    args.hits = 50;
+    args.warmupIterations = 1;
+    args.iterations = 2;
+    args.iterationTime = 10;
+    args.workDir = dir.resolve("work").toString();
+    args.output = dir.resolve("results.jsonl").toString();
+    return args;
+  }
+
+  @Test
+  public void testAllBenchmarks() throws Exception {
+    Path dir = createTempDir();
+    BenchmarkHotPaths.Args args = args(dir);
+    new BenchmarkHotPaths(args).run();
+
+    List<String> benchmarks = new ArrayList<>();
+    ObjectMapper mapper = new ObjectMapper();
+    for (String line : Files.readAllLines(Path.of(args.output), StandardCharsets.UTF_8)) {
+      JsonNode result = mapper.readTree(line);
+      benchmarks.add(result.get("benchmark").asText());
+      assertEquals(200, result.get("params").get("docs").asInt());
+      assertEquals(2, result.get("iterations").asInt());
+      assertTrue(result.get("ops").asLong() >= 2);
+      assertTrue(result.get("ops_per_second").asDouble() > 0);
+      assertTrue(result.get("ops_per_second_stddev").asDouble() >= 0);
+
+      JsonNode latency = result.get("latency_us");
+      assertTrue(latency.get("p50").asDouble() > 0);
+      assertTrue(latency.get("p50").asDouble() <= latency.get("p99").asDouble());
+      assertTrue(latency.get("p99").asDouble() <= latency.get("max").asDouble());
+    }
+    assertEquals(List.of("analysis.defaultEnglish", "collection.json", "search.bm25", "search.impact",
+        "search.impactBoosted", "rerank.rm3", "search.hnsw", "search.flat", "fusion.merge",
+        "search.processLuceneTopDocs"), benchmarks);
+  }
+
+  @Test
+  public void testSelectedBenchmarks() throws Exception {
+    Path dir = createTempDir();
+    BenchmarkHotPaths.Args args = args(dir);
+    args.benchmarks = new String[] {"fusion.merge", "analysis.defaultEnglish"};
+    new BenchmarkHotPaths(args).run();
+
+    List<String> lines = Files.readAllLines(Path.of(args.output), StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    assertTrue(lines.get(0).startsWith("{\"benchmark\":\"fusion.merge\""));
+    assertTrue(lines.get(1).startsWith("{\"benchmark\":\"analysis.defaultEnglish\""));
+
+    // Only the indexes that are needed are built.
+    assertFalse(Files.exists(dir.resolve("work").resolve("index.inverted")));
+    assertFalse(Files.exists(dir.resolve("work").resolve("index.hnsw")));
+  }
+
+  @Test
+  public void testUnknownBenchmark() throws Exception {
+    BenchmarkHotPaths.Args args = args(createTempDir());
+    args.benchmarks = new String[] {"search.bm42"};
+    IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> new BenchmarkHotPaths(args));
+    assertTrue(e.getMessage().startsWith("Unknown benchmark \"search.bm42\""));
+  }
+}
@@ -19,7 +19,9 @@ package io.anserini.collection;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
@@ -99,4 +101,23 @@ public class JsonCollectionLineObjectTest extends JsonCollectionTest {
     assertEquals(expected.get("doc2").get("raw"), doc2.raw());
   }
 
+  @Test
+  public void testStreamingMatchesTree() throws IOException {
+    String json = "{\"id\": \"doc1\", \"contents\": \"text\", \"n\": 42, \"x\": 1.5, \"b\": true, " +
+        "\"z\": null, \"obj\": {\"a\": 1}, \"arr\": [1, 2]}\n";
+
+    // Documents read from a segment are parsed from tokens, without building a tree; fields (and the lazily generated
+    // raw JSON) should be exactly the same as those of a document built from a tree.
+    JsonCollection.Document expected = JsonCollection.Document.fromString(json);
+    JsonCollection.Document streamed;
+    try (FileSegment<JsonCollection.Document> segment =
+             collection.createFileSegment(new BufferedReader(new StringReader(json)))) {
+      streamed = segment.iterator().next();
+    }
+
+    assertEquals(expected.id(), streamed.id());
+    assertEquals(expected.contents(), streamed.contents());
+    assertEquals(expected.fields(), streamed.fields());
+    assertEquals(expected.raw(), streamed.raw());
+  }
 }
@@ -124,4 +124,28 @@ public class OnnxEncoderTest extends SuppresedLoggingLuceneTestCase {
       assertEquals(encoder.vocab.getIndex("[SEP]"), result[result.length - 1]);
     }
   }
-}
\ No newline at end of file
+
+  // Tests how queries are bucketed by length into batches, which doesn't need a model.
+  @Test
+  public void testPartition() {
+    int[] lengths = new int[] {5, 3, 5, 8, 3, 5, 5, 9};
+
+    // Each batch holds queries of a single length.
+    List<int[]> batches = OnnxEncoder.partition(lengths, 3);
+    assertEquals(5, batches.size());
+    assertArrayEquals(new int[] {1, 4}, batches.get(0));
+    assertArrayEquals(new int[] {0, 2, 5}, batches.get(1));
+    assertArrayEquals(new int[] {6}, batches.get(2));
+    assertArrayEquals(new int[] {3}, batches.get(3));
+    assertArrayEquals(new int[] {7}, batches.get(4));
+
+    // Every query is in exactly one batch.
+    int[] counts = new int[lengths.length];
+    for (int[] batch : OnnxEncoder.partition(lengths, 1)) {
+      assertEquals(1, batch.length);
+      counts[batch[0]]++;
+    }
+    assertArrayEquals(new int[] {1, 1, 1, 1, 1, 1, 1, 1}, counts);
+    assertTrue(OnnxEncoder.partition(new int[0], 3).isEmpty());
+  }
+}
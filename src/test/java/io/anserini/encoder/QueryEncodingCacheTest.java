@@ -0,0 +1,190 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.encoder;
+
+import io.anserini.encoder.dense.DenseEncoder;
+import io.anserini.encoder.sparse.SparseEncoder;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class QueryEncodingCacheTest extends LuceneTestCase {
+  @BeforeClass
+  public static void setupClass() {
+    Configurator.setLevel(QueryEncodingCache.class.getName(), Level.ERROR);
+  }
+
+  // Stands in for a model, counting how many times it's run.
+  private static float[] dense(String query, AtomicInteger calls) {
+    calls.incrementAndGet();
+    return new float[] {query.length(), query.hashCode(), 0.5f};
+  }
+
+  @Test
+  public void testDense() throws Exception {
+    Path dir = createTempDir();
+    AtomicInteger calls = new AtomicInteger();
+
+    QueryEncodingCache<float[]> cache = new QueryEncodingCache<>(dir, "Encoder", 2, DenseEncoder.QUERY_CODEC);
+    float[] a = cache.get("query a", q -> dense(q, calls));
+    assertArrayEquals(dense("query a", new AtomicInteger()), a, 0.0f);
+    assertEquals(1, calls.get());
+
+    // Callers may modify what they get back, without affecting the cache.
+    a[0] = 42;
+    assertArrayEquals(dense("query a", new AtomicInteger()), cache.get("query a", q -> dense(q, calls)), 0.0f);
+    assertEquals(1, calls.get());
+    assertEquals(1, cache.getMemoryHits());
+
+    // Evicts "query a" from memory, but not from disk.
+    cache.get("query b", q -> dense(q, calls));
+    cache.get("query c", q -> dense(q, calls));
+    assertEquals(3, calls.get());
+    assertArrayEquals(dense("query a", new AtomicInteger()), cache.get("query a", q -> dense(q, calls)), 0.0f);
+    assertEquals(3, calls.get());
+    assertEquals(1, cache.getDiskHits());
+    assertEquals(3, cache.getMisses());
+
+    // A new cache (e.g., in another run) finds all queries on disk.
+    QueryEncodingCache<float[]> reopened = new QueryEncodingCache<>(dir, "Encoder", 2, DenseEncoder.QUERY_CODEC);
+    for (String query : List.of("query a", "query b", "query c")) {
+      assertArrayEquals(dense(query, new AtomicInteger()), reopened.get(query, q -> dense(q, calls)), 0.0f);
+    }
+    assertEquals(3, calls.get());
+    assertEquals(3, reopened.getDiskHits());
+
+    // ... but not for a different encoder.
+    QueryEncodingCache<float[]> other = new QueryEncodingCache<>(dir, "OtherEncoder", 2, DenseEncoder.QUERY_CODEC);
+    other.get("query a", q -> dense(q, calls));
+    assertEquals(4, calls.get());
+  }
+
+  @Test
+  public void testSparse() throws Exception {
+    Path dir = createTempDir();
+    AtomicInteger calls = new AtomicInteger();
+
+    Map<String, Integer> weights = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      weights.put("token" + i, i);
+    }
+    List<String> order = new ArrayList<>(weights.keySet());
+
+    QueryEncodingCache<Map<String, Integer>> cache =
+        new QueryEncodingCache<>(dir, "Encoder", 0, SparseEncoder.QUERY_CODEC);
+    assertSame(weights, cache.get("query", q -> {
+      calls.incrementAndGet();
+      return weights;
+    }));
+
+    Map<String, Integer> cached = cache.get("query", q -> {
+      calls.incrementAndGet();
+      return weights;
+    });
+    assertEquals(1, calls.get());
+    assertEquals(weights, cached);
+    // Tokens come back in the same order, so that queries built from them are the same.
+    assertEquals(order, new ArrayList<>(cached.keySet()));
+  }
+
+  @Test
+  public void testUnreadableEntries() throws Exception {
+    Path dir = createTempDir();
+    AtomicInteger calls = new AtomicInteger();
+
+    QueryEncodingCache<float[]> cache = new QueryEncodingCache<>(dir, "Encoder", 0, DenseEncoder.QUERY_CODEC);
+    cache.get("query", q -> dense(q, calls));
+    List<Path> files;
+    try (Stream<Path> stream = Files.walk(dir)) {
+      // Skips the extra files that the test file system may add to any directory.
+      files = stream.filter(Files::isRegularFile).filter(p -> !p.getFileName().toString().startsWith("extra")).toList();
+    }
+    assertEquals(1, files.size());
+
+    // A truncated file is a miss, and gets replaced.
+    byte[] bytes = Files.readAllBytes(files.get(0));
+    Files.write(files.get(0), Arrays.copyOf(bytes, bytes.length - 3));
+    assertArrayEquals(dense("query", new AtomicInteger()), cache.get("query", q -> dense(q, calls)), 0.0f);
+    assertEquals(2, calls.get());
+    cache.get("query", q -> dense(q, calls));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testGetAll() throws Exception {
+    Path dir = createTempDir();
+    AtomicInteger calls = new AtomicInteger();
+    List<List<String>> batches = new ArrayList<>();
+    QueryEncodingCache.BatchEncoding<float[]> encoder = queries -> {
+      batches.add(queries);
+      List<float[]> encodings = new ArrayList<>();
+      for (String query : queries) {
+        encodings.add(dense(query, calls));
+      }
+      return encodings;
+    };
+
+    QueryEncodingCache<float[]> cache = new QueryEncodingCache<>(dir, "Encoder", 1, DenseEncoder.QUERY_CODEC);
+    cache.get("query a", q -> dense(q, calls));
+    cache.get("query b", q -> dense(q, calls));
+
+    // "query b" is in memory and "query a" on disk, so only the other queries are encoded, each once, in one batch.
+    List<String> queries = List.of("query c", "query b", "query a", "query d", "query c");
+    List<float[]> encodings = cache.getAll(queries, encoder);
+    assertEquals(queries.size(), encodings.size());
+    for (int i = 0; i < queries.size(); i++) {
+      assertArrayEquals(dense(queries.get(i), new AtomicInteger()), encodings.get(i), 0.0f);
+    }
+    assertEquals(List.of(List.of("query c", "query d")), batches);
+    assertEquals(4, calls.get());
+    assertEquals(1, cache.getMemoryHits());
+    assertEquals(1, cache.getDiskHits());
+    assertEquals(4, cache.getMisses());
+
+    // Encodings of repeated queries aren't shared.
+    encodings.get(0)[0] = 42;
+    assertEquals(dense("query c", new AtomicInteger())[0], encodings.get(4)[0], 0.0f);
+
+    // Everything is cached now, so the encoder isn't called at all.
+    cache.getAll(queries, encoder);
+    assertEquals(1, batches.size());
+  }
+
+  @Test
+  public void testMemoryOnly() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    QueryEncodingCache<float[]> cache = new QueryEncodingCache<>(null, "Encoder", 1, DenseEncoder.QUERY_CODEC);
+    cache.get("query a", q -> dense(q, calls));
+    cache.get("query a", q -> dense(q, calls));
+    assertEquals(1, calls.get());
+    cache.get("query b", q -> dense(q, calls));
+    cache.get("query a", q -> dense(q, calls));
+    assertEquals(3, calls.get());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.encoder;
+
+import ai.djl.modality.nlp.DefaultVocabulary;
+import ai.djl.modality.nlp.bert.BertFullTokenizer;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class WordPieceTokenizerTest extends LuceneTestCase {
+  private static final DefaultVocabulary VOCAB = DefaultVocabulary.builder()
+      .add(List.of("[PAD]", "[UNK]", "[CLS]", "[SEP]", "a", "b", "c", "ab", "abc", "##a", "##b", "##c", "##bc", "the",
+          "##s", "cat", "cats", "e", "##e", "i", "\u03c3", "\u4e2d", "1", "12", "##1", "##2", ".", ",", "!", "?", "'",
+          "#", "##", "-", "##-", "\u00df", "\u00e9"))
+      .optUnknownToken("[UNK]")
+      .build();
+
+  // Controls, whitespace, accents, and characters outside the BMP, along with ASCII.
+  private static final String[] CHARACTERS = new String[] {
+      "a", "b", "c", "e", "i", "s", "A", "B", "C", "E", "I", "1", "2", "x", ".", ",", "!", "?", "'", "#", "-", "$",
+      " ", "\t", "\n", "\r", "\u00a0", "\u3000", "\u2028", "\u0000", "\u0007", "\ufffd", "\u200b",
+      "\u00e9", "\u00c9", "\u0301", "\u03a3", "\u03c3", "\u03c2", "\u4e2d", "\u6587", "\u00df", "\u0130",
+      "\ud83d\ude00", "\ud83d", "\u00bf", "\u00ab", "\u2014"};
+
+  // What the encoders did before: tokenize with BertFullTokenizer, then look up the tokens.
+  private static long[] reference(BertFullTokenizer tokenizer, String text, int maxLength) {
+    List<String> tokens = new ArrayList<>();
+    tokens.add("[CLS]");
+    tokens.addAll(tokenizer.tokenize(text));
+    tokens = tokens.size() > maxLength - 1 ? tokens.subList(0, maxLength - 1) : tokens;
+    tokens.add("[SEP]");
+
+    long[] ids = new long[tokens.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = VOCAB.getIndex(tokens.get(i));
+    }
+    return ids;
+  }
+
+  private static void assertSameAsReference(String text, int maxLength) {
+    long[] expected = reference(new BertFullTokenizer(VOCAB, true), text, maxLength);
+    assertArrayEquals(text, expected, new WordPieceTokenizer(VOCAB, true).encode(text, maxLength));
+  }
+
+  @Test
+  public void testExamples() {
+    List<String> texts = List.of("", " ", "a", "The cats!", "abcabc", "abcd", "ab-c", "12.1,2?", "##a", "#a#",
+        "D\u00e9j\u00e0 vu", "\u03a3\u0391\u03a3 \u03c3", "\u4e2d\u6587", "\u00df STRASSE", "\u0130i",
+        "a\u0000b\u0007c", "a\u00a0b\u3000c", "e\u0301 \u00c9",
+        "\ud83d\ude00 a\ud83d\ude00", "a".repeat(200), "a".repeat(201), "a".repeat(201) + "." + "a".repeat(5));
+    for (String text : texts) {
+      assertSameAsReference(text, Integer.MAX_VALUE);
+    }
+
+    WordPieceTokenizer tokenizer = new WordPieceTokenizer(VOCAB, true);
+    assertArrayEquals(new long[] {VOCAB.getIndex("[CLS]"), VOCAB.getIndex("the"), VOCAB.getIndex("cats"),
+        VOCAB.getIndex("!"), VOCAB.getIndex("[SEP]")}, tokenizer.encode("The cats!"));
+  }
+
+  @Test
+  public void testTruncation() {
+    for (int maxLength = 2; maxLength < 10; maxLength++) {
+      assertSameAsReference("the cats abcabc! 12.", maxLength);
+      assertSameAsReference("the   cats\tabcd", maxLength);
+    }
+  }
+
+  @Test
+  public void testRandomText() {
+    Random random = random();
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder text = new StringBuilder();
+      int length = random.nextInt(40);
+      for (int j = 0; j < length; j++) {
+        text.append(CHARACTERS[random.nextInt(CHARACTERS.length)]);
+      }
+      assertSameAsReference(text.toString(), random.nextBoolean() ? Integer.MAX_VALUE : 2 + random.nextInt(20));
+    }
+  }
+}
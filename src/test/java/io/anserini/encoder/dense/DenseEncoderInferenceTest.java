@@ -18,6 +18,9 @@ package io.anserini.encoder.dense;
 
 import ai.onnxruntime.OrtException;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertArrayEquals;
 
 public class DenseEncoderInferenceTest {
@@ -28,5 +31,15 @@ public class DenseEncoderInferenceTest {
 
       assertArrayEquals(expectedWeights, outputs, 1e-4f);
     }
+
+    // Encoding in (small) batches gives the same results as encoding one query at a time.
+    if (encoder.supportsBatching()) {
+      encoder.setBatchSize(2);
+      List<String> queries = Arrays.stream(examples).map(DenseExampleOutputPair::example).toList();
+      List<float[]> outputs = encoder.batchEncode(queries);
+      for (int i = 0; i < examples.length; i++) {
+        assertArrayEquals(examples[i].output(), outputs.get(i), 1e-4f);
+      }
+    }
   }
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ package io.anserini.encoder.sparse;
 
 import ai.onnxruntime.OrtException;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -31,5 +33,15 @@ public class BaseSparseEncoderInferenceTest {
       assertEquals(expectedWeights.size(), outputs.size());
       outputs.forEach((token, weight) -> assertEquals(expectedWeights.get(token), weight));
     }
+
+    // Encoding in (small) batches gives the same results as encoding one query at a time.
+    if (encoder.supportsBatching()) {
+      encoder.setBatchSize(2);
+      List<String> queries = Arrays.stream(examples).map(SparseExampleOutputPair::example).toList();
+      List<Map<String, Integer>> outputs = encoder.batchEncode(queries);
+      for (int i = 0; i < examples.length; i++) {
+        assertEquals(examples[i].output(), outputs.get(i));
+      }
+    }
   }
 }
@@ -0,0 +1,179 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.eval;
+
+import io.anserini.search.ScoredDoc;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+// Expected values were verified against trec_eval 9.0.
+public class TrecEvalTest {
+  private static Path qrelsPath;
+  private static Path runPath;
+  private static TrecEval eval;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    // q3 is judged but not retrieved; q4 is retrieved but not judged. dx is judged, with a negative grade.
+    qrelsPath = Files.createTempFile("qrels", ".txt");
+    Files.write(qrelsPath, List.of(
+        "q1 0 d1 2",
+        "q1 0 d2 0",
+        "q1 0 d3 1",
+        "q1 0 d4 1",
+        "q1 0 dx -1",
+        "q2 0 d5 1",
+        "q3 0 d9 1"));
+
+    // d1 and d2 are tied, so d2 comes first (ties are broken by decreasing docid), regardless of the ranks.
+    runPath = Files.createTempFile("run", ".txt");
+    Files.write(runPath, List.of(
+        "q1 Q0 d1 1 5.0 test",
+        "q1 Q0 d2 2 5.0 test",
+        "q1 Q0 d3 3 4.0 test",
+        "q1 Q0 dx 4 1.0 test",
+        "q2 Q0 d7 1 1.0 test",
+        "q2 Q0 d5 2 0.5 test",
+        "q4 Q0 d1 1 1.0 test"));
+
+    eval = new TrecEval(new RelevanceJudgments(qrelsPath.toString()));
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    Files.deleteIfExists(qrelsPath);
+    Files.deleteIfExists(runPath);
+  }
+
+  @Test
+  public void testPerQuery() throws IOException {
+    TrecEval.Result result = eval.evaluate(TrecEval.Run.read(runPath),
+        "-c", "-m", "map", "-m", "recip_rank", "-m", "P.2", "-m", "recall.2", "-m", "ndcg_cut.3", "-m", "judged.4");
+    assertEquals(List.of("map", "recip_rank", "P_2", "recall_2", "ndcg_cut_3", "judged_4"), result.getMetrics());
+
+    assertEquals(0.3889, result.get("map", "q1"), 1e-4);
+    assertEquals(0.5, result.get("recip_rank", "q1"), 1e-9);
+    assertEquals(0.5, result.get("P_2", "q1"), 1e-9);
+    assertEquals(0.3333, result.get("recall_2", "q1"), 1e-4);
+    assertEquals(0.5627, result.get("ndcg_cut_3", "q1"), 1e-4);
+    assertEquals(1.0, result.get("judged_4", "q1"), 1e-9);
+    assertEquals(0.25, result.get("judged_4", "q2"), 1e-9);
+
+    assertEquals(0.5, result.get("map", "q2"), 1e-9);
+    assertEquals(0.6309, result.get("ndcg_cut_3", "q2"), 1e-4);
+    assertEquals(0.0, result.get("map", "q3"), 1e-9);
+
+    assertEquals(0.2963, result.get("map"), 1e-4);
+    assertEquals(0.3333, result.get("recip_rank"), 1e-4);
+    assertEquals(0.3333, result.get("P_2"), 1e-4);
+    assertEquals(0.4444, result.get("recall_2"), 1e-4);
+    assertEquals(0.3979, result.get("ndcg_cut_3"), 1e-4);
+  }
+
+  @Test
+  public void testOptions() throws IOException {
+    TrecEval.Run run = TrecEval.Run.read(runPath);
+
+    // Without -c, only queries in both the run and the judgments count.
+    assertEquals(0.4444, eval.evaluate(run, "-m", "map").get("map"), 1e-4);
+    assertEquals(0.2963, eval.evaluate(run, "-c", "-m", "map").get("map"), 1e-4);
+    assertEquals(0.1667, eval.evaluate(run, "-c", "-l", "2", "-m", "map").get("map"), 1e-4);
+    assertEquals(0.0, eval.evaluate(run, "-c", "-M", "1", "-m", "map").get("map"), 1e-9);
+    assertEquals(0.0, eval.evaluate(run, "-c", "-M1", "-mmap").get("map"), 1e-9);
+
+    TrecEval.Result counts = eval.evaluate(run, "-c", "-m", "num_ret", "-m", "num_rel", "-m", "num_rel_ret");
+    assertEquals(6, counts.get("num_ret"), 0.0);
+    assertEquals(5, counts.get("num_rel"), 0.0);
+    assertEquals(3, counts.get("num_rel_ret"), 0.0);
+
+    assertEquals(1, eval.evaluate(run, "-c", "-l", "2", "-m", "num_rel").get("num_rel"), 0.0);
+
+    assertEquals(9, eval.evaluate(run, "-m", "P").getMetrics().size());
+    assertEquals(List.of("recall_10", "recall_100"), eval.evaluate(run, "-m", "recall.10,100").getMetrics());
+  }
+
+  @Test
+  public void testNumRelLevel() throws IOException {
+    Path qrels = Files.createTempFile("qrels", ".txt");
+    try {
+      Files.write(qrels, List.of(
+          "q1 0 d1 2",
+          "q1 0 d2 1",
+          "q1 0 d3 0",
+          "q1 0 d4 2",
+          "q1 0 d5 -1"));
+      TrecEval levelEval = new TrecEval(new RelevanceJudgments(qrels.toString()));
+      TrecEval.Run run = TrecEval.Run.read(runPath);
+
+      // As with trec_eval, num_rel only counts documents with a grade of at least -l.
+      assertEquals(3, levelEval.evaluate(run, "-m", "num_rel").get("num_rel", "q1"), 0.0);
+      assertEquals(2, levelEval.evaluate(run, "-l", "2", "-m", "num_rel").get("num_rel", "q1"), 0.0);
+    } finally {
+      Files.deleteIfExists(qrels);
+    }
+  }
+
+  @Test
+  public void testFormat() throws IOException {
+    TrecEval.Result result = eval.evaluate(TrecEval.Run.read(runPath), "-c", "-m", "map", "-m", "num_rel_ret");
+    assertEquals("""
+        map                   \tall\t0.2963
+        num_rel_ret           \tall\t3
+        """, result.format(false));
+    assertEquals("""
+        map                   \tq1\t0.3889
+        num_rel_ret           \tq1\t2
+        map                   \tq2\t0.5000
+        num_rel_ret           \tq2\t1
+        map                   \tall\t0.2963
+        num_rel_ret           \tall\t3
+        """, result.format(true));
+  }
+
+  @Test
+  public void testFromResults() {
+    Map<String, ScoredDoc[]> results = new TreeMap<>();
+    // These scores are only tied once rounded to six decimal places, as they would be in a run file.
+    results.put("q1", new ScoredDoc[] {
+        new ScoredDoc("d1", 0, 5.0000005f, null),
+        new ScoredDoc("d2", 1, 5.0f, null),
+        new ScoredDoc("d3", 2, 4.0f, null),
+        new ScoredDoc("dx", 3, 1.0f, null)});
+
+    assertEquals(0.3889, eval.evaluate(TrecEval.Run.fromResults(results), "-m", "map").get("map", "q1"), 1e-4);
+  }
+
+  @Test
+  public void testInvalidOptions() {
+    assertThrows(IllegalArgumentException.class, () -> TrecEval.checkOptions("-m", "bpref"));
+    assertThrows(IllegalArgumentException.class, () -> TrecEval.checkOptions("-m", "map.10"));
+    assertThrows(IllegalArgumentException.class, () -> TrecEval.checkOptions("-c"));
+    assertThrows(IllegalArgumentException.class, () -> TrecEval.checkOptions("-x", "-m", "map"));
+    assertThrows(IllegalArgumentException.class, () -> TrecEval.checkOptions("-m"));
+  }
+}
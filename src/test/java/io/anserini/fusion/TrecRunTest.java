@@ -0,0 +1,232 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.fusion;
+
+import io.anserini.search.ScoredDocs;
+import io.anserini.util.TermVocabulary;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TrecRunTest extends LuceneTestCase {
+  @Test
+  public void testParseScore() {
+    Random random = random();
+    String[] scores = new String[] {"7.0", "7", "-0.0", ".5", "1.", "12.345600", "0.000001", "1e3", "-1.5E-3",
+        "123456789.123456789", "3.4028235E38", "1.4E-45"};
+    for (String score : scores) {
+      assertParsed(score);
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertParsed(String.format(Locale.ROOT, "%.6f", random.nextFloat() * 100));
+      assertParsed(Float.toString((float) (random.nextGaussian() * 1000)));
+      assertParsed(Double.toString(random.nextDouble() * random.nextInt(100000)));
+    }
+    expectThrows(NumberFormatException.class, () -> TrecRun.parseScore(".".getBytes(StandardCharsets.UTF_8), 0, 1));
+  }
+
+  private static void assertParsed(String score) {
+    byte[] bytes = (" " + score + " ").getBytes(StandardCharsets.UTF_8);
+    assertEquals(score, Float.floatToIntBits(Float.parseFloat(score)),
+        Float.floatToIntBits(TrecRun.parseScore(bytes, 1, bytes.length - 1)));
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    Path path = createTempDir().resolve("run");
+    // Topics not all together, Windows line endings, a blank line, extra whitespace, and no final newline.
+    Files.writeString(path, "q2 Q0 b 1 3.5 t\r\n\n  q1\tQ0 a 1 2 t\nq2 Q0 c 2 1e1 t\nq1 Q0 b 2 1.25 t");
+
+    TrecRun run = TrecRun.read(path, false, new TermVocabulary(), new TermVocabulary());
+    assertEquals(4, run.size());
+    assertEquals(2, run.numTopics());
+    assertEquals("q2", run.topic(0));
+    assertEquals("q1", run.topic(1));
+    assertEquals("b", run.docid(0));
+    assertEquals("c", run.docid(1));
+    assertEquals(10.0f, run.score(1), 0.0f);
+    assertEquals("a", run.docid(2));
+    assertEquals(1, run.rank(2));
+    assertEquals("b", run.docid(3));
+    assertEquals(2, run.rank(3));
+
+    TrecRun sorted = TrecRun.read(path, true, new TermVocabulary(), new TermVocabulary());
+    assertEquals("c", sorted.docid(0));
+    assertEquals(2, sorted.rank(0));
+    assertEquals("b", sorted.docid(1));
+
+    Path malformed = createTempDir().resolve("run");
+    Files.writeString(malformed, "q1 Q0 a 1 2.0 t\nq1 Q0 b 2\n");
+    IllegalArgumentException thrown = expectThrows(IllegalArgumentException.class,
+        () -> TrecRun.read(malformed, false, new TermVocabulary(), new TermVocabulary()));
+    assertTrue(thrown.getMessage().startsWith("Malformed line 2"));
+  }
+
+  @Test
+  public void testLongLines() throws Exception {
+    // Lines longer than the read buffer, with docids as long as they can be.
+    String docid = "d".repeat(TermVocabulary.MAX_TERM_LENGTH);
+    String tag = "t".repeat(100000);
+    Path path = createTempDir().resolve("run");
+    Files.writeString(path, "q1 Q0 " + docid + " 1 2.0 " + tag + "\nq1 Q0 x" + docid.substring(1) + " 2 1.0 t\n");
+
+    TrecRun run = TrecRun.read(path, false, new TermVocabulary(), new TermVocabulary());
+    assertEquals(2, run.size());
+    assertEquals(docid, run.docid(0));
+    assertEquals("x" + docid.substring(1), run.docid(1));
+
+    Path tooLong = createTempDir().resolve("run");
+    Files.writeString(tooLong, "q1 Q0 a 1 2.0 t\nq1 Q0 " + docid + "x 2 1.0 t\n");
+    IllegalArgumentException thrown = expectThrows(IllegalArgumentException.class,
+        () -> TrecRun.read(tooLong, false, new TermVocabulary(), new TermVocabulary()));
+    assertTrue(thrown.getMessage().startsWith("Malformed line 2"));
+    assertTrue(thrown.getMessage().endsWith("topics and docids can be at most 32766 bytes long"));
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    TermVocabulary topics = new TermVocabulary();
+    TermVocabulary docids = new TermVocabulary();
+    Path path1 = createTempDir().resolve("run1");
+    Files.writeString(path1, "q2 Q0 a 1 3.0 t\nq2 Q0 b 2 2.0 t\nq2 Q0 c 3 1.0 t\nq10 Q0 a 1 1.0 t\n");
+    Path path2 = createTempDir().resolve("run2");
+    Files.writeString(path2, "q2 Q0 c 1 2.0 t\nq2 Q0 b 2 1.0 t\nq3 Q0 a 1 1.0 t\n");
+    List<TrecRun> runs = List.of(TrecRun.read(path1, false, topics, docids),
+        TrecRun.read(path2, false, topics, docids));
+
+    TrecRun merged = TrecRun.merge(runs, 1000, 1000);
+    assertEquals(3, merged.numTopics());
+    assertEquals("q10", merged.topic(0));
+    assertEquals("q2", merged.topic(1));
+    assertEquals("q3", merged.topic(2));
+    // q2: a = 3, b = 3, c = 3; ties are broken by decreasing docid.
+    assertEquals(5, merged.size());
+    assertEquals("c", merged.docid(1));
+    assertEquals(1, merged.rank(1));
+    assertEquals(3.0f, merged.score(1), 0.0f);
+    assertEquals("b", merged.docid(2));
+    assertEquals("a", merged.docid(3));
+    assertEquals(3, merged.rank(3));
+
+    // Only the top row of each run, and only the top row of the merged run: a = 3, c = 2.
+    merged = TrecRun.merge(runs, 1, 1);
+    assertEquals(3, merged.size());
+    assertEquals("a", merged.docid(1));
+    assertEquals(3.0f, merged.score(1), 0.0f);
+
+    ScoredDocs scoredDocs = merged.toScoredDocs();
+    assertEquals("q2", scoredDocs.lucene_documents[1].get(ScoredDocsFuser.TOPIC));
+    assertEquals("a", scoredDocs.docids[1]);
+    assertEquals(1, scoredDocs.lucene_docids[1]);
+
+    IllegalArgumentException thrown = expectThrows(IllegalArgumentException.class,
+        () -> TrecRun.merge(List.of(runs.get(0),
+            TrecRun.read(path2, false, new TermVocabulary(), new TermVocabulary())), 1000, 1000));
+    assertEquals("Runs to merge must share vocabularies.", thrown.getMessage());
+  }
+
+  @Test
+  public void testParallelMerge() throws Exception {
+    // Enough topics for several tasks, with overlapping docids and tied scores.
+    Random random = random();
+    TermVocabulary topics = new TermVocabulary();
+    TermVocabulary docids = new TermVocabulary();
+    List<TrecRun> runs = new ArrayList<>();
+    for (int r = 0; r < 3; r++) {
+      StringBuilder sb = new StringBuilder();
+      for (int topic = 0; topic < 100; topic++) {
+        for (int rank = 1; rank <= 20; rank++) {
+          sb.append(String.format(Locale.ROOT, "q%d Q0 d%d %d %d t%n", topic, random.nextInt(50), rank,
+              random.nextInt(10)));
+        }
+      }
+      Path path = createTempDir().resolve("run" + r);
+      Files.writeString(path, sb.toString());
+      runs.add(TrecRun.read(path, true, topics, docids));
+    }
+
+    TrecRun expected = TrecRun.merge(runs, 10, 15);
+    TrecRun merged;
+    try (ExecutorService executor = Executors.newFixedThreadPool(3)) {
+      merged = TrecRun.merge(runs, 10, 15, executor);
+    }
+    assertEquals(expected.numTopics(), merged.numTopics());
+    assertEquals(expected.size(), merged.size());
+    for (int t = 0; t < merged.numTopics(); t++) {
+      assertEquals(expected.topic(t), merged.topic(t));
+    }
+    for (int i = 0; i < merged.size(); i++) {
+      assertEquals(expected.docid(i), merged.docid(i));
+      assertEquals(expected.rank(i), merged.rank(i));
+      assertEquals(expected.score(i), merged.score(i), 0.0f);
+    }
+  }
+
+  @Test
+  public void testFixedOutputs() throws Exception {
+    TermVocabulary topics = new TermVocabulary();
+    TermVocabulary docids = new TermVocabulary();
+    Path path1 = Paths.get("src/test/resources/sample_runs/run1");
+    Path path2 = Paths.get("src/test/resources/sample_runs/run2");
+    List<TrecRun> runs = List.of(TrecRun.read(path1, false, topics, docids),
+        TrecRun.read(path2, false, topics, docids));
+
+    // Plain sums; ties are broken by decreasing docid.
+    assertWritten(TrecRun.merge(runs, 1000, 1000), List.of(
+        "query1 Q0 doc2 1 11.000000 fused",
+        "query1 Q0 doc1 2 11.000000 fused",
+        "query1 Q0 doc3 3 5.000000 fused",
+        "query1 Q0 doc4 4 3.000000 fused",
+        "query2 Q0 doc3 1 21.000000 fused",
+        "query2 Q0 doc1 2 14.000000 fused",
+        "query2 Q0 doc2 3 13.000000 fused",
+        "query2 Q0 doc5 4 8.000000 fused",
+        "query2 Q0 doc6 5 7.000000 fused"));
+
+    // Min-max normalized and halved, as in interpolation with alpha = 0.5.
+    for (TrecRun run : runs) {
+      run.normalizeScores();
+      run.rescore(ScoredDocsFuser.RescoreMethod.SCALE, 0, 0.5);
+    }
+    assertWritten(TrecRun.merge(runs, 1000, 1000), List.of(
+        "query1 Q0 doc2 1 0.750000 fused",
+        "query1 Q0 doc1 2 0.750000 fused",
+        "query1 Q0 doc4 3 0.000000 fused",
+        "query1 Q0 doc3 4 0.000000 fused",
+        "query2 Q0 doc3 1 0.500000 fused",
+        "query2 Q0 doc1 2 0.500000 fused",
+        "query2 Q0 doc5 3 0.250000 fused",
+        "query2 Q0 doc2 4 0.250000 fused",
+        "query2 Q0 doc6 5 0.000000 fused"));
+  }
+
+  private static void assertWritten(TrecRun run, List<String> expected) throws Exception {
+    Path path = createTempDir().resolve("fused");
+    run.write(path, "fused");
+    assertEquals(expected, Files.readAllLines(path));
+  }
+}
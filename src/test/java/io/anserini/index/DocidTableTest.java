@@ -0,0 +1,178 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DocidTableTest extends LuceneTestCase {
+  // Docids that sort differently as UTF-16 and as UTF-8, including a supplementary character.
+  private static final String[] DOCIDS = new String[] {
+      "doc", "doc0", "doc1", "doc10", "doc2", "Doc", "déjà", "", "😀", "￿", "\ufffd", "x y"};
+
+  @BeforeClass
+  public static void setupClass() {
+    Configurator.setLevel(DocidTable.class.getName(), Level.ERROR);
+    Configurator.setLevel(IndexCollection.class.getName(), Level.ERROR);
+    Configurator.setLevel(AbstractIndexer.class.getName(), Level.ERROR);
+  }
+
+  // Indexes the docids over several segments, some twice, along with a document without a docid and a deleted one.
+  private static void index(Directory dir, boolean docValues) throws Exception {
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < DOCIDS.length; i++) {
+        writer.addDocument(document(DOCIDS[i], docValues));
+        if (i % 3 == 0) {
+          writer.addDocument(document(DOCIDS[DOCIDS.length - 1 - i], docValues));
+          writer.commit();
+        }
+      }
+      writer.addDocument(new Document());
+      writer.addDocument(document("deleted", docValues));
+      writer.deleteDocuments(new Term(Constants.ID, "deleted"));
+      writer.commit();
+    }
+  }
+
+  private static Document document(String docid, boolean docValues) {
+    Document doc = new Document();
+    doc.add(new StringField(Constants.ID, docid, Field.Store.YES));
+    if (docValues) {
+      doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef(docid)));
+    }
+    return doc;
+  }
+
+  private static void assertSameAsTermQueries(DirectoryReader reader, DocidTable table) throws Exception {
+    IndexSearcher searcher = new IndexSearcher(reader);
+    List<String> docids = new ArrayList<>(List.of(DOCIDS));
+    docids.addAll(List.of("", "deleted", "do", "doc3", "\ud83d", "zzz"));
+
+    for (String docid : docids) {
+      TopDocs rs = searcher.search(new TermQuery(new Term(Constants.ID, docid)), 1);
+      assertEquals(docid, rs.scoreDocs.length == 0 ? -1 : rs.scoreDocs[0].doc, table.getLuceneDocid(docid));
+    }
+    for (int i = 0; i < reader.maxDoc(); i++) {
+      assertEquals(reader.storedFields().document(i).get(Constants.ID), table.getDocid(i));
+    }
+    assertNull(table.getDocid(-1));
+    assertNull(table.getDocid(reader.maxDoc()));
+  }
+
+  @Test
+  public void testLookups() throws Exception {
+    for (boolean docValues : new boolean[] {true, false}) {
+      Path path = createTempDir();
+      try (Directory dir = FSDirectory.open(path)) {
+        index(dir, docValues);
+
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+          assertTrue(reader.leaves().size() > 1);
+          assertNull(DocidTable.get(reader));
+
+          DocidTable table = DocidTable.getOrBuild(reader);
+          assertNotNull(table);
+          assertSame(table, DocidTable.get(reader));
+          assertEquals(reader.maxDoc(), table.maxDoc());
+          assertEquals(reader.numDocs() - 1, table.size());
+          assertSameAsTermQueries(reader, table);
+
+          // Lookups through IndexReaderUtils go to the table.
+          assertEquals(table.getLuceneDocid("doc10"), IndexReaderUtils.convertDocidToLuceneDocid(reader, "doc10"));
+          assertEquals(-1, IndexReaderUtils.convertDocidToLuceneDocid(reader, "deleted"));
+        }
+
+        assertTrue(Files.exists(path.resolve(DocidTable.FILE_NAME)));
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+          assertSameAsTermQueries(reader, DocidTable.get(reader));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testStaleTable() throws Exception {
+    Path path = createTempDir();
+    try (Directory dir = FSDirectory.open(path)) {
+      index(dir, true);
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        DocidTable.write(reader);
+      }
+
+      try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig())) {
+        writer.addDocument(document("new", true));
+      }
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        // The table is for an earlier commit, so it's ignored until rebuilt.
+        assertNull(DocidTable.get(reader));
+        assertEquals(reader.maxDoc() - 1, IndexReaderUtils.convertDocidToLuceneDocid(reader, "new"));
+
+        DocidTable table = DocidTable.getOrBuild(reader);
+        assertEquals(reader.maxDoc() - 1, table.getLuceneDocid("new"));
+        assertSameAsTermQueries(reader, table);
+      }
+    }
+  }
+
+  @Test
+  public void testIndexCollection() throws Exception {
+    Path path = createTempDir();
+    IndexCollection.Args args = new IndexCollection.Args();
+    args.collectionClass = "TrecCollection";
+    args.input = "src/test/resources/sample_docs/trec/collection2";
+    args.index = path.toString();
+    args.docidTable = true;
+    args.quiet = true;
+    new IndexCollection(args).run();
+
+    assertTrue(Files.exists(path.resolve(DocidTable.FILE_NAME)));
+    try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(path))) {
+      DocidTable table = DocidTable.get(reader);
+      assertNotNull(table);
+      assertEquals(reader.numDocs(), table.size());
+      for (int i = 0; i < reader.maxDoc(); i++) {
+        String docid = reader.storedFields().document(i).get(Constants.ID);
+        assertEquals(docid, table.getDocid(i));
+        assertEquals(i, table.getLuceneDocid(docid));
+      }
+    }
+  }
+}
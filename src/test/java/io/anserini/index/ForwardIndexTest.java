@@ -0,0 +1,229 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.collection.JsonCollection;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class ForwardIndexTest extends LuceneTestCase {
+  @BeforeClass
+  public static void setupClass() {
+    Configurator.setLevel(ForwardIndex.class.getName(), Level.ERROR);
+    Configurator.setLevel(IndexCollection.class.getName(), Level.ERROR);
+    Configurator.setLevel(AbstractIndexer.class.getName(), Level.ERROR);
+  }
+
+  // Indexes random documents over several segments, with term vectors if asked for, along with documents without
+  // contents and deleted ones.
+  private static void index(Directory dir, int numDocs, boolean termVectors, Random random) throws Exception {
+    FieldType type = new FieldType();
+    type.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    type.setTokenized(true);
+    type.setStoreTermVectors(termVectors);
+    type.freeze();
+
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE);
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      for (int i = 0; i < numDocs; i++) {
+        StringBuilder contents = new StringBuilder();
+        int length = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(100);
+        for (int j = 0; j < length; j++) {
+          // Mostly a small vocabulary, so that terms repeat, along with a few rare terms and non-ASCII ones.
+          int term = random.nextInt(10) == 0 ? random.nextInt(100000) : random.nextInt(50);
+          contents.append(random.nextInt(20) == 0 ? "t\u00e9rm" : "term").append(term).append(' ');
+        }
+
+        Document doc = new Document();
+        doc.add(new StringField(Constants.ID, "doc" + i, Field.Store.YES));
+        doc.add(new StoredField(Constants.RAW, String.format("{\"id\": \"doc%d\", \"contents\": \"%s\"}", i, contents)));
+        if (length > 0) {
+          doc.add(new Field(Constants.CONTENTS, contents.toString(), type));
+        }
+        writer.addDocument(doc);
+
+        if (random.nextInt(100) == 0) {
+          writer.commit();
+        }
+        if (random.nextInt(50) == 0) {
+          writer.deleteDocuments(new Term(Constants.ID, "doc" + random.nextInt(i + 1)));
+        }
+      }
+      writer.commit();
+    }
+  }
+
+  private static Map<String, Long> vector(DocumentVectors vectors, int docid) throws Exception {
+    Map<String, Long> vector = new TreeMap<>();
+    assertTrue(vectors.visit(docid, (term, freq) -> vector.put(term.utf8ToString(), freq)));
+    return vector;
+  }
+
+  private static Map<String, Long> termVector(DirectoryReader reader, int docid) throws Exception {
+    Map<String, Long> vector = new TreeMap<>();
+    Terms terms = reader.termVectors().get(docid, Constants.CONTENTS);
+    if (terms != null) {
+      TermsEnum termsEnum = terms.iterator();
+      while (termsEnum.next() != null) {
+        vector.put(termsEnum.term().utf8ToString(), termsEnum.totalTermFreq());
+      }
+    }
+    return vector;
+  }
+
+  private static void assertSameAsTermVectors(DirectoryReader reader, ForwardIndex index) throws Exception {
+    assertEquals(reader.maxDoc(), index.maxDoc());
+    assertEquals(Constants.CONTENTS, index.field());
+
+    int numTerms = 0;
+    Terms terms = MultiTerms.getTerms(reader, Constants.CONTENTS);
+    if (terms != null) {
+      TermsEnum termsEnum = terms.iterator();
+      while (termsEnum.next() != null) {
+        numTerms++;
+      }
+    }
+    assertEquals(numTerms, index.numTerms());
+
+    for (int i = 0; i < reader.maxDoc(); i++) {
+      // Terms are visited in the order of their bytes, as from term vectors.
+      List<String> order = new ArrayList<>();
+      index.visit(i, (term, freq) -> order.add(term.utf8ToString()));
+      assertEquals(new ArrayList<>(termVector(reader, i).keySet()), order);
+      assertEquals(termVector(reader, i), vector(index, i));
+    }
+    assertFalse(index.visit(-1, (term, freq) -> fail()));
+    assertFalse(index.visit(reader.maxDoc(), (term, freq) -> fail()));
+  }
+
+  @Test
+  public void testSameAsTermVectors() throws Exception {
+    Random random = random();
+    Path path = createTempDir();
+    try (Directory dir = FSDirectory.open(path)) {
+      index(dir, 1000 + random.nextInt(500), true, random);
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        assertTrue(reader.leaves().size() > 1);
+        assertNull(ForwardIndex.get(reader));
+
+        // With a small buffer, segments are inverted a few documents at a time.
+        ForwardIndex.write(reader, Constants.CONTENTS, 1 + random.nextInt(500));
+      }
+
+      assertTrue(Files.exists(path.resolve(ForwardIndex.FILE_NAME)));
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        ForwardIndex index = ForwardIndex.get(reader);
+        assertNotNull(index);
+        assertSame(index, ForwardIndex.get(reader));
+        assertSameAsTermVectors(reader, index);
+
+        // Rewriting the forward index in a single pass makes no difference.
+        ForwardIndex.write(reader);
+      }
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        assertSameAsTermVectors(reader, ForwardIndex.get(reader));
+      }
+    }
+  }
+
+  @Test
+  public void testDocumentVectors() throws Exception {
+    Random random = random();
+    Path path = createTempDir();
+    try (Directory dir = FSDirectory.open(path)) {
+      index(dir, 300, false, random);
+
+      List<Map<String, Long>> expected = new ArrayList<>();
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        // Without term vectors or a forward index, documents are only re-analyzed with a collection class.
+        assertFalse(DocumentVectors.open(reader, Constants.CONTENTS, null, null).visit(0, (term, freq) -> fail()));
+
+        DocumentVectors reanalyzed =
+            DocumentVectors.open(reader, Constants.CONTENTS, new WhitespaceAnalyzer(), JsonCollection.class);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+          expected.add(vector(reanalyzed, i));
+        }
+
+        ForwardIndex.write(reader);
+
+        // The forward index is ignored until the index is reopened.
+        assertFalse(DocumentVectors.open(reader, Constants.CONTENTS, null, null).visit(0, (term, freq) -> fail()));
+      }
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        DocumentVectors vectors = DocumentVectors.open(reader, Constants.CONTENTS, null, null);
+        for (int i = 0; i < reader.maxDoc(); i++) {
+          // The forward index holds the terms as indexed, so they're the same as re-analyzed.
+          assertEquals(expected.get(i), vector(vectors, i));
+        }
+        // The forward index is only of the contents.
+        assertFalse(DocumentVectors.open(reader, Constants.ID, null, null).visit(0, (term, freq) -> fail()));
+      }
+    }
+  }
+
+  @Test
+  public void testIndexCollection() throws Exception {
+    Path path = createTempDir();
+    IndexCollection.Args args = new IndexCollection.Args();
+    args.collectionClass = "TrecCollection";
+    args.input = "src/test/resources/sample_docs/trec/collection2";
+    args.index = path.toString();
+    args.storeDocvectors = true;
+    args.forwardIndex = true;
+    args.quiet = true;
+    new IndexCollection(args).run();
+
+    assertTrue(Files.exists(path.resolve(ForwardIndex.FILE_NAME)));
+    try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(path))) {
+      ForwardIndex index = ForwardIndex.get(reader);
+      assertNotNull(index);
+      assertTrue(index.numTerms() > 0);
+      assertSameAsTermVectors(reader, index);
+    }
+  }
+}
@@ -25,11 +25,17 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermVectors;
@@ -482,6 +488,49 @@ public class IndexReaderUtilsTest extends IndexerTestBase {
     }
   }
 
+  @Test
+  public void testBatchDocidConversion() throws Exception {
+    try (Directory dir = FSDirectory.open(tempDir1);
+        IndexReader reader = DirectoryReader.open(dir)) {
+      assertArrayEquals(new String[] {"doc3", "doc1", "doc3", "doc2"},
+          IndexReaderUtils.convertLuceneDocidsToDocids(reader, new int[] {2, 0, 2, 1}));
+      assertEquals(0, IndexReaderUtils.convertLuceneDocidsToDocids(reader, new int[] {}).length);
+    }
+
+    // Several segments, with and without docids in doc values (in which case they come from stored fields).
+    for (boolean docValues : new boolean[] {true, false}) {
+      Path path = createTempDir();
+      try (Directory dir = FSDirectory.open(path)) {
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+          for (int i = 0; i < 20; i++) {
+            Document doc = new Document();
+            doc.add(new StringField(Constants.ID, "d" + i, Field.Store.YES));
+            if (docValues) {
+              doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef("d" + i)));
+            }
+            writer.addDocument(doc);
+            if (i % 5 == 4) {
+              writer.commit();
+            }
+          }
+        }
+
+        try (IndexReader reader = DirectoryReader.open(dir)) {
+          assertEquals(4, reader.leaves().size());
+          int[] docids = new int[50];
+          for (int i = 0; i < docids.length; i++) {
+            docids[i] = random().nextInt(reader.maxDoc());
+          }
+          String[] expected = new String[docids.length];
+          for (int i = 0; i < docids.length; i++) {
+            expected[i] = IndexReaderUtils.convertLuceneDocidToDocid(reader, docids[i]);
+          }
+          assertArrayEquals(expected, IndexReaderUtils.convertLuceneDocidsToDocids(reader, docids));
+        }
+      }
+    }
+  }
+
   @Test
   public void testComputeQueryDocumentScore() throws Exception {
     try (SimpleSearcher searcher = new SimpleSearcher(tempDir1.toString());
@@ -0,0 +1,107 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.index;
+
+import io.anserini.collection.FileSegment;
+import io.anserini.collection.JsonCollection;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class SegmentSplitTest extends LuceneTestCase {
+
+  private Path createJsonLines(int numDocs) throws Exception {
+    Path file = createTempDir().resolve("docs.jsonl");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numDocs; i++) {
+      // Vary the length of records, and throw in some multi-byte characters for good measure.
+      sb.append(String.format(Locale.ROOT, "{\"id\": \"doc%d\", \"contents\": \"contents %s\u00e9\"}\n", i,
+          "x".repeat(i % 17)));
+    }
+    Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+    return file;
+  }
+
+  @Test
+  public void testSplitCoversFile() throws Exception {
+    Path file = createJsonLines(1000);
+    long size = Files.size(file);
+
+    List<SegmentSplit> splits = SegmentSplit.split(file, 4096);
+    assertTrue(splits.size() > 1);
+    assertEquals(0, splits.get(0).start);
+    assertEquals(size, splits.get(splits.size() - 1).end);
+    for (int i = 1; i < splits.size(); i++) {
+      assertEquals(splits.get(i - 1).end, splits.get(i).start);
+    }
+
+    // Every line must be intact, and lines must appear in order across splits.
+    List<String> lines = new ArrayList<>();
+    for (SegmentSplit split : splits) {
+      try (BufferedReader reader = split.open()) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      }
+    }
+    assertEquals(Files.readAllLines(file, StandardCharsets.UTF_8), lines);
+  }
+
+  @Test
+  public void testSmallFile() throws Exception {
+    Path file = createJsonLines(3);
+
+    List<SegmentSplit> splits = SegmentSplit.split(file, 1 << 20);
+    assertEquals(1, splits.size());
+    assertEquals(0, splits.get(0).start);
+    assertEquals(Files.size(file), splits.get(0).end);
+  }
+
+  @Test
+  public void testJsonCollectionSplits() throws Exception {
+    Path file = createJsonLines(500);
+    JsonCollection collection = new JsonCollection(file.getParent());
+    assertTrue(collection.isSplittable(file));
+
+    int cnt = 0;
+    for (SegmentSplit split : SegmentSplit.split(file, 2048)) {
+      try (FileSegment<JsonCollection.Document> segment = collection.createFileSegment(split.open())) {
+        for (JsonCollection.Document doc : segment) {
+          assertEquals("doc" + cnt, doc.id());
+          cnt++;
+        }
+      }
+    }
+    assertEquals(500, cnt);
+  }
+
+  @Test
+  public void testNotSplittable() throws Exception {
+    JsonCollection collection = new JsonCollection(Paths.get("src/test/resources/sample_docs/json/collection1"));
+    // A file holding a single pretty-printed JSON object cannot be split at line boundaries.
+    assertFalse(collection.isSplittable(Paths.get("src/test/resources/sample_docs/json/collection1/doc1.json")));
+  }
+}
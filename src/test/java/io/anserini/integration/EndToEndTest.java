@@ -158,6 +158,18 @@ public abstract class EndToEndTest extends StdOutStdErrRedirectableLuceneTestCas
       args.add("-pretokenized");
     }
 
+    if (indexArgs.pipeline) {
+      args.add("-pipeline");
+      args.add("-pipeline.readers");
+      args.add(Integer.toString(indexArgs.pipelineReaders));
+      args.add("-pipeline.generators");
+      args.add(Integer.toString(indexArgs.pipelineGenerators));
+      args.add("-pipeline.writers");
+      args.add(Integer.toString(indexArgs.pipelineWriters));
+      args.add("-pipeline.batchSize");
+      args.add(Integer.toString(indexArgs.pipelineBatchSize));
+    }
+
     if (indexArgs.fields != null) {
       args.add("-fields");
       Collections.addAll(args, indexArgs.fields);
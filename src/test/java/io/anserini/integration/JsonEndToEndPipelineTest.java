@@ -0,0 +1,36 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.integration;
+
+import io.anserini.index.IndexCollection;
+
+// Same as JsonEndToEndBasicTest, except that indexing goes through the staged pipeline; the resulting index
+// (and hence retrieval results) must be the same.
+public class JsonEndToEndPipelineTest extends JsonEndToEndBasicTest {
+  @Override
+  IndexCollection.Args getIndexArgs() {
+    IndexCollection.Args indexArgs = super.getIndexArgs();
+    indexArgs.pipeline = true;
+    indexArgs.pipelineReaders = 1;
+    indexArgs.pipelineGenerators = 2;
+    indexArgs.pipelineWriters = 2;
+    // Use a tiny batch size so that documents are spread across writers.
+    indexArgs.pipelineBatchSize = 1;
+
+    return indexArgs;
+  }
+}
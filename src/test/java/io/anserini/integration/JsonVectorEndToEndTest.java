@@ -74,6 +74,14 @@ public class JsonVectorEndToEndTest extends EndToEndTest {
         "2 Q0 doc1 1 1.000000 Anserini",
         "3 Q0 doc1 1 4.000000 Anserini",
         "3 Q0 doc2 2 3.000000 Anserini"});
+
+    // With so few hits, the top-k never fills up, so approximate dynamic pruning doesn't kick in.
+    SearchCollection.Args thresholdArg = createDefaultSearchArgs().impact();
+    thresholdArg.pretokenized = true;
+    thresholdArg.impactThreshold = 1.5f;
+
+    testQueries.put("impact-threshold", thresholdArg);
+    referenceRunOutput.put("impact-threshold", referenceRunOutput.get("impact"));
   }
 
 }
@@ -0,0 +1,52 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.integration;
+
+import io.anserini.index.IndexCollection;
+
+import java.util.Map;
+
+// Same as JsonVectorEndToEndTest, except that neither positions, docvectors, nor contents are stored, which is how
+// impact indexes are typically built; in this case, (term, impact) pairs are handed to Lucene directly instead of
+// going through a pseudo-document. Retrieval results must be the same.
+public class JsonVectorImpactEndToEndTest extends JsonVectorEndToEndTest {
+  @Override
+  IndexCollection.Args getIndexArgs() {
+    IndexCollection.Args indexArgs = super.getIndexArgs();
+    indexArgs.storePositions = false;
+    indexArgs.storeDocvectors = false;
+    indexArgs.storeContents = false;
+
+    return indexArgs;
+  }
+
+  @Override
+  protected void setCheckIndexGroundTruth() {
+    docCount = 2;
+    docFieldCount = 2; // id, raw
+
+    referenceDocs.put("doc1", Map.of());
+    referenceDocs.put("doc2", Map.of());
+
+    fieldNormStatusTotalFields = 1;
+    termIndexStatusTermCount = 10;
+    termIndexStatusTotFreq = 12;
+    storedFieldStatusTotalDocCounts = 2;
+    termIndexStatusTotPos = 31;
+    storedFieldStatusTotFields = 4;
+  }
+}
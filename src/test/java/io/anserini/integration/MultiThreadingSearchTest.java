@@ -162,6 +162,27 @@ public class MultiThreadingSearchTest extends EndToEndTest {
     testQueries.put("qld", searchArgs);
     runsForQuery.put("qld",
         Set.of("e2eTestSearchTrec_qld(mu=1000)_default", "e2eTestSearchTrec_qld(mu=2000)_default"));
+
+    // A single pass over the postings for all parameter settings yields exactly the same runs.
+    searchArgs = createDefaultSearchArgs().bm25();
+    searchArgs.bm25_b = new String[] {"0.2", "0.8"};
+    searchArgs.singlePassSweep = true;
+    testQueries.put("bm25-singlePass", searchArgs);
+    runsForQuery.put("bm25-singlePass", runsForQuery.get("bm25"));
+
+    searchArgs = createDefaultSearchArgs().bm25();
+    searchArgs.bm25_b = new String[] {"0.4", "0.5"};
+    searchArgs.rm3 = true;
+    searchArgs.rm3_originalQueryWeight = new String[] {"0.2", "0.9"};
+    searchArgs.singlePassSweep = true;
+    testQueries.put("bm25rm3-2-singlePass", searchArgs);
+    runsForQuery.put("bm25rm3-2-singlePass", runsForQuery.get("bm25rm3-2"));
+
+    searchArgs = createDefaultSearchArgs().qld();
+    searchArgs.qld_mu = new String[] {"1000", "2000"};
+    searchArgs.singlePassSweep = true;
+    testQueries.put("qld-singlePass", searchArgs);
+    runsForQuery.put("qld-singlePass", runsForQuery.get("qld"));
     groundTruthRuns.put("e2eTestSearchTrec_qld(mu=1000)_default", new String[] {
         "1 Q0 DOC222 1 0.002500 Anserini",
         "1 Q0 TREC_DOC_1 2 0.001700 Anserini",
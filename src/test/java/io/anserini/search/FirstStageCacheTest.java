@@ -0,0 +1,151 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class FirstStageCacheTest {
+  private static TopDocs topDocs(int n) {
+    ScoreDoc[] scoreDocs = new ScoreDoc[n];
+    for (int i = 0; i < n; i++) {
+      scoreDocs[i] = new ScoreDoc(i, n - i);
+    }
+    return new TopDocs(new TotalHits(n, TotalHits.Relation.EQUAL_TO), scoreDocs);
+  }
+
+  @Test
+  public void testHitsAndMisses() throws IOException {
+    FirstStageCache cache = new FirstStageCache(1 << 20);
+    AtomicInteger retrievals = new AtomicInteger();
+
+    TopDocs rs = cache.get("bm25", new TermQuery(new Term("contents", "a")), 10, () -> {
+      retrievals.incrementAndGet();
+      return topDocs(10);
+    });
+    // Equal queries share results, but different similarities or depths do not.
+    assertSame(rs, cache.get("bm25", new TermQuery(new Term("contents", "a")), 10, () -> topDocs(10)));
+    cache.get("qld", new TermQuery(new Term("contents", "a")), 10, () -> topDocs(10));
+    cache.get("bm25", new TermQuery(new Term("contents", "a")), 100, () -> topDocs(100));
+
+    assertEquals(1, retrievals.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    // Room for three and a half results of 1000 hits each.
+    long maxBytes = 7 * FirstStageCache.ramBytesUsed(topDocs(1000)) / 2;
+    FirstStageCache cache = new FirstStageCache(maxBytes);
+    for (int i = 0; i < 5; i++) {
+      cache.get("bm25", new TermQuery(new Term("contents", "t" + i)), 1000, () -> topDocs(1000));
+    }
+    assertEquals(2, cache.getEvictions());
+    assertTrue(cache.getBytes() <= maxBytes);
+
+    // The most recent results are still there; the oldest are not.
+    cache.get("bm25", new TermQuery(new Term("contents", "t4")), 1000, () -> topDocs(1000));
+    assertEquals(1, cache.getHits());
+    cache.get("bm25", new TermQuery(new Term("contents", "t0")), 1000, () -> topDocs(1000));
+    assertEquals(6, cache.getMisses());
+  }
+
+  @Test
+  public void testFieldDocsSize() {
+    // Hits with sort values, as when ties are broken by docid: a boxed score and a copy of the docid bytes.
+    ScoreDoc[] scoreDocs = new ScoreDoc[1000];
+    for (int i = 0; i < scoreDocs.length; i++) {
+      scoreDocs[i] = new FieldDoc(i, 1.0f, new Object[] {1.0f, new BytesRef("doc" + i)});
+    }
+    TopDocs rs = new TopDocs(new TotalHits(1000, TotalHits.Relation.EQUAL_TO), scoreDocs);
+    assertTrue(FirstStageCache.ramBytesUsed(rs) > 3 * FirstStageCache.ramBytesUsed(topDocs(1000)));
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    FirstStageCache cache = new FirstStageCache(1 << 20);
+    AtomicInteger retrievals = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<TopDocs>> futures = new ArrayList<>();
+      futures.add(executor.submit(() -> cache.get("bm25", new TermQuery(new Term("contents", "a")), 10, () -> {
+        retrievals.incrementAndGet();
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return topDocs(10);
+      })));
+      started.await();
+      for (int i = 0; i < 3; i++) {
+        futures.add(executor.submit(() -> cache.get("bm25", new TermQuery(new Term("contents", "a")), 10, () -> {
+          retrievals.incrementAndGet();
+          return topDocs(10);
+        })));
+      }
+      // Wait until the other requests have found the pending entry before letting the retrieval finish.
+      while (cache.getHits() < 3) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      TopDocs rs = futures.get(0).get();
+      for (Future<TopDocs> future : futures) {
+        assertSame(rs, future.get());
+      }
+      assertEquals(1, retrievals.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailedRetrievalIsNotCached() throws IOException {
+    FirstStageCache cache = new FirstStageCache(1 << 20);
+    assertThrows(IOException.class, () -> cache.get("bm25", new TermQuery(new Term("contents", "a")), 10, () -> {
+      throw new IOException("boom");
+    }));
+    assertEquals(10, cache.get("bm25", new TermQuery(new Term("contents", "a")), 10, () -> topDocs(10)).scoreDocs.length);
+    assertEquals(2, cache.getMisses());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import io.anserini.index.codecs.AnseriniLucene99FlatVectorFormat;
+import io.anserini.index.codecs.AnseriniLucene99ScalarQuantizedVectorsFormat;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99Codec;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FlatVectorBatchScorerTest extends LuceneTestCase {
+  private static final int DIMENSIONS = 4;
+
+  private static IndexWriterConfig config(KnnVectorsFormat format) {
+    return new IndexWriterConfig()
+        .setMergePolicy(NoMergePolicy.INSTANCE)
+        .setCodec(new Lucene99Codec() {
+          @Override
+          public KnnVectorsFormat getKnnVectorsFormatForField(String field) {
+            return format;
+          }
+        });
+  }
+
+  // Vectors of small integers, so that many documents tie.
+  private static float[] vector(Random random) {
+    float[] vector = new float[DIMENSIONS];
+    for (int i = 0; i < DIMENSIONS; i++) {
+      vector[i] = random.nextInt(3) - 1;
+    }
+    return vector;
+  }
+
+  // Indexes documents over several segments, along with deleted documents, documents without vectors, and documents
+  // without docids or with the same docid.
+  private static void index(Directory dir, KnnVectorsFormat format, VectorSimilarityFunction similarity, Random random)
+      throws Exception {
+    try (IndexWriter writer = new IndexWriter(dir, config(format))) {
+      int numDocs = 200 + random.nextInt(300);
+      for (int i = 0; i < numDocs; i++) {
+        Document doc = new Document();
+        String docid = random.nextInt(10) == 0 ? "dup" : "doc" + random.nextInt(1000);
+        if (random.nextInt(20) != 0) {
+          doc.add(new StringField(Constants.ID, docid, Field.Store.YES));
+          doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef(docid)));
+        }
+        float[] vector = vector(random);
+        if (random.nextInt(20) != 0 && (similarity != VectorSimilarityFunction.COSINE || vector[0] != 0 ||
+            vector[1] != 0 || vector[2] != 0 || vector[3] != 0)) {
+          doc.add(new KnnFloatVectorField(Constants.VECTOR, vector, similarity));
+        }
+        writer.addDocument(doc);
+        if (random.nextInt(100) == 0) {
+          writer.commit();
+        }
+      }
+      writer.deleteDocuments(new Term(Constants.ID, "doc" + random.nextInt(1000)));
+      writer.commit();
+    }
+  }
+
+  @Test
+  public void testSameAsKnnQuery() throws Exception {
+    Random random = random();
+    VectorSimilarityFunction[] similarities = new VectorSimilarityFunction[] {VectorSimilarityFunction.EUCLIDEAN,
+        VectorSimilarityFunction.COSINE, VectorSimilarityFunction.MAXIMUM_INNER_PRODUCT};
+
+    for (VectorSimilarityFunction similarity : similarities) {
+      try (Directory dir = newFSDirectory(createTempDir())) {
+        index(dir, new AnseriniLucene99FlatVectorFormat(), similarity, random);
+
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+          IndexSearcher searcher = new IndexSearcher(reader);
+          assertTrue(FlatVectorBatchScorer.supports(reader, Constants.VECTOR));
+
+          float[][] queries = new float[1 + random.nextInt(50)][];
+          for (int i = 0; i < queries.length; i++) {
+            queries[i] = vector(random);
+            queries[i][0] = 1;
+          }
+          int numCandidates = 1 + random.nextInt(100);
+          int k = 1 + random.nextInt(150);
+
+          // Small ranges of documents, so that segments are split over several tasks.
+          FlatVectorBatchScorer scorer =
+              new FlatVectorBatchScorer(reader, Constants.VECTOR, 1 + random.nextInt(10), 1 + random.nextInt(100));
+          TopDocs[] results = scorer.search(queries, numCandidates, k, 1 + random.nextInt(4));
+          assertEquals(queries.length, results.length);
+          for (int i = 0; i < queries.length; i++) {
+            TopDocs expected = searcher.search(new KnnFloatVectorQuery(Constants.VECTOR, queries[i], numCandidates), k,
+                FlatDenseSearcher.BREAK_SCORE_TIES_BY_DOCID, true);
+            assertEquals(expected.scoreDocs.length, results[i].scoreDocs.length);
+            for (int j = 0; j < expected.scoreDocs.length; j++) {
+              assertEquals(expected.scoreDocs[j].doc, results[i].scoreDocs[j].doc);
+              assertEquals(expected.scoreDocs[j].score, results[i].scoreDocs[j].score, 0.0f);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testQuantizedIndex() throws Exception {
+    try (Directory dir = newFSDirectory(createTempDir())) {
+      index(dir, new AnseriniLucene99ScalarQuantizedVectorsFormat(), VectorSimilarityFunction.EUCLIDEAN, random());
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        // Quantized vectors are scored differently, so searching them exactly wouldn't give the same results.
+        assertFalse(FlatVectorBatchScorer.supports(reader, Constants.VECTOR));
+        expectThrows(IllegalArgumentException.class, () -> new FlatVectorBatchScorer(reader, Constants.VECTOR, 8));
+      }
+    }
+  }
+}
@@ -200,6 +200,74 @@ public class HnswDenseSearcherTest extends SuppresedLoggingLuceneTestCase {
     }
   }
 
+  @Test
+  public void testAda2SegmentThreads() throws Exception {
+    String indexPath = "target/idx-sample-hnsw" + System.currentTimeMillis();
+    String[] indexArgs = new String[] {
+        "-collection", "JsonDenseVectorCollection",
+        "-input", "src/test/resources/sample_docs/openai_ada2/json_vector",
+        "-index", indexPath,
+        "-generator", "DenseVectorDocumentGenerator",
+        "-threads", "1",
+        "-M", "16", "-efC", "100"
+    };
+
+    IndexHnswDenseVectors.main(indexArgs);
+
+    HnswDenseSearcher.Args args = new HnswDenseSearcher.Args();
+    args.index = indexPath;
+    args.hnswSegmentThreads = 2;
+    args.hnswSharedEfSearch = true;
+
+    TopicReader<Integer> topicReader = new JsonIntVectorTopicReader(
+        Path.of("src/test/resources/sample_topics/sample-topics.msmarco-passage-dev-openai-ada2.jsonl"));
+
+    SortedMap<Integer, Map<String, String>> topics = topicReader.read();
+
+    List<Integer> qids= new ArrayList<>();
+    List<String> queries = new ArrayList<>();
+
+    topics.forEach((qid, topic) -> {
+      String query = topic.get("vector");
+      assert query != null;
+      qids.add(qid);
+      queries.add(query);
+    });
+
+    try(HnswDenseSearcher<Integer> searcher = new HnswDenseSearcher<>(args)) {
+      SortedMap<Integer, ScoredDoc[]> allResults = searcher.batch_search(queries, qids, 5, 2);
+
+      ScoredDoc[] results = allResults.get(160885);
+      assertEquals(5, results.length);
+      assertEquals("45", results[0].docid);
+      assertEquals("44", results[1].docid);
+      assertEquals("40", results[2].docid);
+      assertEquals("48", results[3].docid);
+      assertEquals("41", results[4].docid);
+
+      assertEquals(0.863064f, results[0].score, 10e-6);
+      assertEquals(0.861596f, results[1].score, 10e-6);
+      assertEquals(0.858651f, results[2].score, 10e-6);
+      assertEquals(0.858514f, results[3].score, 10e-6);
+      assertEquals(0.856264f, results[4].score, 10e-6);
+
+      // Every query visits at least efSearch nodes of the graph, since there are as many documents.
+      assertEquals(qids.size(), searcher.getQueryCount());
+      assertTrue(searcher.getVisitedCount() >= 100L * qids.size());
+      assertTrue(searcher.meanVisitedCount(0, 0) >= 100);
+      assertEquals(0, searcher.meanVisitedCount(searcher.getVisitedCount(), searcher.getQueryCount()), 0);
+
+      // A single query reports its own count, along with the same results as a plain search.
+      long visitedBefore = searcher.getVisitedCount();
+      HnswDenseSearcher.Hits hits = searcher.searchWithVisitedCount(160885, queries.get(qids.indexOf(160885)), 5);
+      assertTrue(hits.visitedCount() >= 100);
+      assertEquals(visitedBefore + hits.visitedCount(), searcher.getVisitedCount());
+      assertEquals(5, hits.docs().length);
+      assertEquals("45", hits.docs()[0].docid);
+      assertEquals(0.863064f, hits.docs()[0].score, 10e-6);
+    }
+  }
+
   @Test
   public void testCosDpr() throws Exception {
     String indexPath = "target/idx-sample-hnsw" + System.currentTimeMillis();
@@ -0,0 +1,198 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99Codec;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class HnswKnnFloatVectorQueryTest extends LuceneTestCase {
+  private static final int DIMENSIONS = 16;
+
+  private static float[] vector(Random random) {
+    float[] vector = new float[DIMENSIONS];
+    for (int i = 0; i < DIMENSIONS; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return vector;
+  }
+
+  // Indexes documents into segments of about the given size, along with deleted documents and documents without
+  // vectors, unless merged into a single segment.
+  private static void index(Directory dir, int numDocs, int segmentSize, boolean merged, Random random)
+      throws Exception {
+    IndexWriterConfig config = new IndexWriterConfig()
+        .setMergePolicy(merged ? new TieredMergePolicy() : NoMergePolicy.INSTANCE)
+        .setCodec(new Lucene99Codec() {
+          @Override
+          public KnnVectorsFormat getKnnVectorsFormatForField(String field) {
+            return new Lucene99HnswVectorsFormat(8, 50);
+          }
+        });
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      for (int i = 0; i < numDocs; i++) {
+        Document doc = new Document();
+        String docid = "doc" + i;
+        doc.add(new StringField(Constants.ID, docid, Field.Store.YES));
+        doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef(docid)));
+        if (random.nextInt(20) != 0) {
+          doc.add(new KnnFloatVectorField(Constants.VECTOR, vector(random), VectorSimilarityFunction.EUCLIDEAN));
+        }
+        writer.addDocument(doc);
+        if ((i + 1) % segmentSize == 0) {
+          writer.commit();
+        }
+        if (random.nextInt(50) == 0) {
+          writer.deleteDocuments(new Term(Constants.ID, "doc" + random.nextInt(i + 1)));
+        }
+      }
+      if (merged) {
+        writer.forceMerge(1);
+      }
+      writer.commit();
+    }
+  }
+
+  // Searches as HnswDenseSearcher does, rewriting the query once.
+  private static TopDocs search(IndexSearcher searcher, KnnFloatVectorQuery query) throws Exception {
+    return searcher.search(searcher.rewrite(query), 10, HnswDenseSearcher.BREAK_SCORE_TIES_BY_DOCID, true);
+  }
+
+  private static void assertSameHits(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0f);
+    }
+  }
+
+  @Test
+  public void testSameAsKnnQuery() throws Exception {
+    Random random = random();
+    ExecutorService executor = Executors.newFixedThreadPool(1 + random.nextInt(4));
+    try (Directory dir = newFSDirectory(createTempDir())) {
+      index(dir, 1000, 50 + random.nextInt(200), false, random);
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        assertTrue(reader.leaves().size() > 1);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        IndexSearcher parallelSearcher = new IndexSearcher(reader, executor);
+
+        for (int i = 0; i < 20; i++) {
+          float[] vector = vector(random);
+          int efSearch = 10 + random.nextInt(50);
+          TopDocs expected = search(searcher, new KnnFloatVectorQuery(Constants.VECTOR, vector, efSearch));
+
+          // Without sharing scores, segments are searched as Lucene searches them, whether in turn or in parallel.
+          HnswKnnFloatVectorQuery query = new HnswKnnFloatVectorQuery(Constants.VECTOR, vector, efSearch, false);
+          assertSameHits(expected, search(searcher, query));
+          HnswKnnFloatVectorQuery parallelQuery = new HnswKnnFloatVectorQuery(Constants.VECTOR, vector, efSearch, false);
+          assertSameHits(expected, search(parallelSearcher, parallelQuery));
+
+          assertTrue(query.visitedCount() >= efSearch);
+          assertEquals(query.visitedCount(), parallelQuery.visitedCount());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSharedScoresSingleSegment() throws Exception {
+    Random random = random();
+    try (Directory dir = newFSDirectory(createTempDir())) {
+      index(dir, 500, 100, true, random);
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        assertEquals(1, reader.leaves().size());
+        IndexSearcher searcher = new IndexSearcher(reader);
+
+        // With a single segment, there are no other scores to share.
+        for (int i = 0; i < 20; i++) {
+          float[] vector = vector(random);
+          HnswKnnFloatVectorQuery query = new HnswKnnFloatVectorQuery(Constants.VECTOR, vector, 20, false);
+          HnswKnnFloatVectorQuery sharedQuery = new HnswKnnFloatVectorQuery(Constants.VECTOR, vector, 20, true);
+          assertSameHits(search(searcher, query), search(searcher, sharedQuery));
+          assertEquals(query.visitedCount(), sharedQuery.visitedCount());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSharedScoresVisitFewerNodes() throws Exception {
+    Random random = random();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (Directory dir = newFSDirectory(createTempDir())) {
+      index(dir, 4000, 200, false, random);
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        for (IndexSearcher searcher : new IndexSearcher[] {new IndexSearcher(reader), new IndexSearcher(reader, executor)}) {
+          long visited = 0;
+          long sharedVisited = 0;
+          int overlap = 0;
+          for (int i = 0; i < 20; i++) {
+            float[] vector = vector(random);
+            HnswKnnFloatVectorQuery query = new HnswKnnFloatVectorQuery(Constants.VECTOR, vector, 50, false);
+            HnswKnnFloatVectorQuery sharedQuery = new HnswKnnFloatVectorQuery(Constants.VECTOR, vector, 50, true);
+            TopDocs topDocs = search(searcher, query);
+            TopDocs sharedTopDocs = search(searcher, sharedQuery);
+
+            visited += query.visitedCount();
+            sharedVisited += sharedQuery.visitedCount();
+            for (int j = 0; j < topDocs.scoreDocs.length; j++) {
+              for (int l = 0; l < sharedTopDocs.scoreDocs.length; l++) {
+                overlap += topDocs.scoreDocs[j].doc == sharedTopDocs.scoreDocs[l].doc ? 1 : 0;
+              }
+            }
+          }
+
+          // Later segments stop early, while the nearest documents are still found.
+          assertTrue(sharedVisited < visited);
+          assertTrue(overlap >= 0.9 * 20 * 10);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
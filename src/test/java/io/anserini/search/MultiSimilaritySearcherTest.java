@@ -0,0 +1,179 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class MultiSimilaritySearcherTest extends LuceneTestCase {
+  private static final int NUM_DOCS = 5000;
+  private static final int VOCAB_SIZE = 100;
+  private static final Sort BREAK_SCORE_TIES_BY_DOCID =
+      new Sort(SortField.FIELD_SCORE, new SortField(Constants.ID, SortField.Type.STRING_VAL));
+
+  private static Directory dir;
+  private static DirectoryReader reader;
+
+  @BeforeClass
+  public static void setUpIndex() throws IOException {
+    // Short documents from a small vocabulary, so that there are plenty of score ties. Docids are shuffled with
+    // respect to Lucene docids, so that the two tie-breaking strategies differ.
+    Random random = new Random(42);
+    dir = new ByteBuffersDirectory();
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+      for (int i = 0; i < NUM_DOCS; i++) {
+        StringBuilder sb = new StringBuilder();
+        int len = 1 + random.nextInt(20);
+        for (int j = 0; j < len; j++) {
+          sb.append("t").append((int) (VOCAB_SIZE * Math.pow(random.nextDouble(), 2))).append(' ');
+        }
+        String id = String.format(Locale.ROOT, "doc%05d", (i * 7919) % NUM_DOCS);
+        Document doc = new Document();
+        doc.add(new StringField(Constants.ID, id, Field.Store.YES));
+        doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef(id)));
+        doc.add(new TextField(Constants.CONTENTS, sb.toString(), Field.Store.NO));
+        writer.addDocument(doc);
+        if (i % 1000 == 999) {
+          writer.commit();
+        }
+      }
+    }
+    reader = DirectoryReader.open(dir);
+  }
+
+  @AfterClass
+  public static void tearDownIndex() throws IOException {
+    reader.close();
+    dir.close();
+    reader = null;
+    dir = null;
+  }
+
+  private static List<Similarity> similarities() {
+    List<Similarity> similarities = new ArrayList<>();
+    for (float k1 : new float[] {0.6f, 0.9f, 1.2f}) {
+      for (float b : new float[] {0.2f, 0.4f, 0.75f}) {
+        similarities.add(new BM25Similarity(k1, b));
+      }
+    }
+    similarities.add(new LMDirichletSimilarity(1000.0f));
+    return similarities;
+  }
+
+  private static Query randomQuery(Random random) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    int numTerms = 1 + random.nextInt(6);
+    for (int i = 0; i < numTerms; i++) {
+      // Includes terms that don't occur, repeated terms, and boosts.
+      Query tq = new TermQuery(new Term(Constants.CONTENTS, "t" + random.nextInt(VOCAB_SIZE + 5)));
+      builder.add(random.nextBoolean() ? tq : new BoostQuery(tq, 1 + random.nextInt(3)), BooleanClause.Occur.SHOULD);
+    }
+    return builder.build();
+  }
+
+  private static void assertSameTopDocs(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0f);
+    }
+  }
+
+  @Test
+  public void testSameResultsAsSeparateSearches() throws IOException {
+    List<Similarity> similarities = similarities();
+    MultiSimilaritySearcher multi = new MultiSimilaritySearcher(reader, similarities);
+    Random random = new Random(7);
+
+    for (int q = 0; q < 20; q++) {
+      Query query = randomQuery(random);
+      for (int k : new int[] {1, 10, 1000}) {
+        TopDocs[] byDocid = multi.search(query, k, true);
+        TopDocs[] byLuceneDocid = multi.search(query, k, false);
+        for (int s = 0; s < similarities.size(); s++) {
+          IndexSearcher searcher = new IndexSearcher(reader);
+          searcher.setSimilarity(similarities.get(s));
+          assertSameTopDocs(searcher.search(query, k, BREAK_SCORE_TIES_BY_DOCID, true), byDocid[s]);
+          assertSameTopDocs(searcher.search(query, k), byLuceneDocid[s]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSingleTerm() throws IOException {
+    List<Similarity> similarities = similarities();
+    MultiSimilaritySearcher multi = new MultiSimilaritySearcher(reader, similarities);
+    Query query = new BoostQuery(new TermQuery(new Term(Constants.CONTENTS, "t3")), 2.0f);
+
+    TopDocs[] results = multi.search(query, 100, true);
+    for (int s = 0; s < similarities.size(); s++) {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      searcher.setSimilarity(similarities.get(s));
+      assertSameTopDocs(searcher.search(query, 100, BREAK_SCORE_TIES_BY_DOCID, true), results[s]);
+    }
+  }
+
+  @Test
+  public void testSupports() {
+    assertTrue(MultiSimilaritySearcher.supports(new TermQuery(new Term(Constants.CONTENTS, "a"))));
+    assertTrue(MultiSimilaritySearcher.supports(randomQuery(new Random(1))));
+
+    BooleanQuery.Builder must = new BooleanQuery.Builder();
+    must.add(new TermQuery(new Term(Constants.CONTENTS, "a")), BooleanClause.Occur.MUST);
+    assertFalse(MultiSimilaritySearcher.supports(must.build()));
+
+    BooleanQuery.Builder phrase = new BooleanQuery.Builder();
+    phrase.add(new PhraseQuery(Constants.CONTENTS, "a", "b"), BooleanClause.Occur.SHOULD);
+    assertFalse(MultiSimilaritySearcher.supports(phrase.build()));
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import io.anserini.index.codecs.AnseriniLucene99BinaryQuantizedVectorsFormat;
+import io.anserini.index.codecs.AnseriniLucene99FlatVectorFormat;
+import io.anserini.index.codecs.AnseriniLucene99ScalarQuantizedVectorsFormat;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99Codec;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.tests.util.TestUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.VectorUtil;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class QuantizedVectorRescorerTest extends LuceneTestCase {
+
+  private static IndexWriterConfig config(KnnVectorsFormat format, boolean sorted) {
+    IndexWriterConfig config = new IndexWriterConfig()
+        .setMergePolicy(NoMergePolicy.INSTANCE)
+        .setCodec(new Lucene99Codec() {
+          @Override
+          public KnnVectorsFormat getKnnVectorsFormatForField(String field) {
+            return format;
+          }
+        });
+    if (sorted) {
+      config.setIndexSort(new Sort(new SortField("sort", SortField.Type.INT)));
+    }
+    return config;
+  }
+
+  private static float[] vector(Random random, int dimensions, VectorSimilarityFunction similarity) {
+    float[] vector = new float[dimensions];
+    for (int i = 0; i < dimensions; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    if (similarity == VectorSimilarityFunction.DOT_PRODUCT) {
+      VectorUtil.l2normalize(vector);
+    }
+    return vector;
+  }
+
+  private static void index(Directory[] dirs, KnnVectorsFormat[] formats, int dimensions, int numDocs,
+                            VectorSimilarityFunction similarity, long seed) throws Exception {
+    index(dirs, formats, dimensions, numDocs, similarity, seed, new Random(seed + 1).nextBoolean());
+  }
+
+  // Indexes the same documents, over several segments unless merged, along with deleted documents and documents
+  // without vectors, with each format in turn.
+  private static void index(Directory[] dirs, KnnVectorsFormat[] formats, int dimensions, int numDocs,
+                            VectorSimilarityFunction similarity, long seed, boolean merged) throws Exception {
+    boolean sorted = new Random(seed).nextBoolean();
+    for (int d = 0; d < dirs.length; d++) {
+      Random random = new Random(seed);
+      try (IndexWriter writer = new IndexWriter(dirs[d], config(formats[d], sorted))) {
+        for (int i = 0; i < numDocs; i++) {
+          Document doc = new Document();
+          String docid = "doc" + i;
+          doc.add(new StringField(Constants.ID, docid, Field.Store.YES));
+          doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef(docid)));
+          doc.add(new NumericDocValuesField("sort", random.nextInt(1000)));
+          float[] vector = vector(random, dimensions, similarity);
+          if (random.nextInt(20) != 0) {
+            doc.add(new KnnFloatVectorField(Constants.VECTOR, vector, similarity));
+          }
+          writer.addDocument(doc);
+          if (random.nextInt(100) == 0) {
+            writer.commit();
+          }
+          if (random.nextInt(50) == 0) {
+            writer.deleteDocuments(new Term(Constants.ID, "doc" + random.nextInt(i + 1)));
+          }
+        }
+        if (merged) {
+          writer.forceMerge(1);
+        }
+        writer.commit();
+      }
+      TestUtil.checkIndex(dirs[d]);
+    }
+  }
+
+  private static TopDocs exact(DirectoryReader reader, float[] query, int numCandidates, int k) throws Exception {
+    return new IndexSearcher(reader).search(new KnnFloatVectorQuery(Constants.VECTOR, query, numCandidates), k,
+        FlatDenseSearcher.BREAK_SCORE_TIES_BY_DOCID, true);
+  }
+
+  @Test
+  public void testSameAsFlatIndex() throws Exception {
+    Random random = random();
+    for (VectorSimilarityFunction similarity : VectorSimilarityFunction.values()) {
+      try (Directory flatDir = newFSDirectory(createTempDir()); Directory dir = newFSDirectory(createTempDir())) {
+        int dimensions = 1 + random.nextInt(40);
+        int numDocs = 100 + random.nextInt(300);
+        index(new Directory[] {flatDir, dir},
+            new KnnVectorsFormat[] {new AnseriniLucene99FlatVectorFormat(),
+                new AnseriniLucene99BinaryQuantizedVectorsFormat()},
+            dimensions, numDocs, similarity, random.nextLong());
+
+        try (DirectoryReader flatReader = DirectoryReader.open(flatDir); DirectoryReader reader = DirectoryReader.open(dir)) {
+          assertTrue(QuantizedVectorRescorer.supports(reader, Constants.VECTOR, 8));
+          assertTrue(QuantizedVectorRescorer.supports(reader, Constants.VECTOR, 1));
+
+          for (int bits : new int[] {8, 1}) {
+            int numCandidates = 1 + random.nextInt(20);
+            int k = 1 + random.nextInt(30);
+            // Enough candidates to rescore every document, so that results are the same as the flat index.
+            QuantizedVectorRescorer rescorer =
+                new QuantizedVectorRescorer(reader, Constants.VECTOR, bits, (float) numDocs / numCandidates + 1);
+            for (int i = 0; i < 10; i++) {
+              float[] query = vector(random, dimensions, similarity);
+              TopDocs expected = exact(flatReader, query, numCandidates, k);
+              TopDocs results = rescorer.search(query, numCandidates, k);
+              assertEquals(expected.scoreDocs.length, results.scoreDocs.length);
+              for (int j = 0; j < expected.scoreDocs.length; j++) {
+                assertEquals(expected.scoreDocs[j].doc, results.scoreDocs[j].doc);
+                assertEquals(expected.scoreDocs[j].score, results.scoreDocs[j].score, 0.0f);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRescoredScores() throws Exception {
+    Random random = random();
+    try (Directory dir = newFSDirectory(createTempDir())) {
+      int dimensions = 32;
+      index(new Directory[] {dir}, new KnnVectorsFormat[] {new AnseriniLucene99BinaryQuantizedVectorsFormat()},
+          dimensions, 500, VectorSimilarityFunction.EUCLIDEAN, random.nextLong());
+
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        for (int bits : new int[] {8, 1}) {
+          QuantizedVectorRescorer rescorer = new QuantizedVectorRescorer(reader, Constants.VECTOR, bits, 2);
+          float[] query = vector(random, dimensions, VectorSimilarityFunction.EUCLIDEAN);
+          TopDocs results = rescorer.search(query, 10, 10);
+          assertEquals(10, results.scoreDocs.length);
+
+          // Hits have the scores of their float vectors, and aren't deleted.
+          for (ScoreDoc hit : results.scoreDocs) {
+            LeafReaderContext context = reader.leaves().get(ReaderUtil.subIndex(hit.doc, reader.leaves()));
+            int doc = hit.doc - context.docBase;
+            assertTrue(context.reader().getLiveDocs() == null || context.reader().getLiveDocs().get(doc));
+            FloatVectorValues vectors = context.reader().getFloatVectorValues(Constants.VECTOR);
+            assertEquals(doc, vectors.advance(doc));
+            assertEquals(VectorSimilarityFunction.EUCLIDEAN.compare(query, vectors.vectorValue()), hit.score, 0.0f);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRecall() throws Exception {
+    Random random = random();
+    int dimensions = 64;
+    try (Directory flatDir = newFSDirectory(createTempDir()); Directory dir = newFSDirectory(createTempDir())) {
+      index(new Directory[] {flatDir, dir},
+          new KnnVectorsFormat[] {new AnseriniLucene99FlatVectorFormat(),
+              new AnseriniLucene99BinaryQuantizedVectorsFormat()},
+          dimensions, 2000, VectorSimilarityFunction.COSINE, random.nextLong(), true);
+
+      try (DirectoryReader flatReader = DirectoryReader.open(flatDir); DirectoryReader reader = DirectoryReader.open(dir)) {
+        float[][] queries = new float[50][];
+        for (int i = 0; i < queries.length; i++) {
+          queries[i] = vector(random, dimensions, VectorSimilarityFunction.COSINE);
+        }
+
+        // Int8 vectors are close enough to need little oversampling, whereas 1-bit vectors need more.
+        assertTrue(recall(flatReader, new QuantizedVectorRescorer(reader, Constants.VECTOR, 8, 2), queries) >= 0.95);
+        assertTrue(recall(flatReader, new QuantizedVectorRescorer(reader, Constants.VECTOR, 1, 10), queries) >= 0.8);
+      }
+    }
+  }
+
+  private static double recall(DirectoryReader flatReader, QuantizedVectorRescorer rescorer, float[][] queries)
+      throws Exception {
+    int found = 0;
+    int total = 0;
+    for (float[] query : queries) {
+      Set<Integer> expected = new HashSet<>();
+      for (ScoreDoc scoreDoc : exact(flatReader, query, 10, 10).scoreDocs) {
+        expected.add(scoreDoc.doc);
+      }
+      for (ScoreDoc scoreDoc : rescorer.search(query, 10, 10).scoreDocs) {
+        found += expected.contains(scoreDoc.doc) ? 1 : 0;
+      }
+      total += expected.size();
+    }
+    return (double) found / total;
+  }
+
+  @Test
+  public void testUnsupportedIndexes() throws Exception {
+    long seed = random().nextLong();
+    try (Directory flatDir = newFSDirectory(createTempDir()); Directory int8Dir = newFSDirectory(createTempDir())) {
+      index(new Directory[] {flatDir, int8Dir},
+          new KnnVectorsFormat[] {new AnseriniLucene99FlatVectorFormat(),
+              new AnseriniLucene99ScalarQuantizedVectorsFormat()},
+          8, 100, VectorSimilarityFunction.EUCLIDEAN, seed);
+
+      try (DirectoryReader flatReader = DirectoryReader.open(flatDir);
+           DirectoryReader int8Reader = DirectoryReader.open(int8Dir)) {
+        assertFalse(QuantizedVectorRescorer.supports(flatReader, Constants.VECTOR, 8));
+        expectThrows(IllegalArgumentException.class,
+            () -> new QuantizedVectorRescorer(flatReader, Constants.VECTOR, 8, 4));
+
+        // Int8 indexes can be rescored, but have no 1-bit vectors.
+        assertTrue(QuantizedVectorRescorer.supports(int8Reader, Constants.VECTOR, 8));
+        assertFalse(QuantizedVectorRescorer.supports(int8Reader, Constants.VECTOR, 1));
+        expectThrows(IllegalArgumentException.class,
+            () -> new QuantizedVectorRescorer(int8Reader, Constants.VECTOR, 1, 4));
+        expectThrows(IllegalArgumentException.class,
+            () -> new QuantizedVectorRescorer(int8Reader, Constants.VECTOR, 4, 4));
+        expectThrows(IllegalArgumentException.class,
+            () -> new QuantizedVectorRescorer(int8Reader, Constants.VECTOR, 8, 0.5f));
+      }
+    }
+  }
+}
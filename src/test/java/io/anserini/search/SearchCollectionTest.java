@@ -17,14 +17,22 @@
 package io.anserini.search;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import io.anserini.CustomAppender;
 import io.anserini.StdOutStdErrRedirectableLuceneTestCase;
 import io.anserini.TestUtils;
 
@@ -154,6 +162,97 @@ public class SearchCollectionTest extends StdOutStdErrRedirectableLuceneTestCase
     assertTrue(new File("run.test").delete());
   }
 
+  @Test
+  public void testResume() throws Exception {
+    // A run that crashed partway through the first line of topic 1; topic 0 (made up) is complete.
+    Files.writeString(Path.of("run.test"), "0 Q0 DOC0 1 1.000000 Anserini\n1 Q0 DOC222 1 0.34");
+
+    SearchCollection.main(new String[] {
+        "-index", "src/test/resources/prebuilt_indexes/lucene9-index.sample_docs_trec_collection2/",
+        "-topics", "src/test/resources/sample_topics/Trec",
+        "-topicReader", "Trec",
+        "-output", "run.test", "-bm25", "-resume"});
+
+    TestUtils.checkFile("run.test", new String[]{
+        "0 Q0 DOC0 1 1.000000 Anserini",
+        "1 Q0 DOC222 1 0.343200 Anserini",
+        "1 Q0 TREC_DOC_1 2 0.333400 Anserini",
+        "1 Q0 WSJ_1 3 0.068700 Anserini"});
+
+    // Resuming a run that did finish searches the last topic again, since it can't tell whether it was complete.
+    SearchCollection.main(new String[] {
+        "-index", "src/test/resources/prebuilt_indexes/lucene9-index.sample_docs_trec_collection2/",
+        "-topics", "src/test/resources/sample_topics/Trec",
+        "-topicReader", "Trec",
+        "-output", "run.test", "-bm25", "-resume"});
+
+    TestUtils.checkFile("run.test", new String[]{
+        "0 Q0 DOC0 1 1.000000 Anserini",
+        "1 Q0 DOC222 1 0.343200 Anserini",
+        "1 Q0 TREC_DOC_1 2 0.333400 Anserini",
+        "1 Q0 WSJ_1 3 0.068700 Anserini"});
+    assertTrue(new File("run.test").delete());
+  }
+
+  @Test
+  public void testLatencyReport() throws Exception {
+    SearchCollection.main(new String[] {
+        "-index", "src/test/resources/prebuilt_indexes/lucene9-index.sample_docs_trec_collection2/",
+        "-topics", "src/test/resources/sample_topics/Trec",
+        "-topicReader", "Trec",
+        "-output", "run.test", "-bm25", "-rm3", "-latencyReport"});
+
+    File report = new File("run.test" + SearchCollection.LATENCY_REPORT_SUFFIX);
+    assertTrue(report.exists());
+    JsonNode json = new ObjectMapper().readTree(report);
+    assertEquals("run.test", json.get("run").asText());
+    assertEquals(1, json.get("queries").asInt());
+    assertTrue(json.get("reranker").asText().startsWith("rm3"));
+
+    JsonNode stages = json.get("stages");
+    for (String stage : new String[] {"query_generation", "first_stage", "hits", "rerank", "output", "total"}) {
+      JsonNode latencies = stages.get(stage);
+      assertEquals(1, latencies.get("count").asInt());
+      assertTrue(latencies.get("p50_ms").asDouble() <= latencies.get("p90_ms").asDouble());
+      assertTrue(latencies.get("p90_ms").asDouble() <= latencies.get("p99_ms").asDouble());
+      assertTrue(latencies.get("p99_ms").asDouble() <= latencies.get("max_ms").asDouble());
+      assertTrue(latencies.get("max_ms").asDouble() <= stages.get("total").get("max_ms").asDouble());
+    }
+    // Without an encoder, there's nothing to encode.
+    assertNull(stages.get("encode"));
+
+    assertTrue(report.delete());
+    assertTrue(new File("run.test").delete());
+  }
+
+  @Test
+  public void testEval() throws Exception {
+    CustomAppender appender = new CustomAppender("eval");
+    appender.start();
+    Logger logger = (Logger) LogManager.getLogger(SearchCollection.class);
+    logger.addAppender(appender);
+    Configurator.setLevel(SearchCollection.class.getName(), Level.INFO);
+    try {
+      SearchCollection.main(new String[] {
+          "-index", "src/test/resources/prebuilt_indexes/lucene9-index.sample_docs_trec_collection2/",
+          "-topics", "src/test/resources/sample_topics/Trec",
+          "-topicReader", "Trec",
+          "-output", "run.test", "-bm25",
+          "-eval.qrels", "src/test/resources/sample_qrels/Trec", "-eval.metrics", "map", "P.10", "num_rel_ret"});
+    } finally {
+      Configurator.setLevel(SearchCollection.class.getName(), Level.ERROR);
+      logger.removeAppender(appender);
+      appender.stop();
+    }
+
+    // The relevant documents, DOC222 and WSJ_1, are ranked first and third: AP = (1/1 + 2/3) / 2.
+    List<String> logs = appender.getLogs();
+    assertTrue(logs.stream().anyMatch(log -> log.endsWith(": map = 0.8333")));
+    assertTrue(logs.stream().anyMatch(log -> log.endsWith(": P_10 = 0.2000")));
+    assertTrue(logs.stream().anyMatch(log -> log.endsWith(": num_rel_ret = 2.0000")));
+    assertTrue(new File("run.test").delete());
+  }
+
   @Test
   public void testSearchLucene8() throws Exception {
     SearchCollection.main(new String[] {
@@ -17,6 +17,9 @@
 package io.anserini.search;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
@@ -285,6 +288,94 @@ public class SearchFlatDenseVectorsTest extends StdOutStdErrRedirectableLuceneTe
     new File(runfile).delete();
   }
 
+  @Test
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  public void testBatchAda2() throws Exception {
+    String indexPath = "target/lucene-test-index.flat." + System.currentTimeMillis();
+    String[] indexArgs = new String[] {
+        "-collection", "JsonDenseVectorCollection",
+        "-input", "src/test/resources/sample_docs/openai_ada2/json_vector",
+        "-index", indexPath,
+        "-generator", "DenseVectorDocumentGenerator",
+        "-threads", "1"
+    };
+
+    IndexFlatDenseVectors.main(indexArgs);
+
+    String runfile = "target/run-" + System.currentTimeMillis();
+    String[] searchArgs = new String[] {
+        "-index", indexPath,
+        "-topics", "src/test/resources/sample_topics/sample-topics.msmarco-passage-dev-openai-ada2.jsonl",
+        "-output", runfile,
+        "-generator", "VectorQueryGenerator",
+        "-topicReader", "JsonIntVector",
+        "-topicField", "vector",
+        "-hits", "100"};
+    SearchFlatDenseVectors.main(searchArgs);
+
+    // Searching in batch, in blocks smaller than the number of topics, gives exactly the same run.
+    String batchRunfile = runfile + ".batch";
+    String[] batchSearchArgs = Arrays.copyOf(searchArgs, searchArgs.length + 5);
+    batchSearchArgs[5] = batchRunfile;
+    System.arraycopy(new String[] {"-flat.batch", "-flat.queryBlockSize", "1", "-threads", "2"}, 0,
+        batchSearchArgs, searchArgs.length, 5);
+    SearchFlatDenseVectors.main(batchSearchArgs);
+
+    assertEquals(200, Files.readAllLines(Path.of(batchRunfile)).size());
+    assertEquals(Files.readAllLines(Path.of(runfile)), Files.readAllLines(Path.of(batchRunfile)));
+
+    new File(runfile).delete();
+    new File(batchRunfile).delete();
+  }
+
+  @Test
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  public void testQuantizedBinaryAda2() throws Exception {
+    String indexPath = "target/lucene-test-index.flat." + System.currentTimeMillis();
+    String quantizedIndexPath = indexPath + ".binary";
+    String[] indexArgs = new String[] {
+        "-collection", "JsonDenseVectorCollection",
+        "-input", "src/test/resources/sample_docs/openai_ada2/json_vector",
+        "-index", indexPath,
+        "-generator", "DenseVectorDocumentGenerator",
+        "-threads", "1"
+    };
+    IndexFlatDenseVectors.main(indexArgs);
+
+    String[] quantizedIndexArgs = Arrays.copyOf(indexArgs, indexArgs.length + 1);
+    quantizedIndexArgs[5] = quantizedIndexPath;
+    quantizedIndexArgs[indexArgs.length] = "-quantize.binary";
+    IndexFlatDenseVectors.main(quantizedIndexArgs);
+
+    String runfile = "target/run-" + System.currentTimeMillis();
+    String[] searchArgs = new String[] {
+        "-index", indexPath,
+        "-topics", "src/test/resources/sample_topics/sample-topics.msmarco-passage-dev-openai-ada2.jsonl",
+        "-output", runfile,
+        "-generator", "VectorQueryGenerator",
+        "-topicReader", "JsonIntVector",
+        "-topicField", "vector",
+        "-hits", "100"};
+    SearchFlatDenseVectors.main(searchArgs);
+
+    // Every document is a candidate, so rescoring with the float vectors gives exactly the same run.
+    for (String bits : new String[] {"8", "1"}) {
+      String quantizedRunfile = runfile + "." + bits;
+      String[] quantizedSearchArgs = Arrays.copyOf(searchArgs, searchArgs.length + 4);
+      quantizedSearchArgs[1] = quantizedIndexPath;
+      quantizedSearchArgs[5] = quantizedRunfile;
+      System.arraycopy(new String[] {"-quantized.bits", bits, "-quantized.oversample", "1"}, 0,
+          quantizedSearchArgs, searchArgs.length, 4);
+      SearchFlatDenseVectors.main(quantizedSearchArgs);
+
+      assertEquals(200, Files.readAllLines(Path.of(quantizedRunfile)).size());
+      assertEquals(Files.readAllLines(Path.of(runfile)), Files.readAllLines(Path.of(quantizedRunfile)));
+      new File(quantizedRunfile).delete();
+    }
+
+    new File(runfile).delete();
+  }
+
   @Test
   @SuppressWarnings("ResultOfMethodCallIgnored")
   public void testBasicCosDpr() throws Exception {
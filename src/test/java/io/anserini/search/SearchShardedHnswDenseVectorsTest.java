@@ -16,11 +16,14 @@
 
 package io.anserini.search;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
@@ -123,6 +126,16 @@ public class SearchShardedHnswDenseVectorsTest {
     assertTrue("Output file doesn't exist: " + runfile, f.exists());
     assertTrue("Output file is empty: " + runfile, f.length() > 0);
 
+    // Both shards hold the same three documents, so each shows up twice in the merged ranked list, in global rank
+    // order; no per-shard run files are written.
+    List<String> lines = Files.readAllLines(Paths.get(runfile));
+    assertEquals(6, lines.size());
+    for (int i = 0; i < lines.size(); i++) {
+      assertEquals(String.valueOf(i + 1), lines.get(i).split(" ")[3]);
+    }
+    assertEquals(lines.get(0).split(" ")[2], lines.get(1).split(" ")[2]);
+    assertFalse(Files.exists(Paths.get(runfile + ".shard00")));
+
     f.delete();
   }
 }
@@ -0,0 +1,167 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import io.anserini.index.Constants;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class ShardedHnswDenseSearcherTest extends LuceneTestCase {
+  private static final int NUM_DOCS = 300;
+  private static final int DIMENSION = 8;
+
+  private static void index(Path path, List<String> docids, List<float[]> vectors) throws IOException {
+    try (FSDirectory dir = FSDirectory.open(path);
+         IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+      for (int i = 0; i < docids.size(); i++) {
+        Document doc = new Document();
+        doc.add(new StringField(Constants.ID, docids.get(i), Field.Store.YES));
+        doc.add(new BinaryDocValuesField(Constants.ID, new BytesRef(docids.get(i))));
+        doc.add(new KnnFloatVectorField(Constants.VECTOR, vectors.get(i), VectorSimilarityFunction.DOT_PRODUCT));
+        writer.addDocument(doc);
+      }
+    }
+  }
+
+  private static float[] randomUnitVector(Random random) {
+    float[] vector = new float[DIMENSION];
+    double norm = 0;
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = (float) random.nextGaussian();
+      norm += vector[i] * vector[i];
+    }
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] /= (float) Math.sqrt(norm);
+    }
+    return vector;
+  }
+
+  private static HnswDenseSearcher.Args args(String index) {
+    HnswDenseSearcher.Args args = new HnswDenseSearcher.Args();
+    args.index = index;
+    // Large enough for the graph search to be exhaustive, so that results are exact.
+    args.efSearch = 1000;
+    args.threads = 2;
+    return args;
+  }
+
+  @Test
+  public void testSameAsSingleIndex() throws IOException {
+    Random random = new Random(42);
+    List<String> docids = new ArrayList<>();
+    List<float[]> vectors = new ArrayList<>();
+    for (int i = 0; i < NUM_DOCS; i++) {
+      docids.add(String.format(Locale.ROOT, "doc%03d", i));
+      // Every tenth document duplicates the vector of the previous one, so that there are score ties across shards.
+      vectors.add(i % 10 == 1 ? vectors.get(i - 1) : randomUnitVector(random));
+    }
+
+    // Documents are dealt out to the shards round-robin.
+    Path single = createTempDir();
+    index(single, docids, vectors);
+    List<String> shardPaths = new ArrayList<>();
+    for (int s = 0; s < 3; s++) {
+      List<String> shardDocids = new ArrayList<>();
+      List<float[]> shardVectors = new ArrayList<>();
+      for (int i = s; i < NUM_DOCS; i += 3) {
+        shardDocids.add(docids.get(i));
+        shardVectors.add(vectors.get(i));
+      }
+      Path shard = createTempDir();
+      index(shard, shardDocids, shardVectors);
+      shardPaths.add(shard.toString());
+    }
+
+    try (HnswDenseSearcher<String> expected = new HnswDenseSearcher<>(args(single.toString()));
+         ShardedHnswDenseSearcher<String> sharded = new ShardedHnswDenseSearcher<>(args(String.join(",", shardPaths)))) {
+      assertEquals(3, sharded.getNumShards());
+      for (int q = 0; q < 20; q++) {
+        // Some queries are document vectors, whose top hits are tied.
+        float[] query = q % 2 == 0 ? vectors.get(random.nextInt(NUM_DOCS)) : randomUnitVector(random);
+        for (int k : new int[] {1, 10, 100}) {
+          ScoredDoc[] expectedHits = expected.search(query, k);
+          ScoredDoc[] shardedHits = sharded.search(query, k);
+          assertEquals(expectedHits.length, shardedHits.length);
+          for (int i = 0; i < expectedHits.length; i++) {
+            assertEquals(expectedHits[i].docid, shardedHits[i].docid);
+            assertEquals(expectedHits[i].score, shardedHits[i].score, 0.0f);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRemoveDuplicatesAcrossShards() throws IOException {
+    Random random = new Random(7);
+    List<String> docids = new ArrayList<>();
+    List<float[]> vectors = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      docids.add(String.format(Locale.ROOT, "doc%02d", i));
+      vectors.add(randomUnitVector(random));
+    }
+    // Both shards hold the same documents.
+    Path shard0 = createTempDir();
+    Path shard1 = createTempDir();
+    index(shard0, docids, vectors);
+    index(shard1, docids, vectors);
+
+    HnswDenseSearcher.Args args = args(shard0 + "," + shard1);
+    try (ShardedHnswDenseSearcher<String> sharded = new ShardedHnswDenseSearcher<>(args)) {
+      ScoredDoc[] hits = sharded.search(vectors.get(0), 10);
+      assertEquals(10, hits.length);
+      // Each document shows up twice in a row, once per shard.
+      assertEquals("doc00", hits[0].docid);
+      assertEquals("doc00", hits[1].docid);
+      assertEquals(hits[2].docid, hits[3].docid);
+    }
+
+    args.removeDuplicates = true;
+    try (ShardedHnswDenseSearcher<String> sharded = new ShardedHnswDenseSearcher<>(args)) {
+      ScoredDoc[] hits = sharded.search(vectors.get(0), 10);
+      assertEquals(5, hits.length);
+      assertEquals("doc00", hits[0].docid);
+      for (int i = 1; i < hits.length; i++) {
+        assertNotEquals(hits[i - 1].docid, hits[i].docid);
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidShard() {
+    expectThrows(IllegalArgumentException.class,
+        () -> new ShardedHnswDenseSearcher<String>(args("src/test/resources/prebuilt_indexes/fake-index-shard00,nonexistent")));
+  }
+}
@@ -20,9 +20,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import io.anserini.index.ForwardIndex;
 import io.anserini.index.IndexerWithoutDocvectorsTestBase;
 
 // This is a variant of SimpleSearcherTest where we use an index that does not store docvectors.
@@ -81,6 +85,38 @@ public class SimpleSearcherWithoutDocvectorsTest extends IndexerWithoutDocvector
     }
   }
 
+  @Test
+  public void testSearch5WithForwardIndex() throws Exception {
+    // With a forward index, relevance feedback no longer needs to parse documents, with the same results.
+    try (Directory dir = FSDirectory.open(super.tempDir1);
+         DirectoryReader reader = DirectoryReader.open(dir)) {
+      ForwardIndex.write(reader);
+    }
+
+    try(SimpleSearcher searcher = new SimpleSearcher(super.tempDir1.toString())) {
+      searcher.set_rm3();
+      assertTrue(searcher.use_rm3());
+
+      ScoredDoc[] results;
+
+      results = searcher.search("text", 1);
+      assertEquals(1, results.length);
+      assertEquals("doc1", results[0].docid);
+      assertEquals(0.14420f, results[0].score, 10e-5);
+
+      Map<String, Float> feedbackTerms = searcher.get_feedback_terms("text");
+      assertEquals(1, feedbackTerms.size());
+      assertEquals(0.5f, feedbackTerms.get("text"), 10e-5);
+
+      results = searcher.search("more");
+      assertEquals(2, results.length);
+      assertEquals("doc2", results[0].docid);
+      assertEquals(0.13660f, results[0].score, 10e-5);
+      assertEquals("doc1", results[1].docid);
+      assertEquals(0.10400f, results[1].score, 10e-5);
+    }
+  }
+
   @Test
   public void testSearch6() throws Exception {
     // Counterpart of testSearch6 in SimpleSearcherTest
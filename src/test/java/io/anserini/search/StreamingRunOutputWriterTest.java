@@ -0,0 +1,170 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamingRunOutputWriterTest extends LuceneTestCase {
+  @BeforeClass
+  public static void setupClass() {
+    Configurator.setLevel(StreamingRunOutputWriter.class.getName(), Level.ERROR);
+  }
+
+  private static ScoredDoc[] hits(String qid, int n) {
+    ScoredDoc[] hits = new ScoredDoc[n];
+    for (int i = 0; i < n; i++) {
+      hits[i] = new ScoredDoc(qid + "_doc" + i, i, n - i, null);
+    }
+    return hits;
+  }
+
+  private static String expected(List<String> qids, int n, Set<String> skipped) {
+    StringBuilder builder = new StringBuilder();
+    for (String qid : qids) {
+      if (skipped.contains(qid)) {
+        continue;
+      }
+      for (int i = 0; i < n; i++) {
+        builder.append(String.format(Locale.US, "%s Q0 %s_doc%d %d %f Anserini\n", qid, qid, i, i + 1, (float) (n - i)));
+      }
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testInOrder() throws Exception {
+    Path run = createTempDir().resolve("run");
+    List<String> qids = new ArrayList<>();
+    List<String> queries = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      qids.add(String.format(Locale.ROOT, "q%03d", i));
+      queries.add("query " + i);
+    }
+
+    Random random = new Random(random().nextLong());
+    Set<String> skipped = Set.of("q007", "q150");
+    AtomicInteger maxBuffered = new AtomicInteger();
+    List<String> listened = new ArrayList<>();
+    Set<String> searched = ConcurrentHashMap.newKeySet();
+
+    try (StreamingRunOutputWriter<String> out = new StreamingRunOutputWriter<>(
+        new RunOutputWriter<String>(run.toString(), "trec", "Anserini", null), 8, (qid, hits) -> listened.add(qid))) {
+      out.search(qids, queries, 4, (qid, query) -> {
+        assertTrue(searched.add(qid));
+        maxBuffered.accumulateAndGet(searched.size() - out.getWritten(), Math::max);
+        try {
+          // Searches finish out of order.
+          Thread.sleep(random.nextInt(3));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        if (skipped.contains(qid)) {
+          throw new IOException("Failed search");
+        }
+        return hits(qid, 3);
+      });
+      assertEquals(200, out.getWritten());
+    }
+
+    assertEquals(expected(qids, 3, skipped), Files.readString(run));
+    assertEquals(198, listened.size());
+    assertEquals(200, searched.size());
+    // No more topics are ever searched than fit in the reorder buffer.
+    assertTrue(maxBuffered.get() <= 8);
+  }
+
+  @Test
+  public void testReorder() throws Exception {
+    Path run = createTempDir().resolve("run");
+    try (StreamingRunOutputWriter<String> out = new StreamingRunOutputWriter<>(
+        new RunOutputWriter<String>(run.toString(), "trec", "Anserini", null), 3, null)) {
+      int a = out.reserve();
+      int b = out.reserve();
+      int c = out.reserve();
+      out.write(c, "c", "", hits("c", 1));
+      out.write(b, "b", "", hits("b", 1));
+      assertEquals(0, out.getWritten());
+      assertEquals("", Files.readString(run));
+
+      out.write(a, "a", "", hits("a", 1));
+      assertEquals(3, out.getWritten());
+      // Topics are flushed as soon as they're written.
+      assertEquals(expected(List.of("a", "b", "c"), 1, Set.of()), Files.readString(run));
+
+      expectThrows(IllegalArgumentException.class, () -> out.write(a, "a", "", hits("a", 1)));
+    }
+  }
+
+  @Test
+  public void testUnwrittenSlot() throws Exception {
+    Path run = createTempDir().resolve("run");
+    StreamingRunOutputWriter<String> out = new StreamingRunOutputWriter<>(
+        new RunOutputWriter<String>(run.toString(), "trec", "Anserini", null), 2, null);
+    out.reserve();
+    expectThrows(IllegalStateException.class, out::close);
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    Path run = createTempDir().resolve("run");
+    List<String> qids = List.of("q1", "q2", "q3", "q4");
+    String full = expected(qids, 3, Set.of());
+
+    // Cut the run at every possible point, resume it, and check that we end up with the full run.
+    for (int cut = 0; cut <= full.length(); cut++) {
+      Files.writeString(run, full.substring(0, cut));
+
+      List<String> todoQids = new ArrayList<>(qids);
+      List<String> todoQueries = new ArrayList<>(qids);
+      int removed = StreamingRunOutputWriter.resume(run, todoQids, todoQueries);
+      assertEquals(qids.size() - removed, todoQids.size());
+      assertEquals(todoQids, todoQueries);
+      // Only whole topics are left in the run; the last topic is dropped unless the qid of a later one was written.
+      int topicLength = full.length() / qids.size();
+      assertEquals(cut % topicLength <= "q1".length() ? Math.max(cut / topicLength - 1, 0) : cut / topicLength, removed);
+      assertEquals(expected(qids.subList(0, removed), 3, Set.of()), Files.readString(run));
+
+      try (StreamingRunOutputWriter<String> out = new StreamingRunOutputWriter<>(
+          new RunOutputWriter<String>(run.toString(), "trec", "Anserini", null, null, true), 2, null)) {
+        out.search(todoQids, todoQueries, 2, (qid, query) -> hits(qid, 3));
+      }
+      assertEquals(full, Files.readString(run));
+    }
+  }
+
+  @Test
+  public void testResumeMissingRun() throws Exception {
+    Path run = createTempDir().resolve("run");
+    assertTrue(StreamingRunOutputWriter.resume(run).isEmpty());
+    assertFalse(Files.exists(run));
+  }
+}
@@ -16,13 +16,17 @@
 
 package io.anserini.search.query;
 
+import io.anserini.encoder.sparse.SparseEncoder;
 import io.anserini.index.IndexCollection;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.Query;
 import org.junit.Test;
 
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -79,4 +83,20 @@ public class BagOfWordsQueryGeneratorTest {
     BooleanQuery booleanQuery = (BooleanQuery) boostQuery.getQuery();
     assertEquals(4, booleanQuery.clauses().size());
   }
+
+  @Test
+  public void testImpactQuery() {
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    weights.put("f1", 3);
+    weights.put("f2", 0);
+    weights.put("##f3", 12);
+
+    BagOfWordsQueryGenerator queryGenerator = new BagOfWordsQueryGenerator();
+    Query query = queryGenerator.buildImpactQuery("contents", weights);
+    Query expanded = queryGenerator.buildQuery("contents", new WhitespaceAnalyzer(), SparseEncoder.flatten(weights));
+
+    // Same clauses as the expanded string, but possibly in a different order.
+    assertEquals(new HashSet<>(((BooleanQuery) expanded).clauses()), new HashSet<>(((BooleanQuery) query).clauses()));
+    assertEquals("(contents:f1)^3.0 (contents:##f3)^12.0", query.toString());
+  }
 }
@@ -0,0 +1,184 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.search.query;
+
+import io.anserini.analysis.ImpactTokenStream;
+import io.anserini.index.Constants;
+import io.anserini.search.similarity.ImpactSimilarity;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ImpactQueryTest extends LuceneTestCase {
+  private static final int NUM_DOCS = 20000;
+  private static final int VOCAB_SIZE = 200;
+  private static final Sort BREAK_SCORE_TIES_BY_DOCID = new Sort(SortField.FIELD_SCORE, SortField.FIELD_DOC);
+
+  private static Directory dir;
+  private static DirectoryReader reader;
+
+  @BeforeClass
+  public static void setUpIndex() throws IOException {
+    // Skewed term distribution and impacts, as with learned sparse representations.
+    Random random = new Random(42);
+    FieldType fieldType = new FieldType();
+    fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+
+    dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer()).setSimilarity(new ImpactSimilarity());
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      for (int i = 0; i < NUM_DOCS; i++) {
+        Map<String, Integer> impacts = new HashMap<>();
+        int len = 5 + random.nextInt(40);
+        for (int j = 0; j < len; j++) {
+          int term = (int) (VOCAB_SIZE * Math.pow(random.nextDouble(), 2));
+          impacts.merge("t" + term, 1 + random.nextInt(random.nextInt(10) == 0 ? 200 : 20), Integer::sum);
+        }
+        Document doc = new Document();
+        doc.add(new Field(Constants.CONTENTS, new ImpactTokenStream(impacts), fieldType));
+        writer.addDocument(doc);
+      }
+      writer.forceMerge(2);
+    }
+    reader = DirectoryReader.open(dir);
+  }
+
+  @AfterClass
+  public static void tearDownIndex() throws IOException {
+    reader.close();
+    dir.close();
+    reader = null;
+    dir = null;
+  }
+
+  private static Map<String, Float> randomQuery(Random random, int numTerms) {
+    Map<String, Float> query = new HashMap<>();
+    for (int i = 0; i < numTerms; i++) {
+      query.put("t" + random.nextInt(VOCAB_SIZE + 10), (float) (1 + random.nextInt(100)));
+    }
+    return query;
+  }
+
+  private static IndexSearcher newSearcher() {
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new ImpactSimilarity());
+    return searcher;
+  }
+
+  private static void assertSameTopDocs(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0f);
+    }
+  }
+
+  @Test
+  public void testSameResultsAsBooleanQuery() throws IOException {
+    IndexSearcher searcher = newSearcher();
+    Random random = new Random(7);
+
+    for (int numTerms : new int[] {1, 5, 30, 120}) {
+      for (int k : new int[] {1, 10, 1000}) {
+        Map<String, Float> weights = randomQuery(random, numTerms);
+        ImpactQuery query = new ImpactQuery(Constants.CONTENTS, weights);
+
+        assertSameTopDocs(searcher.search(query.toBooleanQuery(), k), searcher.search(query, k));
+        assertSameTopDocs(searcher.search(query.toBooleanQuery(), k, BREAK_SCORE_TIES_BY_DOCID, true),
+            searcher.search(query, k, BREAK_SCORE_TIES_BY_DOCID, true));
+      }
+    }
+  }
+
+  @Test
+  public void testSameAsBagOfWords() throws IOException {
+    IndexSearcher searcher = newSearcher();
+    Map<String, Float> weights = Map.of("t0", 3.0f, "t1", 1.0f, "t17", 12.0f, "missing", 5.0f);
+
+    TopDocs expected = searcher.search(new BagOfWordsQueryGenerator().buildQuery(Constants.CONTENTS, weights), 100);
+    assertSameTopDocs(expected, searcher.search(new ImpactQuery(Constants.CONTENTS, weights), 100));
+
+    // Non-scoring searches go through the equivalent BooleanQuery.
+    assertEquals(searcher.count(new ImpactQuery(Constants.CONTENTS, weights).toBooleanQuery()),
+        searcher.count(new ImpactQuery(Constants.CONTENTS, weights)));
+  }
+
+  @Test
+  public void testApproximate() throws IOException {
+    IndexSearcher searcher = newSearcher();
+    Map<String, Float> weights = randomQuery(new Random(11), 60);
+
+    TopDocs exact = searcher.search(new ImpactQuery(Constants.CONTENTS, weights), 10);
+    TopDocs approximate = searcher.search(new ImpactQuery(Constants.CONTENTS, weights, 2.0f), 10);
+
+    // Approximate search returns a subset of the documents with their exact scores, so it can't do better at any rank.
+    assertEquals(exact.scoreDocs.length, approximate.scoreDocs.length);
+    // ... and it visits fewer documents to get there.
+    assertTrue(approximate.totalHits.value < exact.totalHits.value);
+    for (int i = 0; i < approximate.scoreDocs.length; i++) {
+      assertTrue(approximate.scoreDocs[i].score <= exact.scoreDocs[i].score);
+    }
+  }
+
+  @Test
+  public void testExplain() throws IOException {
+    IndexSearcher searcher = newSearcher();
+    ImpactQuery query = new ImpactQuery(Constants.CONTENTS, Map.of("t0", 2.0f, "t3", 1.0f));
+    for (ScoreDoc sd : searcher.search(query, 5).scoreDocs) {
+      Explanation explanation = searcher.explain(query, sd.doc);
+      assertTrue(explanation.isMatch());
+      assertEquals(sd.score, explanation.getValue().floatValue(), 0.0f);
+    }
+  }
+
+  @Test
+  public void testEqualsAndToString() {
+    ImpactQuery q1 = new ImpactQuery(Constants.CONTENTS, Map.of("b", 2.0f, "a", 1.0f, "c", 0.0f));
+    ImpactQuery q2 = new ImpactQuery(Constants.CONTENTS, Map.of("a", 1.0f, "b", 2.0f));
+
+    assertEquals(q1, q2);
+    assertEquals(q1.hashCode(), q2.hashCode());
+    assertNotEquals(q1, new ImpactQuery(Constants.CONTENTS, Map.of("a", 1.0f, "b", 2.0f), 1.2f));
+    assertEquals("ImpactQuery(a^1.0 b^2.0)", q1.toString(Constants.CONTENTS));
+    assertEquals("ImpactQuery(contents:a^1.0 contents:b^2.0)~1.2",
+        new ImpactQuery(Constants.CONTENTS, Map.of("a", 1.0f, "b", 2.0f), 1.2f).toString());
+
+    expectThrows(IllegalArgumentException.class, () -> new ImpactQuery(Constants.CONTENTS, Map.of("a", 1.0f), 0.5f));
+  }
+}
@@ -16,8 +16,11 @@
 
 package io.anserini.search.query;
 
+import io.anserini.analysis.AnalyzerUtils;
+import io.anserini.analysis.SdmBigramAnalyzer;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
@@ -26,14 +29,18 @@ import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queries.spans.SpanNearQuery;
 import org.apache.lucene.queries.spans.SpanQuery;
 import org.apache.lucene.queries.spans.SpanTermQuery;
+import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.tests.util.LuceneTestCase;
@@ -43,6 +50,11 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class SdmQueryTest extends LuceneTestCase {
 
@@ -174,4 +186,145 @@ public class SdmQueryTest extends LuceneTestCase {
 
     reader.close();
   }
+
+  // Stopwords leave gaps in positions, and a small vocabulary makes for many windows and repeated terms.
+  private static final String[] WORDS = new String[] {"fox", "river", "chicken", "bush", "world", "the", "of"};
+
+  private static String randomText(Random random, int maxLength) {
+    StringBuilder sb = new StringBuilder();
+    int length = 1 + random.nextInt(maxLength);
+    for (int i = 0; i < length; i++) {
+      sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+    }
+    return sb.toString();
+  }
+
+  private static Map<Integer, Float> scores(IndexSearcher searcher, Query query) throws IOException {
+    Map<Integer, Float> scores = new HashMap<>();
+    for (ScoreDoc scoreDoc : searcher.search(query, searcher.getIndexReader().maxDoc()).scoreDocs) {
+      scores.put(scoreDoc.doc, scoreDoc.score);
+    }
+    return scores;
+  }
+
+  @Test
+  public void testScoresSameAsSpanQueries() throws Exception {
+    Random random = random();
+    String bigramField = field + "_bigrams";
+    Directory dir = new ByteBuffersDirectory();
+    IndexWriterConfig config = new IndexWriterConfig(new PerFieldAnalyzerWrapper(analyzer,
+        Map.of(bigramField, new SdmBigramAnalyzer(analyzer))));
+    config.setSimilarity(new BM25Similarity());
+    // Several segments, some of which have no bigrams.
+    config.setMergePolicy(NoMergePolicy.INSTANCE);
+
+    FieldType textOptions = new FieldType();
+    textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    textOptions.setTokenized(true);
+    FieldType bigramOptions = new FieldType();
+    bigramOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    bigramOptions.setTokenized(true);
+    bigramOptions.setOmitNorms(true);
+
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      for (int i = 0; i < 200; i++) {
+        String text = randomText(random, 30);
+        Document doc = new Document();
+        doc.add(new Field(field, text, textOptions));
+        if (i < 150) {
+          doc.add(new Field(bigramField, text, bigramOptions));
+        }
+        writer.addDocument(doc);
+        if (i % 50 == 49) {
+          writer.commit();
+        }
+      }
+    }
+
+    try (IndexReader reader = DirectoryReader.open(dir)) {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      searcher.setSimilarity(new BM25Similarity());
+
+      for (int i = 0; i < 50; i++) {
+        String queryText = randomText(random, 5);
+        if (AnalyzerUtils.analyze(analyzer, queryText).isEmpty()) {
+          continue;
+        }
+        float termWeight = i % 5 == 0 ? 0.0f : 0.85f;
+        float orderedWindowWeight = i % 5 == 1 ? 0.0f : 0.1f;
+        float unorderedWindowWeight = i % 5 == 2 ? 0.0f : 0.05f;
+
+        Map<Integer, Float> expected = scores(searcher, new SdmQueryGenerator(termWeight, orderedWindowWeight,
+            unorderedWindowWeight).buildQuery(field, analyzer, queryText));
+        List<Query> queries = new ArrayList<>();
+        queries.add(new SdmQueryGenerator(termWeight, orderedWindowWeight, unorderedWindowWeight, false, null)
+            .buildQuery(field, analyzer, queryText));
+        queries.add(new SdmQueryGenerator(termWeight, orderedWindowWeight, unorderedWindowWeight, false, bigramField)
+            .buildQuery(field, analyzer, queryText));
+
+        for (Query query : queries) {
+          Map<Integer, Float> actual = scores(searcher, query);
+          // Documents that only match with a zero score may or may not be returned by span queries.
+          expected.forEach((doc, score) -> {
+            if (score > 0) {
+              assertTrue(query + " " + doc, actual.containsKey(doc));
+            }
+          });
+          actual.forEach((doc, score) -> {
+            float expectedScore = expected.getOrDefault(doc, 0.0f);
+            assertEquals(query + " " + doc, expectedScore, score, 1e-5f * Math.max(1.0f, expectedScore));
+          });
+        }
+      }
+    }
+    dir.close();
+  }
+
+  @Test
+  public void testExplain() throws Exception {
+    Directory dir = FSDirectory.open(tempDir1);
+    IndexReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity());
+
+    Query query = new SdmQueryGenerator(0.85f, 0.1f, 0.05f, false, null)
+        .buildQuery(field, analyzer, "fox information river");
+    assertEquals("SdmQuery(fox inform river)^(0.85,0.1,0.05)", query.toString(field));
+    TopDocs rs = searcher.search(query, 1);
+    assertEquals(1, rs.scoreDocs.length);
+
+    Explanation explanation = searcher.explain(query, rs.scoreDocs[0].doc);
+    assertTrue(explanation.isMatch());
+    assertEquals(rs.scoreDocs[0].score, explanation.getValue().floatValue(), 1e-6f);
+    assertEquals(3, explanation.getDetails().length);
+    // Three terms, two ordered windows, and two unordered windows.
+    assertEquals(3, explanation.getDetails()[0].getDetails().length);
+    assertEquals(2, explanation.getDetails()[1].getDetails().length);
+    assertEquals(2, explanation.getDetails()[2].getDetails().length);
+
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void testNoPositions() throws Exception {
+    Directory dir = new ByteBuffersDirectory();
+    FieldType textOptions = new FieldType();
+    textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    textOptions.setTokenized(true);
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer))) {
+      Document doc = new Document();
+      doc.add(new Field(field, "fox river", textOptions));
+      writer.addDocument(doc);
+    }
+
+    try (IndexReader reader = DirectoryReader.open(dir)) {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      // Terms alone don't need positions.
+      assertEquals(1, searcher.search(new SdmQuery(field, List.of("fox", "river"), 1.0f, 0.0f, 0.0f), 1).totalHits.value);
+      expectThrows(IllegalStateException.class,
+          () -> searcher.search(new SdmQuery(field, List.of("fox", "river"), 0.85f, 0.1f, 0.05f), 1));
+    }
+    dir.close();
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyHistogramTest extends LuceneTestCase {
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.min());
+    assertEquals(0, histogram.max());
+    assertEquals(0.0, histogram.mean(), 0.0);
+    assertEquals(0, histogram.valueAtPercentile(50));
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 200; i++) {
+      histogram.record(i);
+    }
+    assertEquals(200, histogram.count());
+    assertEquals(1, histogram.min());
+    assertEquals(200, histogram.max());
+    assertEquals(100.5, histogram.mean(), 1e-9);
+    assertEquals(100, histogram.valueAtPercentile(50));
+    assertEquals(180, histogram.valueAtPercentile(90));
+    assertEquals(198, histogram.valueAtPercentile(99));
+    assertEquals(200, histogram.valueAtPercentile(100));
+    assertEquals(1, histogram.valueAtPercentile(0));
+  }
+
+  @Test
+  public void testPercentiles() {
+    Random random = random();
+    for (int iteration = 0; iteration < 10; iteration++) {
+      int n = 1 + random.nextInt(10000);
+      long[] values = new long[n];
+      LatencyHistogram histogram = new LatencyHistogram();
+      LatencyHistogram[] parts = new LatencyHistogram[] {new LatencyHistogram(), new LatencyHistogram()};
+      for (int i = 0; i < n; i++) {
+        // Latencies from microseconds to seconds, in nanoseconds.
+        values[i] = (long) Math.pow(10, 3 + 6 * random.nextDouble());
+        histogram.record(values[i]);
+        parts[random.nextInt(2)].record(values[i]);
+      }
+      Arrays.sort(values);
+
+      // Histograms recorded separately, e.g., by different threads, merge into the same histogram.
+      LatencyHistogram merged = new LatencyHistogram();
+      merged.add(parts[0]);
+      merged.add(parts[1]);
+
+      for (double percentile : new double[] {0, 10, 50, 90, 99, 99.9, 100}) {
+        long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * n) - 1)];
+        long value = histogram.valueAtPercentile(percentile);
+        assertTrue(value >= exact);
+        assertTrue(value <= exact + exact / 128);
+        assertEquals(value, merged.valueAtPercentile(percentile));
+      }
+      assertEquals(values[0], histogram.min());
+      assertEquals(values[n - 1], histogram.max());
+      assertEquals(Arrays.stream(values).average().orElse(0), histogram.mean(), 1e-6);
+      assertEquals(histogram.count(), merged.count());
+      assertEquals(histogram.mean(), merged.mean(), 0.0);
+      assertEquals(histogram.max(), merged.max());
+    }
+  }
+}
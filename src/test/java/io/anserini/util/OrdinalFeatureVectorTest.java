@@ -0,0 +1,127 @@
+/*
+ * Anserini: A Lucene toolkit for reproducible information retrieval research
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.anserini.util;
+
+import org.apache.lucene.tests.util.LuceneTestCase;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OrdinalFeatureVectorTest extends LuceneTestCase {
+  // Same features as FeatureVectorTest, added out of order and with duplicates.
+  private static OrdinalFeatureVector createAndAddFeatureWeights(TermVocabulary vocab) {
+    OrdinalFeatureVector fv = new OrdinalFeatureVector(vocab);
+    fv.addFeatureValue(vocab.add("ds"), 0.2f);
+    fv.addFeatureValue(vocab.add("z"), 0.5f);
+    fv.addFeatureValue(vocab.add("zz"), 0.01f);
+    fv.addFeatureValue(vocab.add("c"), 0.4f);
+    fv.addFeatureValue(vocab.add("a"), 0.2f);
+    fv.addFeatureValue(vocab.add("x"), 0.2f);
+    fv.addFeatureValue(vocab.add("1a"), 0.2f);
+    fv.addFeatureValue(vocab.add("d"), 0.2f);
+    fv.addFeatureValue(vocab.add("d"), 0.4f);
+    return fv;
+  }
+
+  @Test
+  public void testVocabulary() {
+    TermVocabulary vocab = new TermVocabulary();
+    assertEquals(0, vocab.add(new BytesRef("b")));
+    assertEquals(1, vocab.add("a"));
+    assertEquals(0, vocab.add("b"));
+    assertEquals(1, vocab.ordinal("a"));
+    assertEquals(-1, vocab.ordinal("c"));
+    assertEquals("a", vocab.term(1));
+    assertEquals(new BytesRef("b"), vocab.bytes(0));
+    assertTrue(vocab.compare(0, 1) > 0);
+    assertEquals(2, vocab.size());
+  }
+
+  @Test
+  public void testValues() {
+    TermVocabulary vocab = new TermVocabulary();
+    OrdinalFeatureVector fv = createAndAddFeatureWeights(vocab);
+    assertEquals(8, fv.size());
+    for (int i = 1; i < fv.size(); i++) {
+      assertTrue(fv.ordinalAt(i - 1) < fv.ordinalAt(i));
+    }
+    assertEquals(0.6f, fv.getValue(vocab.ordinal("d")), 1e-6f);
+    assertEquals(0.0f, fv.getValue(vocab.add("unseen")), 0.0f);
+    assertTrue(fv.contains(vocab.ordinal("zz")));
+    assertFalse(fv.contains(vocab.ordinal("unseen")));
+    assertEquals(2.31, fv.computeL1Norm(), 1e-6);
+  }
+
+  @Test
+  public void testPruneToSize() {
+    TermVocabulary vocab = new TermVocabulary();
+    // Feature value ties are broken lexicographically, as in FeatureVector.
+    assertEquals("[d=0.6, z=0.5, c=0.4, 1a=0.2, a=0.2, ds=0.2, x=0.2, zz=0.01]",
+        createAndAddFeatureWeights(vocab).toString());
+    assertEquals("[d=0.6, z=0.5, c=0.4, 1a=0.2, a=0.2]", createAndAddFeatureWeights(vocab).pruneToSize(5).toString());
+    assertEquals(1, createAndAddFeatureWeights(vocab).pruneToSize(0).size());
+    assertEquals(8, createAndAddFeatureWeights(vocab).pruneToSize(100).size());
+  }
+
+  @Test
+  public void testSameAsFeatureVector() {
+    Random random = new Random(42);
+    for (int trial = 0; trial < 100; trial++) {
+      TermVocabulary vocab = new TermVocabulary();
+      FeatureVector x = new FeatureVector();
+      FeatureVector y = new FeatureVector();
+      OrdinalFeatureVector ox = new OrdinalFeatureVector(vocab);
+      OrdinalFeatureVector oy = new OrdinalFeatureVector(vocab);
+      for (int i = 0; i < 50; i++) {
+        String term = "t" + random.nextInt(40);
+        // Integer values, so that there are plenty of ties.
+        float value = 1 + random.nextInt(5);
+        if (random.nextBoolean()) {
+          x.addFeatureValue(term, value);
+          ox.addFeatureValue(vocab.add(term), value);
+        } else {
+          y.addFeatureValue(term, value);
+          oy.addFeatureValue(vocab.add(term), value);
+        }
+      }
+      x.pruneToSize(10).scaleToUnitL1Norm();
+      ox.pruneToSize(10).scaleToUnitL1Norm();
+      y.scaleToUnitL2Norm();
+      oy.scaleToUnitL2Norm();
+
+      assertEquals(toMap(FeatureVector.interpolate(x, y, 0.3f)), OrdinalFeatureVector.interpolate(ox, oy, 0.3f).toMap());
+    }
+  }
+
+  @Test
+  public void testInterpolateDifferentVocabularies() {
+    OrdinalFeatureVector x = createAndAddFeatureWeights(new TermVocabulary());
+    OrdinalFeatureVector y = createAndAddFeatureWeights(new TermVocabulary());
+    expectThrows(IllegalArgumentException.class, () -> OrdinalFeatureVector.interpolate(x, y, 0.5f));
+  }
+
+  private static Map<String, Float> toMap(FeatureVector fv) {
+    Map<String, Float> map = new HashMap<>();
+    for (String feature : fv.getFeatures()) {
+      map.put(feature, fv.getValue(feature));
+    }
+    return map;
+  }
+}